@@ -0,0 +1,77 @@
+package ru.buzynnikov.wallet_service.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import ru.buzynnikov.wallet_service.models.Money;
+
+import java.math.BigDecimal;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Арифметика баланса в том виде, в котором она выполняется при свёртке пачки операций:
+ * сравнение с суммой списания, затем сложение или вычитание.
+ * Сравнивается свёртка над {@link BigDecimal} и над суммами в копейках, как в {@link Money}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BalanceArithmeticBenchmark {
+
+    @Param({"64"})
+    public int operations;
+
+    private BigDecimal initialBalance;
+
+    private BigDecimal[] amounts;
+
+    private long[] minorUnits;
+
+    private boolean[] withdrawals;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        initialBalance = new BigDecimal("1000.00");
+        amounts = new BigDecimal[operations];
+        minorUnits = new long[operations];
+        withdrawals = new boolean[operations];
+        for (int i = 0; i < operations; i++) {
+            amounts[i] = BigDecimal.valueOf(random.nextInt(100_000) + 1, 2);
+            minorUnits[i] = Money.of(amounts[i]).minorUnits();
+            withdrawals[i] = random.nextBoolean();
+        }
+    }
+
+    @Benchmark
+    public BigDecimal foldBatch() {
+        BigDecimal balance = initialBalance;
+        for (int i = 0; i < operations; i++) {
+            if (!withdrawals[i]) {
+                balance = balance.add(amounts[i]);
+            } else if (balance.compareTo(amounts[i]) >= 0) {
+                balance = balance.subtract(amounts[i]);
+            }
+        }
+        return balance;
+    }
+
+    @Benchmark
+    public long foldBatchMinorUnits() {
+        long balance = Money.of(initialBalance).minorUnits();
+        for (int i = 0; i < operations; i++) {
+            if (!withdrawals[i]) {
+                balance = Money.addExact(balance, minorUnits[i]);
+            } else if (balance >= minorUnits[i]) {
+                balance = Money.subtractExact(balance, minorUnits[i]);
+            }
+        }
+        return balance;
+    }
+}
@@ -0,0 +1,66 @@
+package ru.buzynnikov.wallet_service.benchmarks;
+
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.buzynnikov.wallet_service.WalletServiceApplication;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Контекст приложения для бенчмарков: профиль {@code test}, отдельная база H2 в памяти и заданное число кошельков.
+ */
+public final class BenchmarkContext implements AutoCloseable {
+
+    private static final String INITIAL_BALANCE = "1000000000.00";
+
+    private final ConfigurableApplicationContext context;
+
+    private final List<UUID> walletIds;
+
+    private BenchmarkContext(ConfigurableApplicationContext context, List<UUID> walletIds) {
+        this.context = context;
+        this.walletIds = walletIds;
+    }
+
+    /**
+     * Запускает приложение без веб-сервера и создаёт {@code walletCount} кошельков с большим балансом.
+     *
+     * @param walletCount количество кошельков.
+     * @param properties  дополнительные свойства приложения.
+     */
+    public static BenchmarkContext start(int walletCount, String... properties) {
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(WalletServiceApplication.class)
+                .web(WebApplicationType.NONE)
+                .profiles("test")
+                .properties("spring.datasource.url=jdbc:h2:mem:bench-" + UUID.randomUUID(),
+                        "logging.level.root=WARN")
+                .properties(properties)
+                .run();
+
+        List<UUID> walletIds = new ArrayList<>(walletCount);
+        for (int i = 0; i < walletCount; i++) {
+            walletIds.add(UUID.randomUUID());
+        }
+        context.getBean(JdbcTemplate.class).batchUpdate(
+                "INSERT INTO wallet (id, balance) VALUES (?, " + INITIAL_BALANCE + ")",
+                walletIds.stream().map(id -> new Object[]{id}).toList());
+        return new BenchmarkContext(context, walletIds);
+    }
+
+    public <T> T getBean(Class<T> type) {
+        return context.getBean(type);
+    }
+
+    public List<UUID> walletIds() {
+        return walletIds;
+    }
+
+    @Override
+    public void close() {
+        context.close();
+    }
+}
@@ -0,0 +1,65 @@
+package ru.buzynnikov.wallet_service.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import ru.buzynnikov.wallet_service.controllers.dto.BalanceOfWalletResponse;
+import ru.buzynnikov.wallet_service.controllers.dto.ChangeAmountRequest;
+import ru.buzynnikov.wallet_service.controllers.dto.OperationType;
+import ru.buzynnikov.wallet_service.models.Money;
+import ru.buzynnikov.wallet_service.services.WalletService;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Пропускная способность {@code WalletService.addDataToChangeBalance} при конкурентных пополнениях
+ * 1, 10 и 10000 кошельков. Каждый вызов дожидается фиксации операции, поэтому измеряется полный путь:
+ * приём, очередь кошелька, пачка и транзакция в H2.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(8)
+public class ChangeBalanceContentionBenchmark {
+
+    private static final Money AMOUNT = Money.of("1.00");
+
+    @Param({"1", "10", "10000"})
+    public int wallets;
+
+    private BenchmarkContext context;
+
+    private WalletService walletService;
+
+    private List<UUID> walletIds;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkContext.start(wallets);
+        walletService = context.getBean(WalletService.class);
+        walletIds = context.walletIds();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public BalanceOfWalletResponse deposit() {
+        UUID walletId = walletIds.get(ThreadLocalRandom.current().nextInt(walletIds.size()));
+        return walletService.addDataToChangeBalance(new ChangeAmountRequest(walletId, OperationType.DEPOSIT, AMOUNT))
+                .join();
+    }
+}
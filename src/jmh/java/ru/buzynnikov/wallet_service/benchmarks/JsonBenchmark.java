@@ -0,0 +1,80 @@
+package ru.buzynnikov.wallet_service.benchmarks;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import ru.buzynnikov.wallet_service.controllers.dto.BalanceOfWalletResponse;
+import ru.buzynnikov.wallet_service.controllers.dto.ChangeAmountRequest;
+import ru.buzynnikov.wallet_service.controllers.dto.OperationType;
+import ru.buzynnikov.wallet_service.models.Money;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Стоимость (де)сериализации DTO API тем же {@link ObjectMapper}, что строит Spring MVC.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class JsonBenchmark {
+
+    private ObjectReader requestReader;
+
+    private ObjectWriter requestWriter;
+
+    private ObjectReader responseReader;
+
+    private ObjectWriter responseWriter;
+
+    private ChangeAmountRequest request;
+
+    private BalanceOfWalletResponse response;
+
+    private String requestJson;
+
+    private String responseJson;
+
+    @Setup
+    public void setUp() throws JsonProcessingException {
+        ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        requestReader = objectMapper.readerFor(ChangeAmountRequest.class);
+        requestWriter = objectMapper.writerFor(ChangeAmountRequest.class);
+        responseReader = objectMapper.readerFor(BalanceOfWalletResponse.class);
+        responseWriter = objectMapper.writerFor(BalanceOfWalletResponse.class);
+        request = new ChangeAmountRequest(UUID.fromString("31c186cd-57fd-40e2-914d-e4b580dd89b1"),
+                OperationType.WITHDRAW, Money.of("1234.56"));
+        response = new BalanceOfWalletResponse(Money.of("98765.43"));
+        requestJson = requestWriter.writeValueAsString(request);
+        responseJson = responseWriter.writeValueAsString(response);
+    }
+
+    @Benchmark
+    public ChangeAmountRequest readChangeAmountRequest() throws JsonProcessingException {
+        return requestReader.readValue(requestJson);
+    }
+
+    @Benchmark
+    public String writeChangeAmountRequest() throws JsonProcessingException {
+        return requestWriter.writeValueAsString(request);
+    }
+
+    @Benchmark
+    public BalanceOfWalletResponse readBalanceOfWalletResponse() throws JsonProcessingException {
+        return responseReader.readValue(responseJson);
+    }
+
+    @Benchmark
+    public String writeBalanceOfWalletResponse() throws JsonProcessingException {
+        return responseWriter.writeValueAsString(response);
+    }
+}
@@ -0,0 +1,64 @@
+package ru.buzynnikov.wallet_service.services;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import ru.buzynnikov.wallet_service.benchmarks.BenchmarkContext;
+import ru.buzynnikov.wallet_service.controllers.dto.ChangeAmountRequest;
+import ru.buzynnikov.wallet_service.controllers.dto.OperationType;
+import ru.buzynnikov.wallet_service.models.Money;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Время применения пачки операций одного кошелька {@link DefaultWalletService#executeBalanceChange}
+ * к базе H2 в зависимости от размера пачки.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ExecuteBalanceChangeBenchmark {
+
+    @Param({"1", "16", "64"})
+    public int batchSize;
+
+    private BenchmarkContext context;
+
+    private DefaultWalletService walletService;
+
+    private UUID walletId;
+
+    private List<ChangeAmountRequest> batch;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkContext.start(1);
+        walletService = context.getBean(DefaultWalletService.class);
+        walletId = context.walletIds().get(0);
+        batch = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            OperationType type = i % 2 == 0 ? OperationType.DEPOSIT : OperationType.WITHDRAW;
+            batch.add(new ChangeAmountRequest(walletId, type, Money.of("10.00")));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<BalanceChangeResult> executeBatch() {
+        return walletService.executeBalanceChange(walletId, batch);
+    }
+}
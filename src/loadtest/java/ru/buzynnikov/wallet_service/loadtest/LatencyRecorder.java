@@ -0,0 +1,57 @@
+package ru.buzynnikov.wallet_service.loadtest;
+
+import java.util.Arrays;
+
+/**
+ * Задержки операций одного клиента в наносекундах. Не потокобезопасен: у каждого клиента свой экземпляр,
+ * экземпляры объединяются после завершения теста.
+ */
+final class LatencyRecorder {
+
+    private long[] values = new long[1 << 16];
+
+    private int size;
+
+    void record(long nanos) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = nanos;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Объединяет задержки нескольких клиентов и сортирует их по возрастанию.
+     */
+    static long[] merge(Iterable<LatencyRecorder> recorders) {
+        int total = 0;
+        for (LatencyRecorder recorder : recorders) {
+            total += recorder.size;
+        }
+        long[] merged = new long[total];
+        int position = 0;
+        for (LatencyRecorder recorder : recorders) {
+            System.arraycopy(recorder.values, 0, merged, position, recorder.size);
+            position += recorder.size;
+        }
+        Arrays.sort(merged);
+        return merged;
+    }
+
+    /**
+     * Возвращает перцентиль отсортированных задержек методом ближайшего ранга.
+     *
+     * @param percentile доля от 0 до 1, например 0.999.
+     * @return задержка в наносекундах или 0, если задержек нет.
+     */
+    static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percentile * sorted.length);
+        return sorted[Math.max(0, Math.min(rank, sorted.length) - 1)];
+    }
+}
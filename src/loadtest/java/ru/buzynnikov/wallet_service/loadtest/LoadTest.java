@@ -0,0 +1,278 @@
+package ru.buzynnikov.wallet_service.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.buzynnikov.wallet_service.WalletServiceApplication;
+import ru.buzynnikov.wallet_service.controllers.dto.ChangeAmountRequest;
+import ru.buzynnikov.wallet_service.controllers.dto.OperationType;
+import ru.buzynnikov.wallet_service.models.Money;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Нагрузочный тест API изменения баланса.
+ *
+ * Запускает встроенный PostgreSQL, поднимает на нём приложение с рабочими миграциями и создаёт кошельки
+ * с одинаковым начальным балансом. Затем клиенты в замкнутом цикле отправляют {@code PATCH /api/v1/wallet}
+ * по выбранному распределению кошельков: после прогрева измеряются задержки и пропускная способность.
+ * После остановки приложения (в режиме {@code memory} остановка сбрасывает балансы в базу данных) проверяются инварианты:
+ * балансы неотрицательны, баланс каждого кошелька равен начальному плюс сумма его журнала операций,
+ * и — если у всех операций известен исход — все подтверждённые операции применены ровно по одному разу.
+ * При нарушении инварианта процесс завершается с кодом 1.
+ *
+ * Запуск: {@code mvn -Ploadtest test-compile exec:exec@run-load-test "-Dloadtest.args=--distribution=zipf --wallet.mode=memory"};
+ * параметры описаны в {@link LoadTestOptions}.
+ */
+public final class LoadTest {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestOptions options = LoadTestOptions.parse(args);
+        LoadTestReport report;
+        EmbeddedPostgres.Builder builder = EmbeddedPostgres.builder();
+        options.postgresConfig().forEach(builder::setServerConfig);
+        try (EmbeddedPostgres postgres = builder.start()) {
+            report = run(options, postgres);
+        }
+        report.print(System.out);
+        Files.createDirectories(options.report().toAbsolutePath().getParent());
+        OBJECT_MAPPER.writerWithDefaultPrettyPrinter().writeValue(options.report().toFile(), report);
+        System.out.println("Отчёт сохранён в " + options.report());
+        if (!report.passed()) {
+            System.exit(1);
+        }
+    }
+
+    private static LoadTestReport run(LoadTestOptions options, EmbeddedPostgres postgres) throws Exception {
+        List<String> arguments = new ArrayList<>(List.of(
+                "--server.port=0",
+                "--spring.datasource.url=jdbc:postgresql://localhost:" + postgres.getPort()
+                        + "/postgres?reWriteBatchedInserts=true",
+                "--spring.datasource.username=postgres",
+                "--spring.datasource.password=postgres",
+                "--spring.datasource.driver-class-name=org.postgresql.Driver",
+                "--logging.level.root=WARN"));
+        options.properties().forEach((name, value) -> arguments.add("--" + name + "=" + value));
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(WalletServiceApplication.class)
+                .run(arguments.toArray(String[]::new));
+
+        UUID[] walletIds = new UUID[options.wallets()];
+        for (int i = 0; i < walletIds.length; i++) {
+            walletIds[i] = UUID.randomUUID();
+        }
+        context.getBean(JdbcTemplate.class).batchUpdate("INSERT INTO wallet (id, balance) VALUES (?, ?)",
+                Arrays.stream(walletIds)
+                        .map(id -> new Object[]{id, options.initialBalance().toBigDecimal()})
+                        .toList());
+
+        URI uri = URI.create("http://localhost:" + ((WebServerApplicationContext) context).getWebServer().getPort()
+                + "/api/v1/wallet");
+        Load load = new Load(options, walletIds, uri);
+        try {
+            load.run();
+        } finally {
+            context.close();
+        }
+
+        long[] latencies = LatencyRecorder.merge(load.recorders);
+        double seconds = options.duration().toNanos() / 1e9;
+        Map<String, Double> latencyMillis = new LinkedHashMap<>();
+        latencyMillis.put("p50", LatencyRecorder.percentile(latencies, 0.50) / 1e6);
+        latencyMillis.put("p99", LatencyRecorder.percentile(latencies, 0.99) / 1e6);
+        latencyMillis.put("p999", LatencyRecorder.percentile(latencies, 0.999) / 1e6);
+        latencyMillis.put("max", LatencyRecorder.percentile(latencies, 1.0) / 1e6);
+        Map<Integer, Long> statuses = new TreeMap<>();
+        load.statuses.forEach((status, count) -> statuses.put(status, count.sum()));
+        return new LoadTestReport(options.distribution(), options.wallets(), options.concurrency(), options.properties(),
+                seconds, latencies.length, latencies.length / seconds, latencyMillis, statuses,
+                load.transportErrors.sum(), checkInvariants(new JdbcTemplate(postgres.getPostgresDatabase()), options,
+                walletIds, load));
+    }
+
+    /**
+     * Проверяет балансы и журнал операций в базе данных после остановки приложения.
+     */
+    private static List<LoadTestReport.Invariant> checkInvariants(JdbcTemplate jdbcTemplate, LoadTestOptions options,
+                                                                  UUID[] walletIds, Load load) {
+        Map<UUID, Long> balances = new HashMap<>();
+        jdbcTemplate.query("SELECT id, balance FROM wallet", rs -> {
+            balances.put(rs.getObject("id", UUID.class), Money.of(rs.getBigDecimal("balance")).minorUnits());
+        });
+        Map<UUID, Long> ledgerSums = new HashMap<>();
+        long[] ledgerRows = new long[1];
+        jdbcTemplate.query("""
+                SELECT wallet_id, SUM(CASE WHEN operation_type IN ('DEPOSIT', 'TRANSFER_IN') THEN amount ELSE -amount END) AS delta,
+                       COUNT(*) AS operations
+                FROM wallet_transaction GROUP BY wallet_id""", rs -> {
+            BigDecimal delta = rs.getBigDecimal("delta");
+            ledgerSums.put(rs.getObject("wallet_id", UUID.class), Money.of(delta.abs()).minorUnits() * delta.signum());
+            ledgerRows[0] += rs.getLong("operations");
+        });
+
+        long initial = options.initialBalance().minorUnits();
+        long negative = balances.values().stream().filter(balance -> balance < 0).count();
+        long ledgerMismatches = 0;
+        long acknowledgedMismatches = 0;
+        for (int i = 0; i < walletIds.length; i++) {
+            long balance = balances.getOrDefault(walletIds[i], Long.MIN_VALUE);
+            if (balance != initial + ledgerSums.getOrDefault(walletIds[i], 0L)) {
+                ledgerMismatches++;
+            }
+            if (balance != initial + load.acknowledged.get(i)) {
+                acknowledgedMismatches++;
+            }
+        }
+        long unknown = load.transportErrors.sum() + load.serverErrors.sum();
+        long acknowledgedCount = load.acknowledgedCount.sum();
+
+        List<LoadTestReport.Invariant> invariants = new ArrayList<>();
+        invariants.add(new LoadTestReport.Invariant("балансы неотрицательны",
+                negative == 0, negative == 0 ? null : "кошельков с отрицательным балансом: " + negative));
+        invariants.add(new LoadTestReport.Invariant("баланс равен начальному плюс сумма журнала операций",
+                ledgerMismatches == 0, ledgerMismatches == 0 ? null : "расхождений: " + ledgerMismatches));
+        if (unknown > 0) {
+            String reason = "исход неизвестен у операций: " + unknown;
+            invariants.add(new LoadTestReport.Invariant("подтверждённые операции применены", null, reason));
+            invariants.add(new LoadTestReport.Invariant("записей журнала столько же, сколько подтверждённых операций",
+                    null, reason));
+        } else {
+            invariants.add(new LoadTestReport.Invariant("подтверждённые операции применены",
+                    acknowledgedMismatches == 0,
+                    acknowledgedMismatches == 0 ? null : "кошельков с расхождением: " + acknowledgedMismatches));
+            invariants.add(new LoadTestReport.Invariant("записей журнала столько же, сколько подтверждённых операций",
+                    ledgerRows[0] == acknowledgedCount,
+                    ledgerRows[0] == acknowledgedCount ? null
+                            : "записей " + ledgerRows[0] + ", подтверждено " + acknowledgedCount));
+        }
+        return invariants;
+    }
+
+    /**
+     * Клиенты нагрузочного теста и собранные ими результаты.
+     */
+    private static final class Load {
+
+        private final LoadTestOptions options;
+
+        private final UUID[] walletIds;
+
+        private final URI uri;
+
+        private final WalletDistribution distribution;
+
+        private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+        private final List<LatencyRecorder> recorders = new ArrayList<>();
+
+        private final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+
+        /**
+         * Сумма подтверждённых операций каждого кошелька в копейках.
+         */
+        private final AtomicLongArray acknowledged;
+
+        private final LongAdder acknowledgedCount = new LongAdder();
+
+        private final LongAdder transportErrors = new LongAdder();
+
+        private final LongAdder serverErrors = new LongAdder();
+
+        private Load(LoadTestOptions options, UUID[] walletIds, URI uri) {
+            this.options = options;
+            this.walletIds = walletIds;
+            this.uri = uri;
+            this.distribution = WalletDistribution.of(options.distribution(), walletIds.length, options.zipfExponent());
+            this.acknowledged = new AtomicLongArray(walletIds.length);
+        }
+
+        private void run() throws Exception {
+            long measureFrom = System.nanoTime() + options.warmup().toNanos();
+            long deadline = measureFrom + options.duration().toNanos();
+            ExecutorService clients = Executors.newFixedThreadPool(options.concurrency());
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (int i = 0; i < options.concurrency(); i++) {
+                    LatencyRecorder recorder = new LatencyRecorder();
+                    recorders.add(recorder);
+                    futures.add(clients.submit(() -> {
+                        runClient(recorder, measureFrom, deadline);
+                        return null;
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } finally {
+                clients.shutdownNow();
+            }
+        }
+
+        private void runClient(LatencyRecorder recorder, long measureFrom, long deadline) throws IOException {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long maxAmount = options.maxAmount().minorUnits();
+            while (System.nanoTime() < deadline) {
+                int index = distribution.next(random);
+                boolean withdraw = random.nextDouble() < options.withdrawRatio();
+                long amount = 1 + random.nextLong(maxAmount);
+                HttpRequest request = HttpRequest.newBuilder(uri)
+                        .header("Content-Type", "application/json")
+                        .method("PATCH", HttpRequest.BodyPublishers.ofString(OBJECT_MAPPER.writeValueAsString(
+                                new ChangeAmountRequest(walletIds[index],
+                                        withdraw ? OperationType.WITHDRAW : OperationType.DEPOSIT,
+                                        Money.ofMinorUnits(amount)))))
+                        .build();
+                long start = System.nanoTime();
+                int status;
+                try {
+                    status = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+                } catch (IOException e) {
+                    transportErrors.increment();
+                    continue;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                long end = System.nanoTime();
+                if (start >= measureFrom) {
+                    recorder.record(end - start);
+                    statuses.computeIfAbsent(status, key -> new LongAdder()).increment();
+                }
+                if (status == 200) {
+                    acknowledged.addAndGet(index, withdraw ? -amount : amount);
+                    acknowledgedCount.increment();
+                } else if (status >= 500) {
+                    serverErrors.increment();
+                }
+            }
+        }
+    }
+}
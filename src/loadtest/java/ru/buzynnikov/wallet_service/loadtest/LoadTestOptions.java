@@ -0,0 +1,86 @@
+package ru.buzynnikov.wallet_service.loadtest;
+
+import org.springframework.boot.convert.DurationStyle;
+import ru.buzynnikov.wallet_service.models.Money;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Параметры нагрузочного теста. Задаются аргументами вида {@code --name=value}; аргументы с префиксом {@code postgres.},
+ * например {@code --postgres.synchronous_commit=off}, становятся настройками встроенного PostgreSQL, а остальные аргументы
+ * с точкой в имени, например {@code --wallet.mode=memory}, передаются запускаемому приложению как свойства.
+ *
+ * @param wallets        число кошельков.
+ * @param distribution   распределение операций по кошелькам: {@code uniform}, {@code zipf} или {@code single}.
+ * @param zipfExponent   показатель распределения Ципфа; чем больше, тем сильнее нагрузка на самые популярные кошельки.
+ * @param concurrency    число одновременно работающих клиентов.
+ * @param warmup         длительность прогрева; задержки прогрева в отчёт не входят.
+ * @param duration       длительность измерения.
+ * @param withdrawRatio  доля списаний среди операций.
+ * @param initialBalance начальный баланс каждого кошелька.
+ * @param maxAmount      наибольшая сумма операции; сумма выбирается случайно от 0.01.
+ * @param report         файл отчёта в формате JSON.
+ * @param properties     свойства приложения.
+ * @param postgresConfig настройки встроенного PostgreSQL.
+ */
+record LoadTestOptions(int wallets,
+                       String distribution,
+                       double zipfExponent,
+                       int concurrency,
+                       Duration warmup,
+                       Duration duration,
+                       double withdrawRatio,
+                       Money initialBalance,
+                       Money maxAmount,
+                       Path report,
+                       Map<String, String> properties,
+                       Map<String, String> postgresConfig) {
+
+    /**
+     * Разбирает аргументы командной строки; не указанные параметры получают значения по умолчанию.
+     *
+     * @throws IllegalArgumentException если аргумент не распознан.
+     */
+    static LoadTestOptions parse(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        Map<String, String> properties = new LinkedHashMap<>();
+        Map<String, String> postgresConfig = new LinkedHashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Аргумент должен иметь вид --name=value: " + arg);
+            }
+            String name = arg.substring(2, arg.indexOf('='));
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (name.startsWith("postgres.")) {
+                postgresConfig.put(name.substring("postgres.".length()), value);
+            } else {
+                (name.contains(".") ? properties : options).put(name, value);
+            }
+        }
+        LoadTestOptions parsed = new LoadTestOptions(
+                Integer.parseInt(take(options, "wallets", "1000")),
+                take(options, "distribution", "uniform"),
+                Double.parseDouble(take(options, "zipf-exponent", "1.1")),
+                Integer.parseInt(take(options, "concurrency", "64")),
+                DurationStyle.detectAndParse(take(options, "warmup", "5s")),
+                DurationStyle.detectAndParse(take(options, "duration", "30s")),
+                Double.parseDouble(take(options, "withdraw-ratio", "0.3")),
+                Money.of(take(options, "initial-balance", "1000.00")),
+                Money.of(take(options, "max-amount", "10.00")),
+                Path.of(take(options, "report", "target/loadtest-report.json")),
+                properties,
+                postgresConfig);
+        if (!options.isEmpty()) {
+            throw new IllegalArgumentException("Неизвестные параметры: " + options.keySet());
+        }
+        return parsed;
+    }
+
+    private static String take(Map<String, String> options, String name, String defaultValue) {
+        String value = options.remove(name);
+        return value != null ? value : defaultValue;
+    }
+}
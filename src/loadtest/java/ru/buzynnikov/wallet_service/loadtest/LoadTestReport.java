@@ -0,0 +1,65 @@
+package ru.buzynnikov.wallet_service.loadtest;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Отчёт нагрузочного теста; сохраняется в формате JSON и выводится в консоль.
+ *
+ * @param distribution    распределение операций по кошелькам.
+ * @param wallets         число кошельков.
+ * @param concurrency     число одновременно работающих клиентов.
+ * @param properties      свойства приложения, переданные тесту.
+ * @param seconds         длительность измерения в секундах.
+ * @param operations      число операций, начатых за время измерения.
+ * @param throughput      операций в секунду за время измерения.
+ * @param latencyMillis   задержки за время измерения в миллисекундах: {@code p50}, {@code p99}, {@code p999}, {@code max}.
+ * @param statuses        число ответов за время измерения по HTTP-кодам.
+ * @param transportErrors число операций без ответа за всё время теста, включая прогрев.
+ * @param invariants      результаты проверки балансов после остановки приложения.
+ */
+record LoadTestReport(String distribution,
+                      int wallets,
+                      int concurrency,
+                      Map<String, String> properties,
+                      double seconds,
+                      long operations,
+                      double throughput,
+                      Map<String, Double> latencyMillis,
+                      Map<Integer, Long> statuses,
+                      long transportErrors,
+                      List<Invariant> invariants) {
+
+    /**
+     * Результат проверки одного инварианта.
+     *
+     * @param name   название инварианта.
+     * @param passed {@code true}, если инвариант выполняется; {@code null}, если проверка пропущена.
+     * @param detail описание нарушения или причины пропуска.
+     */
+    record Invariant(String name, Boolean passed, String detail) {
+    }
+
+    /**
+     * Возвращает {@code true}, если ни один инвариант не нарушен.
+     */
+    boolean passed() {
+        return invariants.stream().noneMatch(invariant -> Boolean.FALSE.equals(invariant.passed()));
+    }
+
+    void print(PrintStream out) {
+        out.printf("Нагрузочный тест: распределение %s, кошельков %d, клиентов %d, свойства %s%n",
+                distribution, wallets, concurrency, properties);
+        out.printf("Операций: %d за %.1f с, пропускная способность %.1f оп/с%n", operations, seconds, throughput);
+        out.printf("Задержка, мс: p50 %.3f, p99 %.3f, p999 %.3f, max %.3f%n", latencyMillis.get("p50"),
+                latencyMillis.get("p99"), latencyMillis.get("p999"), latencyMillis.get("max"));
+        out.printf("Ответы: %s, без ответа: %d%n", statuses, transportErrors);
+        out.println("Инварианты:");
+        for (Invariant invariant : invariants) {
+            String result = invariant.passed() == null ? "SKIP" : invariant.passed() ? "OK" : "FAIL";
+            out.printf("  [%s] %s%s%n", result, invariant.name(),
+                    invariant.detail() != null ? ": " + invariant.detail() : "");
+        }
+    }
+}
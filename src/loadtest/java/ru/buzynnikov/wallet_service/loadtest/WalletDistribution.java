@@ -0,0 +1,50 @@
+package ru.buzynnikov.wallet_service.loadtest;
+
+import java.util.Arrays;
+import java.util.random.RandomGenerator;
+
+/**
+ * Распределение операций по кошелькам: возвращает номер кошелька для очередной операции.
+ */
+interface WalletDistribution {
+
+    /**
+     * @param random источник случайных чисел вызывающего потока.
+     * @return номер кошелька от 0 до числа кошельков, не включая его.
+     */
+    int next(RandomGenerator random);
+
+    /**
+     * Создаёт распределение по имени.
+     *
+     * @param name         {@code uniform} — все кошельки равновероятны; {@code zipf} — вероятность кошелька
+     *                     с номером k пропорциональна {@code 1 / (k + 1)^exponent}; {@code single} — все операции к одному кошельку.
+     * @param wallets      число кошельков.
+     * @param zipfExponent показатель распределения Ципфа.
+     */
+    static WalletDistribution of(String name, int wallets, double zipfExponent) {
+        return switch (name) {
+            case "uniform" -> random -> random.nextInt(wallets);
+            case "zipf" -> zipf(wallets, zipfExponent);
+            case "single" -> random -> 0;
+            default -> throw new IllegalArgumentException("Неизвестное распределение: " + name);
+        };
+    }
+
+    /**
+     * Распределение Ципфа: номер кошелька ищется двоичным поиском по заранее вычисленной функции распределения.
+     */
+    private static WalletDistribution zipf(int wallets, double exponent) {
+        double[] cumulative = new double[wallets];
+        double sum = 0;
+        for (int k = 0; k < wallets; k++) {
+            sum += 1 / Math.pow(k + 1, exponent);
+            cumulative[k] = sum;
+        }
+        double total = sum;
+        return random -> {
+            int index = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+            return Math.min(index >= 0 ? index : -index - 1, wallets - 1);
+        };
+    }
+}
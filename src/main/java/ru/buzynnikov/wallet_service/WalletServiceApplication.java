@@ -2,8 +2,16 @@ package ru.buzynnikov.wallet_service;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.ConfigurationPropertiesScan;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
-@SpringBootApplication
+/**
+ * Сервлетный вариант сервиса кошельков. Автоконфигурация R2DBC отключена: при сборке с профилем {@code reactive}
+ * её классы есть в classpath, и без исключения пул соединений JDBC не создаётся.
+ */
+@SpringBootApplication(excludeName = "org.springframework.boot.autoconfigure.r2dbc.R2dbcAutoConfiguration")
+@ConfigurationPropertiesScan
+@EnableScheduling
 public class WalletServiceApplication {
 
 	public static void main(String[] args) {
@@ -0,0 +1,180 @@
+package ru.buzynnikov.wallet_service.cluster;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.buzynnikov.wallet_service.config.WalletProperties;
+import ru.buzynnikov.wallet_service.models.PartitionLease;
+import ru.buzynnikov.wallet_service.repositories.WalletPartitionLeaseRepository;
+import ru.buzynnikov.wallet_service.services.WalletBalanceCache;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Назначение разделов через аренду в базе данных. Используется при {@code wallet.cluster.assignment=lease}.
+ *
+ * Каждый экземпляр периодически ({@code wallet.cluster.lease-renew-interval}) отмечается живым в таблице
+ * {@code wallet_node}, продлевает аренду своих разделов и захватывает свободные или просроченные разделы,
+ * пока не наберёт равную долю от числа живых экземпляров; разделы сверх доли освобождаются для новых экземпляров.
+ * Экземпляр считает раздел своим только две трети срока аренды с начала продления, поэтому перестаёт принимать
+ * операции раньше, чем раздел сможет захватить другой экземпляр. Часы экземпляров должны расходиться
+ * меньше чем на треть срока аренды.
+ */
+@Component
+@ConditionalOnProperty(prefix = "wallet.cluster", name = "assignment", havingValue = "lease")
+public class LeasedWalletOwnership implements WalletOwnership {
+
+    private static final Logger log = LoggerFactory.getLogger(LeasedWalletOwnership.class);
+
+    private final WalletPartitionLeaseRepository repository;
+
+    private final WalletBalanceCache balanceCache;
+
+    private final String nodeId;
+
+    private final String nodeUrl;
+
+    private final int partitions;
+
+    private final Duration leaseDuration;
+
+    private final Duration retryAfter;
+
+    /**
+     * Момент по {@link System#nanoTime()}, до которого этот экземпляр владеет разделом; 0 — не владеет.
+     */
+    private final AtomicLongArray ownedUntil;
+
+    /**
+     * Базовые адреса владельцев разделов по последнему чтению таблицы аренды; {@code null} — владелец не определён.
+     */
+    private final AtomicReferenceArray<String> owners;
+
+    public LeasedWalletOwnership(WalletPartitionLeaseRepository repository, WalletBalanceCache balanceCache,
+                                 WalletProperties properties) {
+        WalletProperties.Cluster cluster = properties.cluster();
+        if (cluster.nodeUrl() == null || cluster.nodeUrl().isBlank()) {
+            throw new IllegalStateException("Не задан адрес экземпляра wallet.cluster.node-url.");
+        }
+        this.repository = repository;
+        this.balanceCache = balanceCache;
+        this.nodeId = cluster.effectiveNodeId();
+        this.nodeUrl = cluster.nodeUrl();
+        this.partitions = cluster.partitions();
+        this.leaseDuration = cluster.leaseDuration();
+        this.retryAfter = properties.executor().retryAfter();
+        this.ownedUntil = new AtomicLongArray(partitions);
+        this.owners = new AtomicReferenceArray<>(partitions);
+    }
+
+    /**
+     * Создаёт записи разделов и арендует долю разделов до начала приёма запросов.
+     */
+    @PostConstruct
+    public void start() {
+        repository.createPartitions(partitions);
+        renew();
+    }
+
+    @Override
+    public void requireOwned(UUID walletId) {
+        int partition = WalletOwnership.partitionOf(walletId, partitions);
+        if (ownedUntil.get(partition) - System.nanoTime() > 0) {
+            return;
+        }
+        String owner = owners.get(partition);
+        throw WalletOwnership.notOwned(walletId, nodeUrl.equals(owner) ? null : owner, retryAfter);
+    }
+
+    /**
+     * Продлевает аренду своих разделов, освобождает разделы сверх равной доли и захватывает свободные.
+     * Если база данных недоступна, аренда не продлевается, и разделы перестают считаться своими по истечении срока.
+     */
+    @Scheduled(fixedDelayString = "${wallet.cluster.lease-renew-interval:PT10S}")
+    public void renew() {
+        long started = System.nanoTime();
+        Instant now = Instant.now();
+        Instant expiresAt = now.plus(leaseDuration);
+        try {
+            repository.heartbeat(nodeId, nodeUrl, expiresAt);
+            int liveNodes = Math.max(1, repository.countLiveNodes(now));
+            int fairShare = (partitions + liveNodes - 1) / liveNodes;
+            List<PartitionLease> leases = repository.findAll();
+
+            List<Integer> held = new ArrayList<>();
+            for (PartitionLease lease : leases) {
+                if (nodeId.equals(lease.nodeId())
+                        && repository.acquire(lease.partition(), nodeId, nodeUrl, expiresAt, now)) {
+                    held.add(lease.partition());
+                }
+            }
+            while (held.size() > fairShare) {
+                int partition = held.remove(held.size() - 1);
+                ownedUntil.set(partition, 0);
+                repository.release(partition, nodeId);
+            }
+            boolean acquired = false;
+            for (PartitionLease lease : leases) {
+                if (held.size() >= fairShare) {
+                    break;
+                }
+                boolean free = lease.nodeId() == null || lease.expiresAt().isBefore(now);
+                if (free && !nodeId.equals(lease.nodeId())
+                        && repository.acquire(lease.partition(), nodeId, nodeUrl, expiresAt, now)) {
+                    held.add(lease.partition());
+                    acquired = true;
+                }
+            }
+            if (acquired) {
+                // Балансы захваченных кошельков могли измениться на предыдущем владельце.
+                balanceCache.invalidateAll();
+            }
+
+            long deadline = started + leaseDuration.toNanos() * 2 / 3;
+            for (PartitionLease lease : leases) {
+                int partition = lease.partition();
+                if (partition >= partitions) {
+                    continue;
+                }
+                if (held.contains(partition)) {
+                    ownedUntil.set(partition, deadline);
+                    owners.set(partition, nodeUrl);
+                } else {
+                    ownedUntil.set(partition, 0);
+                    owners.set(partition, lease.nodeId() != null && lease.expiresAt().isAfter(now)
+                            && !nodeId.equals(lease.nodeId()) ? lease.nodeUrl() : null);
+                }
+            }
+        } catch (DataAccessException e) {
+            log.warn("Не удалось продлить аренду разделов кошельков: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Освобождает разделы этого экземпляра при остановке, чтобы их сразу могли захватить другие экземпляры.
+     */
+    @PreDestroy
+    public void stop() {
+        try {
+            for (int partition = 0; partition < partitions; partition++) {
+                if (ownedUntil.getAndSet(partition, 0) != 0) {
+                    repository.release(partition, nodeId);
+                }
+            }
+            repository.deleteNode(nodeId);
+        } catch (DataAccessException e) {
+            log.warn("Не удалось освободить разделы кошельков: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package ru.buzynnikov.wallet_service.cluster;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.UUID;
+
+/**
+ * Все кошельки обслуживает этот экземпляр. Используется при {@code wallet.cluster.assignment=none} (по умолчанию).
+ */
+@Component
+@ConditionalOnProperty(prefix = "wallet.cluster", name = "assignment", havingValue = "none", matchIfMissing = true)
+public class SingleNodeWalletOwnership implements WalletOwnership {
+
+    @Override
+    public void requireOwned(UUID walletId) {
+    }
+}
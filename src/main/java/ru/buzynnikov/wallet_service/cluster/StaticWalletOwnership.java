@@ -0,0 +1,49 @@
+package ru.buzynnikov.wallet_service.cluster;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import ru.buzynnikov.wallet_service.config.WalletProperties;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Статическое назначение разделов: раздел {@code p} принадлежит экземпляру {@code nodes[p % nodes.size()]}
+ * из конфигурации. Изменение списка экземпляров требует одновременного перезапуска всех экземпляров.
+ * Используется при {@code wallet.cluster.assignment=static}.
+ */
+@Component
+@ConditionalOnProperty(prefix = "wallet.cluster", name = "assignment", havingValue = "static")
+public class StaticWalletOwnership implements WalletOwnership {
+
+    private final List<String> nodes;
+
+    private final int partitions;
+
+    private final int self;
+
+    private final Duration retryAfter;
+
+    public StaticWalletOwnership(WalletProperties properties) {
+        WalletProperties.Cluster cluster = properties.cluster();
+        this.nodes = List.copyOf(cluster.nodes());
+        this.partitions = cluster.partitions();
+        this.self = nodes.indexOf(cluster.nodeUrl());
+        this.retryAfter = properties.executor().retryAfter();
+        if (self < 0) {
+            throw new IllegalStateException("Адрес экземпляра wallet.cluster.node-url не найден в списке wallet.cluster.nodes.");
+        }
+        if (partitions < nodes.size()) {
+            throw new IllegalStateException("Число разделов меньше числа экземпляров.");
+        }
+    }
+
+    @Override
+    public void requireOwned(UUID walletId) {
+        int owner = WalletOwnership.partitionOf(walletId, partitions) % nodes.size();
+        if (owner != self) {
+            throw WalletOwnership.notOwned(walletId, nodes.get(owner), retryAfter);
+        }
+    }
+}
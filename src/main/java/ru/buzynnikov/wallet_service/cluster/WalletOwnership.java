@@ -0,0 +1,49 @@
+package ru.buzynnikov.wallet_service.cluster;
+
+import ru.buzynnikov.wallet_service.exceptions.WalletNotOwnedException;
+
+import java.time.Duration;
+import java.util.UUID;
+
+/**
+ * Принадлежность кошельков экземплярам сервиса.
+ *
+ * Операции одного кошелька упорядочены только внутри одного процесса, поэтому каждый кошелёк обслуживается
+ * ровно одним экземпляром. Кошельки делятся на разделы по хешу идентификатора, и разделы назначаются экземплярам;
+ * запросы к чужим кошелькам перенаправляются владельцу.
+ */
+public interface WalletOwnership {
+
+    /**
+     * Проверяет, что кошелёк обслуживается этим экземпляром.
+     *
+     * @param walletId идентификатор кошелька.
+     * @throws WalletNotOwnedException если кошелёк обслуживается другим экземпляром или владелец сейчас не определён.
+     */
+    void requireOwned(UUID walletId);
+
+    /**
+     * Возвращает раздел кошелька. Хеш перемешивается, чтобы разделы одного экземпляра не попадали
+     * на часть шардов исполнителя, которые выбираются по {@link UUID#hashCode()}.
+     *
+     * @param walletId   идентификатор кошелька.
+     * @param partitions число разделов.
+     */
+    static int partitionOf(UUID walletId, int partitions) {
+        long hash = (walletId.getMostSignificantBits() ^ walletId.getLeastSignificantBits()) * 0x9E3779B97F4A7C15L;
+        return Math.floorMod((int) (hash >>> 32), partitions);
+    }
+
+    /**
+     * Создаёт исключение для кошелька, который этот экземпляр не обслуживает.
+     *
+     * @param ownerUrl   базовый адрес владельца или {@code null}, если владелец не определён.
+     * @param retryAfter время до повтора запроса, если владелец не определён.
+     */
+    static WalletNotOwnedException notOwned(UUID walletId, String ownerUrl, Duration retryAfter) {
+        return ownerUrl != null
+                ? new WalletNotOwnedException("Кошелёк " + walletId + " обслуживается узлом " + ownerUrl, ownerUrl, retryAfter)
+                : new WalletNotOwnedException("Владелец кошелька " + walletId + " не определён, повторите запрос позже.",
+                        null, retryAfter);
+    }
+}
@@ -0,0 +1,38 @@
+package ru.buzynnikov.wallet_service.config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnThreading;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Конфигурация потоков, обрабатывающих очереди кошельков.
+ *
+ * При {@code spring.threads.virtual.enabled=true} на Java 21 и выше шарды исполнителя работают
+ * на виртуальных потоках, как и обработчики запросов Tomcat. Шард блокируется на очереди в ожидании
+ * операций, поэтому в простое виртуальный поток паркуется и не занимает поток-носитель.
+ */
+@Configuration(proxyBeanMethods = false)
+public class WalletExecutorConfiguration {
+
+    /**
+     * Имя бина фабрики потоков шардов.
+     */
+    public static final String WALLET_THREAD_FACTORY = "walletThreadFactory";
+
+    @Bean(WALLET_THREAD_FACTORY)
+    @ConditionalOnThreading(Threading.PLATFORM)
+    public ThreadFactory platformWalletThreadFactory() {
+        return Executors.defaultThreadFactory();
+    }
+
+    @Bean(WALLET_THREAD_FACTORY)
+    @ConditionalOnThreading(Threading.VIRTUAL)
+    public ThreadFactory virtualWalletThreadFactory() {
+        return new VirtualThreadTaskExecutor("wallet-shard-").getVirtualThreadFactory();
+    }
+}
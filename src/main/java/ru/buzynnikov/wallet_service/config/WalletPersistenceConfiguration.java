@@ -0,0 +1,63 @@
+package ru.buzynnikov.wallet_service.config;
+
+import com.zaxxer.hikari.HikariConfigMXBean;
+import com.zaxxer.hikari.HikariDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.jdbc.DataSourceUnwrapper;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.env.Environment;
+
+import javax.sql.DataSource;
+
+/**
+ * Настройка пула соединений для профиля {@code prod}.
+ *
+ * Остальные параметры профиля (пакетная запись Hibernate, кэш подготовленных запросов драйвера)
+ * задаются в {@code application-prod.yml}; здесь задаётся только размер пула, который зависит
+ * от фактического числа шардов исполнителя и поэтому не может быть записан в файле конфигурации.
+ */
+@Configuration(proxyBeanMethods = false)
+@Profile("prod")
+public class WalletPersistenceConfiguration {
+
+    private static final Logger log = LoggerFactory.getLogger(WalletPersistenceConfiguration.class);
+
+    private static final String MAXIMUM_POOL_SIZE = "spring.datasource.hikari.maximum-pool-size";
+
+    /**
+     * Задаёт пулу Hikari фиксированный размер: {@code wallet.persistence.pool-reserve} соединений для потоков запросов
+     * и фоновых задач, а в режимах {@code queue} и {@code memory} ещё по соединению на каждый шард и выделенную полосу
+     * горячих кошельков. В режимах {@code atomic} и {@code optimistic} шардов нет: операции применяют потоки запросов.
+     * Пул фиксированного размера не открывает соединения под нагрузкой, а шарды не ждут соединения друг за другом.
+     * Явно заданный {@code spring.datasource.hikari.maximum-pool-size} не переопределяется.
+     * Метод статический, так как постпроцессор создаётся раньше остальных бинов.
+     */
+    @Bean
+    public static BeanPostProcessor hikariPoolSizer(Environment environment) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                HikariDataSource dataSource = bean instanceof DataSource wrapped
+                        ? DataSourceUnwrapper.unwrap(wrapped, HikariConfigMXBean.class, HikariDataSource.class) : null;
+                if (dataSource != null && !environment.containsProperty(MAXIMUM_POOL_SIZE)) {
+                    WalletProperties properties = Binder.get(environment).bindOrCreate("wallet", WalletProperties.class);
+                    boolean sharded = properties.mode() == WalletProperties.Mode.QUEUE
+                            || properties.mode() == WalletProperties.Mode.MEMORY;
+                    int consumers = sharded
+                            ? properties.executor().effectiveShards() + Math.max(0, properties.hotWallets().lanes()) : 0;
+                    int poolSize = consumers + properties.persistence().poolReserve();
+                    dataSource.setMaximumPoolSize(poolSize);
+                    dataSource.setMinimumIdle(poolSize);
+                    log.info("Размер пула соединений: {} ({} шардов и полос и {} соединений для запросов и фоновых задач)",
+                            poolSize, consumers, properties.persistence().poolReserve());
+                }
+                return bean;
+            }
+        };
+    }
+}
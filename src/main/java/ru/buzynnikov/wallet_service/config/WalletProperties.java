@@ -0,0 +1,257 @@
+package ru.buzynnikov.wallet_service.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Настройки сервиса кошельков, задаваемые в секции {@code wallet} файла конфигурации.
+ *
+ * @param mode        режим применения операций изменения баланса.
+ * @param executor    настройки исполнителя операций изменения баланса.
+ * @param cache       настройки кэша балансов.
+ * @param ledger      настройки журнала операций.
+ * @param idempotency настройки хранилища ключей идемпотентности.
+ * @param batch       настройки пакетного приёма операций.
+ * @param wal         настройки журнала упреждающей записи.
+ * @param memory      настройки режима с балансами в памяти.
+ * @param cluster     настройки распределения кошельков между экземплярами сервиса.
+ * @param optimistic  настройки режима с оптимистической блокировкой.
+ * @param admission   настройки проверки операций при приёме.
+ * @param persistence настройки пула соединений с базой данных.
+ * @param hotWallets  настройки выделенных полос для горячих кошельков.
+ * @param lifecycle   настройки запуска и остановки экземпляра сервиса.
+ */
+@ConfigurationProperties(prefix = "wallet")
+public record WalletProperties(@DefaultValue("queue") Mode mode,
+                               @DefaultValue Executor executor,
+                               @DefaultValue Cache cache,
+                               @DefaultValue Ledger ledger,
+                               @DefaultValue Idempotency idempotency,
+                               @DefaultValue Batch batch,
+                               @DefaultValue Wal wal,
+                               @DefaultValue Memory memory,
+                               @DefaultValue Cluster cluster,
+                               @DefaultValue Optimistic optimistic,
+                               @DefaultValue Admission admission,
+                               @DefaultValue Persistence persistence,
+                               @DefaultValue HotWallets hotWallets,
+                               @DefaultValue Lifecycle lifecycle) {
+
+    /**
+     * Режимы применения операций изменения баланса.
+     * <ul>
+     *     <li>{@link #QUEUE}: операции ставятся в очередь кошелька и применяются шардированным исполнителем.</li>
+     *     <li>{@link #ATOMIC}: каждая операция сразу применяется одним условным SQL-запросом.</li>
+     *     <li>{@link #MEMORY}: балансы активных кошельков хранятся в памяти и периодически записываются в базу данных.</li>
+     *     <li>{@link #OPTIMISTIC}: каждая операция сразу применяется транзакцией с оптимистической блокировкой
+     *     и повторяется при конфликте версий.</li>
+     * </ul>
+     */
+    public enum Mode {
+        QUEUE,
+        ATOMIC,
+        MEMORY,
+        OPTIMISTIC
+    }
+
+    /**
+     * Настройки шардированного исполнителя операций.
+     *
+     * @param shards              количество шардов (потоков-обработчиков). Значение 0 и меньше означает число доступных ядер.
+     * @param batchSize           максимальное число операций одного кошелька, применяемых одной транзакцией.
+     * @param walletQueueCapacity максимальное число ожидающих операций одного кошелька.
+     * @param queueCapacity       максимальное число ожидающих операций всех кошельков.
+     * @param retryAfter          время, через которое клиенту предлагается повторить отклонённый из-за перегрузки запрос.
+     */
+    public record Executor(@DefaultValue("0") int shards,
+                           @DefaultValue("64") int batchSize,
+                           @DefaultValue("10000") int walletQueueCapacity,
+                           @DefaultValue("1000000") int queueCapacity,
+                           @DefaultValue("1s") Duration retryAfter) {
+
+        /**
+         * Возвращает фактическое количество шардов с учётом значения по умолчанию.
+         */
+        public int effectiveShards() {
+            return shards > 0 ? shards : Runtime.getRuntime().availableProcessors();
+        }
+    }
+
+    /**
+     * Настройки кэша балансов.
+     *
+     * @param maximumSize      максимальное число кошельков в кэше.
+     * @param expireAfterWrite время жизни записи; ограничивает устаревание при изменении баланса в обход этого узла.
+     */
+    public record Cache(@DefaultValue("100000") long maximumSize, @DefaultValue("10m") Duration expireAfterWrite) {
+    }
+
+    /**
+     * Настройки журнала операций.
+     *
+     * @param partitionsAhead число месячных секций, создаваемых заранее после текущей.
+     * @param retentionMonths срок хранения журнала в месяцах; 0 — хранить без ограничения.
+     */
+    public record Ledger(@DefaultValue("2") int partitionsAhead, @DefaultValue("0") int retentionMonths) {
+    }
+
+    /**
+     * Настройки хранилища ключей идемпотентности.
+     *
+     * @param maximumSize максимальное число ключей завершённых операций, хранимых в памяти; ключи выполняющихся операций
+     *                    хранятся до их завершения сверх этого числа.
+     * @param retention   срок хранения ключа в памяти и в базе данных.
+     */
+    public record Idempotency(@DefaultValue("100000") long maximumSize, @DefaultValue("7d") Duration retention) {
+    }
+
+    /**
+     * Настройки пакетного приёма операций.
+     *
+     * @param chunkSize число операций, которые читаются из тела запроса и передаются исполнителю за один раз.
+     */
+    public record Batch(@DefaultValue("1000") int chunkSize) {
+    }
+
+    /**
+     * Настройки журнала упреждающей записи (WAL) принятых, но ещё не применённых операций.
+     *
+     * @param enabled     включает журнал; используется только в режиме {@code queue}.
+     * @param directory   каталог сегментов журнала.
+     * @param segmentSize размер одного сегмента.
+     */
+    public record Wal(@DefaultValue("false") boolean enabled,
+                      @DefaultValue("wal") String directory,
+                      @DefaultValue("64MB") DataSize segmentSize) {
+    }
+
+    /**
+     * Настройки режима {@code memory}. Интервал записи балансов в базу данных задаётся
+     * параметром {@code wallet.memory.flush-interval}.
+     *
+     * @param idleTimeout    время без операций, после которого кошелёк выгружается из памяти.
+     * @param maximumWallets максимальное число кошельков в памяти; при превышении выгружаются давно не использованные.
+     * @param flushChunkSize максимальное число кошельков, записываемых в базу данных одной транзакцией.
+     */
+    public record Memory(@DefaultValue("5m") Duration idleTimeout,
+                         @DefaultValue("100000") int maximumWallets,
+                         @DefaultValue("1000") int flushChunkSize) {
+    }
+
+    /**
+     * Настройки распределения кошельков между экземплярами сервиса.
+     * Кошельки делятся по хешу идентификатора на {@code partitions} разделов, каждым разделом владеет один экземпляр.
+     *
+     * @param assignment    способ назначения разделов экземплярам.
+     * @param partitions    число разделов.
+     * @param nodeId        идентификатор этого экземпляра; по умолчанию совпадает с {@code nodeUrl}.
+     * @param nodeUrl       базовый адрес этого экземпляра, на который перенаправляются запросы к его кошелькам.
+     * @param nodes         базовые адреса всех экземпляров при статическом назначении; раздел {@code p}
+     *                      принадлежит экземпляру {@code nodes[p % nodes.size()]}.
+     * @param leaseDuration срок аренды раздела при назначении через базу данных.
+     */
+    public record Cluster(@DefaultValue("none") Assignment assignment,
+                          @DefaultValue("64") int partitions,
+                          String nodeId,
+                          String nodeUrl,
+                          @DefaultValue List<String> nodes,
+                          @DefaultValue("30s") Duration leaseDuration) {
+
+        /**
+         * Возвращает идентификатор экземпляра с учётом значения по умолчанию.
+         */
+        public String effectiveNodeId() {
+            return nodeId != null && !nodeId.isBlank() ? nodeId : nodeUrl;
+        }
+    }
+
+    /**
+     * Способы назначения разделов кошельков экземплярам сервиса.
+     * <ul>
+     *     <li>{@link #NONE}: все кошельки обслуживает этот экземпляр.</li>
+     *     <li>{@link #STATIC}: разделы распределены по списку экземпляров из конфигурации.</li>
+     *     <li>{@link #LEASE}: экземпляры арендуют разделы в таблице {@code wallet_partition_lease} и периодически продлевают аренду.</li>
+     * </ul>
+     */
+    public enum Assignment {
+        NONE,
+        STATIC,
+        LEASE
+    }
+
+    /**
+     * Настройки режима {@code optimistic}. Паузы между попытками растут экспоненциально
+     * и выбираются случайно, чтобы конкурирующие запросы не повторялись одновременно.
+     *
+     * @param maxAttempts    максимальное число попыток применить операцию, включая первую.
+     * @param initialBackoff пауза перед первым повтором.
+     * @param maxBackoff     максимальная пауза между попытками.
+     */
+    public record Optimistic(@DefaultValue("5") int maxAttempts,
+                             @DefaultValue("5ms") Duration initialBackoff,
+                             @DefaultValue("100ms") Duration maxBackoff) {
+    }
+
+    /**
+     * Настройки проверки операций при приёме в режиме {@code queue}. Существование кошелька проверяется
+     * по фильтру Блума идентификаторов, размер которого рассчитывается по ожидаемому числу кошельков.
+     *
+     * @param expectedWallets   ожидаемое число кошельков; при большем числе доля ложных срабатываний растёт.
+     * @param falsePositiveRate доля ложных срабатываний фильтра при ожидаемом числе кошельков.
+     */
+    public record Admission(@DefaultValue("1000000") long expectedWallets,
+                            @DefaultValue("0.01") double falsePositiveRate) {
+    }
+
+    /**
+     * Настройки пула соединений с базой данных в профиле {@code prod}. В режимах {@code queue} и {@code memory} размер пула
+     * равен числу шардов и выделенных полос исполнителя и запасу: каждый шард и полоса держат одно соединение на время
+     * транзакции пачки, а запас обслуживает потоки запросов и фоновые задачи, не отнимая соединения у шардов.
+     * В режимах {@code atomic} и {@code optimistic} пул состоит только из запаса.
+     *
+     * @param poolReserve число соединений для потоков запросов (чтение балансов и истории операций, а в режимах
+     *                    {@code atomic} и {@code optimistic} — применение операций) и фоновых задач; рассчитывается
+     *                    по числу одновременно обращающихся к базе данных запросов.
+     */
+    public record Persistence(@DefaultValue("10") int poolReserve) {
+    }
+
+    /**
+     * Настройки выделенных полос исполнителя для горячих кошельков в режимах {@code queue} и {@code memory}.
+     * Частота операций оценивается с затуханием: по окончании окна оценки уменьшаются вдвое, поэтому при постоянной
+     * частоте {@code r} операций в секунду оценка держится между {@code r·window} и {@code 2·r·window}.
+     * Кошелёк возвращается в шард, когда оценка опускается ниже четверти порога.
+     *
+     * @param lanes     число выделенных полос (потоков); 0 отключает перевод кошельков в полосы.
+     * @param batchSize максимальное число операций горячего кошелька, применяемых одной транзакцией.
+     * @param threshold оценка числа операций кошелька за окно, при которой он переводится в полосу.
+     * @param window    окно оценки частоты.
+     */
+    public record HotWallets(@DefaultValue("1") int lanes,
+                             @DefaultValue("512") int batchSize,
+                             @DefaultValue("1000") int threshold,
+                             @DefaultValue("1s") Duration window) {
+    }
+
+    /**
+     * Настройки запуска и остановки экземпляра сервиса. При остановке приём операций прекращается, а принятые
+     * применяются не дольше {@code drainTimeout}. При запуске пул соединений, кэш балансов и основные пути запросов
+     * прогреваются до того, как проверка готовности сообщит о приёме трафика.
+     *
+     * @param drainTimeout   максимальное время применения принятых операций при остановке.
+     * @param warmup         включает прогрев при запуске.
+     * @param warmupWallets  максимальное число недавно активных кошельков, балансы которых загружаются при прогреве.
+     * @param warmupLookback период, операции за который делают кошелёк недавно активным.
+     * @param warmupRequests число запросов баланса, выполняемых при прогреве.
+     */
+    public record Lifecycle(@DefaultValue("20s") Duration drainTimeout,
+                            @DefaultValue("true") boolean warmup,
+                            @DefaultValue("10000") int warmupWallets,
+                            @DefaultValue("1h") Duration warmupLookback,
+                            @DefaultValue("2000") int warmupRequests) {
+    }
+}
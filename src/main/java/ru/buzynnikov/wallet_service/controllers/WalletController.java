@@ -1,14 +1,57 @@
 package ru.buzynnikov.wallet_service.controllers;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.validation.ConstraintViolation;
 import jakarta.validation.Valid;
+import jakarta.validation.Validator;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.buzynnikov.wallet_service.cluster.WalletOwnership;
+import ru.buzynnikov.wallet_service.config.WalletProperties;
 import ru.buzynnikov.wallet_service.controllers.dto.BalanceOfWalletResponse;
+import ru.buzynnikov.wallet_service.controllers.dto.BatchItemResponse;
 import ru.buzynnikov.wallet_service.controllers.dto.ChangeAmountRequest;
+import ru.buzynnikov.wallet_service.controllers.dto.OperationType;
+import ru.buzynnikov.wallet_service.controllers.dto.TransactionOfWalletResponse;
+import ru.buzynnikov.wallet_service.controllers.dto.WalletBalanceResponse;
+import ru.buzynnikov.wallet_service.controllers.dto.WalletBalancesRequest;
+import ru.buzynnikov.wallet_service.exceptions.AmountOutOfRangeException;
+import ru.buzynnikov.wallet_service.exceptions.IdempotencyKeyReusedException;
+import ru.buzynnikov.wallet_service.exceptions.NotEnoughMoneyException;
+import ru.buzynnikov.wallet_service.exceptions.OperationDeferredException;
+import ru.buzynnikov.wallet_service.exceptions.UnsupportedOperationTypeException;
+import ru.buzynnikov.wallet_service.exceptions.WalletNotFoundException;
+import ru.buzynnikov.wallet_service.exceptions.WalletNotOwnedException;
+import ru.buzynnikov.wallet_service.exceptions.WalletOverloadedException;
+import ru.buzynnikov.wallet_service.exceptions.WalletServiceStoppingException;
+import ru.buzynnikov.wallet_service.models.Money;
 import ru.buzynnikov.wallet_service.services.WalletService;
+import ru.buzynnikov.wallet_service.services.WalletTransactionService;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
 
 /**
  * Контроллер для управления кошельком пользователя.
@@ -20,24 +63,84 @@ public class WalletController {
 
     private final WalletService walletService;
 
-    public WalletController(WalletService walletService) {
+    private final WalletTransactionService walletTransactionService;
+
+    private final ObjectMapper objectMapper;
+
+    private final Validator validator;
+
+    private final WalletOwnership ownership;
+
+    /**
+     * Число операций пакетного запроса, передаваемых сервису за один раз.
+     */
+    private final int batchChunkSize;
+
+    public WalletController(WalletService walletService,
+                            WalletTransactionService walletTransactionService,
+                            ObjectMapper objectMapper,
+                            Validator validator,
+                            WalletOwnership ownership,
+                            WalletProperties properties) {
         this.walletService = walletService;
+        this.walletTransactionService = walletTransactionService;
+        this.objectMapper = objectMapper;
+        this.validator = validator;
+        this.ownership = ownership;
+        this.batchChunkSize = properties.batch().chunkSize();
     }
 
     /**
      * Метод для изменения баланса кошелька пользователя.<br/>
      * Выполняет операцию увеличения или уменьшения баланса согласно переданному запросу.<br/>
-     * Если операция выполнена успешно, возвращает HTTP-код 204 No Content.<br/>
+     * Перевод ({@code TRANSFER}) списывает сумму с кошелька запроса и зачисляет её на кошелёк {@code targetWalletId}
+     * в одной транзакции; в ответе — баланс кошелька-отправителя.<br/>
+     * Ответ формируется асинхронно после фиксации операции в базе данных, поток сервлета при этом не удерживается.<br/>
+     * Если операция выполнена успешно, возвращает HTTP-код 200 OK с балансом после операции и ключом идемпотентности
+     * операции; при включённом журнале упреждающей записи ключ операции без {@code operationId} генерирует сервис.<br/>
      * Параметры операции проверяются на корректность с помощью аннотации {@code @Valid}.<br/>
-     * Ошибочные запросы вернут HTTP-код 400 Bad Request.
+     * Ошибочные запросы и отклонённые списания вернут HTTP-код 400 Bad Request.<br/>
+     * Повтор ключа идемпотентности с другим кошельком, типом или суммой вернёт HTTP-код 422 Unprocessable Entity.<br/>
+     * Запрос к кошельку, который обслуживает другой экземпляр сервиса, перенаправляется ему с HTTP-кодом 307.<br/>
+     * Перевод на кошелёк, который обслуживает другой экземпляр сервиса, отклоняется с HTTP-кодом 400.
      *
      * @param request объект запроса, содержащий необходимую информацию для изменения баланса.
-     * @return {@code ResponseEntity<Void>}, содержащий HTTP-код 204 No Content при успешной операции.
+     * @return {@code CompletableFuture<ResponseEntity<BalanceOfWalletResponse>>}, завершаемый HTTP-кодом 200 OK
+     * и балансом кошелька после операции.
      */
     @PatchMapping
-    public ResponseEntity<Void> changeBalance(@Valid @RequestBody ChangeAmountRequest request){
-        walletService.addDataToChangeBalance(request);
-        return ResponseEntity.noContent().build();
+    public CompletableFuture<ResponseEntity<BalanceOfWalletResponse>> changeBalance(@Valid @RequestBody ChangeAmountRequest request){
+        requireOwned(request);
+        return walletService.addDataToChangeBalance(request).thenApply(ResponseEntity::ok);
+    }
+
+    /**
+     * Метод для пакетного изменения балансов кошельков.<br/>
+     * Принимает JSON-массив или NDJSON (по одному объекту {@code ChangeAmountRequest} в строке).
+     * Тело запроса читается потоком: каждые {@code wallet.batch.chunk-size} операций передаются сервису,
+     * который группирует их по кошелькам; операции одного кошелька применяются в порядке следования в запросе.<br/>
+     * Ответ также передаётся потоком, в формате запроса: по одному объекту {@code BatchItemResponse}
+     * на каждую операцию, в порядке запроса. Некорректная или отклонённая операция не влияет на остальные
+     * и получает в ответе тот HTTP-код, который вернул бы одиночный запрос. Если тело запроса
+     * синтаксически повреждено, обработка останавливается на повреждённом элементе.
+     *
+     * @param body тело запроса.
+     * @param contentType тип содержимого запроса: {@code application/json} или {@code application/x-ndjson}.
+     * @return результаты операций и HTTP-код 200 OK.
+     */
+    @PostMapping(value = "/batch", consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public ResponseEntity<StreamingResponseBody> changeBalanceBatch(InputStream body,
+                                                                    @RequestHeader(HttpHeaders.CONTENT_TYPE) MediaType contentType) {
+        boolean ndjson = MediaType.APPLICATION_NDJSON.isCompatibleWith(contentType);
+        StreamingResponseBody responseBody = outputStream -> {
+            try (JsonParser parser = objectMapper.createParser(body);
+                 JsonGenerator generator = objectMapper.createGenerator(outputStream)) {
+                processBatch(parser, generator, ndjson);
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(ndjson ? MediaType.APPLICATION_NDJSON : MediaType.APPLICATION_JSON)
+                .body(responseBody);
     }
 
     /**
@@ -51,6 +154,233 @@ public class WalletController {
      */
     @GetMapping("/{walletId}")
     public ResponseEntity<BalanceOfWalletResponse> getBalance(@PathVariable UUID walletId) {
+        ownership.requireOwned(walletId);
         return ResponseEntity.ok(walletService.getBalanceOfWallet(walletId));
     }
+
+    /**
+     * Метод для получения балансов нескольких кошельков одним запросом.<br/>
+     * Балансы берутся из кэша, отсутствующие в кэше читаются из базы данных одним запросом.<br/>
+     * Ненайденный кошелёк не приводит к ошибке всего запроса: для него возвращается элемент
+     * со статусом 404 и описанием ошибки; для кошелька, который обслуживает другой экземпляр сервиса, — элемент
+     * со статусом 307 и адресом владельца в описании. Порядок элементов ответа соответствует порядку идентификаторов в запросе.
+     *
+     * @param request список идентификаторов кошельков, не более 1000.
+     * @return {@code ResponseEntity<List<WalletBalanceResponse>>} и HTTP-код 200 OK.
+     */
+    @PostMapping("/balances")
+    public ResponseEntity<List<WalletBalanceResponse>> getBalances(@Valid @RequestBody WalletBalancesRequest request) {
+        Map<UUID, WalletNotOwnedException> notOwned = new HashMap<>();
+        Set<UUID> owned = new LinkedHashSet<>();
+        for (UUID walletId : request.walletIds()) {
+            try {
+                ownership.requireOwned(walletId);
+                owned.add(walletId);
+            } catch (WalletNotOwnedException e) {
+                notOwned.put(walletId, e);
+            }
+        }
+        Map<UUID, Money> balances = walletService.getBalancesOfWallets(owned);
+        return ResponseEntity.ok(request.walletIds().stream()
+                .map(walletId -> notOwned.containsKey(walletId)
+                        ? new WalletBalanceResponse(walletId, notOwnedStatus(notOwned.get(walletId)), null,
+                                notOwned.get(walletId).getMessage())
+                        : balances.containsKey(walletId)
+                        ? new WalletBalanceResponse(walletId, HttpStatus.OK.value(), balances.get(walletId), null)
+                        : new WalletBalanceResponse(walletId, HttpStatus.NOT_FOUND.value(), null,
+                                "Кошелёк с id " + walletId + " не найден"))
+                .toList());
+    }
+
+    /**
+     * Метод для получения журнала операций кошелька, от новых операций к старым.<br/>
+     * Записи выдаются постранично по ключу (время, идентификатор): для следующей страницы в параметрах
+     * {@code before} и {@code beforeId} передаются {@code createdAt} и {@code id} последней полученной записи.<br/>
+     * Страница передаётся клиенту потоком по мере чтения из базы данных и не собирается в памяти целиком.<br/>
+     * Если указанный кошелек не существует, возвращает HTTP-код 404 Not Found.
+     *
+     * @param walletId уникальный идентификатор кошелька.
+     * @param before   время последней записи предыдущей страницы.
+     * @param beforeId идентификатор последней записи предыдущей страницы.
+     * @param size     размер страницы, не более {@link WalletTransactionService#MAX_PAGE_SIZE}.
+     * @return JSON-массив объектов {@code TransactionOfWalletResponse} и HTTP-код 200 OK.
+     */
+    @GetMapping("/{walletId}/transactions")
+    public ResponseEntity<StreamingResponseBody> getTransactions(@PathVariable UUID walletId,
+                                                                 @RequestParam(required = false) Instant before,
+                                                                 @RequestParam(required = false) UUID beforeId,
+                                                                 @RequestParam(defaultValue = "50") int size) {
+        walletTransactionService.checkWalletExists(walletId);
+        StreamingResponseBody body = outputStream -> {
+            try (JsonGenerator generator = objectMapper.createGenerator(outputStream)) {
+                generator.writeStartArray();
+                walletTransactionService.forEachTransaction(walletId, before, beforeId, size, transaction -> {
+                    try {
+                        generator.writeObject(new TransactionOfWalletResponse(transaction.id(),
+                                transaction.operationType(), transaction.amount(), transaction.balance(),
+                                transaction.createdAt()));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                generator.writeEndArray();
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    /**
+     * Читает операции пакетного запроса частями, передаёт каждую часть сервису и записывает результаты.
+     * Буфер ответа сбрасывается клиенту перед ожиданием очередного незавершённого результата.
+     */
+    private void processBatch(JsonParser parser, JsonGenerator generator, boolean ndjson) throws IOException {
+        if (ndjson) {
+            generator.setRootValueSeparator(null);
+        } else {
+            generator.writeStartArray();
+        }
+        JsonToken token = parser.nextToken();
+        boolean array = token == JsonToken.START_ARRAY;
+        if (array) {
+            token = parser.nextToken();
+        }
+        int index = 0;
+        boolean corrupted = false;
+        while (!corrupted && token != null && token != JsonToken.END_ARRAY) {
+            List<CompletableFuture<BalanceOfWalletResponse>> results = new ArrayList<>(batchChunkSize);
+            List<ChangeAmountRequest> accepted = new ArrayList<>(batchChunkSize);
+            List<Integer> acceptedPositions = new ArrayList<>(batchChunkSize);
+            try {
+                while (token != null && token != JsonToken.END_ARRAY && results.size() < batchChunkSize) {
+                    try {
+                        ChangeAmountRequest request = readBatchItem(parser);
+                        requireOwned(request);
+                        accepted.add(request);
+                        acceptedPositions.add(results.size());
+                        results.add(null);
+                    } catch (IllegalArgumentException | WalletNotOwnedException | UnsupportedOperationTypeException e) {
+                        results.add(CompletableFuture.failedFuture(e));
+                    }
+                    token = parser.nextToken();
+                }
+            } catch (JsonParseException e) {
+                corrupted = true;
+            }
+            List<CompletableFuture<BalanceOfWalletResponse>> submitted = walletService.addDataToChangeBalance(accepted);
+            for (int i = 0; i < submitted.size(); i++) {
+                results.set(acceptedPositions.get(i), submitted.get(i));
+            }
+            for (CompletableFuture<BalanceOfWalletResponse> result : results) {
+                if (!result.isDone()) {
+                    generator.flush();
+                }
+                writeBatchItem(generator, toBatchItemResponse(index++, result), ndjson);
+            }
+        }
+        if (corrupted) {
+            writeBatchItem(generator, new BatchItemResponse(index, HttpStatus.BAD_REQUEST.value(), null,
+                    "Не корректный JSON, обработка пакета остановлена"), ndjson);
+        }
+        if (!ndjson) {
+            generator.writeEndArray();
+        }
+    }
+
+    /**
+     * Проверяет, что кошелёк операции обслуживается этим экземпляром, а для перевода — что и кошелёк-получатель
+     * обслуживается им же: баланс получателя в кэше его владельца этот экземпляр обновить не может.
+     *
+     * @throws WalletNotOwnedException если кошелёк операции обслуживается другим экземпляром.
+     * @throws UnsupportedOperationTypeException если кошелёк-получатель перевода обслуживается другим экземпляром.
+     */
+    private void requireOwned(ChangeAmountRequest request) {
+        ownership.requireOwned(request.walletId());
+        if (request.operationType() == OperationType.TRANSFER) {
+            try {
+                ownership.requireOwned(request.targetWalletId());
+            } catch (WalletNotOwnedException e) {
+                throw new UnsupportedOperationTypeException(
+                        "Перевод на кошелёк, который обслуживает другой экземпляр сервиса, не поддерживается.");
+            }
+        }
+    }
+
+    /**
+     * Читает и проверяет одну операцию пакетного запроса.
+     *
+     * @throws IllegalArgumentException если операция не соответствует требованиям валидации.
+     * @throws JsonParseException       если тело запроса синтаксически повреждено.
+     */
+    private ChangeAmountRequest readBatchItem(JsonParser parser) throws IOException {
+        JsonNode node = parser.readValueAsTree();
+        ChangeAmountRequest request;
+        try {
+            request = objectMapper.treeToValue(node, ChangeAmountRequest.class);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Не корректный тип операции");
+        }
+        Set<ConstraintViolation<ChangeAmountRequest>> violations = validator.validate(request);
+        if (!violations.isEmpty()) {
+            throw new IllegalArgumentException(violations.stream()
+                    .map(ConstraintViolation::getMessage)
+                    .collect(Collectors.joining("; ", "Не корректный запрос: ", "")));
+        }
+        return request;
+    }
+
+    private static void writeBatchItem(JsonGenerator generator, BatchItemResponse item, boolean ndjson) throws IOException {
+        generator.writeObject(item);
+        if (ndjson) {
+            generator.writeRaw('\n');
+        }
+    }
+
+    /**
+     * Преобразует результат операции пакета в элемент ответа; ожидает завершения операции.
+     * Коды ошибок соответствуют ответам одиночного запроса.
+     */
+    private static BatchItemResponse toBatchItemResponse(int index, CompletableFuture<BalanceOfWalletResponse> result) {
+        try {
+            BalanceOfWalletResponse response = result.join();
+            return new BatchItemResponse(index, HttpStatus.OK.value(), response.balance(), null, response.operationId());
+        } catch (CompletionException e) {
+            Throwable error = e.getCause() != null ? e.getCause() : e;
+            if (error instanceof WalletNotFoundException) {
+                return new BatchItemResponse(index, HttpStatus.NOT_FOUND.value(), null, error.getMessage());
+            }
+            if (error instanceof NotEnoughMoneyException) {
+                return new BatchItemResponse(index, HttpStatus.BAD_REQUEST.value(), null, "Недостаточно средств на балансе");
+            }
+            if (error instanceof WalletOverloadedException) {
+                return new BatchItemResponse(index, HttpStatus.TOO_MANY_REQUESTS.value(), null, error.getMessage());
+            }
+            if (error instanceof WalletNotOwnedException notOwned) {
+                return new BatchItemResponse(index, notOwnedStatus(notOwned), null, error.getMessage());
+            }
+            if (error instanceof OperationDeferredException deferred) {
+                return new BatchItemResponse(index, HttpStatus.SERVICE_UNAVAILABLE.value(), null, error.getMessage(),
+                        deferred.getOperationId());
+            }
+            if (error instanceof WalletServiceStoppingException) {
+                return new BatchItemResponse(index, HttpStatus.SERVICE_UNAVAILABLE.value(), null, error.getMessage());
+            }
+            if (error instanceof IdempotencyKeyReusedException) {
+                return new BatchItemResponse(index, HttpStatus.UNPROCESSABLE_ENTITY.value(), null, error.getMessage());
+            }
+            if (error instanceof IllegalArgumentException || error instanceof AmountOutOfRangeException
+                    || error instanceof UnsupportedOperationTypeException) {
+                return new BatchItemResponse(index, HttpStatus.BAD_REQUEST.value(), null, error.getMessage());
+            }
+            return new BatchItemResponse(index, HttpStatus.INTERNAL_SERVER_ERROR.value(), null, "Операция не выполнена");
+        }
+    }
+
+    /**
+     * Код элемента ответа для кошелька другого экземпляра: 307, если владелец известен, иначе 503.
+     */
+    private static int notOwnedStatus(WalletNotOwnedException exception) {
+        return exception.getOwnerUrl() != null
+                ? HttpStatus.TEMPORARY_REDIRECT.value()
+                : HttpStatus.SERVICE_UNAVAILABLE.value();
+    }
 }
@@ -1,9 +1,22 @@
 package ru.buzynnikov.wallet_service.controllers.dto;
 
-import java.math.BigDecimal;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import ru.buzynnikov.wallet_service.models.Money;
+
+import java.util.UUID;
 
 /**
- * Представляет баланс кошелька в виде BigDecimal.
+ * Представляет баланс кошелька; в JSON передаётся десятичным числом с двумя знаками после запятой.
+ *
+ * @param balance     баланс кошелька.
+ * @param operationId ключ идемпотентности операции, после которой получен баланс: переданный клиентом
+ *                    или сгенерированный сервисом; повтор операции с этим ключом вернёт её результат.
+ *                    Отсутствует в ответе на запрос баланса и для операций без ключа.
  */
-public record BalanceOfWalletResponse(BigDecimal balance) {
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record BalanceOfWalletResponse(Money balance, UUID operationId) {
+
+    public BalanceOfWalletResponse(Money balance) {
+        this(balance, null);
+    }
 }
@@ -0,0 +1,25 @@
+package ru.buzynnikov.wallet_service.controllers.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import ru.buzynnikov.wallet_service.models.Money;
+
+import java.util.UUID;
+
+/**
+ * Результат одной операции пакетного запроса.
+ *
+ * @param index       порядковый номер операции в запросе, начиная с 0.
+ * @param status      HTTP-код, который вернул бы одиночный запрос с этой операцией.
+ * @param balance     баланс кошелька после операции; отсутствует, если операция отклонена.
+ * @param error       причина отклонения операции; отсутствует, если операция применена.
+ * @param operationId ключ идемпотентности применённой операции или операции, которая будет применена после
+ *                    перезапуска сервиса: переданный клиентом или сгенерированный сервисом. Повтор операции с этим
+ *                    ключом вернёт её результат. Для отклонённых операций и операций без ключа отсутствует.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record BatchItemResponse(int index, int status, Money balance, String error, UUID operationId) {
+
+    public BatchItemResponse(int index, int status, Money balance, String error) {
+        this(index, status, balance, error, null);
+    }
+}
@@ -1,17 +1,61 @@
 package ru.buzynnikov.wallet_service.controllers.dto;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import jakarta.validation.constraints.AssertTrue;
 import jakarta.validation.constraints.DecimalMin;
 import jakarta.validation.constraints.NotNull;
+import ru.buzynnikov.wallet_service.models.Money;
 
-import java.math.BigDecimal;
 import java.util.UUID;
 
 /**
  * Запрос на изменение суммы на счете кошелька.
  * Включает идентификатор кошелька, тип операции и сумму изменения.
+ * Необязательный идентификатор операции служит ключом идемпотентности: повторный запрос с тем же
+ * идентификатором не применяется повторно, а возвращает результат исходной операции.
+ * Для перевода ({@link OperationType#TRANSFER}) указывается кошелёк-получатель; для остальных операций он не указывается.
  */
 public record ChangeAmountRequest(
         @NotNull(message = "Идентификатор кошелька не может быть пустым") UUID walletId,
         @NotNull(message = "Тип операции не может быть пустым") OperationType operationType,
-        @DecimalMin(value = "0.01", message = "Значение должно быть выше нуля") @NotNull(message = "Сумма не может быть пустой") BigDecimal amount) {
+        @DecimalMin(value = "0.01", message = "Значение должно быть выше нуля") @NotNull(message = "Сумма не может быть пустой") Money amount,
+        UUID operationId,
+        UUID targetWalletId) {
+
+    /**
+     * Создаёт запрос без кошелька-получателя.
+     */
+    public ChangeAmountRequest(UUID walletId, OperationType operationType, Money amount, UUID operationId) {
+        this(walletId, operationType, amount, operationId, null);
+    }
+
+    /**
+     * Создаёт запрос без ключа идемпотентности.
+     */
+    public ChangeAmountRequest(UUID walletId, OperationType operationType, Money amount) {
+        this(walletId, operationType, amount, null, null);
+    }
+
+    /**
+     * Возвращает этот запрос, а если у него нет ключа идемпотентности — его копию со случайным ключом.
+     */
+    public ChangeAmountRequest withOperationId() {
+        return operationId != null ? this
+                : new ChangeAmountRequest(walletId, operationType, amount, UUID.randomUUID(), targetWalletId);
+    }
+
+    @JsonIgnore
+    @AssertTrue(message = "Зачисление перевода не может быть запрошено напрямую")
+    public boolean isRequestable() {
+        return operationType != OperationType.TRANSFER_IN;
+    }
+
+    @JsonIgnore
+    @AssertTrue(message = "Кошелёк-получатель указывается только для перевода и должен отличаться от кошелька-отправителя")
+    public boolean isTargetValid() {
+        if (operationType != OperationType.TRANSFER) {
+            return targetWalletId == null;
+        }
+        return targetWalletId != null && !targetWalletId.equals(walletId);
+    }
 }
@@ -6,9 +6,22 @@ package ru.buzynnikov.wallet_service.controllers.dto;
  * <ul>
  *     <li>{@link #DEPOSIT}: Пополнение счета.</li>
  *     <li>{@link #WITHDRAW}: Списание денежных средств со счета.</li>
+ *     <li>{@link #TRANSFER}: Перевод денежных средств на другой кошелёк; в журнале кошелька-отправителя — списание.</li>
+ *     <li>{@link #TRANSFER_IN}: Зачисление перевода; появляется только в журнале кошелька-получателя
+ *     и не принимается в запросах.</li>
  * </ul>
+ * Порядок констант входит в формат журнала упреждающей записи: новые типы добавляются в конец.
  */
 public enum OperationType {
     DEPOSIT,
-    WITHDRAW
+    WITHDRAW,
+    TRANSFER,
+    TRANSFER_IN;
+
+    /**
+     * Возвращает {@code true}, если операция уменьшает баланс кошелька, указанного в запросе.
+     */
+    public boolean isDebit() {
+        return this == WITHDRAW || this == TRANSFER;
+    }
 }
@@ -0,0 +1,18 @@
+package ru.buzynnikov.wallet_service.controllers.dto;
+
+import ru.buzynnikov.wallet_service.models.Money;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Запись журнала операций кошелька в ответе API.
+ * Для получения следующей страницы значения {@code createdAt} и {@code id} последней записи
+ * передаются в параметрах {@code before} и {@code beforeId}.
+ */
+public record TransactionOfWalletResponse(UUID id,
+                                          OperationType operationType,
+                                          Money amount,
+                                          Money balance,
+                                          Instant createdAt) {
+}
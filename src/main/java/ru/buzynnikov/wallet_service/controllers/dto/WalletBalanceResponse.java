@@ -0,0 +1,18 @@
+package ru.buzynnikov.wallet_service.controllers.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import ru.buzynnikov.wallet_service.models.Money;
+
+import java.util.UUID;
+
+/**
+ * Баланс одного кошелька в ответе на запрос балансов нескольких кошельков.
+ *
+ * @param walletId идентификатор кошелька.
+ * @param status   HTTP-код, который вернул бы запрос баланса этого кошелька.
+ * @param balance  текущий баланс; отсутствует, если кошелёк не найден.
+ * @param error    описание ошибки; отсутствует, если кошелёк найден.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record WalletBalanceResponse(UUID walletId, int status, Money balance, String error) {
+}
@@ -0,0 +1,16 @@
+package ru.buzynnikov.wallet_service.controllers.dto;
+
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Size;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Запрос балансов нескольких кошельков.
+ */
+public record WalletBalancesRequest(
+        @NotNull(message = "Список кошельков не может быть пустым")
+        @Size(max = 1000, message = "Количество кошельков не должно превышать 1000")
+        List<@NotNull(message = "Идентификатор кошелька не может быть пустым") UUID> walletIds) {
+}
@@ -1,6 +1,8 @@
 package ru.buzynnikov.wallet_service.controllers.exceptionsHandlers;
 
+import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.context.support.DefaultMessageSourceResolvable;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ProblemDetail;
 import org.springframework.http.ResponseEntity;
@@ -10,8 +12,15 @@ import org.springframework.http.converter.HttpMessageNotReadableException;
 import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
+import ru.buzynnikov.wallet_service.exceptions.AmountOutOfRangeException;
+import ru.buzynnikov.wallet_service.exceptions.IdempotencyKeyReusedException;
 import ru.buzynnikov.wallet_service.exceptions.NotEnoughMoneyException;
+import ru.buzynnikov.wallet_service.exceptions.OperationDeferredException;
+import ru.buzynnikov.wallet_service.exceptions.UnsupportedOperationTypeException;
 import ru.buzynnikov.wallet_service.exceptions.WalletNotFoundException;
+import ru.buzynnikov.wallet_service.exceptions.WalletNotOwnedException;
+import ru.buzynnikov.wallet_service.exceptions.WalletOverloadedException;
+import ru.buzynnikov.wallet_service.exceptions.WalletServiceStoppingException;
 
 
 @ControllerAdvice
@@ -52,6 +61,79 @@ public class GlobalExceptionHandler {
         return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(problemDetail);
     }
 
+    /**
+     * Обрабатывает переполнение очередей операций.
+     * Возвращает статус TOO MANY REQUESTS (429) и заголовок Retry-After с числом секунд до повтора.
+     */
+    @ExceptionHandler(WalletOverloadedException.class)
+    public ResponseEntity<ProblemDetail> overloaded(WalletOverloadedException exception){
+        ProblemDetail problemDetail = ProblemDetail.forStatusAndDetail(HttpStatus.TOO_MANY_REQUESTS,exception.getMessage());
+        long retryAfterSeconds = Math.max(1, (exception.getRetryAfter().toMillis() + 999) / 1000);
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                .body(problemDetail);
+    }
+
+    /**
+     * Обрабатывает операции, не принятые или не применённые из-за остановки экземпляра сервиса.
+     * Возвращает статус SERVICE UNAVAILABLE (503) и заголовок Retry-After с числом секунд до повтора.
+     * Для операции, которая будет применена после перезапуска, в ответ добавляется её ключ идемпотентности {@code operationId}.
+     */
+    @ExceptionHandler(WalletServiceStoppingException.class)
+    public ResponseEntity<ProblemDetail> stopping(WalletServiceStoppingException exception){
+        ProblemDetail problemDetail = ProblemDetail.forStatusAndDetail(HttpStatus.SERVICE_UNAVAILABLE,exception.getMessage());
+        if (exception instanceof OperationDeferredException deferred) {
+            problemDetail.setProperty("operationId", deferred.getOperationId());
+        }
+        long retryAfterSeconds = Math.max(1, (exception.getRetryAfter().toMillis() + 999) / 1000);
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                .body(problemDetail);
+    }
+
+    /**
+     * Обрабатывает запросы к кошелькам, которые обслуживает другой экземпляр сервиса.
+     * Возвращает статус TEMPORARY REDIRECT (307) с адресом того же запроса на экземпляре-владельце:
+     * клиент повторяет запрос с тем же методом и телом. Если владелец сейчас не определён,
+     * возвращает статус SERVICE UNAVAILABLE (503) и заголовок Retry-After.
+     */
+    @ExceptionHandler(WalletNotOwnedException.class)
+    public ResponseEntity<ProblemDetail> notOwned(WalletNotOwnedException exception, HttpServletRequest request){
+        if (exception.getOwnerUrl() == null) {
+            ProblemDetail problemDetail = ProblemDetail.forStatusAndDetail(HttpStatus.SERVICE_UNAVAILABLE,exception.getMessage());
+            long retryAfterSeconds = Math.max(1, (exception.getRetryAfter().toMillis() + 999) / 1000);
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                    .body(problemDetail);
+        }
+        String location = exception.getOwnerUrl() + request.getRequestURI()
+                + (request.getQueryString() != null ? "?" + request.getQueryString() : "");
+        ProblemDetail problemDetail = ProblemDetail.forStatusAndDetail(HttpStatus.TEMPORARY_REDIRECT,exception.getMessage());
+        return ResponseEntity.status(HttpStatus.TEMPORARY_REDIRECT)
+                .header(HttpHeaders.LOCATION, location)
+                .body(problemDetail);
+    }
+
+    /**
+     * Обрабатывает суммы с лишними знаками после запятой или выходящие за допустимые пределы.
+     * Возвращает статус BAD REQUEST (400).
+     */
+    @ExceptionHandler(AmountOutOfRangeException.class)
+    public ResponseEntity<ProblemDetail> amountOutOfRange(AmountOutOfRangeException exception){
+        ProblemDetail problemDetail = ProblemDetail.forStatusAndDetail(HttpStatus.BAD_REQUEST,exception.getMessage());
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(problemDetail);
+    }
+
+    /**
+     * Обрабатывает операции, которые не поддерживаются выбранным режимом работы сервиса.
+     * Возвращает статус BAD REQUEST (400).
+     */
+    @ExceptionHandler(UnsupportedOperationTypeException.class)
+    public ResponseEntity<ProblemDetail> unsupportedOperation(UnsupportedOperationTypeException exception){
+        ProblemDetail problemDetail = ProblemDetail.forStatusAndDetail(HttpStatus.BAD_REQUEST,exception.getMessage());
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(problemDetail);
+    }
+
     /**
      * Обрабатывает случаи нехватки средств на счёте.
      * Возвращает статус BAD REQUEST (400).
@@ -62,4 +144,14 @@ public class GlobalExceptionHandler {
         return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(problemDetail);
     }
 
+    /**
+     * Обрабатывает повтор ключа идемпотентности с другими параметрами операции.
+     * Возвращает статус UNPROCESSABLE ENTITY (422).
+     */
+    @ExceptionHandler(IdempotencyKeyReusedException.class)
+    public ResponseEntity<ProblemDetail> idempotencyKeyReused(IdempotencyKeyReusedException exception){
+        ProblemDetail problemDetail = ProblemDetail.forStatusAndDetail(HttpStatus.UNPROCESSABLE_ENTITY,exception.getMessage());
+        return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(problemDetail);
+    }
+
 }
@@ -0,0 +1,11 @@
+package ru.buzynnikov.wallet_service.exceptions;
+
+/**
+ * Исключение возникает, когда сумма имеет больше двух знаков после запятой
+ * или выходит за пределы, допустимые для хранения баланса.
+ */
+public class AmountOutOfRangeException extends RuntimeException {
+    public AmountOutOfRangeException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,11 @@
+package ru.buzynnikov.wallet_service.exceptions;
+
+/**
+ * Исключение возникает в транзакции изменения баланса, когда ключ идемпотентности одной из операций
+ * уже сохранён другой транзакцией. Транзакция откатывается, а операция с этим ключом считается уже применённой.
+ */
+public class DuplicateOperationException extends RuntimeException {
+    public DuplicateOperationException(String message) {
+        super(message);
+    }
+}
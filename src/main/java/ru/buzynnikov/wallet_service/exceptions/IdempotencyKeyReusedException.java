@@ -0,0 +1,11 @@
+package ru.buzynnikov.wallet_service.exceptions;
+
+/**
+ * Исключение возникает, когда ключ идемпотентности уже использован для другой операции:
+ * с другим кошельком, типом, суммой или получателем перевода.
+ */
+public class IdempotencyKeyReusedException extends RuntimeException {
+    public IdempotencyKeyReusedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,24 @@
+package ru.buzynnikov.wallet_service.exceptions;
+
+import java.time.Duration;
+import java.util.UUID;
+
+/**
+ * Исключение возникает, когда экземпляр сервиса останавливается, не успев применить принятую операцию,
+ * а операция записана в журнал упреждающей записи: она будет применена после перезапуска экземпляра.
+ * Повторять такую операцию без ключа идемпотентности нельзя — она будет применена дважды;
+ * повтор с ключом {@link #getOperationId()} вернёт её результат.
+ */
+public class OperationDeferredException extends WalletServiceStoppingException {
+
+    private final UUID operationId;
+
+    public OperationDeferredException(String message, Duration retryAfter, UUID operationId) {
+        super(message, retryAfter);
+        this.operationId = operationId;
+    }
+
+    public UUID getOperationId() {
+        return operationId;
+    }
+}
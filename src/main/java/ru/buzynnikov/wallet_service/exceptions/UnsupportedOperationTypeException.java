@@ -0,0 +1,10 @@
+package ru.buzynnikov.wallet_service.exceptions;
+
+/**
+ * Исключение возникает, когда тип операции не поддерживается выбранным режимом работы сервиса.
+ */
+public class UnsupportedOperationTypeException extends RuntimeException {
+    public UnsupportedOperationTypeException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,32 @@
+package ru.buzynnikov.wallet_service.exceptions;
+
+import java.time.Duration;
+
+/**
+ * Исключение возникает, когда кошелёк обслуживается другим экземпляром сервиса.
+ * Если владелец известен, клиент перенаправляется по адресу {@link #getOwnerUrl()};
+ * иначе запрос следует повторить не раньше, чем через {@link #getRetryAfter()}.
+ */
+public class WalletNotOwnedException extends RuntimeException {
+
+    private final String ownerUrl;
+
+    private final Duration retryAfter;
+
+    public WalletNotOwnedException(String message, String ownerUrl, Duration retryAfter) {
+        super(message);
+        this.ownerUrl = ownerUrl;
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * Возвращает базовый адрес экземпляра-владельца или {@code null}, если владелец сейчас не определён.
+     */
+    public String getOwnerUrl() {
+        return ownerUrl;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -0,0 +1,21 @@
+package ru.buzynnikov.wallet_service.exceptions;
+
+import java.time.Duration;
+
+/**
+ * Исключение возникает, когда очередь операций кошелька или общая очередь операций переполнена.
+ * Клиенту следует повторить запрос не раньше, чем через {@link #getRetryAfter()}.
+ */
+public class WalletOverloadedException extends RuntimeException {
+
+    private final Duration retryAfter;
+
+    public WalletOverloadedException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
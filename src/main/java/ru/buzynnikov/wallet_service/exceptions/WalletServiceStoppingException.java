@@ -0,0 +1,23 @@
+package ru.buzynnikov.wallet_service.exceptions;
+
+import java.time.Duration;
+
+/**
+ * Исключение возникает, когда экземпляр сервиса останавливается: новые операции не принимаются,
+ * а операции, не применённые до окончания времени на завершение очередей, отклоняются.
+ * Операция, завершённая этим исключением, не применена; клиенту следует повторить запрос
+ * не раньше, чем через {@link #getRetryAfter()}, — обычно его уже обслужит другой экземпляр.
+ */
+public class WalletServiceStoppingException extends RuntimeException {
+
+    private final Duration retryAfter;
+
+    public WalletServiceStoppingException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
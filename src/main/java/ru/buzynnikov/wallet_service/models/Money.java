@@ -0,0 +1,167 @@
+package ru.buzynnikov.wallet_service.models;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+import ru.buzynnikov.wallet_service.exceptions.AmountOutOfRangeException;
+
+import java.math.BigDecimal;
+
+/**
+ * Денежная сумма с фиксированной точностью, хранимая как число копеек в {@code long}.
+ *
+ * Используется для балансов и сумм операций внутри сервиса: сложение, вычитание и сравнение
+ * выполняются над {@code long} без создания промежуточных объектов. В {@link BigDecimal}
+ * сумма преобразуется только на границах — при чтении и записи JSON и при обмене с базой данных.
+ * Допустимые значения соответствуют столбцу {@code DECIMAL(15,2)}: не более двух знаков после запятой
+ * и не более {@link #MAX_MINOR_UNITS} копеек по модулю. Нарушение этих ограничений, в том числе
+ * переполнение при сложении, приводит к {@link AmountOutOfRangeException}; округление не выполняется никогда.
+ */
+public final class Money extends Number implements Comparable<Money> {
+
+    /**
+     * Число знаков после запятой.
+     */
+    public static final int SCALE = 2;
+
+    /**
+     * Наибольшее по модулю значение в копейках, помещающееся в {@code DECIMAL(15,2)}.
+     */
+    public static final long MAX_MINOR_UNITS = 999_999_999_999_999L;
+
+    public static final Money ZERO = new Money(0);
+
+    private final long minorUnits;
+
+    private Money(long minorUnits) {
+        this.minorUnits = minorUnits;
+    }
+
+    /**
+     * Создаёт сумму из числа копеек.
+     *
+     * @throws AmountOutOfRangeException если значение не помещается в {@code DECIMAL(15,2)}.
+     */
+    public static Money ofMinorUnits(long minorUnits) {
+        return minorUnits == 0 ? ZERO : new Money(checkRange(minorUnits));
+    }
+
+    /**
+     * Создаёт сумму из десятичного значения без округления.
+     *
+     * @throws AmountOutOfRangeException если у значения больше двух значащих знаков после запятой
+     *                                   или оно не помещается в {@code DECIMAL(15,2)}.
+     */
+    @JsonCreator
+    public static Money of(BigDecimal amount) {
+        try {
+            return ofMinorUnits(amount.movePointRight(SCALE).longValueExact());
+        } catch (ArithmeticException e) {
+            throw new AmountOutOfRangeException("Сумма " + amount.toPlainString()
+                    + " должна иметь не более " + SCALE + " знаков после запятой и не превышать "
+                    + BigDecimal.valueOf(MAX_MINOR_UNITS, SCALE).toPlainString());
+        }
+    }
+
+    /**
+     * Создаёт сумму из строкового десятичного значения, например {@code "10.50"}.
+     */
+    public static Money of(String amount) {
+        return of(new BigDecimal(amount));
+    }
+
+    /**
+     * Складывает суммы в копейках с проверкой переполнения.
+     *
+     * @throws AmountOutOfRangeException если результат не помещается в {@code DECIMAL(15,2)}.
+     */
+    public static long addExact(long minorUnits, long otherMinorUnits) {
+        return checkRange(minorUnits + otherMinorUnits);
+    }
+
+    /**
+     * Вычитает суммы в копейках с проверкой переполнения.
+     *
+     * @throws AmountOutOfRangeException если результат не помещается в {@code DECIMAL(15,2)}.
+     */
+    public static long subtractExact(long minorUnits, long otherMinorUnits) {
+        return checkRange(minorUnits - otherMinorUnits);
+    }
+
+    public long minorUnits() {
+        return minorUnits;
+    }
+
+    public Money plus(Money other) {
+        return ofMinorUnits(addExact(minorUnits, other.minorUnits));
+    }
+
+    public Money minus(Money other) {
+        return ofMinorUnits(subtractExact(minorUnits, other.minorUnits));
+    }
+
+    public Money negate() {
+        return ofMinorUnits(-minorUnits);
+    }
+
+    /**
+     * Возвращает сумму в виде {@link BigDecimal} с двумя знаками после запятой; используется для JSON и JDBC.
+     */
+    @JsonValue
+    public BigDecimal toBigDecimal() {
+        return BigDecimal.valueOf(minorUnits, SCALE);
+    }
+
+    @Override
+    public int intValue() {
+        return (int) longValue();
+    }
+
+    @Override
+    public long longValue() {
+        return minorUnits / 100;
+    }
+
+    @Override
+    public float floatValue() {
+        return (float) doubleValue();
+    }
+
+    @Override
+    public double doubleValue() {
+        return minorUnits / 100.0;
+    }
+
+    @Override
+    public int compareTo(Money other) {
+        return Long.compare(minorUnits, other.minorUnits);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        return minorUnits == ((Money) o).minorUnits;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(minorUnits);
+    }
+
+    @Override
+    public String toString() {
+        return toBigDecimal().toPlainString();
+    }
+
+    /**
+     * Проверяет, что значение в копейках помещается в {@code DECIMAL(15,2)}.
+     * Сумма двух допустимых значений не переполняет {@code long}, поэтому проверки диапазона результата достаточно.
+     */
+    private static long checkRange(long minorUnits) {
+        if (minorUnits > MAX_MINOR_UNITS || minorUnits < -MAX_MINOR_UNITS) {
+            throw new AmountOutOfRangeException("Сумма превышает допустимое значение "
+                    + BigDecimal.valueOf(MAX_MINOR_UNITS, SCALE).toPlainString());
+        }
+        return minorUnits;
+    }
+}
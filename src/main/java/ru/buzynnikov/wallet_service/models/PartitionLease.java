@@ -0,0 +1,14 @@
+package ru.buzynnikov.wallet_service.models;
+
+import java.time.Instant;
+
+/**
+ * Аренда раздела кошельков экземпляром сервиса (таблица {@code wallet_partition_lease}).
+ *
+ * @param partition номер раздела.
+ * @param nodeId    идентификатор экземпляра-владельца; {@code null}, если раздел свободен.
+ * @param nodeUrl   базовый адрес экземпляра-владельца.
+ * @param expiresAt момент окончания аренды.
+ */
+public record PartitionLease(int partition, String nodeId, String nodeUrl, Instant expiresAt) {
+}
@@ -2,17 +2,17 @@ package ru.buzynnikov.wallet_service.models;
 
 
 import jakarta.persistence.Column;
+import jakarta.persistence.Convert;
 import jakarta.persistence.Entity;
 import jakarta.persistence.Id;
 import jakarta.persistence.Version;
 
-import java.math.BigDecimal;
 import java.util.Objects;
 import java.util.UUID;
 
 /**
  * Entity-класс для хранения информации о кошельке.
- * Содержит идентификатор кошелька и текущий баланс.
+ * Содержит идентификатор кошелька, текущий баланс и версию строки для оптимистической блокировки.
  */
 @Entity
 public class Wallet {
@@ -20,8 +20,11 @@ public class Wallet {
     @Id
     private UUID id;
     @Column(nullable = false)
-    private BigDecimal balance;
-
+    @Convert(converter = MoneyConverter.class)
+    private Money balance;
+    @Version
+    @Column(nullable = false)
+    private Long version;
 
     public UUID getId() {
         return id;
@@ -32,14 +35,18 @@ public class Wallet {
     }
 
 
-    public BigDecimal getBalance() {
+    public Money getBalance() {
         return balance;
     }
 
-    public void setBalance(BigDecimal balance) {
+    public void setBalance(Money balance) {
         this.balance = balance;
     }
 
+    public Long getVersion() {
+        return version;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
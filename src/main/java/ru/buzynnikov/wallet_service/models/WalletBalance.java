@@ -0,0 +1,12 @@
+package ru.buzynnikov.wallet_service.models;
+
+import java.util.UUID;
+
+/**
+ * Баланс кошелька, прочитанный запросом-проекцией без загрузки сущности {@link Wallet} в контекст персистентности.
+ *
+ * @param id      идентификатор кошелька.
+ * @param balance баланс кошелька.
+ */
+public record WalletBalance(UUID id, Money balance) {
+}
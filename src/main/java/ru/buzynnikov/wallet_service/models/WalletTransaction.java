@@ -0,0 +1,27 @@
+package ru.buzynnikov.wallet_service.models;
+
+import ru.buzynnikov.wallet_service.controllers.dto.OperationType;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Запись журнала операций кошелька. Журнал только дополняется и хранится в таблице {@code wallet_transaction}.
+ *
+ * @param id            идентификатор записи.
+ * @param walletId      идентификатор кошелька.
+ * @param operationType тип операции.
+ * @param amount        сумма операции.
+ * @param balance       баланс кошелька после операции.
+ * @param createdAt     время фиксации операции.
+ * @param targetWalletId второй кошелёк перевода: получатель для {@code TRANSFER}, отправитель для {@code TRANSFER_IN};
+ *                      {@code null} для других операций.
+ */
+public record WalletTransaction(UUID id,
+                                UUID walletId,
+                                OperationType operationType,
+                                Money amount,
+                                Money balance,
+                                Instant createdAt,
+                                UUID targetWalletId) {
+}
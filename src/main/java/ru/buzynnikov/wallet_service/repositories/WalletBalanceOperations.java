@@ -0,0 +1,64 @@
+package ru.buzynnikov.wallet_service.repositories;
+
+import ru.buzynnikov.wallet_service.models.Money;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Атомарные операции над балансом кошелька, выполняемые одним SQL-запросом без чтения сущности.
+ */
+public interface WalletBalanceOperations {
+
+    /**
+     * Изменяет баланс кошелька на {@code delta}, если итоговый баланс не станет отрицательным.
+     * Проверка и изменение выполняются одним условным запросом UPDATE, поэтому корректность
+     * не зависит от того, сколько потоков или экземпляров сервиса меняют баланс одновременно.
+     *
+     * @param id    идентификатор кошелька.
+     * @param delta изменение баланса: положительное для пополнения, отрицательное для списания.
+     * @return новый баланс или пустой {@link Optional}, если кошелёк не найден или средств недостаточно.
+     */
+    Optional<Money> applyDelta(UUID id, Money delta);
+
+    /**
+     * Читает баланс кошелька и блокирует его строку до конца транзакции ({@code SELECT ... FOR UPDATE}).
+     * Пока кошелёк изменяет один экземпляр сервиса, блокировка не ожидает; при передаче кошелька другому экземпляру
+     * она упорядочивает транзакции прежнего и нового владельца и исключает потерянные обновления.
+     * Должен вызываться в транзакции.
+     *
+     * @param id идентификатор кошелька.
+     * @return баланс или пустой {@link Optional}, если кошелёк не найден.
+     */
+    Optional<Money> findBalanceForUpdate(UUID id);
+
+    /**
+     * Читает балансы нескольких кошельков и блокирует их строки до конца транзакции.
+     * Строки блокируются в порядке первичного ключа, одинаковом для всех транзакций, поэтому транзакции,
+     * блокирующие пересекающиеся наборы кошельков (например, встречные переводы), не образуют взаимной блокировки.
+     * Должен вызываться в транзакции.
+     *
+     * @param ids идентификаторы кошельков.
+     * @return балансы найденных кошельков; ненайденные кошельки в результат не попадают.
+     */
+    Map<UUID, Money> findBalancesForUpdate(Collection<UUID> ids);
+
+    /**
+     * Передаёт идентификаторы всех кошельков в {@code action} страницами по первичному ключу,
+     * не загружая их в память одновременно.
+     *
+     * @param action обработчик идентификатора кошелька.
+     */
+    void forEachWalletId(Consumer<UUID> action);
+
+    /**
+     * Записывает балансы нескольких кошельков одним JDBC-пакетом запросов UPDATE.
+     * Должен вызываться в транзакции.
+     *
+     * @param balances новые балансы по идентификаторам кошельков.
+     */
+    void updateBalances(Map<UUID, Money> balances);
+}
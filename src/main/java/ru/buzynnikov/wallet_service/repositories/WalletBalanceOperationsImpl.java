@@ -0,0 +1,110 @@
+package ru.buzynnikov.wallet_service.repositories;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.MetaDataAccessException;
+import ru.buzynnikov.wallet_service.models.Money;
+
+import javax.sql.DataSource;
+import java.sql.DatabaseMetaData;
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Реализация {@link WalletBalanceOperations} на {@link JdbcTemplate}.
+ * Для PostgreSQL используется {@code UPDATE ... RETURNING}, для H2 — эквивалентная выборка
+ * из {@code FINAL TABLE}. В обоих случаях к базе выполняется ровно один запрос.
+ */
+public class WalletBalanceOperationsImpl implements WalletBalanceOperations {
+
+    private static final String POSTGRES_APPLY_DELTA = """
+            UPDATE wallet SET balance = balance + ?, version = version + 1 WHERE id = ? AND balance + ? >= 0 RETURNING balance""";
+
+    private static final String H2_APPLY_DELTA = """
+            SELECT balance FROM FINAL TABLE (UPDATE wallet SET balance = balance + ?, version = version + 1 WHERE id = ? AND balance + ? >= 0)""";
+
+    private static final String SELECT_BALANCE_FOR_UPDATE = """
+            SELECT balance FROM wallet WHERE id = ? FOR UPDATE""";
+
+    private static final String SELECT_BALANCES_FOR_UPDATE = """
+            SELECT id, balance FROM wallet WHERE id IN (%s) ORDER BY id FOR UPDATE""";
+
+    private static final String SELECT_FIRST_IDS = """
+            SELECT id FROM wallet ORDER BY id LIMIT ?""";
+
+    private static final String SELECT_NEXT_IDS = """
+            SELECT id FROM wallet WHERE id > ? ORDER BY id LIMIT ?""";
+
+    private static final int ID_PAGE_SIZE = 10_000;
+
+    private static final String UPDATE_BALANCE = """
+            UPDATE wallet SET balance = ?, version = version + 1 WHERE id = ?""";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final String applyDeltaSql;
+
+    public WalletBalanceOperationsImpl(JdbcTemplate jdbcTemplate, DataSource dataSource) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.applyDeltaSql = isH2(dataSource) ? H2_APPLY_DELTA : POSTGRES_APPLY_DELTA;
+    }
+
+    @Override
+    public Optional<Money> applyDelta(UUID id, Money delta) {
+        BigDecimal value = delta.toBigDecimal();
+        return jdbcTemplate.query(applyDeltaSql, rs -> rs.next() ? Optional.of(Money.of(rs.getBigDecimal(1))) : Optional.empty(),
+                value, id, value);
+    }
+
+    @Override
+    public Optional<Money> findBalanceForUpdate(UUID id) {
+        return jdbcTemplate.query(SELECT_BALANCE_FOR_UPDATE,
+                rs -> rs.next() ? Optional.of(Money.of(rs.getBigDecimal(1))) : Optional.empty(), id);
+    }
+
+    @Override
+    public Map<UUID, Money> findBalancesForUpdate(Collection<UUID> ids) {
+        if (ids.isEmpty()) return Map.of();
+        String sql = SELECT_BALANCES_FOR_UPDATE.formatted(String.join(", ", Collections.nCopies(ids.size(), "?")));
+        Map<UUID, Money> balances = new HashMap<>(ids.size());
+        jdbcTemplate.query(sql, rs -> {
+            balances.put(rs.getObject(1, UUID.class), Money.of(rs.getBigDecimal(2)));
+        }, ids.toArray());
+        return balances;
+    }
+
+    @Override
+    public void forEachWalletId(Consumer<UUID> action) {
+        List<UUID> page = jdbcTemplate.queryForList(SELECT_FIRST_IDS, UUID.class, ID_PAGE_SIZE);
+        while (!page.isEmpty()) {
+            page.forEach(action);
+            if (page.size() < ID_PAGE_SIZE) return;
+            page = jdbcTemplate.queryForList(SELECT_NEXT_IDS, UUID.class, page.get(page.size() - 1), ID_PAGE_SIZE);
+        }
+    }
+
+    @Override
+    public void updateBalances(Map<UUID, Money> balances) {
+        if (balances.isEmpty()) return;
+        List<Object[]> arguments = balances.entrySet().stream()
+                .map(entry -> new Object[]{entry.getValue().toBigDecimal(), entry.getKey()})
+                .toList();
+        jdbcTemplate.batchUpdate(UPDATE_BALANCE, arguments);
+    }
+
+    private static boolean isH2(DataSource dataSource) {
+        try {
+            String product = JdbcUtils.extractDatabaseMetaData(dataSource, DatabaseMetaData::getDatabaseProductName);
+            return "H2".equalsIgnoreCase(product);
+        } catch (MetaDataAccessException e) {
+            throw new IllegalStateException("Не удалось определить тип базы данных", e);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package ru.buzynnikov.wallet_service.repositories;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.MetaDataAccessException;
+import org.springframework.stereotype.Repository;
+import ru.buzynnikov.wallet_service.controllers.dto.OperationType;
+import ru.buzynnikov.wallet_service.models.Money;
+import ru.buzynnikov.wallet_service.models.WalletTransaction;
+
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.sql.DatabaseMetaData;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Репозиторий ключей идемпотентности применённых операций (таблица {@code wallet_operation}).
+ * Ключ записывается в той же транзакции, что и изменение баланса, поэтому наличие ключа
+ * означает, что операция уже применена. Вместе с ключом хранятся кошелёк, тип, сумма операции и получатель перевода,
+ * чтобы повтор ключа с другими параметрами можно было отличить от повтора той же операции.
+ * Для PostgreSQL ключи добавляются запросом {@code INSERT ... ON CONFLICT DO NOTHING}, для H2 — эквивалентным
+ * {@code MERGE ... WHEN NOT MATCHED}: уже сохранённый ключ не вызывает ошибку, а не попадает в число добавленных.
+ */
+@Repository
+public class WalletOperationRepository {
+
+    private static final String POSTGRES_INSERT = """
+            INSERT INTO wallet_operation (id, wallet_id, operation_type, amount, balance, created_at, target_wallet_id) VALUES %s
+            ON CONFLICT (id) DO NOTHING""";
+
+    private static final String POSTGRES_VALUES_ROW = "(?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String H2_INSERT = """
+            MERGE INTO wallet_operation t
+            USING (VALUES %s) AS s (id, wallet_id, operation_type, amount, balance, created_at, target_wallet_id) ON t.id = s.id
+            WHEN NOT MATCHED THEN INSERT (id, wallet_id, operation_type, amount, balance, created_at, target_wallet_id)
+            VALUES (s.id, s.wallet_id, s.operation_type, s.amount, s.balance, s.created_at, s.target_wallet_id)""";
+
+    private static final String H2_VALUES_ROW = """
+            (CAST(? AS UUID), CAST(? AS UUID), CAST(? AS VARCHAR(16)), CAST(? AS DECIMAL(15, 2)), \
+            CAST(? AS DECIMAL(15, 2)), CAST(? AS TIMESTAMP WITH TIME ZONE), CAST(? AS UUID))""";
+
+    /**
+     * Наибольшее число ключей в одном запросе добавления; семь параметров на ключ
+     * не выходят за ограничение PostgreSQL на число параметров запроса.
+     */
+    private static final int INSERT_CHUNK_SIZE = 1_000;
+
+    private static final String SELECT_BY_ID = """
+            SELECT id, wallet_id, operation_type, amount, balance, created_at, target_wallet_id FROM wallet_operation WHERE id = ?""";
+
+    private static final String SELECT_BY_IDS = """
+            SELECT id, wallet_id, operation_type, amount, balance, created_at, target_wallet_id FROM wallet_operation WHERE id IN (%s)""";
+
+    private static final String DELETE_OLDER_THAN = """
+            DELETE FROM wallet_operation WHERE created_at < ?""";
+
+    private static final RowMapper<WalletTransaction> OPERATION_MAPPER = (rs, rowNum) -> {
+        String operationType = rs.getString(3);
+        BigDecimal amount = rs.getBigDecimal(4);
+        return new WalletTransaction(
+                rs.getObject(1, UUID.class),
+                rs.getObject(2, UUID.class),
+                operationType != null ? OperationType.valueOf(operationType) : null,
+                amount != null ? Money.of(amount) : null,
+                Money.of(rs.getBigDecimal(5)),
+                rs.getObject(6, OffsetDateTime.class).toInstant(),
+                rs.getObject(7, UUID.class));
+    };
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final String insertSql;
+
+    private final String valuesRow;
+
+    public WalletOperationRepository(JdbcTemplate jdbcTemplate, DataSource dataSource) {
+        this.jdbcTemplate = jdbcTemplate;
+        boolean h2 = isH2(dataSource);
+        this.insertSql = h2 ? H2_INSERT : POSTGRES_INSERT;
+        this.valuesRow = h2 ? H2_VALUES_ROW : POSTGRES_VALUES_ROW;
+    }
+
+    /**
+     * Возвращает операцию, применённую с указанным ключом.
+     * У ключей, сохранённых до появления в таблице типа и суммы операции, эти поля равны {@code null}.
+     *
+     * @param operationId ключ идемпотентности.
+     * @return операция с балансом кошелька после неё или пустой {@link Optional}, если операция с таким ключом не применялась.
+     */
+    public Optional<WalletTransaction> findById(UUID operationId) {
+        return jdbcTemplate.query(SELECT_BY_ID, OPERATION_MAPPER, operationId).stream().findFirst();
+    }
+
+    /**
+     * Возвращает операции, применённые с указанными ключами, одним запросом.
+     *
+     * @param operationIds ключи идемпотентности.
+     * @return найденные операции по ключу.
+     */
+    public Map<UUID, WalletTransaction> findAllById(Collection<UUID> operationIds) {
+        if (operationIds.isEmpty()) return Map.of();
+        String sql = SELECT_BY_IDS.formatted(String.join(", ", Collections.nCopies(operationIds.size(), "?")));
+        Map<UUID, WalletTransaction> operations = new HashMap<>(operationIds.size());
+        for (WalletTransaction operation : jdbcTemplate.query(sql, OPERATION_MAPPER, operationIds.toArray())) {
+            operations.put(operation.id(), operation);
+        }
+        return operations;
+    }
+
+    /**
+     * Сохраняет ключи применённых операций. Должен вызываться в транзакции, изменяющей баланс.
+     * Ключи, которые уже сохранены, пропускаются без ошибки; если ключ сохраняет параллельная транзакция,
+     * запрос дожидается её завершения.
+     *
+     * @param operations записи журнала операций, у которых идентификатор совпадает с ключом идемпотентности.
+     * @return число добавленных ключей; меньше числа операций, если часть ключей уже была сохранена.
+     */
+    public int saveAll(List<WalletTransaction> operations) {
+        int inserted = 0;
+        for (int from = 0; from < operations.size(); from += INSERT_CHUNK_SIZE) {
+            List<WalletTransaction> chunk = operations.subList(from, Math.min(from + INSERT_CHUNK_SIZE, operations.size()));
+            String sql = insertSql.formatted(String.join(", ", Collections.nCopies(chunk.size(), valuesRow)));
+            List<Object> arguments = new ArrayList<>(chunk.size() * 7);
+            for (WalletTransaction operation : chunk) {
+                arguments.add(operation.id());
+                arguments.add(operation.walletId());
+                arguments.add(operation.operationType().name());
+                arguments.add(operation.amount().toBigDecimal());
+                arguments.add(operation.balance().toBigDecimal());
+                arguments.add(operation.createdAt().atOffset(ZoneOffset.UTC));
+                arguments.add(operation.targetWalletId());
+            }
+            inserted += jdbcTemplate.update(sql, arguments.toArray());
+        }
+        return inserted;
+    }
+
+    /**
+     * Удаляет ключи, сохранённые раньше указанного момента.
+     *
+     * @return количество удалённых ключей.
+     */
+    public int deleteOlderThan(Instant threshold) {
+        return jdbcTemplate.update(DELETE_OLDER_THAN, threshold.atOffset(ZoneOffset.UTC));
+    }
+
+    private static boolean isH2(DataSource dataSource) {
+        try {
+            String product = JdbcUtils.extractDatabaseMetaData(dataSource, DatabaseMetaData::getDatabaseProductName);
+            return "H2".equalsIgnoreCase(product);
+        } catch (MetaDataAccessException e) {
+            throw new IllegalStateException("Не удалось определить тип базы данных", e);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package ru.buzynnikov.wallet_service.repositories;
+
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.buzynnikov.wallet_service.models.PartitionLease;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Репозиторий аренды разделов кошельков (таблица {@code wallet_partition_lease})
+ * и живых экземпляров сервиса (таблица {@code wallet_node}).
+ * Захват и продление аренды выполняются одним условным запросом UPDATE, поэтому раздел
+ * не может быть арендован двумя экземплярами одновременно.
+ */
+@Repository
+public class WalletPartitionLeaseRepository {
+
+    private static final String SELECT_PARTITION_IDS = """
+            SELECT partition_id FROM wallet_partition_lease""";
+
+    private static final String INSERT_PARTITION = """
+            INSERT INTO wallet_partition_lease (partition_id, expires_at) VALUES (?, ?)""";
+
+    private static final String SELECT_LEASES = """
+            SELECT partition_id, node_id, node_url, expires_at FROM wallet_partition_lease ORDER BY partition_id""";
+
+    private static final String ACQUIRE = """
+            UPDATE wallet_partition_lease SET node_id = ?, node_url = ?, expires_at = ?
+            WHERE partition_id = ? AND (node_id IS NULL OR node_id = ? OR expires_at < ?)""";
+
+    private static final String RELEASE = """
+            UPDATE wallet_partition_lease SET node_id = NULL, node_url = NULL, expires_at = ?
+            WHERE partition_id = ? AND node_id = ?""";
+
+    private static final String UPDATE_NODE = """
+            UPDATE wallet_node SET node_url = ?, expires_at = ? WHERE node_id = ?""";
+
+    private static final String INSERT_NODE = """
+            INSERT INTO wallet_node (node_id, node_url, expires_at) VALUES (?, ?, ?)""";
+
+    private static final String DELETE_NODE = """
+            DELETE FROM wallet_node WHERE node_id = ?""";
+
+    private static final String COUNT_LIVE_NODES = """
+            SELECT COUNT(*) FROM wallet_node WHERE expires_at > ?""";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public WalletPartitionLeaseRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Создаёт свободные записи для разделов с номерами от 0 до {@code partitions - 1}, которых ещё нет в таблице.
+     * Записи, одновременно созданные другим экземпляром, пропускаются.
+     */
+    public void createPartitions(int partitions) {
+        Set<Integer> existing = new HashSet<>(jdbcTemplate.queryForList(SELECT_PARTITION_IDS, Integer.class));
+        for (int partition = 0; partition < partitions; partition++) {
+            if (!existing.contains(partition)) {
+                try {
+                    jdbcTemplate.update(INSERT_PARTITION, partition, Instant.EPOCH.atOffset(ZoneOffset.UTC));
+                } catch (DuplicateKeyException e) {
+                    // Раздел создан другим экземпляром.
+                }
+            }
+        }
+    }
+
+    /**
+     * Возвращает аренду всех разделов в порядке их номеров.
+     */
+    public List<PartitionLease> findAll() {
+        return jdbcTemplate.query(SELECT_LEASES, (rs, rowNum) -> new PartitionLease(rs.getInt(1), rs.getString(2),
+                rs.getString(3), rs.getObject(4, OffsetDateTime.class).toInstant()));
+    }
+
+    /**
+     * Захватывает свободный или просроченный раздел либо продлевает собственную аренду.
+     *
+     * @return {@code true}, если раздел арендован этим экземпляром до {@code expiresAt}.
+     */
+    public boolean acquire(int partition, String nodeId, String nodeUrl, Instant expiresAt, Instant now) {
+        return jdbcTemplate.update(ACQUIRE, nodeId, nodeUrl, expiresAt.atOffset(ZoneOffset.UTC), partition, nodeId,
+                now.atOffset(ZoneOffset.UTC)) == 1;
+    }
+
+    /**
+     * Освобождает раздел, если он арендован указанным экземпляром.
+     */
+    public void release(int partition, String nodeId) {
+        jdbcTemplate.update(RELEASE, Instant.EPOCH.atOffset(ZoneOffset.UTC), partition, nodeId);
+    }
+
+    /**
+     * Отмечает экземпляр живым до {@code expiresAt}.
+     */
+    public void heartbeat(String nodeId, String nodeUrl, Instant expiresAt) {
+        OffsetDateTime expires = expiresAt.atOffset(ZoneOffset.UTC);
+        if (jdbcTemplate.update(UPDATE_NODE, nodeUrl, expires, nodeId) == 0) {
+            try {
+                jdbcTemplate.update(INSERT_NODE, nodeId, nodeUrl, expires);
+            } catch (DuplicateKeyException e) {
+                jdbcTemplate.update(UPDATE_NODE, nodeUrl, expires, nodeId);
+            }
+        }
+    }
+
+    /**
+     * Удаляет отметку экземпляра при его остановке.
+     */
+    public void deleteNode(String nodeId) {
+        jdbcTemplate.update(DELETE_NODE, nodeId);
+    }
+
+    /**
+     * Возвращает число экземпляров, отметка которых не просрочена на момент {@code now}.
+     */
+    public int countLiveNodes(Instant now) {
+        Integer count = jdbcTemplate.queryForObject(COUNT_LIVE_NODES, Integer.class, now.atOffset(ZoneOffset.UTC));
+        return count != null ? count : 0;
+    }
+}
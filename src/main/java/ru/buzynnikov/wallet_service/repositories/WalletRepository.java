@@ -3,20 +3,59 @@ package ru.buzynnikov.wallet_service.repositories;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import ru.buzynnikov.wallet_service.models.Money;
 import ru.buzynnikov.wallet_service.models.Wallet;
+import ru.buzynnikov.wallet_service.models.WalletBalance;
 
-import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
 /**
  * Репозиторий для работы с моделями кошельков (Wallet).
  * Позволяет производить стандартные операции CRUD (создание, получение, обновление, удаление),
- * используя возможности инфраструктуры Spring Data JPA.
+ * используя возможности инфраструктуры Spring Data JPA, а также атомарно изменять баланс
+ * через {@link WalletBalanceOperations}.
  */
 @Repository
-public interface WalletRepository extends CrudRepository<Wallet, UUID> {
+public interface WalletRepository extends CrudRepository<Wallet, UUID>, WalletBalanceOperations {
 
+    /**
+     * Возвращает только баланс кошелька, не загружая сущность в контекст персистентности.
+     * Вне транзакции изменения баланса выполняется в транзакции только для чтения.
+     *
+     * @param id идентификатор кошелька.
+     * @return баланс кошелька или пустой {@link Optional}, если кошелёк не найден.
+     */
+    @Transactional(readOnly = true)
+    @Query("select w.balance from Wallet w where w.id = :id")
+    Optional<Money> findBalanceById(@Param("id") UUID id);
+
+    /**
+     * Возвращает балансы нескольких кошельков одним запросом-проекцией, не загружая сущности в контекст персистентности.
+     * Вне транзакции изменения баланса выполняется в транзакции только для чтения.
+     *
+     * @param ids идентификаторы кошельков.
+     * @return балансы найденных кошельков.
+     */
+    @Transactional(readOnly = true)
+    @Query("select new ru.buzynnikov.wallet_service.models.WalletBalance(w.id, w.balance) from Wallet w where w.id in :ids")
+    List<WalletBalance> findBalancesByIdIn(@Param("ids") Collection<UUID> ids);
+
+    /**
+     * Записывает новый баланс кошелька одним запросом UPDATE и увеличивает версию строки,
+     * чтобы конкурирующие изменения в режиме {@code optimistic} обнаружили конфликт.
+     *
+     * @param id      идентификатор кошелька.
+     * @param balance новый баланс.
+     * @return количество изменённых строк.
+     */
+    @Modifying
+    @Query("update Wallet w set w.balance = :balance, w.version = w.version + 1 where w.id = :id")
+    int updateBalance(@Param("id") UUID id, @Param("balance") Money balance);
 
 }
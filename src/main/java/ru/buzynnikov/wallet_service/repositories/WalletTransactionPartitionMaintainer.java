@@ -0,0 +1,136 @@
+package ru.buzynnikov.wallet_service.repositories;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.MetaDataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.buzynnikov.wallet_service.config.WalletProperties;
+
+import javax.sql.DataSource;
+import java.sql.DatabaseMetaData;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+/**
+ * Обслуживает месячные секции журнала операций {@code wallet_transaction} в PostgreSQL.
+ *
+ * При создании бина и затем ежедневно создаёт секции на текущий и несколько следующих месяцев, чтобы записи
+ * не попадали в секцию по умолчанию, и удаляет секции старше срока хранения. Бин создаётся после миграций Liquibase
+ * и раньше {@link WalletTransactionRepository}, поэтому секции существуют до первой записи в журнал, в том числе
+ * до повторного применения журнала упреждающей записи и до запуска веб-сервера.
+ * Если в секции по умолчанию уже есть записи за месяц новой секции (например, база данных создана другой версией
+ * сервиса), они переносятся в новую секцию. Удаление секции выполняется одной командой {@code DROP TABLE}
+ * без построчного удаления. Для других СУБД ничего не делает.
+ */
+@Component
+public class WalletTransactionPartitionMaintainer {
+
+    private static final Logger log = LoggerFactory.getLogger(WalletTransactionPartitionMaintainer.class);
+
+    private static final DateTimeFormatter PARTITION_SUFFIX = DateTimeFormatter.ofPattern("'y'yyyy'm'MM");
+
+    private static final String PARTITION_PREFIX = "wallet_transaction_";
+
+    private static final String DEFAULT_PARTITION = "wallet_transaction_default";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final WalletProperties.Ledger properties;
+
+    private final boolean postgres;
+
+    public WalletTransactionPartitionMaintainer(JdbcTemplate jdbcTemplate,
+                                                DataSource dataSource,
+                                                PlatformTransactionManager transactionManager,
+                                                WalletProperties properties) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.properties = properties.ledger();
+        this.postgres = isPostgres(dataSource);
+    }
+
+    @PostConstruct
+    @Scheduled(cron = "${wallet.ledger.maintenance-cron:0 0 3 * * *}")
+    public void maintainPartitions() {
+        if (!postgres) return;
+        YearMonth current = YearMonth.now(ZoneOffset.UTC);
+        for (int i = 0; i <= properties.partitionsAhead(); i++) {
+            createPartition(current.plusMonths(i));
+        }
+        if (properties.retentionMonths() > 0) {
+            dropPartitionsBefore(current.minusMonths(properties.retentionMonths()));
+        }
+    }
+
+    private void createPartition(YearMonth month) {
+        String partition = partitionName(month);
+        if (partitionExists(partition)) return;
+        LocalDate from = month.atDay(1);
+        LocalDate to = month.plusMonths(1).atDay(1);
+        String range = "FROM ('" + from + "') TO ('" + to + "')";
+        String misplaced = " WHERE created_at >= '" + from + "' AND created_at < '" + to + "'";
+        Boolean hasMisplacedRows = jdbcTemplate.queryForObject(
+                "SELECT EXISTS (SELECT 1 FROM " + DEFAULT_PARTITION + misplaced + ")", Boolean.class);
+        if (!Boolean.TRUE.equals(hasMisplacedRows)) {
+            jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + partition + " PARTITION OF wallet_transaction FOR VALUES " + range);
+            return;
+        }
+        // Секцию нельзя создать, пока в секции по умолчанию есть записи из её диапазона: секция по умолчанию
+        // отсоединяется, записи переносятся в новую секцию, и секция по умолчанию присоединяется обратно.
+        // Запись в журнал на это время блокируется.
+        Integer moved = transactionTemplate.execute(status -> {
+            jdbcTemplate.execute("LOCK TABLE wallet_transaction IN ACCESS EXCLUSIVE MODE");
+            if (partitionExists(partition)) return 0;
+            jdbcTemplate.execute("ALTER TABLE wallet_transaction DETACH PARTITION " + DEFAULT_PARTITION);
+            jdbcTemplate.execute("CREATE TABLE " + partition + " PARTITION OF wallet_transaction FOR VALUES " + range);
+            int rows = jdbcTemplate.update("INSERT INTO " + partition + " SELECT * FROM " + DEFAULT_PARTITION + misplaced);
+            jdbcTemplate.update("DELETE FROM " + DEFAULT_PARTITION + misplaced);
+            jdbcTemplate.execute("ALTER TABLE wallet_transaction ATTACH PARTITION " + DEFAULT_PARTITION + " DEFAULT");
+            return rows;
+        });
+        log.info("Создана секция журнала операций {}; из секции по умолчанию перенесено {} записей", partition, moved);
+    }
+
+    private boolean partitionExists(String partition) {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject("SELECT to_regclass(?) IS NOT NULL", Boolean.class, partition));
+    }
+
+    private void dropPartitionsBefore(YearMonth oldestKept) {
+        List<String> partitions = jdbcTemplate.queryForList("""
+                SELECT child.relname FROM pg_inherits
+                JOIN pg_class parent ON pg_inherits.inhparent = parent.oid
+                JOIN pg_class child ON pg_inherits.inhrelid = child.oid
+                WHERE parent.relname = 'wallet_transaction'""", String.class);
+        String oldestKeptName = partitionName(oldestKept);
+        for (String partition : partitions) {
+            if (partition.matches(PARTITION_PREFIX + "y\\d{4}m\\d{2}") && partition.compareTo(oldestKeptName) < 0) {
+                jdbcTemplate.execute("DROP TABLE " + partition);
+                log.info("Удалена секция журнала операций {}", partition);
+            }
+        }
+    }
+
+    private static String partitionName(YearMonth month) {
+        return PARTITION_PREFIX + PARTITION_SUFFIX.format(month);
+    }
+
+    private static boolean isPostgres(DataSource dataSource) {
+        try {
+            String product = JdbcUtils.extractDatabaseMetaData(dataSource, DatabaseMetaData::getDatabaseProductName);
+            return "PostgreSQL".equalsIgnoreCase(product);
+        } catch (MetaDataAccessException e) {
+            throw new IllegalStateException("Не удалось определить тип базы данных", e);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package ru.buzynnikov.wallet_service.repositories;
+
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+import ru.buzynnikov.wallet_service.controllers.dto.OperationType;
+import ru.buzynnikov.wallet_service.models.Money;
+import ru.buzynnikov.wallet_service.models.WalletTransaction;
+
+import javax.sql.DataSource;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Репозиторий журнала операций (таблица {@code wallet_transaction}).
+ * Записи вставляются JDBC-пакетами в транзакции, изменяющей баланс, и читаются постранично
+ * по ключу {@code (created_at, id)} от новых к старым.
+ * Создаётся после {@link WalletTransactionPartitionMaintainer}, чтобы секции журнала существовали до первой записи.
+ */
+@Repository
+@DependsOn("walletTransactionPartitionMaintainer")
+public class WalletTransactionRepository {
+
+    private static final String INSERT = """
+            INSERT INTO wallet_transaction (id, wallet_id, operation_type, amount, balance, created_at, target_wallet_id)
+            VALUES (?, ?, ?, ?, ?, ?, ?)""";
+
+    private static final String SELECT = """
+            SELECT id, wallet_id, operation_type, amount, balance, created_at, target_wallet_id FROM wallet_transaction
+            """;
+
+    private static final String FIRST_PAGE = SELECT + """
+            WHERE wallet_id = ?
+            ORDER BY created_at DESC, id DESC LIMIT ?""";
+
+    private static final String PAGE_BEFORE_TIME = SELECT + """
+            WHERE wallet_id = ? AND created_at < ?
+            ORDER BY created_at DESC, id DESC LIMIT ?""";
+
+    private static final String PAGE_BEFORE_KEY = SELECT + """
+            WHERE wallet_id = ? AND (created_at < ? OR (created_at = ? AND id < ?))
+            ORDER BY created_at DESC, id DESC LIMIT ?""";
+
+    private static final String RECENTLY_ACTIVE = """
+            SELECT wallet_id FROM wallet_transaction WHERE created_at > ?
+            GROUP BY wallet_id ORDER BY MAX(created_at) DESC LIMIT ?""";
+
+    private static final RowMapper<WalletTransaction> ROW_MAPPER = (rs, rowNum) -> new WalletTransaction(
+            rs.getObject("id", UUID.class),
+            rs.getObject("wallet_id", UUID.class),
+            OperationType.valueOf(rs.getString("operation_type")),
+            Money.of(rs.getBigDecimal("amount")),
+            Money.of(rs.getBigDecimal("balance")),
+            rs.getObject("created_at", OffsetDateTime.class).toInstant(),
+            rs.getObject("target_wallet_id", UUID.class));
+
+    /**
+     * Количество строк, получаемых драйвером за одно обращение при потоковом чтении страницы.
+     */
+    private static final int STREAM_FETCH_SIZE = 256;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final JdbcTemplate streamingJdbcTemplate;
+
+    public WalletTransactionRepository(JdbcTemplate jdbcTemplate, DataSource dataSource) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.streamingJdbcTemplate = new JdbcTemplate(dataSource);
+        this.streamingJdbcTemplate.setFetchSize(STREAM_FETCH_SIZE);
+    }
+
+    /**
+     * Добавляет записи в журнал одним JDBC-пакетом. Должен вызываться в транзакции, изменяющей баланс.
+     *
+     * @param transactions записи журнала.
+     */
+    public void saveAll(List<WalletTransaction> transactions) {
+        if (transactions.isEmpty()) return;
+        jdbcTemplate.batchUpdate(INSERT, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                WalletTransaction transaction = transactions.get(i);
+                ps.setObject(1, transaction.id());
+                ps.setObject(2, transaction.walletId());
+                ps.setString(3, transaction.operationType().name());
+                ps.setBigDecimal(4, transaction.amount().toBigDecimal());
+                ps.setBigDecimal(5, transaction.balance().toBigDecimal());
+                ps.setObject(6, transaction.createdAt().atOffset(ZoneOffset.UTC));
+                ps.setObject(7, transaction.targetWalletId());
+            }
+
+            @Override
+            public int getBatchSize() {
+                return transactions.size();
+            }
+        });
+    }
+
+    /**
+     * Возвращает поток записей журнала кошелька от новых к старым, начиная с позиции после ключа {@code (before, beforeId)}.
+     * Поток держит соединение с базой данных и должен быть закрыт. Чтобы PostgreSQL читал строки порциями,
+     * а не загружал страницу целиком, поток следует обрабатывать внутри транзакции.
+     *
+     * @param walletId идентификатор кошелька.
+     * @param before   время последней записи предыдущей страницы; {@code null} для первой страницы.
+     * @param beforeId идентификатор последней записи предыдущей страницы; может быть {@code null}.
+     * @param limit    максимальное число записей.
+     */
+    public Stream<WalletTransaction> streamPage(UUID walletId, Instant before, UUID beforeId, int limit) {
+        if (before == null) {
+            return streamingJdbcTemplate.queryForStream(FIRST_PAGE, ROW_MAPPER, walletId, limit);
+        }
+        OffsetDateTime time = before.atOffset(ZoneOffset.UTC);
+        if (beforeId == null) {
+            return streamingJdbcTemplate.queryForStream(PAGE_BEFORE_TIME, ROW_MAPPER, walletId, time, limit);
+        }
+        return streamingJdbcTemplate.queryForStream(PAGE_BEFORE_KEY, ROW_MAPPER, walletId, time, time, beforeId, limit);
+    }
+
+    /**
+     * Возвращает кошельки, у которых есть операции после указанного момента, начиная с последних изменённых.
+     * Условие по времени ограничивает чтение последними секциями журнала.
+     *
+     * @param since момент, после которого учитываются операции.
+     * @param limit максимальное число кошельков.
+     */
+    public List<UUID> findRecentlyActiveWalletIds(Instant since, int limit) {
+        return jdbcTemplate.queryForList(RECENTLY_ACTIVE, UUID.class, since.atOffset(ZoneOffset.UTC), limit);
+    }
+}
@@ -0,0 +1,154 @@
+package ru.buzynnikov.wallet_service.services;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.buzynnikov.wallet_service.controllers.dto.BalanceOfWalletResponse;
+import ru.buzynnikov.wallet_service.controllers.dto.ChangeAmountRequest;
+import ru.buzynnikov.wallet_service.controllers.dto.OperationType;
+import ru.buzynnikov.wallet_service.exceptions.DuplicateOperationException;
+import ru.buzynnikov.wallet_service.exceptions.NotEnoughMoneyException;
+import ru.buzynnikov.wallet_service.exceptions.UnsupportedOperationTypeException;
+import ru.buzynnikov.wallet_service.exceptions.WalletNotFoundException;
+import ru.buzynnikov.wallet_service.models.Money;
+import ru.buzynnikov.wallet_service.models.WalletTransaction;
+import ru.buzynnikov.wallet_service.repositories.WalletOperationRepository;
+import ru.buzynnikov.wallet_service.repositories.WalletRepository;
+import ru.buzynnikov.wallet_service.repositories.WalletTransactionRepository;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Сервис кошельков, применяющий каждую операцию одним условным SQL-запросом.
+ *
+ * Не использует очереди в памяти: проверка достаточности средств и изменение баланса выполняются
+ * базой данных атомарно, поэтому несколько экземпляров сервиса могут работать с одной базой.
+ * Используется в режиме {@code wallet.mode=atomic}.
+ */
+@Service
+@ConditionalOnProperty(prefix = "wallet", name = "mode", havingValue = "atomic")
+public class AtomicWalletService implements WalletService {
+
+    private final WalletRepository walletRepository;
+
+    private final WalletTransactionRepository walletTransactionRepository;
+
+    private final WalletOperationRepository walletOperationRepository;
+
+    private final WalletBalanceCache balanceCache;
+
+    private final IdempotencyStore idempotencyStore;
+
+    private final WalletMetrics metrics;
+
+    private final TransactionTemplate transactionTemplate;
+
+    public AtomicWalletService(WalletRepository walletRepository,
+                               WalletTransactionRepository walletTransactionRepository,
+                               WalletOperationRepository walletOperationRepository,
+                               WalletBalanceCache balanceCache,
+                               IdempotencyStore idempotencyStore,
+                               WalletMetrics metrics,
+                               PlatformTransactionManager transactionManager) {
+        this.walletRepository = walletRepository;
+        this.walletTransactionRepository = walletTransactionRepository;
+        this.walletOperationRepository = walletOperationRepository;
+        this.balanceCache = balanceCache;
+        this.idempotencyStore = idempotencyStore;
+        this.metrics = metrics;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Применяет операцию изменения баланса и добавляет её в журнал операций в той же транзакции.
+     * Повтор операции с уже известным ключом идемпотентности возвращает исходный результат.
+     *
+     * @param request объект, содержащий данные о запрашиваемой операции изменения баланса.
+     * @return уже завершённый результат с балансом после операции.
+     * @throws UnsupportedOperationTypeException если запрошен перевод между кошельками.
+     * @throws NotEnoughMoneyException если сумма списания превышает доступный остаток на счету.
+     * @throws WalletNotFoundException если указанный кошелек не найден.
+     */
+    @Override
+    public CompletableFuture<BalanceOfWalletResponse> addDataToChangeBalance(ChangeAmountRequest request) {
+        WalletService.requireSingleWallet(request);
+        return idempotencyStore.execute(request, () -> apply(request));
+    }
+
+    private CompletableFuture<BalanceOfWalletResponse> apply(ChangeAmountRequest request) {
+        Money delta = request.operationType() == OperationType.WITHDRAW
+                ? request.amount().negate()
+                : request.amount();
+        Optional<Money> balance;
+        try {
+            balance = metrics.recordBatch(() -> transactionTemplate.execute(status -> {
+                Optional<Money> newBalance = walletRepository.applyDelta(request.walletId(), delta);
+                newBalance.ifPresent(value -> {
+                    WalletTransaction transaction = BalanceChangeResult.applied(request, value).toTransaction(Instant.now());
+                    if (request.operationId() != null && walletOperationRepository.saveAll(List.of(transaction)) == 0) {
+                        throw new DuplicateOperationException("Операция " + request.operationId() + " уже применена");
+                    }
+                    walletTransactionRepository.saveAll(List.of(transaction));
+                });
+                return newBalance;
+            }));
+        } catch (DuplicateOperationException e) {
+            // Операцию с тем же ключом параллельно применил другой экземпляр сервиса.
+            balanceCache.invalidate(request.walletId());
+            return storedResult(request);
+        }
+        if (balance.isEmpty()) {
+            if (walletRepository.existsById(request.walletId())) {
+                metrics.withdrawRejectedOnApply();
+                throw new NotEnoughMoneyException("Недостаточно средств на балансе.");
+            }
+            throw walletNotFound(request.walletId());
+        }
+        // Запросы к одному кошельку фиксируются параллельно, и запись в кэш после фиксации могла бы выполниться
+        // не в порядке фиксации; поэтому баланс удаляется из кэша и при следующем чтении загружается из базы данных.
+        balanceCache.invalidate(request.walletId());
+        return CompletableFuture.completedFuture(new BalanceOfWalletResponse(balance.get(), request.operationId()));
+    }
+
+    /**
+     * Возвращает текущий баланс для указанного кошелька из кэша балансов.
+     * Изменения, сделанные другими экземплярами сервиса, становятся видны не позже истечения времени жизни записи.
+     *
+     * @param walletId уникальный идентификатор кошелька.
+     * @return объект {@link BalanceOfWalletResponse}, содержащий текущий баланс.
+     * @throws WalletNotFoundException если указанный кошелек не найден.
+     */
+    @Override
+    public BalanceOfWalletResponse getBalanceOfWallet(UUID walletId) {
+        return new BalanceOfWalletResponse(balanceCache.find(walletId)
+                .orElseThrow(() -> walletNotFound(walletId)));
+    }
+
+    /**
+     * Возвращает балансы нескольких кошельков из кэша балансов; промахи загружаются одним запросом.
+     *
+     * @param walletIds идентификаторы кошельков.
+     * @return балансы найденных кошельков.
+     */
+    @Override
+    public Map<UUID, Money> getBalancesOfWallets(Collection<UUID> walletIds) {
+        return balanceCache.findAll(walletIds);
+    }
+
+    private CompletableFuture<BalanceOfWalletResponse> storedResult(ChangeAmountRequest request) {
+        return walletOperationRepository.findById(request.operationId())
+                .map(stored -> IdempotencyStore.storedResult(request, stored))
+                .orElseThrow(() -> new IllegalStateException("Ключ операции " + request.operationId() + " не найден"));
+    }
+
+    private static WalletNotFoundException walletNotFound(UUID walletId) {
+        return new WalletNotFoundException("Кошелёк с id " + walletId + " не найден");
+    }
+}
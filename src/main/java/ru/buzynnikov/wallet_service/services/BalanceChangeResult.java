@@ -0,0 +1,58 @@
+package ru.buzynnikov.wallet_service.services;
+
+import ru.buzynnikov.wallet_service.controllers.dto.ChangeAmountRequest;
+import ru.buzynnikov.wallet_service.controllers.dto.OperationType;
+import ru.buzynnikov.wallet_service.models.Money;
+import ru.buzynnikov.wallet_service.models.WalletTransaction;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Результат применения одной операции изменения баланса из пачки.
+ *
+ * @param request       исходный запрос.
+ * @param balance       баланс кошелька после применения операции; {@code null}, если операция отклонена.
+ * @param targetBalance баланс кошелька-получателя после применённого перевода; {@code null} для остальных операций.
+ * @param error         причина отклонения операции; {@code null}, если операция применена.
+ */
+public record BalanceChangeResult(ChangeAmountRequest request, Money balance, Money targetBalance, RuntimeException error) {
+
+    public static BalanceChangeResult applied(ChangeAmountRequest request, Money balance) {
+        return new BalanceChangeResult(request, balance, null, null);
+    }
+
+    public static BalanceChangeResult transferred(ChangeAmountRequest request, Money balance, Money targetBalance) {
+        return new BalanceChangeResult(request, balance, targetBalance, null);
+    }
+
+    public static BalanceChangeResult rejected(ChangeAmountRequest request, RuntimeException error) {
+        return new BalanceChangeResult(request, null, null, error);
+    }
+
+    public boolean isApplied() {
+        return error == null;
+    }
+
+    /**
+     * Создаёт запись журнала операций для применённой операции.
+     * Если в запросе передан ключ идемпотентности, он становится идентификатором записи.
+     *
+     * @param createdAt время фиксации операции.
+     */
+    public WalletTransaction toTransaction(Instant createdAt) {
+        UUID id = request.operationId() != null ? request.operationId() : UUID.randomUUID();
+        return new WalletTransaction(id, request.walletId(), request.operationType(),
+                request.amount(), balance, createdAt, request.targetWalletId());
+    }
+
+    /**
+     * Создаёт запись журнала операций кошелька-получателя для применённого перевода.
+     *
+     * @param createdAt время фиксации операции.
+     */
+    public WalletTransaction toTargetTransaction(Instant createdAt) {
+        return new WalletTransaction(UUID.randomUUID(), request.targetWalletId(), OperationType.TRANSFER_IN,
+                request.amount(), targetBalance, createdAt, request.walletId());
+    }
+}
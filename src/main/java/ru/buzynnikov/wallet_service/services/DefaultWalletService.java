@@ -1,20 +1,58 @@
 package ru.buzynnikov.wallet_service.services;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.buzynnikov.wallet_service.config.WalletExecutorConfiguration;
+import ru.buzynnikov.wallet_service.config.WalletProperties;
 import ru.buzynnikov.wallet_service.controllers.dto.BalanceOfWalletResponse;
 import ru.buzynnikov.wallet_service.controllers.dto.ChangeAmountRequest;
 
 import ru.buzynnikov.wallet_service.controllers.dto.OperationType;
+import ru.buzynnikov.wallet_service.exceptions.AmountOutOfRangeException;
+import ru.buzynnikov.wallet_service.exceptions.DuplicateOperationException;
+import ru.buzynnikov.wallet_service.exceptions.IdempotencyKeyReusedException;
 import ru.buzynnikov.wallet_service.exceptions.NotEnoughMoneyException;
+import ru.buzynnikov.wallet_service.exceptions.OperationDeferredException;
 import ru.buzynnikov.wallet_service.exceptions.WalletNotFoundException;
-import ru.buzynnikov.wallet_service.models.Wallet;
+import ru.buzynnikov.wallet_service.exceptions.WalletOverloadedException;
+import ru.buzynnikov.wallet_service.exceptions.WalletServiceStoppingException;
+import ru.buzynnikov.wallet_service.models.Money;
+import ru.buzynnikov.wallet_service.models.WalletTransaction;
+import ru.buzynnikov.wallet_service.repositories.WalletOperationRepository;
 import ru.buzynnikov.wallet_service.repositories.WalletRepository;
+import ru.buzynnikov.wallet_service.repositories.WalletTransactionRepository;
+import ru.buzynnikov.wallet_service.wal.WalEntry;
+import ru.buzynnikov.wallet_service.wal.WalRecord;
+import ru.buzynnikov.wallet_service.wal.WriteAheadLog;
 
 
-import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
@@ -22,113 +60,725 @@ import java.util.concurrent.*;
  *
  * Реализует интерфейс {@link WalletService}, предоставляя функциональность для добавления новых операций изменения баланса,
  * получения текущего баланса и безопасного выполнения изменений в многопоточном режиме.
+ * Используется в режиме {@code wallet.mode=queue} (по умолчанию).
+ * Если включён журнал упреждающей записи ({@code wallet.wal.enabled=true}), операция, поставленная в очередь,
+ * записывается в {@link WriteAheadLog}, а при запуске операции, оставшиеся в журнале, применяются повторно.
+ * Операции, которые не удалось поставить в очередь, в журнал не попадают, а операции, отклонённые при применении,
+ * отмечаются в журнале до ответа клиенту: после перезапуска применяются только операции, клиенту не ответившие.
+ * <p>
+ * Перевод ставится в очередь кошелька-отправителя и применяется в транзакции его пачки: строки отправителя и получателя
+ * блокируются одним запросом в порядке идентификаторов, поэтому встречные переводы не блокируют друг друга взаимно,
+ * а очереди остальных кошельков не ждут ничего, кроме блокировок своих строк. После фиксации в очередь получателя
+ * ставится уведомление о зачислении, по которому его шард обновляет баланс в кэше: все записи кэша кошелька
+ * выполняются его шардом по порядку, и баланс, прочитанный до перевода, не может перезаписать более новый.
  */
 @Service
+@ConditionalOnProperty(prefix = "wallet", name = "mode", havingValue = "queue", matchIfMissing = true)
 public class DefaultWalletService implements WalletService{
 
+    private static final Logger log = LoggerFactory.getLogger(DefaultWalletService.class);
 
     private final WalletRepository walletRepository;
 
+    private final WalletTransactionRepository walletTransactionRepository;
+
+    private final WalletOperationRepository walletOperationRepository;
+
+    private final WalletBalanceCache balanceCache;
+
+    private final WalletIdFilter walletIds;
+
+    private final IdempotencyStore idempotencyStore;
+
+    private final WalletMetrics metrics;
+
+    /**
+     * Время, через которое клиенту предлагается повторить запрос, отклонённый из-за переполнения очереди.
+     */
+    private final Duration retryAfter;
+
+    private final TransactionTemplate transactionTemplate;
+
     /**
-     * Мапа, содержащая очереди ожидающих операций изменения баланса для каждого кошелька.
-     * Используются потокобезопасные коллекции для поддержки одновременного доступа из различных потоков.
+     * Исполнитель, последовательно применяющий операции каждого кошелька на фиксированном наборе шардов.
      */
-    private final Map<UUID, BlockingQueue<ChangeAmountRequest>> queueMap;
+    private final WalletOperationExecutor<PendingOperation> executor;
 
-    private final ExecutorService executorService;
+    /**
+     * Журнал упреждающей записи; {@code null}, если журнал выключен.
+     */
+    private final WriteAheadLog wal;
+
+    /**
+     * Число операций журнала, повторно применяемых за один раз при запуске.
+     */
+    private final int replayChunkSize;
 
+    /**
+     * Признак остановки сервиса: новые операции не принимаются.
+     */
+    private volatile boolean stopping;
+
+    /**
+     * Время последней выделенной записи журнала операций в микросекундах от начала эпохи.
+     */
+    private final AtomicLong lastCreatedAtMicros = new AtomicLong();
 
-    public DefaultWalletService(WalletRepository walletRepository) {
+    public DefaultWalletService(WalletRepository walletRepository,
+                                WalletTransactionRepository walletTransactionRepository,
+                                WalletOperationRepository walletOperationRepository,
+                                WalletBalanceCache balanceCache,
+                                WalletIdFilter walletIds,
+                                IdempotencyStore idempotencyStore,
+                                WalletMetrics metrics,
+                                PlatformTransactionManager transactionManager,
+                                WalletProperties properties,
+                                @Qualifier(WalletExecutorConfiguration.WALLET_THREAD_FACTORY) ThreadFactory walletThreadFactory,
+                                ObjectProvider<WriteAheadLog> wal) {
         this.walletRepository = walletRepository;
-        this.queueMap = new ConcurrentHashMap<>();
-        this.executorService = Executors.newCachedThreadPool();
+        this.walletTransactionRepository = walletTransactionRepository;
+        this.walletOperationRepository = walletOperationRepository;
+        this.balanceCache = balanceCache;
+        this.walletIds = walletIds;
+        this.idempotencyStore = idempotencyStore;
+        this.metrics = metrics;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.retryAfter = properties.executor().retryAfter();
+        this.executor = new WalletOperationExecutor<>(properties.executor().effectiveShards(),
+                properties.executor().batchSize(), properties.executor().walletQueueCapacity(),
+                properties.executor().queueCapacity(), WalletOperationExecutor.HotLanes.from(properties.hotWallets()),
+                this::applyBatch, walletThreadFactory);
+        metrics.bindExecutor(executor);
+        this.wal = wal.getIfAvailable();
+        this.replayChunkSize = properties.batch().chunkSize();
+    }
+
+    /**
+     * Повторно применяет операции, оставшиеся в журнале упреждающей записи после предыдущего запуска,
+     * и удаляет прочитанные сегменты. Операции, зафиксированные до остановки, распознаются по ключу идемпотентности
+     * и не применяются второй раз. Приложение начинает принимать запросы после завершения повторного применения.
+     * Каждая операция отмечается в журнале, как только она применена или окончательно отклонена. Если операцию не удалось
+     * применить из-за технической ошибки, запуск прерывается, а сегменты сохраняются для следующего запуска.
+     *
+     * @throws IllegalStateException если операцию журнала не удалось применить из-за технической ошибки.
+     */
+    @PostConstruct
+    public void replayWal() {
+        if (wal == null || wal.recovered().isEmpty()) {
+            return;
+        }
+        List<WalRecord> recovered = wal.recovered();
+        int rejected = 0;
+        for (int from = 0; from < recovered.size(); from += replayChunkSize) {
+            List<WalRecord> chunk = recovered.subList(from, Math.min(from + replayChunkSize, recovered.size()));
+            List<CompletableFuture<BalanceOfWalletResponse>> results =
+                    addAll(chunk.stream().map(WalRecord::request).toList(), false);
+            List<Throwable> errors = new ArrayList<>(chunk.size());
+            results.forEach(result -> errors.add(errorOf(result)));
+            for (int i = 0; i < chunk.size(); i++) {
+                WalRecord record = chunk.get(i);
+                Throwable error = errors.get(i);
+                if (error instanceof WalletOverloadedException) {
+                    // Очередь кошелька не вместила его операции из этой части журнала; остальные операции уже применены,
+                    // поэтому операция повторяется отдельно.
+                    error = errorOf(addAll(List.of(record.request()), false).get(0));
+                }
+                if (error == null) {
+                    record.entry().release();
+                } else if (isRejection(error)) {
+                    record.entry().reject();
+                    rejected++;
+                } else {
+                    throw new IllegalStateException("Не удалось повторно применить операцию " + record.request().operationId()
+                            + " из журнала упреждающей записи; журнал сохранён для следующего запуска", error);
+                }
+            }
+        }
+        log.info("Из журнала упреждающей записи повторно применено {} операций, отклонено {}",
+                recovered.size() - rejected, rejected);
+        wal.discardRecovered();
+    }
+
+    /**
+     * Дожидается результата операции.
+     *
+     * @return причина отказа или {@code null}, если операция применена.
+     */
+    private static Throwable errorOf(CompletableFuture<BalanceOfWalletResponse> result) {
+        try {
+            result.join();
+            return null;
+        } catch (CompletionException e) {
+            return e.getCause() != null ? e.getCause() : e;
+        } catch (CancellationException e) {
+            return e;
+        }
+    }
+
+    /**
+     * Проверяет, что операция отклонена окончательно: повторное применение дало бы тот же отказ.
+     */
+    private static boolean isRejection(Throwable error) {
+        return error instanceof NotEnoughMoneyException
+                || error instanceof WalletNotFoundException
+                || error instanceof AmountOutOfRangeException
+                || error instanceof IdempotencyKeyReusedException
+                || error instanceof IllegalArgumentException;
     }
 
     /**
      * Добавляет новую операцию изменения баланса в очередь соответствующих действий для заданного кошелька.
+     * Приём операции не обращается к базе данных: существование кошелька проверяется по {@link WalletIdFilter},
+     * а предварительная проверка баланса — по балансу в кэше, который шард записывает после фиксации каждой пачки.
+     * Если баланса в кэше нет, списание принимается без предварительной проверки и проверяется при применении.
+     * Повтор операции с уже известным ключом идемпотентности не ставится в очередь и возвращает исходный результат.
+     * Ключ, заданный клиентом, проверяется по таблице ключей применённых операций; ключ, сгенерированный сервисом
+     * для журнала упреждающей записи, не проверяется.
      *
      * @param request объект, содержащий данные о запрашиваемой операции изменения баланса.
+     * @return результат, завершаемый после фиксации операции в базе данных.
      * @throws NotEnoughMoneyException если сумма операции превышает доступный остаток на счету.
+     * @throws WalletOverloadedException если очередь кошелька или общая очередь операций переполнена.
+     * @throws WalletServiceStoppingException если сервис останавливается.
      */
     @Override
-    public void addDataToChangeBalance(ChangeAmountRequest request){
-        Wallet wallet = getWallet(request.walletId());
-        if((wallet.getBalance().compareTo(request.amount()) < 0) && request.operationType().equals(OperationType.WITHDRAW)){
-            throw new NotEnoughMoneyException("Недостаточно средств на балансе.");
+    public CompletableFuture<BalanceOfWalletResponse> addDataToChangeBalance(ChangeAmountRequest request){
+        ChangeAmountRequest identified = wal != null ? request.withOperationId() : request;
+        return idempotencyStore.execute(identified, identified != request, () -> enqueue(identified));
+    }
+
+    private CompletableFuture<BalanceOfWalletResponse> enqueue(ChangeAmountRequest request) {
+        requireRunning();
+        requireWallet(request.walletId());
+        balanceCache.peek(request.walletId()).ifPresent(balance -> checkBalance(request, balance));
+        checkTarget(request);
+        PendingOperation operation = new PendingOperation(request);
+        if (!executor.submit(request.walletId(), operation)) {
+            WalletOverloadedException error = overloaded();
+            operation.result().completeExceptionally(error);
+            throw error;
         }
-        BlockingQueue<ChangeAmountRequest> queue = queueMap.computeIfAbsent(request.walletId(),key -> {
-            BlockingQueue<ChangeAmountRequest> q = new LinkedBlockingQueue<>();
-            startConsumer(q);
-            return q;
-        });
-        queue.add(request);
+        return journal(operation, true);
+    }
+
+    /**
+     * Записывает операцию, поставленную в очередь, в журнал упреждающей записи, если он включён.
+     * Когда результат операции завершён, запись освобождается, а если операция отклонена или завершилась ошибкой,
+     * запись отмечается отклонённой до того, как результат получит клиент. Запись операции, отложенной до перезапуска
+     * ({@link OperationDeferredException}), не отмечается: операция будет применена из журнала при запуске.
+     * Если операция уже применена к моменту записи, запись сразу освобождается.
+     *
+     * @param operation операция, уже поставленная в очередь.
+     * @param journaled {@code false} для операций, уже прочитанных из журнала при запуске.
+     * @return результат для клиента: завершается, когда операция зафиксирована в базе данных и запись сброшена на диск.
+     */
+    private CompletableFuture<BalanceOfWalletResponse> journal(PendingOperation operation, boolean journaled) {
+        if (wal == null || !journaled) {
+            return operation.result();
+        }
+        WalEntry entry;
+        try {
+            entry = wal.append(operation.request());
+        } catch (RuntimeException e) {
+            // Операция уже в очереди и будет применена; без записи в журнале она не переживёт аварийную остановку.
+            log.warn("Операция {} не записана в журнал упреждающей записи: {}", operation.request().operationId(), e.getMessage());
+            return operation.result();
+        }
+        return operation.result()
+                .whenComplete((response, error) -> {
+                    if (error == null) {
+                        entry.release();
+                    } else if (!(error instanceof OperationDeferredException)) {
+                        entry.reject();
+                    }
+                })
+                .thenCombine(entry.durable(), (response, durable) -> response);
+    }
+
+    /**
+     * Принимает пачку операций, полученную одним запросом.<br/>
+     * Операции группируются по кошелькам, и операции каждого кошелька ставятся в его очередь
+     * одним обращением к исполнителю. Предварительная проверка списаний учитывает ранее
+     * принятые операции того же кошелька из этой пачки; как и при приёме одной операции,
+     * она выполняется только для кошельков, баланс которых есть в кэше. Если очередь кошелька не вмещает его операции,
+     * все они завершаются исключением {@link WalletOverloadedException} и не записываются в журнал упреждающей записи.
+     *
+     * @param requests запросы на изменение баланса.
+     * @return результаты операций в порядке запросов.
+     */
+    @Override
+    public List<CompletableFuture<BalanceOfWalletResponse>> addDataToChangeBalance(List<ChangeAmountRequest> requests) {
+        return addAll(requests, true);
     }
 
     /**
-     * Инициирует отдельный поток для обработки всех поступающих операций из очереди.
+     * Принимает пачку операций.
      *
-     * @param queue очередь, предназначенная для обработки операций изменения баланса.
+     * @param requests  запросы на изменение баланса.
+     * @param journaled {@code false} для операций, уже прочитанных из журнала при запуске: их ключи не генерируются
+     *                  заново и проверяются по таблице ключей применённых операций.
+     * @return результаты операций в порядке запросов.
      */
-    private void startConsumer(BlockingQueue<ChangeAmountRequest> queue){
-        executorService.submit(() -> {
-            while (!Thread.currentThread().isInterrupted()){
-                ChangeAmountRequest request = queue.poll();
-                if(request != null) executeBalanceChange(request);
+    private List<CompletableFuture<BalanceOfWalletResponse>> addAll(List<ChangeAmountRequest> requests, boolean journaled) {
+        List<CompletableFuture<BalanceOfWalletResponse>> results = new ArrayList<>(requests.size());
+        Map<UUID, List<PendingOperation>> operationsByWallet = new LinkedHashMap<>();
+        Map<PendingOperation, CompletableFuture<BalanceOfWalletResponse>> accepted = new IdentityHashMap<>();
+        Map<UUID, Money> expectedBalances = new HashMap<>();
+        for (ChangeAmountRequest received : requests) {
+            ChangeAmountRequest request = wal != null && journaled ? received.withOperationId() : received;
+            try {
+                results.add(idempotencyStore.execute(request, request != received, () -> {
+                    requireRunning();
+                    requireWallet(request.walletId());
+                    Money balance = expectedBalances.containsKey(request.walletId())
+                            ? expectedBalances.get(request.walletId())
+                            : balanceCache.peek(request.walletId()).orElse(null);
+                    if (balance != null) {
+                        checkBalance(request, balance);
+                    }
+                    checkTarget(request);
+                    if (balance != null) {
+                        expectedBalances.put(request.walletId(), request.operationType().isDebit()
+                                ? balance.minus(request.amount())
+                                : balance.plus(request.amount()));
+                    }
+                    PendingOperation operation = new PendingOperation(request);
+                    CompletableFuture<BalanceOfWalletResponse> result = new CompletableFuture<>();
+                    accepted.put(operation, result);
+                    operationsByWallet.computeIfAbsent(request.walletId(), id -> new ArrayList<>()).add(operation);
+                    return result;
+                }));
+            } catch (RuntimeException e) {
+                results.add(CompletableFuture.failedFuture(e));
+            }
+        }
+        operationsByWallet.forEach((walletId, operations) -> {
+            if (!executor.submitAll(walletId, operations)) {
+                WalletOverloadedException error = overloaded();
+                operations.forEach(operation -> accepted.get(operation).completeExceptionally(error));
+                return;
+            }
+            for (PendingOperation operation : operations) {
+                CompletableFuture<BalanceOfWalletResponse> result = accepted.get(operation);
+                journal(operation, journaled).whenComplete((response, error) -> {
+                    if (error == null) {
+                        result.complete(response);
+                    } else {
+                        result.completeExceptionally(error instanceof CompletionException && error.getCause() != null
+                                ? error.getCause() : error);
+                    }
+                });
             }
         });
+        return results;
+    }
+
+    /**
+     * Отклоняет операцию, если сервис останавливается.
+     *
+     * @throws WalletServiceStoppingException если сервис останавливается.
+     */
+    private void requireRunning() {
+        if (stopping) {
+            throw new WalletServiceStoppingException("Сервис останавливается, повторите запрос позже.", retryAfter);
+        }
+    }
+
+    private WalletOverloadedException overloaded() {
+        metrics.operationsShed();
+        return new WalletOverloadedException("Очередь операций переполнена, повторите запрос позже.", retryAfter);
+    }
+
+    /**
+     * Предварительная проверка достаточности средств для списания.
+     *
+     * @throws NotEnoughMoneyException если сумма списания превышает баланс.
+     */
+    private void checkBalance(ChangeAmountRequest request, Money balance) {
+        if((balance.compareTo(request.amount()) < 0) && request.operationType().isDebit()){
+            metrics.withdrawRejectedOnAdmission();
+            throw new NotEnoughMoneyException("Недостаточно средств на балансе.");
+        }
+    }
+
+    /**
+     * Предварительная проверка существования кошелька-получателя перевода.
+     *
+     * @throws WalletNotFoundException если кошелёк-получатель не найден.
+     */
+    private void checkTarget(ChangeAmountRequest request) {
+        if (request.operationType() == OperationType.TRANSFER) {
+            requireWallet(request.targetWalletId());
+        }
+    }
+
+    /**
+     * Проверяет существование кошелька по фильтру идентификаторов. К базе данных обращается, только если
+     * фильтр кошелька не знает (кошелёк создан после запуска или не существует); найденный кошелёк добавляется в фильтр.
+     *
+     * @throws WalletNotFoundException если кошелёк не найден.
+     */
+    private void requireWallet(UUID walletId) {
+        if (!walletIds.mightContain(walletId)) {
+            getBalance(walletId);
+            walletIds.add(walletId);
+        }
     }
 
     /**
-     * Возвращает текущий баланс для указанного кошелька.
+     * Прекращает приём операций и ждёт, пока исполнитель применит принятые, не дольше {@code timeout}.
+     * Уведомления о зачислении переводов, которые ставят применяемые пачки, по-прежнему принимаются.
+     * Если журнал упреждающей записи включён, не применённые операции остаются в нём и будут применены
+     * после запуска; их результаты завершаются исключением {@link OperationDeferredException} с ключом операции,
+     * по которому клиент узнает её результат после перезапуска.
+     * Без журнала такие операции отклоняются исключением {@link WalletServiceStoppingException}.
+     *
+     * @param timeout максимальное время ожидания.
+     * @return число принятых операций, не применённых за отведённое время.
+     */
+    @Override
+    public int drain(Duration timeout) {
+        stopping = true;
+        try {
+            executor.awaitDrained(timeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<PendingOperation> remaining = executor.shutdown();
+        if (remaining.isEmpty()) {
+            return 0;
+        }
+        if (wal != null) {
+            remaining.forEach(operation -> operation.result().completeExceptionally(new OperationDeferredException(
+                    "Операция не применена до остановки сервиса и будет применена после его перезапуска. "
+                            + "Чтобы узнать её результат, повторите запрос с ключом идемпотентности "
+                            + operation.request().operationId() + ".",
+                    retryAfter, operation.request().operationId())));
+            log.warn("Не применено {} операций; они будут применены из журнала упреждающей записи после запуска",
+                    remaining.size());
+        } else {
+            WalletServiceStoppingException error = new WalletServiceStoppingException(
+                    "Операция не применена: сервис останавливается, повторите запрос позже.", retryAfter);
+            remaining.forEach(operation -> operation.result().completeExceptionally(error));
+            log.warn("Не применено {} операций; клиентам возвращён отказ", remaining.size());
+        }
+        return remaining.size();
+    }
+
+    /**
+     * Останавливает потоки исполнителя при завершении работы приложения.
+     */
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Возвращает текущий баланс для указанного кошелька из кэша балансов.
      *
      * @param walletId уникальный идентификатор кошелька.
      * @return объект {@link BalanceOfWalletResponse}, содержащий текущий баланс.
      */
     @Override
     public BalanceOfWalletResponse getBalanceOfWallet(UUID walletId) {
-        return new BalanceOfWalletResponse(getWallet(walletId).getBalance());
+        return new BalanceOfWalletResponse(getBalance(walletId));
+    }
+
+    /**
+     * Возвращает балансы нескольких кошельков из кэша балансов; промахи загружаются одним запросом.
+     *
+     * @param walletIds идентификаторы кошельков.
+     * @return балансы найденных кошельков.
+     */
+    @Override
+    public Map<UUID, Money> getBalancesOfWallets(Collection<UUID> walletIds) {
+        return balanceCache.findAll(walletIds);
     }
 
     /**
-     * Возвращает объект кошелька по его уникальному идентификатору.
+     * Возвращает баланс кошелька по его уникальному идентификатору.
      *
      * @param walletId уникальный идентификатор кошелька.
-     * @return объект {@link Wallet}, соответствующий данному идентификатору.
+     * @return текущий баланс кошелька.
      * @throws WalletNotFoundException если указанный кошелек не найден.
      */
-    private Wallet getWallet(UUID walletId) {
-        return walletRepository.findById(walletId).orElseThrow(
+    private Money getBalance(UUID walletId) {
+        return balanceCache.find(walletId).orElseThrow(
                 () -> new WalletNotFoundException("Кошелёк с id " + walletId + " не найден"));
     }
 
 
     /**
-     * Производит изменение баланса в соответствии с переданной операцией.
+     * Применяет пачку операций одного кошелька одной транзакцией.<br/>
+     * Баланс читается один раз с блокировкой строки кошелька, операции сворачиваются по порядку над суммами в копейках ({@code long})
+     * с проверкой достаточности средств и переполнения на каждом шаге, итоговый баланс записывается одним запросом UPDATE, а применённые операции
+     * добавляются в журнал одним JDBC-пакетом в той же транзакции вместе с их ключами идемпотентности.
+     * Если ключ какой-либо операции уже сохранён, транзакция откатывается с {@link DuplicateOperationException}.
+     * Отклонённые операции не влияют на остальные операции пачки.
+     * Если в пачке есть переводы, строки кошелька и всех получателей блокируются одним запросом
+     * {@link WalletRepository#findBalancesForUpdate} в порядке идентификаторов, балансы получателей
+     * записываются одним JDBC-пакетом, а каждое зачисление добавляется в журнал получателя.
+     * Метод доступен в пакете для бенчмарков.
      *
-     * @param request объект, содержащий сведения о необходимой операции изменения баланса.
+     * @param walletId идентификатор кошелька.
+     * @param requests операции в порядке поступления.
+     * @return результаты применения для каждой операции в том же порядке.
+     * @throws WalletNotFoundException если кошелёк не найден.
+     * @throws DuplicateOperationException если операцию с тем же ключом уже применил другой экземпляр сервиса.
      */
-    private void executeBalanceChange(ChangeAmountRequest request) {
-        Wallet wallet = getWallet(request.walletId());
-        BigDecimal currentBalance = wallet.getBalance();
-        BigDecimal requestedAmount = request.amount();
+    List<BalanceChangeResult> executeBalanceChange(UUID walletId, List<ChangeAmountRequest> requests) {
+        return transactionTemplate.execute(status -> {
+            Set<UUID> targetIds = new HashSet<>();
+            for (ChangeAmountRequest request : requests) {
+                if (request.operationType() == OperationType.TRANSFER) {
+                    targetIds.add(request.targetWalletId());
+                }
+            }
+            Map<UUID, Long> initialTargetBalances = new HashMap<>();
+            long initialBalance;
+            if (targetIds.isEmpty()) {
+                initialBalance = walletRepository.findBalanceForUpdate(walletId).orElseThrow(
+                        () -> new WalletNotFoundException("Кошелёк с id " + walletId + " не найден")).minorUnits();
+            } else {
+                targetIds.add(walletId);
+                Map<UUID, Money> locked = walletRepository.findBalancesForUpdate(targetIds);
+                Money own = locked.remove(walletId);
+                if (own == null) {
+                    throw new WalletNotFoundException("Кошелёк с id " + walletId + " не найден");
+                }
+                initialBalance = own.minorUnits();
+                locked.forEach((id, targetBalance) -> initialTargetBalances.put(id, targetBalance.minorUnits()));
+            }
+            long balance = initialBalance;
+            Map<UUID, Long> targetBalances = new HashMap<>(initialTargetBalances);
+            List<BalanceChangeResult> results = new ArrayList<>(requests.size());
 
-        switch (request.operationType()) {
-            case DEPOSIT:
-                wallet.setBalance(currentBalance.add(requestedAmount));
-                break;
-            case WITHDRAW:
-                if (currentBalance.compareTo(requestedAmount) >= 0) {
-                    wallet.setBalance(currentBalance.subtract(requestedAmount));
-                } else {
-                    throw new NotEnoughMoneyException("Недостаточно средств на балансе.");
+            for (ChangeAmountRequest request : requests) {
+                long amount = request.amount().minorUnits();
+                switch (request.operationType()) {
+                    case DEPOSIT:
+                        try {
+                            balance = Money.addExact(balance, amount);
+                            results.add(BalanceChangeResult.applied(request, Money.ofMinorUnits(balance)));
+                        } catch (AmountOutOfRangeException e) {
+                            results.add(BalanceChangeResult.rejected(request, e));
+                        }
+                        break;
+                    case WITHDRAW:
+                        if (balance >= amount) {
+                            balance = Money.subtractExact(balance, amount);
+                            results.add(BalanceChangeResult.applied(request, Money.ofMinorUnits(balance)));
+                        } else {
+                            results.add(BalanceChangeResult.rejected(request,
+                                    new NotEnoughMoneyException("Недостаточно средств на балансе.")));
+                        }
+                        break;
+                    case TRANSFER:
+                        Long targetBalance = targetBalances.get(request.targetWalletId());
+                        if (targetBalance == null) {
+                            results.add(BalanceChangeResult.rejected(request, new WalletNotFoundException(
+                                    "Кошелёк с id " + request.targetWalletId() + " не найден")));
+                        } else if (balance < amount) {
+                            results.add(BalanceChangeResult.rejected(request,
+                                    new NotEnoughMoneyException("Недостаточно средств на балансе.")));
+                        } else {
+                            try {
+                                long credited = Money.addExact(targetBalance, amount);
+                                balance = Money.subtractExact(balance, amount);
+                                targetBalances.put(request.targetWalletId(), credited);
+                                results.add(BalanceChangeResult.transferred(request,
+                                        Money.ofMinorUnits(balance), Money.ofMinorUnits(credited)));
+                            } catch (AmountOutOfRangeException e) {
+                                results.add(BalanceChangeResult.rejected(request, e));
+                            }
+                        }
+                        break;
+                    default:
+                        results.add(BalanceChangeResult.rejected(request,
+                                new IllegalArgumentException("Неподдержанный тип операции.")));
+                }
+            }
+
+            if (balance != initialBalance) {
+                walletRepository.updateBalance(walletId, Money.ofMinorUnits(balance));
+            }
+            Map<UUID, Money> changedTargets = new HashMap<>();
+            targetBalances.forEach((id, targetBalance) -> {
+                if (!targetBalance.equals(initialTargetBalances.get(id))) {
+                    changedTargets.put(id, Money.ofMinorUnits(targetBalance));
+                }
+            });
+            walletRepository.updateBalances(changedTargets);
+            int entries = 0;
+            for (BalanceChangeResult result : results) {
+                if (result.isApplied()) {
+                    entries += result.targetBalance() != null ? 2 : 1;
                 }
-                break;
-            default:
-                throw new IllegalArgumentException("Неподдержанный тип операции.");
+            }
+            Instant first = nextCreatedAt(entries);
+            List<WalletTransaction> transactions = new ArrayList<>(entries);
+            List<WalletTransaction> idempotent = new ArrayList<>();
+            for (BalanceChangeResult result : results) {
+                if (result.isApplied()) {
+                    WalletTransaction transaction = result.toTransaction(first.plus(transactions.size(), ChronoUnit.MICROS));
+                    transactions.add(transaction);
+                    if (result.request().operationId() != null) {
+                        idempotent.add(transaction);
+                    }
+                    if (result.targetBalance() != null) {
+                        transactions.add(result.toTargetTransaction(first.plus(transactions.size(), ChronoUnit.MICROS)));
+                    }
+                }
+            }
+            if (walletOperationRepository.saveAll(idempotent) < idempotent.size()) {
+                throw new DuplicateOperationException("Часть операций над кошельком " + walletId + " уже применена");
+            }
+            walletTransactionRepository.saveAll(transactions);
+            return results;
+        });
+    }
+
+    /**
+     * Выделяет время для {@code count} записей журнала операций: с шагом в микросекунду, не раньше текущего времени
+     * и строго позже записей, выделенных до этого. Время записей растёт и между пачками, и при переводе системных часов
+     * назад, поэтому журнал каждого кошелька, который изменяет этот экземпляр, упорядочен по времени так же,
+     * как применялись операции.
+     *
+     * @param count число записей.
+     * @return время первой записи.
+     */
+    private Instant nextCreatedAt(int count) {
+        long now = ChronoUnit.MICROS.between(Instant.EPOCH, Instant.now());
+        long last = lastCreatedAtMicros.accumulateAndGet(now,
+                (previous, current) -> Math.max(previous + count, current + count - 1));
+        return Instant.EPOCH.plus(last - count + 1, ChronoUnit.MICROS);
+    }
+
+    /**
+     * Обработчик пачки операций для исполнителя: применяет операции, после фиксации транзакции
+     * записывает итоговый баланс в кэш и завершает результат каждой операции.
+     * Время транзакции и время ожидания каждой операции учитываются в {@link WalletMetrics}.
+     * Если пачку применить не удалось, баланс удаляется из кэша, а все операции завершаются ошибкой.
+     * Если часть операций уже применил с теми же ключами другой экземпляр сервиса, они завершаются сохранённым результатом,
+     * а остальные применяются заново.
+     * Уведомления о зачислении переводов в базу данных не применяются: по ним баланс удаляется из кэша
+     * до транзакции пачки, так что в кэш попадает только баланс, прочитанный после перевода.
+     */
+    private void applyBatch(UUID walletId, List<PendingOperation> batch) {
+        List<PendingOperation> operations = batch.stream()
+                .filter(operation -> operation.request().operationType() != OperationType.TRANSFER_IN)
+                .toList();
+        if (operations.size() != batch.size()) {
+            balanceCache.invalidate(walletId);
+            if (operations.isEmpty()) {
+                return;
+            }
         }
+        List<BalanceChangeResult> results;
+        try {
+            results = metrics.recordBatch(
+                    () -> executeBalanceChange(walletId, operations.stream().map(PendingOperation::request).toList()));
+        } catch (DuplicateOperationException e) {
+            applyRemaining(walletId, operations, e);
+            return;
+        } catch (RuntimeException e) {
+            log.warn("Операции над кошельком {} не выполнены: {}", walletId, e.getMessage());
+            balanceCache.invalidate(walletId);
+            fail(operations, e);
+            return;
+        }
+        results.stream()
+                .filter(BalanceChangeResult::isApplied)
+                .reduce((first, second) -> second)
+                .ifPresent(last -> balanceCache.put(walletId, last.balance()));
+        notifyTargets(results);
+        for (int i = 0; i < operations.size(); i++) {
+            BalanceChangeResult result = results.get(i);
+            metrics.recordOperationLatency(operations.get(i).enqueuedAt());
+            if (result.error() instanceof NotEnoughMoneyException) {
+                metrics.withdrawRejectedOnApply();
+            }
+            if (result.isApplied()) {
+                operations.get(i).result().complete(new BalanceOfWalletResponse(result.balance(), result.request().operationId()));
+            } else {
+                operations.get(i).result().completeExceptionally(result.error());
+            }
+        }
+    }
 
-        walletRepository.save(wallet);
+    /**
+     * Завершает операции пачки, ключи которых уже сохранены другим экземпляром сервиса, сохранённым результатом,
+     * и применяет остальные операции заново. Баланс удаляется из кэша: его изменил другой экземпляр.
+     */
+    private void applyRemaining(UUID walletId, List<PendingOperation> operations, DuplicateOperationException duplicate) {
+        balanceCache.invalidate(walletId);
+        Map<UUID, WalletTransaction> stored;
+        try {
+            stored = walletOperationRepository.findAllById(operations.stream()
+                    .map(operation -> operation.request().operationId())
+                    .filter(Objects::nonNull)
+                    .toList());
+        } catch (RuntimeException e) {
+            log.warn("Операции над кошельком {} не выполнены: {}", walletId, e.getMessage());
+            fail(operations, e);
+            return;
+        }
+        List<PendingOperation> remaining = new ArrayList<>(operations.size());
+        for (PendingOperation operation : operations) {
+            UUID operationId = operation.request().operationId();
+            WalletTransaction applied = operationId != null ? stored.get(operationId) : null;
+            if (applied == null) {
+                remaining.add(operation);
+                continue;
+            }
+            metrics.recordOperationLatency(operation.enqueuedAt());
+            IdempotencyStore.storedResult(operation.request(), applied).whenComplete((response, error) -> {
+                if (error == null) {
+                    operation.result().complete(response);
+                } else {
+                    operation.result().completeExceptionally(error);
+                }
+            });
+        }
+        if (remaining.size() == operations.size()) {
+            // Сохранённый ключ не найден: например, он удалён по сроку хранения между двумя запросами.
+            log.warn("Операции над кошельком {} не выполнены: {}", walletId, duplicate.getMessage());
+            fail(remaining, duplicate);
+        } else if (!remaining.isEmpty()) {
+            applyBatch(walletId, remaining);
+        }
     }
 
+    /**
+     * Завершает операции ошибкой применения; время их ожидания учитывается так же, как у применённых операций.
+     */
+    private void fail(List<PendingOperation> operations, RuntimeException error) {
+        for (PendingOperation operation : operations) {
+            metrics.recordOperationLatency(operation.enqueuedAt());
+            operation.result().completeExceptionally(error);
+        }
+    }
 
+    /**
+     * Ставит в очереди получателей применённых переводов уведомления о зачислении. Получатели обслуживаются этим же
+     * экземпляром: переводы на кошельки других экземпляров отклоняются при приёме, потому что кэш их владельца
+     * отсюда не обновить.
+     * Баланс получателя сразу удаляется из кэша; если очередь получателя переполнена, уведомление не ставится,
+     * и устаревший баланс может вернуться в кэш не позже окончания срока жизни записи.
+     */
+    private void notifyTargets(List<BalanceChangeResult> results) {
+        Map<UUID, Money> credited = new LinkedHashMap<>();
+        for (BalanceChangeResult result : results) {
+            if (result.isApplied() && result.targetBalance() != null) {
+                credited.merge(result.request().targetWalletId(), result.request().amount(), Money::plus);
+            }
+        }
+        credited.forEach((targetId, amount) -> {
+            balanceCache.invalidate(targetId);
+            PendingOperation notice = new PendingOperation(new ChangeAmountRequest(targetId, OperationType.TRANSFER_IN, amount));
+            if (!executor.submit(targetId, notice)) {
+                log.warn("Уведомление о зачислении перевода на кошелёк {} не поставлено в очередь", targetId);
+            }
+        });
+    }
 }
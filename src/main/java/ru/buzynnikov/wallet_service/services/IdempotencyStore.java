@@ -0,0 +1,246 @@
+package ru.buzynnikov.wallet_service.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.buzynnikov.wallet_service.config.WalletProperties;
+import ru.buzynnikov.wallet_service.controllers.dto.BalanceOfWalletResponse;
+import ru.buzynnikov.wallet_service.controllers.dto.ChangeAmountRequest;
+import ru.buzynnikov.wallet_service.exceptions.IdempotencyKeyReusedException;
+import ru.buzynnikov.wallet_service.exceptions.NotEnoughMoneyException;
+import ru.buzynnikov.wallet_service.models.WalletTransaction;
+import ru.buzynnikov.wallet_service.repositories.WalletOperationRepository;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Хранилище результатов операций по ключу идемпотентности.
+ *
+ * Ключ связан с операцией, для которой он был использован впервые: кошельком, типом, суммой и кошельком-получателем.
+ * Повтор ключа с другими параметрами отклоняется исключением {@link IdempotencyKeyReusedException}.
+ * Ключи выполняющихся операций хранятся в памяти до завершения операции и не вытесняются: повторный запрос,
+ * пришедший во время обработки исходного, дожидается того же результата. Ключи завершённых операций
+ * хранятся в ограниченном LRU-кэше вместе с результатом операции. Ключ операции, результат которой отправлен
+ * клиенту до записи ключа в базу данных, закрепляется методом {@link #retain(UUID)} и не вытесняется до вызова
+ * {@link #release(Collection)} после записи.
+ * При промахе ключ ищется в таблице {@code wallet_operation}, куда ключи применённых операций
+ * записываются в одной транзакции с изменением баланса вместе с кошельком, типом и суммой операции.
+ * Дубликат не попадает ни в очередь кошелька, ни в транзакцию изменения баланса.
+ * Для ключей, сгенерированных сервисом, обращение к таблице пропускается: такой ключ не может быть сохранён раньше.
+ */
+@Component
+public class IdempotencyStore {
+
+    private static final Logger log = LoggerFactory.getLogger(IdempotencyStore.class);
+
+    private final WalletOperationRepository walletOperationRepository;
+
+    private final Map<UUID, Outcome> pending = new ConcurrentHashMap<>();
+
+    /**
+     * Ключи из {@link #pending}, которые остаются там после завершения операции, пока не записаны в базу данных.
+     */
+    private final Set<UUID> retained = ConcurrentHashMap.newKeySet();
+
+    private final Cache<UUID, Outcome> outcomes;
+
+    private final Duration retention;
+
+    public IdempotencyStore(WalletOperationRepository walletOperationRepository,
+                            WalletProperties properties,
+                            MeterRegistry meterRegistry) {
+        this.walletOperationRepository = walletOperationRepository;
+        this.retention = properties.idempotency().retention();
+        this.outcomes = Caffeine.newBuilder()
+                .maximumSize(properties.idempotency().maximumSize())
+                .expireAfterWrite(retention)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, outcomes, "wallet.idempotency");
+    }
+
+    /**
+     * Выполняет операцию не более одного раза для ключа идемпотентности запроса.
+     * <ul>
+     *     <li>Если ключ не задан, операция выполняется без проверок.</li>
+     *     <li>Если операция с этим ключом выполняется или недавно выполнена, возвращается её результат.</li>
+     *     <li>Если операция с этим ключом уже применена, возвращается баланс, сохранённый при её применении.</li>
+     *     <li>Если ключ использован для операции с другими параметрами, результат завершается
+     *     исключением {@link IdempotencyKeyReusedException}.</li>
+     * </ul>
+     * Запоминаются только окончательные результаты: применение операции или отказ при применении из-за
+     * нехватки средств. Если операция отклонена при приёме или завершилась технической ошибкой,
+     * ключ освобождается и повторный запрос будет выполнен заново.
+     *
+     * @param request   запрос на изменение баланса; его ключ идемпотентности может быть {@code null}.
+     * @param operation операция изменения баланса.
+     * @return результат операции.
+     */
+    public CompletableFuture<BalanceOfWalletResponse> execute(ChangeAmountRequest request,
+                                                              Supplier<CompletableFuture<BalanceOfWalletResponse>> operation) {
+        return execute(request, false, operation);
+    }
+
+    /**
+     * Выполняет операцию не более одного раза для ключа идемпотентности запроса, как {@link #execute(ChangeAmountRequest, Supplier)}.
+     *
+     * @param request   запрос на изменение баланса; его ключ идемпотентности может быть {@code null}.
+     * @param generated {@code true}, если ключ только что сгенерирован сервисом: такой ключ не ищется в базе данных.
+     * @param operation операция изменения баланса.
+     * @return результат операции.
+     */
+    public CompletableFuture<BalanceOfWalletResponse> execute(ChangeAmountRequest request, boolean generated,
+                                                              Supplier<CompletableFuture<BalanceOfWalletResponse>> operation) {
+        UUID operationId = request.operationId();
+        if (operationId == null) {
+            return operation.get();
+        }
+        Outcome outcome = new Outcome(request, new CompletableFuture<>());
+        Outcome previous = outcomes.getIfPresent(operationId);
+        if (previous == null) {
+            previous = pending.putIfAbsent(operationId, outcome);
+        }
+        if (previous == null) {
+            // Исходная операция могла завершиться между проверкой кэша и добавлением ключа.
+            previous = outcomes.getIfPresent(operationId);
+            if (previous != null) {
+                pending.remove(operationId, outcome);
+            }
+        }
+        if (previous != null) {
+            return sameOperation(previous.request(), request)
+                    ? previous.result()
+                    : CompletableFuture.failedFuture(keyReused(operationId));
+        }
+        try {
+            CompletableFuture<BalanceOfWalletResponse> result = generated ? operation.get()
+                    : walletOperationRepository.findById(operationId)
+                            .map(stored -> storedResult(request, stored))
+                            .orElseGet(operation);
+            result.whenComplete((balance, error) -> {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                if (error == null || cause instanceof NotEnoughMoneyException) {
+                    outcomes.put(operationId, outcome);
+                }
+                if (!retained.contains(operationId)) {
+                    pending.remove(operationId, outcome);
+                }
+                if (error == null) {
+                    outcome.result().complete(balance);
+                } else {
+                    outcome.result().completeExceptionally(cause);
+                }
+            });
+        } catch (RuntimeException e) {
+            pending.remove(operationId, outcome);
+            outcome.result().completeExceptionally(e);
+            throw e;
+        }
+        return outcome.result();
+    }
+
+    /**
+     * Закрепляет ключ выполняющейся операции: после её завершения ключ остаётся среди выполняющихся и не вытесняется,
+     * пока не будет вызван {@link #release(Collection)}. Используется, когда результат отправляется клиенту раньше,
+     * чем ключ записан в базу данных: иначе повтор после вытеснения ключа из кэша не нашёл бы его ни в памяти,
+     * ни в базе данных и был бы применён второй раз. Вызывается до завершения результата операции.
+     *
+     * @param operationId ключ идемпотентности применённой операции.
+     */
+    public void retain(UUID operationId) {
+        retained.add(operationId);
+    }
+
+    /**
+     * Снимает закрепление ключей, записанных в базу данных: повторы этих операций найдут их в кэше или в таблице
+     * {@code wallet_operation}. Вызывается после фиксации транзакции, записавшей ключи.
+     *
+     * @param operationIds ключи, закреплённые методом {@link #retain(UUID)}.
+     */
+    public void release(Collection<UUID> operationIds) {
+        for (UUID operationId : operationIds) {
+            if (retained.remove(operationId)) {
+                pending.remove(operationId);
+            }
+        }
+    }
+
+    /**
+     * Возвращает результат повтора операции, ключ которой уже сохранён в базе данных.
+     *
+     * @param request повторный запрос.
+     * @param stored  операция, сохранённая с тем же ключом.
+     * @return баланс, сохранённый при применении операции, или результат, завершённый исключением
+     * {@link IdempotencyKeyReusedException}, если параметры операции не совпадают.
+     */
+    static CompletableFuture<BalanceOfWalletResponse> storedResult(ChangeAmountRequest request, WalletTransaction stored) {
+        return matchesStored(request, stored)
+                ? CompletableFuture.completedFuture(new BalanceOfWalletResponse(stored.balance(), request.operationId()))
+                : CompletableFuture.failedFuture(keyReused(request.operationId()));
+    }
+
+    /**
+     * Проверяет, что повторный запрос совпадает с операцией, сохранённой в базе данных с тем же ключом.
+     * Кошелёк, тип, сумма и получатель перевода сравниваются с сохранёнными; параметры, которые не были
+     * сохранены, потому что ключ записан до появления соответствующего столбца, не сравниваются.
+     *
+     * @param request повторный запрос.
+     * @param stored  операция, сохранённая с тем же ключом.
+     */
+    public static boolean matchesStored(ChangeAmountRequest request, WalletTransaction stored) {
+        return stored.walletId().equals(request.walletId())
+                && (stored.operationType() == null || stored.operationType() == request.operationType())
+                && (stored.amount() == null || stored.amount().equals(request.amount()))
+                && (stored.targetWalletId() == null || stored.targetWalletId().equals(request.targetWalletId()));
+    }
+
+    /**
+     * Удаляет из базы данных ключи старше срока хранения.
+     */
+    @Scheduled(fixedDelayString = "${wallet.idempotency.purge-interval:PT1H}")
+    public void purgeExpired() {
+        int deleted = walletOperationRepository.deleteOlderThan(Instant.now().minus(retention));
+        if (deleted > 0) {
+            log.info("Удалено {} устаревших ключей идемпотентности", deleted);
+        }
+    }
+
+    private static boolean sameOperation(ChangeAmountRequest original, ChangeAmountRequest repeated) {
+        return original.walletId().equals(repeated.walletId())
+                && original.operationType() == repeated.operationType()
+                && original.amount().equals(repeated.amount())
+                && Objects.equals(original.targetWalletId(), repeated.targetWalletId());
+    }
+
+    /**
+     * Создаёт исключение повтора ключа идемпотентности с другими параметрами операции.
+     */
+    public static IdempotencyKeyReusedException keyReused(UUID operationId) {
+        return new IdempotencyKeyReusedException("Ключ идемпотентности " + operationId
+                + " уже использован для другой операции");
+    }
+
+    /**
+     * Операция, выполненная или выполняемая с ключом идемпотентности.
+     *
+     * @param request исходный запрос.
+     * @param result  результат операции.
+     */
+    private record Outcome(ChangeAmountRequest request, CompletableFuture<BalanceOfWalletResponse> result) {
+    }
+}
@@ -0,0 +1,476 @@
+package ru.buzynnikov.wallet_service.services;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.buzynnikov.wallet_service.config.WalletExecutorConfiguration;
+import ru.buzynnikov.wallet_service.config.WalletProperties;
+import ru.buzynnikov.wallet_service.controllers.dto.BalanceOfWalletResponse;
+import ru.buzynnikov.wallet_service.controllers.dto.ChangeAmountRequest;
+import ru.buzynnikov.wallet_service.exceptions.AmountOutOfRangeException;
+import ru.buzynnikov.wallet_service.exceptions.NotEnoughMoneyException;
+import ru.buzynnikov.wallet_service.exceptions.UnsupportedOperationTypeException;
+import ru.buzynnikov.wallet_service.exceptions.WalletNotFoundException;
+import ru.buzynnikov.wallet_service.exceptions.WalletOverloadedException;
+import ru.buzynnikov.wallet_service.exceptions.WalletServiceStoppingException;
+import ru.buzynnikov.wallet_service.models.Money;
+import ru.buzynnikov.wallet_service.models.WalletBalance;
+import ru.buzynnikov.wallet_service.models.WalletTransaction;
+import ru.buzynnikov.wallet_service.repositories.WalletOperationRepository;
+import ru.buzynnikov.wallet_service.repositories.WalletRepository;
+import ru.buzynnikov.wallet_service.repositories.WalletTransactionRepository;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Сервис кошельков, в котором источником истины для активных кошельков служат балансы в памяти.
+ *
+ * Операции ставятся в очередь кошелька и применяются шардом исполнителя, единственным писателем кошелька:
+ * проверка достаточности средств и изменение баланса выполняются в памяти без обращения к базе данных,
+ * и результат возвращается клиенту сразу после применения. Баланс кошелька загружается из базы при первой операции,
+ * а изменённые балансы вместе с записями журнала операций и ключами идемпотентности периодически записываются
+ * в базу данных пакетными транзакциями ({@code wallet.memory.flush-interval}). Кошелёк без операций дольше
+ * {@link WalletProperties.Memory#idleTimeout()} выгружается из памяти после записи его состояния.
+ *
+ * Ключи идемпотентности применённых операций закрепляются в {@link IdempotencyStore} до записи в базу данных,
+ * поэтому повтор операции не применяется второй раз, даже если её результат вытеснен из кэша.
+ * Операции, применённые после последней записи, теряются при аварийной остановке процесса.
+ * Режим предполагает, что балансы его кошельков не изменяются в обход этого экземпляра сервиса, поэтому несовместим
+ * с назначением разделов через аренду ({@code wallet.cluster.assignment=lease}): при переходе раздела к другому
+ * экземпляру балансы в памяти прежнего владельца устаревают, а не записанные им операции теряются.
+ * Используется в режиме {@code wallet.mode=memory}.
+ */
+@Service
+@ConditionalOnProperty(prefix = "wallet", name = "mode", havingValue = "memory")
+public class MemoryWalletService implements WalletService {
+
+    private static final Logger log = LoggerFactory.getLogger(MemoryWalletService.class);
+
+    private final WalletRepository walletRepository;
+
+    private final WalletTransactionRepository walletTransactionRepository;
+
+    private final WalletOperationRepository walletOperationRepository;
+
+    private final IdempotencyStore idempotencyStore;
+
+    private final WalletMetrics metrics;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final WalletProperties.Memory settings;
+
+    private final Duration retryAfter;
+
+    /**
+     * Кошельки, балансы которых хранятся в памяти. Запись добавляется только шардом кошелька,
+     * а удаляется при выгрузке под блокировкой кошелька.
+     */
+    private final Map<UUID, ActiveWallet> wallets = new ConcurrentHashMap<>();
+
+    private final WalletOperationExecutor<PendingOperation> executor;
+
+    /**
+     * Признак остановки сервиса: новые операции не принимаются.
+     */
+    private volatile boolean stopping;
+
+    public MemoryWalletService(WalletRepository walletRepository,
+                               WalletTransactionRepository walletTransactionRepository,
+                               WalletOperationRepository walletOperationRepository,
+                               IdempotencyStore idempotencyStore,
+                               WalletMetrics metrics,
+                               PlatformTransactionManager transactionManager,
+                               WalletProperties properties,
+                               @Qualifier(WalletExecutorConfiguration.WALLET_THREAD_FACTORY) ThreadFactory walletThreadFactory) {
+        if (properties.cluster().assignment() == WalletProperties.Assignment.LEASE) {
+            throw new IllegalStateException(
+                    "Режим wallet.mode=memory несовместим с wallet.cluster.assignment=lease; используйте none или static.");
+        }
+        this.walletRepository = walletRepository;
+        this.walletTransactionRepository = walletTransactionRepository;
+        this.walletOperationRepository = walletOperationRepository;
+        this.idempotencyStore = idempotencyStore;
+        this.metrics = metrics;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.settings = properties.memory();
+        this.retryAfter = properties.executor().retryAfter();
+        this.executor = new WalletOperationExecutor<>(properties.executor().effectiveShards(),
+                properties.executor().batchSize(), properties.executor().walletQueueCapacity(),
+                properties.executor().queueCapacity(), WalletOperationExecutor.HotLanes.from(properties.hotWallets()),
+                this::applyBatch, walletThreadFactory);
+        metrics.bindExecutor(executor);
+        metrics.bindActiveWallets(wallets);
+    }
+
+    /**
+     * Ставит операцию в очередь кошелька. Повтор операции с уже известным ключом идемпотентности
+     * не ставится в очередь и возвращает исходный результат.
+     *
+     * @param request объект, содержащий данные о запрашиваемой операции изменения баланса.
+     * @return результат, завершаемый сразу после применения операции в памяти.
+     * @throws UnsupportedOperationTypeException если запрошен перевод между кошельками.
+     * @throws WalletOverloadedException если очередь кошелька или общая очередь операций переполнена.
+     * @throws WalletServiceStoppingException если сервис останавливается.
+     */
+    @Override
+    public CompletableFuture<BalanceOfWalletResponse> addDataToChangeBalance(ChangeAmountRequest request) {
+        WalletService.requireSingleWallet(request);
+        return idempotencyStore.execute(request, () -> {
+            if (stopping) {
+                throw new WalletServiceStoppingException("Сервис останавливается, повторите запрос позже.", retryAfter);
+            }
+            PendingOperation operation = new PendingOperation(request);
+            if (!executor.submit(request.walletId(), operation)) {
+                metrics.operationsShed();
+                throw new WalletOverloadedException("Очередь операций переполнена, повторите запрос позже.", retryAfter);
+            }
+            return operation.result();
+        });
+    }
+
+    /**
+     * Возвращает баланс кошелька из памяти, а для кошелька, не загруженного в память, — из базы данных.
+     *
+     * @param walletId уникальный идентификатор кошелька.
+     * @return объект {@link BalanceOfWalletResponse}, содержащий текущий баланс.
+     * @throws WalletNotFoundException если указанный кошелек не найден.
+     */
+    @Override
+    public BalanceOfWalletResponse getBalanceOfWallet(UUID walletId) {
+        ActiveWallet wallet = wallets.get(walletId);
+        if (wallet != null) {
+            return new BalanceOfWalletResponse(Money.ofMinorUnits(wallet.balance));
+        }
+        return new BalanceOfWalletResponse(walletRepository.findBalanceById(walletId)
+                .orElseThrow(() -> walletNotFound(walletId)));
+    }
+
+    /**
+     * Возвращает балансы нескольких кошельков: из памяти, а остальные — одним запросом к базе данных.
+     *
+     * @param walletIds идентификаторы кошельков.
+     * @return балансы найденных кошельков.
+     */
+    @Override
+    public Map<UUID, Money> getBalancesOfWallets(Collection<UUID> walletIds) {
+        Map<UUID, Money> balances = new HashMap<>();
+        List<UUID> missing = new ArrayList<>();
+        for (UUID walletId : new HashSet<>(walletIds)) {
+            ActiveWallet wallet = wallets.get(walletId);
+            if (wallet != null) {
+                balances.put(walletId, Money.ofMinorUnits(wallet.balance));
+            } else {
+                missing.add(walletId);
+            }
+        }
+        if (!missing.isEmpty()) {
+            for (WalletBalance wallet : walletRepository.findBalancesByIdIn(missing)) {
+                balances.put(wallet.id(), wallet.balance());
+            }
+        }
+        return balances;
+    }
+
+    /**
+     * Обработчик пачки операций для исполнителя. Выполняется шардом кошелька: применяет операции к балансу в памяти
+     * по порядку и сразу завершает их результаты. Если кошелёк ещё не в памяти, его баланс загружается из базы данных.
+     */
+    private void applyBatch(UUID walletId, List<PendingOperation> operations) {
+        List<BalanceChangeResult> results;
+        try {
+            results = apply(walletId, operations);
+        } catch (RuntimeException e) {
+            operations.forEach(operation -> {
+                metrics.recordOperationLatency(operation.enqueuedAt());
+                operation.result().completeExceptionally(e);
+            });
+            return;
+        }
+        for (int i = 0; i < operations.size(); i++) {
+            BalanceChangeResult result = results.get(i);
+            metrics.recordOperationLatency(operations.get(i).enqueuedAt());
+            if (result.isApplied()) {
+                operations.get(i).result().complete(new BalanceOfWalletResponse(result.balance(), result.request().operationId()));
+            } else {
+                if (result.error() instanceof NotEnoughMoneyException) {
+                    metrics.withdrawRejectedOnApply();
+                }
+                operations.get(i).result().completeExceptionally(result.error());
+            }
+        }
+    }
+
+    private List<BalanceChangeResult> apply(UUID walletId, List<PendingOperation> operations) {
+        while (true) {
+            ActiveWallet wallet = activate(walletId);
+            synchronized (wallet) {
+                // Кошелёк мог быть выгружен между загрузкой и захватом блокировки; тогда он загружается заново.
+                if (!wallet.evicted) {
+                    List<BalanceChangeResult> results = new ArrayList<>(operations.size());
+                    for (PendingOperation operation : operations) {
+                        BalanceChangeResult result = wallet.apply(operation.request());
+                        if (result.isApplied() && operation.request().operationId() != null) {
+                            // Ключ закрепляется под блокировкой кошелька, поэтому запись, снимающая закрепление,
+                            // не может забрать операцию раньше, чем ключ закреплён.
+                            idempotencyStore.retain(operation.request().operationId());
+                        }
+                        results.add(result);
+                    }
+                    wallet.lastTouched = System.nanoTime();
+                    return results;
+                }
+            }
+        }
+    }
+
+    /**
+     * Возвращает кошелёк в памяти, загружая его баланс из базы данных при первом обращении.
+     * Вызывается только шардом кошелька, поэтому кошелёк не может быть загружен дважды одновременно.
+     *
+     * @throws WalletNotFoundException если кошелёк не найден.
+     */
+    private ActiveWallet activate(UUID walletId) {
+        ActiveWallet wallet = wallets.get(walletId);
+        if (wallet == null) {
+            Money balance = walletRepository.findBalanceById(walletId).orElseThrow(() -> walletNotFound(walletId));
+            wallet = new ActiveWallet(walletId, balance.minorUnits());
+            wallets.put(walletId, wallet);
+        }
+        return wallet;
+    }
+
+    /**
+     * Записывает изменённые балансы и накопленные записи журнала операций в базу данных,
+     * затем выгружает из памяти кошельки без операций дольше {@link WalletProperties.Memory#idleTimeout()}
+     * и давно не использованные кошельки сверх {@link WalletProperties.Memory#maximumWallets()}.
+     */
+    @Scheduled(fixedDelayString = "${wallet.memory.flush-interval:PT1S}")
+    public void flush() {
+        List<ActiveWallet> dirty = wallets.values().stream().filter(ActiveWallet::isDirty).toList();
+        for (int from = 0; from < dirty.size(); from += settings.flushChunkSize()) {
+            flush(dirty.subList(from, Math.min(from + settings.flushChunkSize(), dirty.size())));
+        }
+        evict();
+    }
+
+    /**
+     * Записывает состояние нескольких кошельков одной транзакцией: балансы одним JDBC-пакетом UPDATE,
+     * записи журнала и ключи идемпотентности — пакетами INSERT. После фиксации снимается закрепление ключей
+     * записанных операций в {@link IdempotencyStore}: до этого повтор операции находит ключ в памяти.
+     * Если запись не удалась, снятое состояние возвращается кошелькам и будет записано при следующем вызове.
+     */
+    private void flush(List<ActiveWallet> chunk) {
+        Map<UUID, Money> balances = new HashMap<>();
+        Map<ActiveWallet, List<WalletTransaction>> snapshots = new HashMap<>();
+        Map<ActiveWallet, List<WalletTransaction>> operationSnapshots = new HashMap<>();
+        List<WalletTransaction> transactions = new ArrayList<>();
+        List<WalletTransaction> idempotent = new ArrayList<>();
+        for (ActiveWallet wallet : chunk) {
+            synchronized (wallet) {
+                balances.put(wallet.id, Money.ofMinorUnits(wallet.balance));
+                snapshots.put(wallet, wallet.unflushed);
+                operationSnapshots.put(wallet, wallet.unflushedOperations);
+                transactions.addAll(wallet.unflushed);
+                idempotent.addAll(wallet.unflushedOperations);
+                wallet.unflushed = new ArrayList<>();
+                wallet.unflushedOperations = new ArrayList<>();
+            }
+        }
+        try {
+            metrics.recordBatch(() -> transactionTemplate.execute(status -> {
+                walletRepository.updateBalances(balances);
+                walletTransactionRepository.saveAll(transactions);
+                // Ключи применённых операций закреплены до этой записи, поэтому повтор операции этого экземпляра
+                // не применяется второй раз; уже сохранённый ключ означает, что операцию применил кто-то ещё.
+                int inserted = walletOperationRepository.saveAll(idempotent);
+                if (inserted < idempotent.size()) {
+                    log.warn("{} ключей идемпотентности уже были сохранены в базе данных до записи кошельков",
+                            idempotent.size() - inserted);
+                }
+                return null;
+            }));
+        } catch (RuntimeException e) {
+            log.warn("Не удалось записать балансы {} кошельков в базу данных: {}", chunk.size(), e.getMessage());
+            snapshots.forEach((wallet, snapshot) -> {
+                synchronized (wallet) {
+                    snapshot.addAll(wallet.unflushed);
+                    wallet.unflushed = snapshot;
+                    List<WalletTransaction> operations = operationSnapshots.get(wallet);
+                    operations.addAll(wallet.unflushedOperations);
+                    wallet.unflushedOperations = operations;
+                }
+            });
+            return;
+        }
+        for (ActiveWallet wallet : chunk) {
+            synchronized (wallet) {
+                wallet.persistedBalance = balances.get(wallet.id).minorUnits();
+            }
+        }
+        idempotencyStore.release(idempotent.stream().map(WalletTransaction::id).toList());
+    }
+
+    private void evict() {
+        long idleThreshold = System.nanoTime() - settings.idleTimeout().toNanos();
+        List<ActiveWallet> candidates = new ArrayList<>(wallets.values());
+        candidates.sort(Comparator.comparingLong(wallet -> wallet.lastTouched));
+        int excess = candidates.size() - settings.maximumWallets();
+        for (ActiveWallet wallet : candidates) {
+            if (wallet.lastTouched - idleThreshold >= 0 && excess <= 0) {
+                break;
+            }
+            // Выгружается только кошелёк, состояние которого уже записано в базу данных.
+            synchronized (wallet) {
+                if (!wallet.isDirty()) {
+                    wallet.evicted = true;
+                    wallets.remove(wallet.id, wallet);
+                    excess--;
+                }
+            }
+        }
+    }
+
+    /**
+     * Прекращает приём операций и ждёт, пока исполнитель применит принятые, не дольше {@code timeout}.
+     * Не применённые за это время операции отклоняются исключением {@link WalletServiceStoppingException};
+     * применённые записываются в базу данных при остановке сервиса.
+     *
+     * @param timeout максимальное время ожидания.
+     * @return число принятых операций, не применённых за отведённое время.
+     */
+    @Override
+    public int drain(Duration timeout) {
+        stopping = true;
+        try {
+            executor.awaitDrained(timeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<PendingOperation> remaining = executor.shutdown();
+        WalletServiceStoppingException error = new WalletServiceStoppingException(
+                "Операция не применена: сервис останавливается, повторите запрос позже.", retryAfter);
+        remaining.forEach(operation -> operation.result().completeExceptionally(error));
+        return remaining.size();
+    }
+
+    /**
+     * Останавливает потоки исполнителя и записывает состояние всех кошельков в базу данных.
+     */
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+        List<ActiveWallet> dirty = wallets.values().stream().filter(ActiveWallet::isDirty).toList();
+        for (int from = 0; from < dirty.size(); from += settings.flushChunkSize()) {
+            flush(dirty.subList(from, Math.min(from + settings.flushChunkSize(), dirty.size())));
+        }
+    }
+
+    private static WalletNotFoundException walletNotFound(UUID walletId) {
+        return new WalletNotFoundException("Кошелёк с id " + walletId + " не найден");
+    }
+
+    /**
+     * Кошелёк, баланс которого хранится в памяти.
+     * Баланс изменяется только шардом кошелька; состояние читается и изменяется под блокировкой объекта.
+     */
+    private static final class ActiveWallet {
+
+        private final UUID id;
+
+        /**
+         * Текущий баланс в копейках; читается без блокировки при запросе баланса.
+         */
+        private volatile long balance;
+
+        /**
+         * Баланс в копейках, последним записанный в базу данных.
+         */
+        private long persistedBalance;
+
+        /**
+         * Записи журнала операций, ещё не записанные в базу данных, в порядке применения.
+         */
+        private List<WalletTransaction> unflushed = new ArrayList<>();
+
+        /**
+         * Записи из {@link #unflushed}, идентификатор которых — ключ идемпотентности операции.
+         */
+        private List<WalletTransaction> unflushedOperations = new ArrayList<>();
+
+        /**
+         * Время записи журнала для последней применённой операции; следующая запись получает более позднее время.
+         */
+        private Instant lastCreatedAt = Instant.EPOCH;
+
+        private volatile long lastTouched = System.nanoTime();
+
+        /**
+         * Признак выгрузки из памяти; выгруженный кошелёк загружается заново при следующей операции.
+         */
+        private boolean evicted;
+
+        private ActiveWallet(UUID id, long balance) {
+            this.id = id;
+            this.balance = balance;
+            this.persistedBalance = balance;
+        }
+
+        private BalanceChangeResult apply(ChangeAmountRequest request) {
+            long amount = request.amount().minorUnits();
+            long updated;
+            switch (request.operationType()) {
+                case DEPOSIT:
+                    try {
+                        updated = Money.addExact(balance, amount);
+                    } catch (AmountOutOfRangeException e) {
+                        return BalanceChangeResult.rejected(request, e);
+                    }
+                    break;
+                case WITHDRAW:
+                    if (balance < amount) {
+                        return BalanceChangeResult.rejected(request,
+                                new NotEnoughMoneyException("Недостаточно средств на балансе."));
+                    }
+                    updated = Money.subtractExact(balance, amount);
+                    break;
+                default:
+                    return BalanceChangeResult.rejected(request,
+                            new IllegalArgumentException("Неподдержанный тип операции."));
+            }
+            balance = updated;
+            BalanceChangeResult result = BalanceChangeResult.applied(request, Money.ofMinorUnits(updated));
+            Instant now = Instant.now().truncatedTo(ChronoUnit.MICROS);
+            lastCreatedAt = now.isAfter(lastCreatedAt) ? now : lastCreatedAt.plus(1, ChronoUnit.MICROS);
+            WalletTransaction transaction = result.toTransaction(lastCreatedAt);
+            unflushed.add(transaction);
+            if (request.operationId() != null) {
+                unflushedOperations.add(transaction);
+            }
+            return result;
+        }
+
+        private synchronized boolean isDirty() {
+            return !unflushed.isEmpty() || balance != persistedBalance;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package ru.buzynnikov.wallet_service.services;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.retry.RetryCallback;
+import org.springframework.retry.RetryContext;
+import org.springframework.retry.RetryListener;
+import org.springframework.retry.support.RetryTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.buzynnikov.wallet_service.config.WalletProperties;
+import ru.buzynnikov.wallet_service.controllers.dto.BalanceOfWalletResponse;
+import ru.buzynnikov.wallet_service.controllers.dto.ChangeAmountRequest;
+import ru.buzynnikov.wallet_service.controllers.dto.OperationType;
+import ru.buzynnikov.wallet_service.exceptions.DuplicateOperationException;
+import ru.buzynnikov.wallet_service.exceptions.NotEnoughMoneyException;
+import ru.buzynnikov.wallet_service.exceptions.UnsupportedOperationTypeException;
+import ru.buzynnikov.wallet_service.exceptions.WalletNotFoundException;
+import ru.buzynnikov.wallet_service.exceptions.WalletOverloadedException;
+import ru.buzynnikov.wallet_service.models.Money;
+import ru.buzynnikov.wallet_service.models.Wallet;
+import ru.buzynnikov.wallet_service.models.WalletTransaction;
+import ru.buzynnikov.wallet_service.repositories.WalletOperationRepository;
+import ru.buzynnikov.wallet_service.repositories.WalletRepository;
+import ru.buzynnikov.wallet_service.repositories.WalletTransactionRepository;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Сервис кошельков, применяющий каждую операцию транзакцией с оптимистической блокировкой.
+ *
+ * Не использует очереди в памяти и блокировки строк: баланс читается вместе с версией строки,
+ * а при фиксации запрос UPDATE проверяет, что версия не изменилась. Если кошелёк успел изменить другой запрос,
+ * транзакция откатывается, конфликт учитывается в метрике {@code wallet.optimistic.conflicts}, и операция повторяется
+ * после случайной паузы с экспоненциальным ростом. Когда попытки исчерпаны, клиенту предлагается повторить запрос позже.
+ * Подходит для кошельков с редкими одновременными изменениями: операция выполняется без ожидания очереди.
+ * Используется в режиме {@code wallet.mode=optimistic}.
+ */
+@Service
+@ConditionalOnProperty(prefix = "wallet", name = "mode", havingValue = "optimistic")
+public class OptimisticWalletService implements WalletService {
+
+    private final WalletRepository walletRepository;
+
+    private final WalletTransactionRepository walletTransactionRepository;
+
+    private final WalletOperationRepository walletOperationRepository;
+
+    private final WalletBalanceCache balanceCache;
+
+    private final IdempotencyStore idempotencyStore;
+
+    private final WalletMetrics metrics;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final RetryTemplate retryTemplate;
+
+    private final Duration retryAfter;
+
+    public OptimisticWalletService(WalletRepository walletRepository,
+                                   WalletTransactionRepository walletTransactionRepository,
+                                   WalletOperationRepository walletOperationRepository,
+                                   WalletBalanceCache balanceCache,
+                                   IdempotencyStore idempotencyStore,
+                                   WalletMetrics metrics,
+                                   PlatformTransactionManager transactionManager,
+                                   WalletProperties properties) {
+        this.walletRepository = walletRepository;
+        this.walletTransactionRepository = walletTransactionRepository;
+        this.walletOperationRepository = walletOperationRepository;
+        this.balanceCache = balanceCache;
+        this.idempotencyStore = idempotencyStore;
+        this.metrics = metrics;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.retryAfter = properties.executor().retryAfter();
+        WalletProperties.Optimistic optimistic = properties.optimistic();
+        this.retryTemplate = RetryTemplate.builder()
+                .maxAttempts(optimistic.maxAttempts())
+                .retryOn(OptimisticLockingFailureException.class)
+                .exponentialBackoff(optimistic.initialBackoff().toMillis(), 2, optimistic.maxBackoff().toMillis(), true)
+                .withListener(new RetryListener() {
+                    @Override
+                    public <T, E extends Throwable> void onError(RetryContext context, RetryCallback<T, E> callback,
+                                                                 Throwable throwable) {
+                        if (throwable instanceof OptimisticLockingFailureException) {
+                            metrics.optimisticConflict();
+                        }
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * Применяет операцию изменения баланса и добавляет её в журнал операций в той же транзакции.
+     * Повтор операции с уже известным ключом идемпотентности возвращает исходный результат.
+     *
+     * @param request объект, содержащий данные о запрашиваемой операции изменения баланса.
+     * @return уже завершённый результат с балансом после операции.
+     * @throws UnsupportedOperationTypeException если запрошен перевод между кошельками.
+     * @throws NotEnoughMoneyException   если сумма списания превышает доступный остаток на счету.
+     * @throws WalletNotFoundException   если указанный кошелек не найден.
+     * @throws WalletOverloadedException если все попытки завершились конфликтом версий.
+     */
+    @Override
+    public CompletableFuture<BalanceOfWalletResponse> addDataToChangeBalance(ChangeAmountRequest request) {
+        WalletService.requireSingleWallet(request);
+        return idempotencyStore.execute(request, () -> apply(request));
+    }
+
+    private CompletableFuture<BalanceOfWalletResponse> apply(ChangeAmountRequest request) {
+        Money balance;
+        try {
+            balance = retryTemplate.execute(context -> metrics.recordBatch(() -> transactionTemplate.execute(status -> {
+                Wallet wallet = walletRepository.findById(request.walletId())
+                        .orElseThrow(() -> walletNotFound(request.walletId()));
+                Money newBalance = newBalance(request, wallet.getBalance());
+                // Версия проверяется запросом UPDATE при фиксации транзакции.
+                wallet.setBalance(newBalance);
+                WalletTransaction transaction = BalanceChangeResult.applied(request, newBalance).toTransaction(Instant.now());
+                if (request.operationId() != null && walletOperationRepository.saveAll(List.of(transaction)) == 0) {
+                    throw new DuplicateOperationException("Операция " + request.operationId() + " уже применена");
+                }
+                walletTransactionRepository.saveAll(List.of(transaction));
+                return newBalance;
+            })));
+        } catch (DuplicateOperationException e) {
+            // Операцию с тем же ключом параллельно применил другой экземпляр сервиса.
+            balanceCache.invalidate(request.walletId());
+            return storedResult(request);
+        } catch (OptimisticLockingFailureException e) {
+            balanceCache.invalidate(request.walletId());
+            metrics.operationsShed();
+            throw new WalletOverloadedException("Кошелёк изменяется слишком часто, повторите запрос позже.", retryAfter);
+        }
+        // Транзакции с разными версиями строки фиксируются параллельно, и запись в кэш после фиксации могла бы
+        // выполниться не в порядке версий; поэтому баланс удаляется из кэша и при следующем чтении загружается из базы данных.
+        balanceCache.invalidate(request.walletId());
+        return CompletableFuture.completedFuture(new BalanceOfWalletResponse(balance, request.operationId()));
+    }
+
+    private Money newBalance(ChangeAmountRequest request, Money balance) {
+        if (request.operationType() == OperationType.WITHDRAW) {
+            if (balance.compareTo(request.amount()) < 0) {
+                metrics.withdrawRejectedOnApply();
+                throw new NotEnoughMoneyException("Недостаточно средств на балансе.");
+            }
+            return balance.minus(request.amount());
+        }
+        return balance.plus(request.amount());
+    }
+
+    /**
+     * Возвращает текущий баланс для указанного кошелька из кэша балансов.
+     *
+     * @param walletId уникальный идентификатор кошелька.
+     * @return объект {@link BalanceOfWalletResponse}, содержащий текущий баланс.
+     * @throws WalletNotFoundException если указанный кошелек не найден.
+     */
+    @Override
+    public BalanceOfWalletResponse getBalanceOfWallet(UUID walletId) {
+        return new BalanceOfWalletResponse(balanceCache.find(walletId)
+                .orElseThrow(() -> walletNotFound(walletId)));
+    }
+
+    /**
+     * Возвращает балансы нескольких кошельков из кэша балансов; промахи загружаются одним запросом.
+     *
+     * @param walletIds идентификаторы кошельков.
+     * @return балансы найденных кошельков.
+     */
+    @Override
+    public Map<UUID, Money> getBalancesOfWallets(Collection<UUID> walletIds) {
+        return balanceCache.findAll(walletIds);
+    }
+
+    private CompletableFuture<BalanceOfWalletResponse> storedResult(ChangeAmountRequest request) {
+        return walletOperationRepository.findById(request.operationId())
+                .map(stored -> IdempotencyStore.storedResult(request, stored))
+                .orElseThrow(() -> new IllegalStateException("Ключ операции " + request.operationId() + " не найден"));
+    }
+
+    private static WalletNotFoundException walletNotFound(UUID walletId) {
+        return new WalletNotFoundException("Кошелёк с id " + walletId + " не найден");
+    }
+}
@@ -0,0 +1,22 @@
+package ru.buzynnikov.wallet_service.services;
+
+import ru.buzynnikov.wallet_service.controllers.dto.BalanceOfWalletResponse;
+import ru.buzynnikov.wallet_service.controllers.dto.ChangeAmountRequest;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Операция, ожидающая применения в очереди кошелька.
+ *
+ * @param request запрос на изменение баланса.
+ * @param result     результат, завершаемый после фиксации транзакции: баланс после операции
+ *                   или исключение, по которому операция была отклонена.
+ * @param enqueuedAt момент постановки в очередь по {@link System#nanoTime()}.
+ */
+public record PendingOperation(ChangeAmountRequest request, CompletableFuture<BalanceOfWalletResponse> result,
+                               long enqueuedAt) {
+
+    public PendingOperation(ChangeAmountRequest request) {
+        this(request, new CompletableFuture<>(), System.nanoTime());
+    }
+}
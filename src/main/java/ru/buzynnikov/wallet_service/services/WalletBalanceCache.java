@@ -0,0 +1,156 @@
+package ru.buzynnikov.wallet_service.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.stereotype.Component;
+import ru.buzynnikov.wallet_service.config.WalletProperties;
+import ru.buzynnikov.wallet_service.models.Money;
+import ru.buzynnikov.wallet_service.repositories.WalletRepository;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Кэш балансов кошельков с ограничением по размеру и времени жизни записи.
+ *
+ * При промахе баланс читается из базы данных (read-through). Сервис, изменивший баланс, после фиксации транзакции
+ * записывает новое значение в кэш, если изменения кошелька фиксирует по порядку один поток (режим {@code queue}),
+ * или удаляет баланс из кэша, если кошелёк изменяют параллельные запросы (режимы {@code atomic} и {@code optimistic}):
+ * их записи в кэш могли бы выполниться не в порядке фиксации. В обоих случаях чтение с этого узла не возвращает устаревший баланс.
+ * Загрузка и запись одного ключа сериализуются кэшем, так что значение, прочитанное из базы до фиксации,
+ * не может перезаписать более новое. Пакетная загрузка читает базу без блокировки ключей, поэтому каждая запись
+ * и удаление увеличивают счётчик изменений своей группы ключей, и загруженный баланс попадает в кэш, только если
+ * ключа в кэше нет, а счётчик его группы не изменился с начала загрузки.
+ * Счётчики попаданий, промахов и вытеснений публикуются в Micrometer под именем {@code wallet.balance}.
+ */
+@Component
+public class WalletBalanceCache {
+
+    private final WalletRepository walletRepository;
+
+    /**
+     * Число групп ключей со своим счётчиком изменений.
+     */
+    private static final int WRITE_STRIPES = 64;
+
+    private final Cache<UUID, Money> cache;
+
+    private final AtomicLongArray writes = new AtomicLongArray(WRITE_STRIPES);
+
+    public WalletBalanceCache(WalletRepository walletRepository, WalletProperties properties, MeterRegistry meterRegistry) {
+        this.walletRepository = walletRepository;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(properties.cache().maximumSize())
+                .expireAfterWrite(properties.cache().expireAfterWrite())
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "wallet.balance");
+    }
+
+    /**
+     * Возвращает баланс кошелька из кэша, при промахе загружая его из базы данных.
+     *
+     * @param walletId идентификатор кошелька.
+     * @return баланс или пустой {@link Optional}, если кошелёк не найден. Отсутствие кошелька не кэшируется.
+     */
+    public Optional<Money> find(UUID walletId) {
+        return Optional.ofNullable(cache.get(walletId, id -> walletRepository.findBalanceById(id).orElse(null)));
+    }
+
+    /**
+     * Возвращает баланс кошелька, если он есть в кэше, не обращаясь к базе данных и не изменяя статистику кэша.
+     * Для кошелька, который изменяет этот узел, это баланс, записанный шардом после фиксации последней пачки.
+     *
+     * @param walletId идентификатор кошелька.
+     * @return баланс или пустой {@link Optional}, если баланса нет в кэше.
+     */
+    public Optional<Money> peek(UUID walletId) {
+        return Optional.ofNullable(cache.policy().getIfPresentQuietly(walletId));
+    }
+
+    /**
+     * Возвращает балансы нескольких кошельков. Отсутствующие в кэше балансы загружаются
+     * из базы данных одним запросом-проекцией {@link WalletRepository#findBalancesByIdIn}.
+     * Загруженный баланс возвращается в результате, но записывается в кэш, только если за время загрузки
+     * баланс этого кошелька не записывался и не удалялся из кэша: иначе значение из базы могло быть прочитано
+     * до фиксации более нового.
+     *
+     * @param walletIds идентификаторы кошельков.
+     * @return балансы найденных кошельков; ненайденные кошельки в результат не попадают и не кэшируются.
+     */
+    public Map<UUID, Money> findAll(Collection<UUID> walletIds) {
+        Map<UUID, Money> balances = new HashMap<>(cache.getAllPresent(walletIds));
+        List<UUID> missing = walletIds.stream().distinct().filter(id -> !balances.containsKey(id)).toList();
+        if (missing.isEmpty()) {
+            return balances;
+        }
+        long[] stamps = new long[missing.size()];
+        for (int i = 0; i < stamps.length; i++) {
+            stamps[i] = writes.get(stripe(missing.get(i)));
+        }
+        Map<UUID, Money> loaded = new HashMap<>(missing.size());
+        walletRepository.findBalancesByIdIn(missing).forEach(wallet -> loaded.put(wallet.id(), wallet.balance()));
+        for (int i = 0; i < stamps.length; i++) {
+            UUID walletId = missing.get(i);
+            Money balance = loaded.get(walletId);
+            if (balance == null) {
+                continue;
+            }
+            long stamp = stamps[i];
+            Money cached = cache.asMap().compute(walletId, (id, current) ->
+                    current != null ? current : writes.get(stripe(id)) == stamp ? balance : null);
+            balances.put(walletId, cached != null ? cached : balance);
+        }
+        return balances;
+    }
+
+    /**
+     * Записывает в кэш баланс, зафиксированный в базе данных.
+     *
+     * @param walletId идентификатор кошелька.
+     * @param balance  новый баланс.
+     */
+    public void put(UUID walletId, Money balance) {
+        writes.incrementAndGet(stripe(walletId));
+        cache.put(walletId, balance);
+    }
+
+    /**
+     * Удаляет баланс кошелька из кэша, например, если результат изменения неизвестен.
+     *
+     * @param walletId идентификатор кошелька.
+     */
+    public void invalidate(UUID walletId) {
+        writes.incrementAndGet(stripe(walletId));
+        cache.invalidate(walletId);
+    }
+
+    /**
+     * Очищает кэш, например, когда этот экземпляр начал обслуживать кошельки, которые до этого изменял другой экземпляр.
+     */
+    public void invalidateAll() {
+        for (int i = 0; i < WRITE_STRIPES; i++) {
+            writes.incrementAndGet(i);
+        }
+        cache.invalidateAll();
+    }
+
+    /**
+     * Возвращает статистику кэша: попадания, промахи и вытеснения.
+     */
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    private static int stripe(UUID walletId) {
+        return walletId.hashCode() & (WRITE_STRIPES - 1);
+    }
+}
@@ -0,0 +1,119 @@
+package ru.buzynnikov.wallet_service.services;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import ru.buzynnikov.wallet_service.config.WalletProperties;
+import ru.buzynnikov.wallet_service.repositories.WalletRepository;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Фильтр Блума идентификаторов существующих кошельков для проверки операций при приёме без обращения к базе данных.
+ *
+ * Фильтр заполняется идентификаторами всех кошельков при запуске и пополняется кошельками, найденными в базе данных
+ * после запуска. Ответ «нет» означает, что кошелёк фильтру неизвестен и его нужно проверить в базе данных;
+ * ответ «возможно» допускает ложные срабатывания, поэтому существование кошелька окончательно проверяется
+ * при применении операции. Удалить идентификатор из фильтра нельзя. Чтение и добавление потокобезопасны.
+ */
+@Component
+@ConditionalOnProperty(prefix = "wallet", name = "mode", havingValue = "queue", matchIfMissing = true)
+public class WalletIdFilter {
+
+    private static final Logger log = LoggerFactory.getLogger(WalletIdFilter.class);
+
+    private final WalletRepository walletRepository;
+
+    private final AtomicLongArray bits;
+
+    private final long bitCount;
+
+    private final int hashCount;
+
+    /**
+     * Число идентификаторов, добавленных в фильтр; повторные добавления тоже учитываются.
+     */
+    private final AtomicLong added = new AtomicLong();
+
+    public WalletIdFilter(WalletRepository walletRepository, WalletProperties properties) {
+        this.walletRepository = walletRepository;
+        long expected = Math.max(1, properties.admission().expectedWallets());
+        double falsePositiveRate = properties.admission().falsePositiveRate();
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("wallet.admission.false-positive-rate должен быть в интервале (0, 1)");
+        }
+        long optimalBits = (long) Math.ceil(-expected * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        int words = (int) Math.min(Integer.MAX_VALUE - 8, (optimalBits + Long.SIZE - 1) / Long.SIZE);
+        this.bits = new AtomicLongArray(words);
+        this.bitCount = (long) words * Long.SIZE;
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / expected * Math.log(2)));
+    }
+
+    /**
+     * Загружает идентификаторы всех кошельков из базы данных.
+     */
+    @PostConstruct
+    public void load() {
+        long started = System.nanoTime();
+        walletRepository.forEachWalletId(this::add);
+        log.info("Фильтр идентификаторов кошельков загружен: {} кошельков за {} мс",
+                added.get(), (System.nanoTime() - started) / 1_000_000);
+    }
+
+    /**
+     * Возвращает {@code false}, если кошелёк фильтру точно неизвестен, и {@code true}, если он, возможно, существует.
+     *
+     * @param walletId идентификатор кошелька.
+     */
+    public boolean mightContain(UUID walletId) {
+        long first = firstHash(walletId);
+        long second = secondHash(walletId);
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Math.floorMod(first + i * second, bitCount);
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Добавляет идентификатор существующего кошелька.
+     *
+     * @param walletId идентификатор кошелька.
+     */
+    public void add(UUID walletId) {
+        long first = firstHash(walletId);
+        long second = secondHash(walletId);
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Math.floorMod(first + i * second, bitCount);
+            long mask = 1L << bit;
+            bits.getAndAccumulate((int) (bit >>> 6), mask, (word, m) -> word | m);
+        }
+        added.incrementAndGet();
+    }
+
+    static long firstHash(UUID walletId) {
+        return mix(walletId.getMostSignificantBits() ^ mix(walletId.getLeastSignificantBits()));
+    }
+
+    static long secondHash(UUID walletId) {
+        return mix(walletId.getLeastSignificantBits() + 0x9E3779B97F4A7C15L) | 1;
+    }
+
+    /**
+     * Финальное перемешивание MurmurHash3: соседние идентификаторы дают независимые позиции битов.
+     */
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xFF51AFD7ED558CCDL;
+        value ^= value >>> 33;
+        value *= 0xC4CEB9FE1A85EC53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
@@ -0,0 +1,150 @@
+package ru.buzynnikov.wallet_service.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Метрики конвейера операций над кошельками, публикуемые в Micrometer.
+ * <ul>
+ *     <li>{@code wallet.executor.queue.depth} (тег {@code shard}) — число операций, ожидающих обработки в шарде;</li>
+ *     <li>{@code wallet.executor.consumers.active} — число шардов и полос, обрабатывающих пачку в данный момент;</li>
+ *     <li>{@code wallet.executor.hot.wallets} — число горячих кошельков, обслуживаемых выделенными полосами;</li>
+ *     <li>{@code wallet.operation.latency} — время от постановки операции в очередь до фиксации транзакции;</li>
+ *     <li>{@code wallet.batch.duration} — время транзакции, применяющей пачку операций кошелька;</li>
+ *     <li>{@code wallet.withdraw.rejected} (тег {@code stage}) — число списаний, отклонённых из-за нехватки
+ *     средств при приёме ({@code admission}) или при применении ({@code apply});</li>
+ *     <li>{@code wallet.operation.shed} — число запросов, отклонённых из-за переполнения очередей;</li>
+ *     <li>{@code wallet.memory.wallets.active} — число кошельков, балансы которых хранятся в памяти (режим {@code memory});</li>
+ *     <li>{@code wallet.optimistic.conflicts} — число конфликтов версий при изменении баланса (режим {@code optimistic}).</li>
+ * </ul>
+ * Для таймеров публикуются гистограммы, по которым Prometheus рассчитывает процентили.
+ */
+@Component
+public class WalletMetrics {
+
+    private final MeterRegistry registry;
+
+    private final Timer operationLatency;
+
+    private final Timer batchDuration;
+
+    private final Counter rejectedOnAdmission;
+
+    private final Counter rejectedOnApply;
+
+    private final Counter shed;
+
+    private final Counter optimisticConflicts;
+
+    public WalletMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.operationLatency = Timer.builder("wallet.operation.latency")
+                .description("Время от постановки операции в очередь до завершения её транзакции")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.batchDuration = Timer.builder("wallet.batch.duration")
+                .description("Время транзакции, применяющей пачку операций кошелька")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.rejectedOnAdmission = rejectedWithdrawals("admission");
+        this.rejectedOnApply = rejectedWithdrawals("apply");
+        this.shed = Counter.builder("wallet.operation.shed")
+                .description("Число запросов, отклонённых из-за переполнения очередей")
+                .register(registry);
+        this.optimisticConflicts = Counter.builder("wallet.optimistic.conflicts")
+                .description("Число конфликтов версий при изменении баланса")
+                .register(registry);
+    }
+
+    /**
+     * Регистрирует показатели шардированного исполнителя: глубину очереди каждого шарда, число активных обработчиков
+     * и число горячих кошельков.
+     *
+     * @param executor исполнитель операций.
+     */
+    public void bindExecutor(WalletOperationExecutor<?> executor) {
+        for (int i = 0; i < executor.shardCount(); i++) {
+            int shard = i;
+            Gauge.builder("wallet.executor.queue.depth", executor, e -> e.queueDepth(shard))
+                    .description("Число операций, ожидающих обработки в шарде")
+                    .tag("shard", String.valueOf(shard))
+                    .register(registry);
+        }
+        Gauge.builder("wallet.executor.consumers.active", executor, WalletOperationExecutor::activeConsumers)
+                .description("Число шардов и полос, обрабатывающих пачку операций")
+                .register(registry);
+        Gauge.builder("wallet.executor.hot.wallets", executor, WalletOperationExecutor::hotWalletCount)
+                .description("Число горячих кошельков, обслуживаемых выделенными полосами")
+                .register(registry);
+    }
+
+    /**
+     * Регистрирует число кошельков, балансы которых хранятся в памяти.
+     *
+     * @param wallets кошельки в памяти по идентификаторам.
+     */
+    public void bindActiveWallets(Map<?, ?> wallets) {
+        Gauge.builder("wallet.memory.wallets.active", wallets, Map::size)
+                .description("Число кошельков, балансы которых хранятся в памяти")
+                .register(registry);
+    }
+
+    /**
+     * Учитывает время от постановки операции в очередь до завершения её транзакции, в том числе неудачного:
+     * операции, не применённые из-за ошибки базы данных, тоже попадают в распределение задержки.
+     *
+     * @param enqueuedAt момент постановки в очередь по {@link System#nanoTime()}.
+     */
+    public void recordOperationLatency(long enqueuedAt) {
+        operationLatency.record(System.nanoTime() - enqueuedAt, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Выполняет транзакцию применения пачки и учитывает её время.
+     */
+    public <T> T recordBatch(Supplier<T> batch) {
+        return batchDuration.record(batch);
+    }
+
+    /**
+     * Учитывает списание, отклонённое при приёме.
+     */
+    public void withdrawRejectedOnAdmission() {
+        rejectedOnAdmission.increment();
+    }
+
+    /**
+     * Учитывает списание, отклонённое при применении.
+     */
+    public void withdrawRejectedOnApply() {
+        rejectedOnApply.increment();
+    }
+
+    /**
+     * Учитывает запрос, отклонённый из-за переполнения очередей.
+     */
+    public void operationsShed() {
+        shed.increment();
+    }
+
+    /**
+     * Учитывает конфликт версий при изменении баланса с оптимистической блокировкой.
+     */
+    public void optimisticConflict() {
+        optimisticConflicts.increment();
+    }
+
+    private Counter rejectedWithdrawals(String stage) {
+        return Counter.builder("wallet.withdraw.rejected")
+                .description("Число списаний, отклонённых из-за нехватки средств")
+                .tag("stage", stage)
+                .register(registry);
+    }
+}
@@ -0,0 +1,461 @@
+package ru.buzynnikov.wallet_service.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.buzynnikov.wallet_service.config.WalletProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Шардированный исполнитель операций над кошельками.
+ *
+ * Кошельки распределяются по фиксированному числу шардов по хешу {@code walletId}.
+ * Каждый шард обслуживается одним потоком, который блокируется на очереди готовых к обработке кошельков
+ * и не расходует процессор в простое; виртуальный поток в этом состоянии паркуется. Все операции одного кошелька выполняются одним потоком строго
+ * в порядке поступления. Очередь кошелька удаляется из {@link #queueMap}, как только она опустела,
+ * поэтому число потоков и объём памяти не зависят от количества кошельков.
+ * Число ожидающих операций ограничено как для каждого кошелька, так и для всех кошельков вместе:
+ * операция, не уместившаяся в очередь, не принимается, и вызывающий код сообщает клиенту о перегрузке.
+ *
+ * Частота операций кошельков оценивается скетчем {@link WalletRateSketch}. Кошелёк, оценка которого достигла
+ * порога, переводится в выделенную полосу — отдельный поток с увеличенным размером пачки, — чтобы его поток операций
+ * не задерживал остальные кошельки шарда. Остывший кошелёк возвращается в свой шард. Кошелёк меняет поток,
+ * только когда попадает в очередь готовых кошельков, а там он находится не более одного раза, поэтому его операции
+ * по-прежнему выполняются одним потоком в порядке поступления.
+ *
+ * @param <T> тип операции.
+ */
+public class WalletOperationExecutor<T> {
+
+    private static final Logger log = LoggerFactory.getLogger(WalletOperationExecutor.class);
+
+    /**
+     * Интервал проверки очередей при ожидании их завершения.
+     */
+    private static final long DRAIN_POLL_MILLIS = 10;
+
+    /**
+     * Метка остановки в очереди готовых кошельков; сравнивается по ссылке, поэтому не совпадает ни с одним кошельком.
+     */
+    private static final UUID STOP = new UUID(0, 0);
+
+    /**
+     * Мапа, содержащая очереди ожидающих операций для каждого кошелька.
+     * Запись существует, только пока у кошелька есть необработанные операции.
+     */
+    private final Map<UUID, BlockingQueue<T>> queueMap;
+
+    private final List<Shard> shards;
+
+    /**
+     * Выделенные полосы горячих кошельков.
+     */
+    private final List<Shard> lanes;
+
+    /**
+     * Горячие кошельки и обслуживающие их полосы.
+     */
+    private final Map<UUID, Shard> hotWallets = new ConcurrentHashMap<>();
+
+    /**
+     * Оценка частоты операций кошельков; {@code null}, если полосы отключены.
+     */
+    private final WalletRateSketch sketch;
+
+    /**
+     * Оценка частоты, при которой кошелёк переводится в выделенную полосу.
+     */
+    private final int promoteThreshold;
+
+    private final BiConsumer<UUID, List<T>> handler;
+
+    /**
+     * Максимальное число ожидающих операций одного кошелька.
+     */
+    private final int walletQueueCapacity;
+
+    /**
+     * Максимальное число ожидающих операций всех кошельков.
+     */
+    private final int queueCapacity;
+
+    /**
+     * Число принятых операций всех кошельков, ещё не переданных обработчику.
+     */
+    private final AtomicInteger queued = new AtomicInteger();
+
+    /**
+     * Число шардов и полос, которые в данный момент обрабатывают пачку операций.
+     */
+    private final AtomicInteger activeConsumers = new AtomicInteger();
+
+    /**
+     * Создаёт исполнитель без выделенных полос для горячих кошельков.
+     *
+     * @param shardCount          количество шардов (потоков-обработчиков).
+     * @param batchSize           максимальный размер пачки операций одного кошелька.
+     * @param walletQueueCapacity максимальное число ожидающих операций одного кошелька.
+     * @param queueCapacity       максимальное число ожидающих операций всех кошельков.
+     * @param handler             обработчик пачки операций одного кошелька; операции передаются в порядке поступления.
+     * @param threadFactory       фабрика потоков шардов (платформенных или виртуальных).
+     */
+    public WalletOperationExecutor(int shardCount, int batchSize, int walletQueueCapacity, int queueCapacity,
+                                   BiConsumer<UUID, List<T>> handler, ThreadFactory threadFactory) {
+        this(shardCount, batchSize, walletQueueCapacity, queueCapacity, HotLanes.DISABLED, handler, threadFactory);
+    }
+
+    /**
+     * @param shardCount          количество шардов (потоков-обработчиков).
+     * @param batchSize           максимальный размер пачки операций одного кошелька.
+     * @param walletQueueCapacity максимальное число ожидающих операций одного кошелька.
+     * @param queueCapacity       максимальное число ожидающих операций всех кошельков.
+     * @param hotLanes            настройки выделенных полос для горячих кошельков.
+     * @param handler             обработчик пачки операций одного кошелька; операции передаются в порядке поступления.
+     * @param threadFactory       фабрика потоков шардов и полос (платформенных или виртуальных).
+     */
+    public WalletOperationExecutor(int shardCount, int batchSize, int walletQueueCapacity, int queueCapacity,
+                                   HotLanes hotLanes, BiConsumer<UUID, List<T>> handler, ThreadFactory threadFactory) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("Количество шардов должно быть больше нуля.");
+        }
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Размер пачки должен быть больше нуля.");
+        }
+        if (walletQueueCapacity <= 0 || queueCapacity <= 0) {
+            throw new IllegalArgumentException("Ёмкость очереди должна быть больше нуля.");
+        }
+        if (hotLanes.lanes() > 0 && (hotLanes.batchSize() <= 0 || hotLanes.promoteThreshold() <= 0)) {
+            throw new IllegalArgumentException("Размер пачки и порог выделенной полосы должны быть больше нуля.");
+        }
+        this.queueMap = new ConcurrentHashMap<>();
+        this.walletQueueCapacity = walletQueueCapacity;
+        this.queueCapacity = queueCapacity;
+        this.handler = handler;
+        this.shards = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            shards.add(new Shard("wallet-shard-" + i, batchSize, threadFactory));
+        }
+        this.lanes = new ArrayList<>(Math.max(0, hotLanes.lanes()));
+        for (int i = 0; i < hotLanes.lanes(); i++) {
+            lanes.add(new Shard("wallet-hot-lane-" + i, hotLanes.batchSize(), threadFactory));
+        }
+        this.sketch = lanes.isEmpty() ? null : new WalletRateSketch(hotLanes.window());
+        this.promoteThreshold = hotLanes.promoteThreshold();
+        for (Shard shard : shards) {
+            shard.thread.start();
+        }
+        for (Shard lane : lanes) {
+            lane.thread.start();
+        }
+    }
+
+    /**
+     * Ставит операцию в очередь кошелька. Если очередь кошелька была пуста,
+     * кошелёк передаётся на обработку своему шарду.
+     *
+     * @param walletId  идентификатор кошелька.
+     * @param operation операция.
+     * @return {@code false}, если операция не принята из-за переполнения очереди кошелька или общей очереди.
+     */
+    public boolean submit(UUID walletId, T operation) {
+        return submitAll(walletId, List.of(operation));
+    }
+
+    /**
+     * Ставит несколько операций одного кошелька в его очередь одним обращением к {@link #queueMap}.
+     * Операции будут применены в порядке списка, после ранее поставленных операций кошелька.
+     * Операции принимаются либо все, либо ни одной.
+     *
+     * @param walletId   идентификатор кошелька.
+     * @param operations операции в порядке поступления.
+     * @return {@code false}, если операции не приняты из-за переполнения очереди кошелька или общей очереди.
+     */
+    public boolean submitAll(UUID walletId, List<T> operations) {
+        int count = operations.size();
+        if (count == 0) {
+            return true;
+        }
+        if (sketch != null) {
+            track(walletId, count);
+        }
+        if (queued.addAndGet(count) > queueCapacity) {
+            queued.addAndGet(-count);
+            return false;
+        }
+        // Число ожидающих операций шарда увеличивается до добавления в очередь кошелька: иначе шард мог бы забрать
+        // и вычесть операции раньше, и глубина очереди шарда ненадолго стала бы отрицательной.
+        AtomicInteger pending = shardOf(walletId).pending;
+        pending.addAndGet(count);
+        boolean[] created = new boolean[1];
+        boolean[] accepted = new boolean[1];
+        queueMap.compute(walletId, (id, queue) -> {
+            if (queue == null) {
+                queue = new LinkedBlockingQueue<>(walletQueueCapacity);
+                created[0] = true;
+            }
+            // Операции кошелька добавляются только под блокировкой записи мапы, а шард только забирает их,
+            // поэтому проверенное свободное место не может уменьшиться до добавления.
+            if (queue.remainingCapacity() >= count) {
+                queue.addAll(operations);
+                accepted[0] = true;
+            }
+            return created[0] && !accepted[0] ? null : queue;
+        });
+        if (!accepted[0]) {
+            pending.addAndGet(-count);
+            queued.addAndGet(-count);
+            return false;
+        }
+        if (created[0]) {
+            laneOf(walletId).readyWallets.add(walletId);
+        }
+        return true;
+    }
+
+    /**
+     * Учитывает поступление операций кошелька: по окончании окна оценки возвращает остывшие кошельки в шарды,
+     * а кошелёк, оценка которого достигла порога, переводит в наименее загруженную полосу.
+     */
+    private void track(UUID walletId, int count) {
+        if (sketch.advance(System.nanoTime())) {
+            demoteCooled();
+        }
+        if (sketch.record(walletId, count) >= promoteThreshold && !hotWallets.containsKey(walletId)) {
+            Shard lane = lanes.stream().min(Comparator.comparingInt(l -> l.hotWallets.get())).orElseThrow();
+            if (hotWallets.putIfAbsent(walletId, lane) == null) {
+                lane.hotWallets.incrementAndGet();
+                log.info("Кошелёк {} переведён в выделенную полосу {}", walletId, lane.thread.getName());
+            }
+        }
+    }
+
+    /**
+     * Возвращает в шарды кошельки, оценка которых опустилась ниже четверти порога.
+     * Запас между порогами не даёт кошельку с частотой около порога постоянно менять поток.
+     */
+    private void demoteCooled() {
+        hotWallets.forEach((walletId, lane) -> {
+            if (sketch.estimate(walletId) < promoteThreshold / 4 && hotWallets.remove(walletId, lane)) {
+                lane.hotWallets.decrementAndGet();
+                log.info("Кошелёк {} возвращён в шард из выделенной полосы {}", walletId, lane.thread.getName());
+            }
+        });
+    }
+
+    /**
+     * Ждёт, пока все принятые операции будут переданы обработчику и обработаны, не дольше {@code timeout}.
+     * Операции, поставленные во время ожидания, тоже учитываются, поэтому перед вызовом следует прекратить их приём.
+     *
+     * @param timeout максимальное время ожидания.
+     * @return {@code true}, если очереди опустели и ни один шард не обрабатывает пачку.
+     * @throws InterruptedException если ожидающий поток прерван.
+     */
+    public boolean awaitDrained(Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (queued.get() > 0 || activeConsumers.get() > 0) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            Thread.sleep(DRAIN_POLL_MILLIS);
+        }
+        return true;
+    }
+
+    /**
+     * Останавливает потоки шардов и полос и забирает из очередей операции, не переданные обработчику.
+     * Потоки не прерываются: пачка, которая обрабатывается в момент остановки, может быть в середине транзакции,
+     * и прерывание сорвало бы её фиксацию. Такая пачка завершается обработчиком, после чего поток получает метку
+     * остановки из очереди готовых кошельков и завершается; простаивающий поток завершается сразу.
+     *
+     * @return операции, оставшиеся в очередях, в порядке поступления для каждого кошелька.
+     */
+    public List<T> shutdown() {
+        List<T> remaining = new ArrayList<>();
+        for (UUID walletId : queueMap.keySet()) {
+            BlockingQueue<T> queue = queueMap.remove(walletId);
+            if (queue != null) {
+                int drained = queue.drainTo(remaining);
+                shardOf(walletId).pending.addAndGet(-drained);
+                queued.addAndGet(-drained);
+            }
+        }
+        for (Shard shard : shards) {
+            shard.readyWallets.add(STOP);
+        }
+        for (Shard lane : lanes) {
+            lane.readyWallets.add(STOP);
+        }
+        return remaining;
+    }
+
+    /**
+     * Возвращает количество шардов.
+     */
+    public int shardCount() {
+        return shards.size();
+    }
+
+    /**
+     * Возвращает число горячих кошельков, обслуживаемых выделенными полосами.
+     */
+    public int hotWalletCount() {
+        return hotWallets.size();
+    }
+
+    /**
+     * Возвращает {@code true}, если кошелёк обслуживается выделенной полосой.
+     *
+     * @param walletId идентификатор кошелька.
+     */
+    public boolean isHot(UUID walletId) {
+        return hotWallets.containsKey(walletId);
+    }
+
+    /**
+     * Возвращает число операций, ожидающих обработки в очередях кошельков указанного шарда,
+     * включая операции его кошельков, переведённых в выделенные полосы.
+     *
+     * @param shard номер шарда, от 0 до {@link #shardCount()} - 1.
+     */
+    public int queueDepth(int shard) {
+        return shards.get(shard).pending.get();
+    }
+
+    /**
+     * Возвращает число кошельков, у которых есть необработанные операции, то есть записей в {@link #queueMap}.
+     */
+    int walletCount() {
+        return queueMap.size();
+    }
+
+    /**
+     * Возвращает число шардов и полос, которые в данный момент обрабатывают пачку операций.
+     */
+    public int activeConsumers() {
+        return activeConsumers.get();
+    }
+
+    private Shard shardOf(UUID walletId) {
+        return shards.get(Math.floorMod(walletId.hashCode(), shards.size()));
+    }
+
+    /**
+     * Возвращает поток, который сейчас обслуживает кошелёк: выделенную полосу горячего кошелька или шард.
+     */
+    private Shard laneOf(UUID walletId) {
+        Shard lane = hotWallets.isEmpty() ? null : hotWallets.get(walletId);
+        return lane != null ? lane : shardOf(walletId);
+    }
+
+    /**
+     * Настройки выделенных полос для горячих кошельков.
+     *
+     * @param lanes            число полос; 0 отключает перевод кошельков в полосы.
+     * @param batchSize        максимальный размер пачки операций кошелька в полосе.
+     * @param promoteThreshold оценка числа операций кошелька за окно, при которой он переводится в полосу.
+     * @param window           окно оценки частоты, по окончании которого оценки уменьшаются вдвое.
+     */
+    public record HotLanes(int lanes, int batchSize, int promoteThreshold, Duration window) {
+
+        /**
+         * Полосы отключены.
+         */
+        public static final HotLanes DISABLED = new HotLanes(0, 1, Integer.MAX_VALUE, Duration.ofSeconds(1));
+
+        /**
+         * Создаёт настройки полос из секции {@code wallet.hot-wallets} конфигурации.
+         *
+         * @param settings настройки горячих кошельков.
+         */
+        public static HotLanes from(WalletProperties.HotWallets settings) {
+            return new HotLanes(settings.lanes(), settings.batchSize(), settings.threshold(), settings.window());
+        }
+    }
+
+    /**
+     * Шард или выделенная полоса: один поток и очередь кошельков, у которых есть операции к обработке.
+     * Кошелёк находится в очереди одного шарда или полосы не более одного раза, пока существует его запись в {@link #queueMap}.
+     */
+    private final class Shard implements Runnable {
+
+        private final BlockingQueue<UUID> readyWallets = new LinkedBlockingQueue<>();
+
+        /**
+         * Число операций в очередях кошельков шарда, ещё не переданных обработчику.
+         */
+        private final AtomicInteger pending = new AtomicInteger();
+
+        /**
+         * Число горячих кошельков, закреплённых за полосой.
+         */
+        private final AtomicInteger hotWallets = new AtomicInteger();
+
+        /**
+         * Максимальное число операций одного кошелька, передаваемых обработчику одной пачкой,
+         * после чего шард переходит к следующему кошельку.
+         */
+        private final int batchSize;
+
+        private final Thread thread;
+
+        private Shard(String name, int batchSize, ThreadFactory threadFactory) {
+            this.batchSize = batchSize;
+            this.thread = threadFactory.newThread(this);
+            this.thread.setName(name);
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (UUID walletId = readyWallets.take(); walletId != STOP; walletId = readyWallets.take()) {
+                    drain(walletId);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Забирает из очереди кошелька до {@link #batchSize} операций и передаёт их обработчику одной пачкой.
+         * Пустая очередь удаляется из мапы, непустая возвращается в конец очереди шарда или полосы,
+         * которая обслуживает кошелёк теперь, чтобы не задерживать остальные кошельки.
+         */
+        private void drain(UUID walletId) {
+            BlockingQueue<T> queue = queueMap.get(walletId);
+            if (queue == null) {
+                // Очередь забрана при остановке исполнителя.
+                return;
+            }
+            List<T> batch = new ArrayList<>(Math.min(queue.size(), batchSize));
+            queue.drainTo(batch, batchSize);
+            if (!batch.isEmpty()) {
+                // Обработчик учитывается до уменьшения числа ожидающих операций, чтобы ожидание завершения очередей
+                // не приняло переданную обработчику пачку за обработанную.
+                activeConsumers.incrementAndGet();
+                shardOf(walletId).pending.addAndGet(-batch.size());
+                queued.addAndGet(-batch.size());
+                try {
+                    handler.accept(walletId, batch);
+                } catch (RuntimeException e) {
+                    log.warn("Операции над кошельком {} не выполнены: {}", walletId, e.getMessage());
+                } finally {
+                    activeConsumers.decrementAndGet();
+                }
+            }
+            if (queueMap.computeIfPresent(walletId, (id, q) -> q.isEmpty() ? null : q) != null) {
+                laneOf(walletId).readyWallets.add(walletId);
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package ru.buzynnikov.wallet_service.services;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Оценка частоты операций кошельков скетчем Count-Min с затуханием.
+ *
+ * Операция кошелька увеличивает по одному счётчику в каждой из {@link #DEPTH} строк, а оценка кошелька — минимум
+ * его счётчиков: она не меньше числа недавних операций и превышает его только из-за коллизий с другими кошельками.
+ * По окончании окна все счётчики уменьшаются вдвое, поэтому при постоянной частоте {@code r} операций в секунду
+ * оценка держится между {@code r·W} и {@code 2·r·W}, где {@code W} — длительность окна, и падает, когда кошелёк остывает.
+ * Объём памяти фиксирован и не зависит от числа кошельков.
+ *
+ * Методы потокобезопасны. Уменьшение счётчиков выполняет поток, первым заметивший окончание окна;
+ * операции, учтённые одновременно с ним, могут быть уменьшены вдвое раньше срока, что для оценки допустимо.
+ */
+final class WalletRateSketch {
+
+    private static final int DEPTH = 4;
+
+    private static final int WIDTH = 4096;
+
+    private final AtomicIntegerArray counters = new AtomicIntegerArray(DEPTH * WIDTH);
+
+    private final long windowNanos;
+
+    private final AtomicLong windowStart;
+
+    /**
+     * @param window длительность окна, после которого счётчики уменьшаются вдвое.
+     */
+    WalletRateSketch(Duration window) {
+        if (window.isZero() || window.isNegative()) {
+            throw new IllegalArgumentException("Окно оценки частоты должно быть больше нуля.");
+        }
+        this.windowNanos = window.toNanos();
+        this.windowStart = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Учитывает операции кошелька и возвращает новую оценку.
+     *
+     * @param walletId идентификатор кошелька.
+     * @param count    число операций.
+     */
+    int record(UUID walletId, int count) {
+        long first = WalletIdFilter.firstHash(walletId);
+        long second = WalletIdFilter.secondHash(walletId);
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            estimate = Math.min(estimate, counters.addAndGet(index(row, first, second), count));
+        }
+        return estimate;
+    }
+
+    /**
+     * Возвращает оценку числа недавних операций кошелька.
+     *
+     * @param walletId идентификатор кошелька.
+     */
+    int estimate(UUID walletId) {
+        long first = WalletIdFilter.firstHash(walletId);
+        long second = WalletIdFilter.secondHash(walletId);
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            estimate = Math.min(estimate, counters.get(index(row, first, second)));
+        }
+        return estimate;
+    }
+
+    /**
+     * Уменьшает все счётчики вдвое, если окно закончилось.
+     *
+     * @param now текущее время в наносекундах ({@link System#nanoTime()}).
+     * @return {@code true}, если окно закончилось и счётчики уменьшены этим вызовом.
+     */
+    boolean advance(long now) {
+        long start = windowStart.get();
+        if (now - start < windowNanos || !windowStart.compareAndSet(start, now)) {
+            return false;
+        }
+        for (int i = 0; i < counters.length(); i++) {
+            counters.getAndUpdate(i, value -> value >>> 1);
+        }
+        return true;
+    }
+
+    private static int index(int row, long first, long second) {
+        return row * WIDTH + (int) ((first + row * second) & (WIDTH - 1));
+    }
+}
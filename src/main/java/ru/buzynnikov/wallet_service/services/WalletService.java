@@ -2,8 +2,17 @@ package ru.buzynnikov.wallet_service.services;
 
 import ru.buzynnikov.wallet_service.controllers.dto.BalanceOfWalletResponse;
 import ru.buzynnikov.wallet_service.controllers.dto.ChangeAmountRequest;
+import ru.buzynnikov.wallet_service.controllers.dto.OperationType;
+import ru.buzynnikov.wallet_service.exceptions.UnsupportedOperationTypeException;
+import ru.buzynnikov.wallet_service.models.Money;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Интерфейс для работы с сервисами кошельков.
@@ -15,8 +24,43 @@ public interface WalletService {
      * Принимает данные для дальнейшей обработки
      *
      * @param request Объект запроса, содержащий информацию о типе операции (пополнение или списание) и сумме изменения.
+     * @return Результат, завершаемый балансом кошелька после фиксации операции
+     * или исключением, если операция была отклонена.
      */
-    void addDataToChangeBalance(ChangeAmountRequest request);
+    CompletableFuture<BalanceOfWalletResponse> addDataToChangeBalance(ChangeAmountRequest request);
+
+    /**
+     * Отклоняет перевод в режимах, которые изменяют за одну операцию только один кошелёк.
+     *
+     * @throws UnsupportedOperationTypeException если запрошен перевод между кошельками.
+     */
+    static void requireSingleWallet(ChangeAmountRequest request) {
+        if (request.operationType() == OperationType.TRANSFER) {
+            throw new UnsupportedOperationTypeException(
+                    "Перевод между кошельками поддерживается только в режиме wallet.mode=queue");
+        }
+    }
+
+    /**
+     * Принимает пачку операций, полученную одним запросом.
+     * Операции одного кошелька применяются в порядке следования в списке.
+     * Реализация по умолчанию принимает операции по одной.
+     *
+     * @param requests Запросы на изменение баланса.
+     * @return Результаты операций в порядке запросов. Отклонение одной операции не влияет на остальные:
+     * соответствующий результат завершается исключением.
+     */
+    default List<CompletableFuture<BalanceOfWalletResponse>> addDataToChangeBalance(List<ChangeAmountRequest> requests) {
+        List<CompletableFuture<BalanceOfWalletResponse>> results = new ArrayList<>(requests.size());
+        for (ChangeAmountRequest request : requests) {
+            try {
+                results.add(addDataToChangeBalance(request));
+            } catch (RuntimeException e) {
+                results.add(CompletableFuture.failedFuture(e));
+            }
+        }
+        return results;
+    }
 
     /**
      * Возвращает текущий баланс определенного кошелька.
@@ -26,4 +70,24 @@ public interface WalletService {
      */
     BalanceOfWalletResponse getBalanceOfWallet(UUID walletId);
 
+    /**
+     * Возвращает текущие балансы нескольких кошельков.
+     *
+     * @param walletIds Идентификаторы кошельков.
+     * @return Балансы найденных кошельков; ненайденные кошельки в результат не попадают.
+     */
+    Map<UUID, Money> getBalancesOfWallets(Collection<UUID> walletIds);
+
+    /**
+     * Прекращает приём операций и ждёт применения уже принятых, не дольше {@code timeout}.
+     * Вызывается при остановке приложения, пока соединения с базой данных ещё открыты.
+     * Реализация по умолчанию ничего не ждёт: операция применяется в потоке запроса, и её завершения ждёт веб-сервер.
+     *
+     * @param timeout максимальное время ожидания.
+     * @return число принятых операций, не применённых за отведённое время.
+     */
+    default int drain(Duration timeout) {
+        return 0;
+    }
+
 }
@@ -0,0 +1,189 @@
+package ru.buzynnikov.wallet_service.services;
+
+import com.zaxxer.hikari.HikariConfigMXBean;
+import com.zaxxer.hikari.HikariDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.jdbc.DataSourceUnwrapper;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClient;
+import ru.buzynnikov.wallet_service.config.WalletProperties;
+import ru.buzynnikov.wallet_service.repositories.WalletTransactionRepository;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Запуск и остановка экземпляра сервиса без провала задержек при последовательном обновлении экземпляров.
+ *
+ * При запуске, до того как проверка готовности ({@code /actuator/health/readiness}) сообщит о приёме трафика,
+ * открывает соединения пула для всех шардов и полос, загружает в кэш балансы недавно активных кошельков
+ * и выполняет запросы баланса, чтобы JIT-компилятор скомпилировал основные пути запроса.
+ * Spring Boot переводит проверку готовности в состояние приёма трафика после выполнения всех {@link ApplicationRunner}.
+ *
+ * При остановке прекращает приём операций и ждёт применения принятых не дольше {@code wallet.lifecycle.drain-timeout},
+ * после чего сообщает, сколько операций не применено. Проверка готовности к этому моменту уже сообщает об отказе
+ * от трафика. Компонент останавливается в самой поздней фазе, то есть раньше веб-сервера, поэтому запросы,
+ * ожидающие результата операции, получают ответ до плавной остановки веб-сервера, а соединения с базой данных
+ * ещё открыты.
+ */
+@Component
+public class WalletServiceLifecycle implements SmartLifecycle, ApplicationRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(WalletServiceLifecycle.class);
+
+    /**
+     * Число кошельков, балансы которых загружаются одним запросом при прогреве.
+     */
+    private static final int PRELOAD_CHUNK_SIZE = 1000;
+
+    private static final String BALANCE_PATH = "/api/v1/wallet/{walletId}";
+
+    private final WalletService walletService;
+
+    private final WalletTransactionRepository walletTransactionRepository;
+
+    private final DataSource dataSource;
+
+    private final ApplicationContext applicationContext;
+
+    private final WalletProperties.Lifecycle settings;
+
+    /**
+     * Число потоков, каждый из которых держит соединение на время транзакции пачки: шарды и выделенные полосы.
+     */
+    private final int consumers;
+
+    private volatile boolean running;
+
+    public WalletServiceLifecycle(WalletService walletService,
+                                  WalletTransactionRepository walletTransactionRepository,
+                                  DataSource dataSource,
+                                  ApplicationContext applicationContext,
+                                  WalletProperties properties) {
+        this.walletService = walletService;
+        this.walletTransactionRepository = walletTransactionRepository;
+        this.dataSource = dataSource;
+        this.applicationContext = applicationContext;
+        this.settings = properties.lifecycle();
+        this.consumers = properties.executor().effectiveShards() + Math.max(0, properties.hotWallets().lanes());
+    }
+
+    /**
+     * Прогревает экземпляр сервиса. Ошибка прогрева не прерывает запуск: экземпляр остаётся работоспособным,
+     * и первые запросы лишь прогревают его сами.
+     */
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!settings.warmup()) {
+            return;
+        }
+        long started = System.nanoTime();
+        try {
+            int connections = warmConnectionPool();
+            List<UUID> walletIds = preloadBalances();
+            int requests = exerciseRequests(walletIds);
+            log.info("Прогрев завершён за {} мс: {} соединений, {} балансов, {} запросов",
+                    (System.nanoTime() - started) / 1_000_000, connections, walletIds.size(), requests);
+        } catch (RuntimeException | SQLException e) {
+            log.warn("Прогрев не завершён: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Открывает одновременно по соединению для каждого шарда и полосы, чтобы пул создал их до первой пачки.
+     *
+     * @return число открытых соединений.
+     */
+    private int warmConnectionPool() throws SQLException {
+        int target = consumers;
+        HikariDataSource hikari = DataSourceUnwrapper.unwrap(dataSource, HikariConfigMXBean.class, HikariDataSource.class);
+        if (hikari != null) {
+            target = Math.min(target, hikari.getMaximumPoolSize());
+        }
+        List<Connection> connections = new ArrayList<>(target);
+        try {
+            for (int i = 0; i < target; i++) {
+                connections.add(dataSource.getConnection());
+            }
+        } finally {
+            for (Connection connection : connections) {
+                connection.close();
+            }
+        }
+        return connections.size();
+    }
+
+    /**
+     * Загружает в кэш балансы кошельков, операции над которыми выполнялись недавно.
+     *
+     * @return идентификаторы кошельков, начиная с последних изменённых.
+     */
+    private List<UUID> preloadBalances() {
+        List<UUID> walletIds = walletTransactionRepository.findRecentlyActiveWalletIds(
+                Instant.now().minus(settings.warmupLookback()), settings.warmupWallets());
+        for (int from = 0; from < walletIds.size(); from += PRELOAD_CHUNK_SIZE) {
+            walletService.getBalancesOfWallets(walletIds.subList(from, Math.min(from + PRELOAD_CHUNK_SIZE, walletIds.size())));
+        }
+        return walletIds;
+    }
+
+    /**
+     * Выполняет запросы баланса загруженных кошельков. Если веб-сервер запущен, запросы проходят через него
+     * и прогревают разбор HTTP, контроллер и сериализацию ответа; иначе вызывается сервис.
+     *
+     * @return число выполненных запросов.
+     */
+    private int exerciseRequests(List<UUID> walletIds) {
+        if (walletIds.isEmpty()) {
+            return 0;
+        }
+        RestClient client = applicationContext instanceof WebServerApplicationContext web && web.getWebServer() != null
+                ? RestClient.create("http://localhost:" + web.getWebServer().getPort())
+                : null;
+        for (int i = 0; i < settings.warmupRequests(); i++) {
+            UUID walletId = walletIds.get(i % walletIds.size());
+            if (client != null) {
+                client.get().uri(BALANCE_PATH, walletId).exchange((request, response) -> response.getStatusCode());
+            } else {
+                walletService.getBalanceOfWallet(walletId);
+            }
+        }
+        return Math.max(0, settings.warmupRequests());
+    }
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    /**
+     * Прекращает приём операций и ждёт применения принятых; сообщает о не применённых операциях.
+     */
+    @Override
+    public void stop() {
+        running = false;
+        long started = System.nanoTime();
+        int remaining = walletService.drain(settings.drainTimeout());
+        if (remaining == 0) {
+            log.info("Очереди операций завершены за {} мс", (System.nanoTime() - started) / 1_000_000);
+        } else {
+            log.warn("Очереди операций не завершены за {}: не применено {} операций", settings.drainTimeout(), remaining);
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+}
@@ -0,0 +1,70 @@
+package ru.buzynnikov.wallet_service.services;
+
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.buzynnikov.wallet_service.exceptions.WalletNotFoundException;
+import ru.buzynnikov.wallet_service.models.WalletTransaction;
+import ru.buzynnikov.wallet_service.repositories.WalletTransactionRepository;
+
+import java.time.Instant;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Сервис чтения журнала операций кошелька.
+ */
+@Service
+public class WalletTransactionService {
+
+    /**
+     * Максимальный размер страницы журнала.
+     */
+    public static final int MAX_PAGE_SIZE = 1000;
+
+    private final WalletTransactionRepository walletTransactionRepository;
+
+    private final WalletBalanceCache balanceCache;
+
+    private final TransactionTemplate readOnlyTransactionTemplate;
+
+    public WalletTransactionService(WalletTransactionRepository walletTransactionRepository,
+                                    WalletBalanceCache balanceCache,
+                                    PlatformTransactionManager transactionManager) {
+        this.walletTransactionRepository = walletTransactionRepository;
+        this.balanceCache = balanceCache;
+        this.readOnlyTransactionTemplate = new TransactionTemplate(transactionManager);
+        this.readOnlyTransactionTemplate.setReadOnly(true);
+    }
+
+    /**
+     * Проверяет существование кошелька по кэшу балансов.
+     *
+     * @param walletId идентификатор кошелька.
+     * @throws WalletNotFoundException если указанный кошелек не найден.
+     */
+    public void checkWalletExists(UUID walletId) {
+        if (balanceCache.find(walletId).isEmpty()) {
+            throw new WalletNotFoundException("Кошелёк с id " + walletId + " не найден");
+        }
+    }
+
+    /**
+     * Передаёт записи страницы журнала кошелька обработчику по мере чтения из базы данных, от новых к старым.
+     *
+     * @param walletId идентификатор кошелька.
+     * @param before   время последней записи предыдущей страницы; {@code null} для первой страницы.
+     * @param beforeId идентификатор последней записи предыдущей страницы; может быть {@code null}.
+     * @param size     размер страницы, ограничивается диапазоном от 1 до {@link #MAX_PAGE_SIZE}.
+     * @param action   обработчик записей.
+     */
+    public void forEachTransaction(UUID walletId, Instant before, UUID beforeId, int size, Consumer<WalletTransaction> action) {
+        int limit = Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+        readOnlyTransactionTemplate.executeWithoutResult(status -> {
+            try (Stream<WalletTransaction> transactions = walletTransactionRepository.streamPage(walletId, before, beforeId, limit)) {
+                transactions.forEach(action);
+            }
+        });
+    }
+}
@@ -0,0 +1,50 @@
+package ru.buzynnikov.wallet_service.wal;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Запись журнала упреждающей записи, добавленная методом {@link WriteAheadLog#append}
+ * или прочитанная при запуске.
+ */
+public final class WalEntry {
+
+    private final WalSegment segment;
+
+    private final int position;
+
+    private final CompletableFuture<Void> durable;
+
+    WalEntry(WalSegment segment, int position, CompletableFuture<Void> durable) {
+        this.segment = segment;
+        this.position = position;
+        this.durable = durable;
+    }
+
+    /**
+     * Возвращает результат, завершаемый после сброса записи на диск.
+     */
+    public CompletableFuture<Void> durable() {
+        return durable;
+    }
+
+    /**
+     * Освобождает запись после фиксации операции в базе данных. Запись отмечается завершённой без сброса на диск:
+     * если отметка не успеет попасть на диск, операция при запуске будет распознана по ключу идемпотентности.
+     * Сегмент, все записи которого освобождены, удаляется после перехода журнала к следующему сегменту.
+     * Для каждой записи вызывается один раз либо этот метод, либо {@link #reject()}.
+     */
+    public void release() {
+        segment.mark(position, WriteAheadLog.RELEASED_MARKER, false);
+        segment.release();
+    }
+
+    /**
+     * Освобождает запись операции, отклонённой при применении или завершившейся ошибкой, о чём уже сообщено клиенту.
+     * Отметка сбрасывается на диск до возврата, поэтому при запуске такая операция не будет применена повторно.
+     * Для каждой записи вызывается один раз либо этот метод, либо {@link #release()}.
+     */
+    public void reject() {
+        segment.mark(position, WriteAheadLog.RELEASED_MARKER, true);
+        segment.release();
+    }
+}
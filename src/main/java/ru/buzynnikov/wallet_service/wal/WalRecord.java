@@ -0,0 +1,13 @@
+package ru.buzynnikov.wallet_service.wal;
+
+import ru.buzynnikov.wallet_service.controllers.dto.ChangeAmountRequest;
+
+/**
+ * Операция, прочитанная из журнала упреждающей записи при запуске.
+ *
+ * @param request операция изменения баланса.
+ * @param entry   запись журнала: освобождается после повторного применения операции
+ *                или отмечается отклонённой, если операция окончательно отклонена.
+ */
+public record WalRecord(ChangeAmountRequest request, WalEntry entry) {
+}
@@ -0,0 +1,140 @@
+package ru.buzynnikov.wallet_service.wal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Сегмент журнала упреждающей записи: файл фиксированного размера, отображённый в память.
+ *
+ * Сегмент удаляется, когда он закрыт для записи (журнал перешёл к следующему сегменту)
+ * и все его записи освобождены, то есть их операции зафиксированы в базе данных или окончательно отклонены.
+ */
+final class WalSegment {
+
+    private static final Logger log = LoggerFactory.getLogger(WalSegment.class);
+
+    final Path path;
+
+    final MappedByteBuffer buffer;
+
+    private final FileChannel channel;
+
+    /**
+     * Позиция следующей записи. Изменяется только под блокировкой журнала.
+     */
+    int position;
+
+    /**
+     * Позиция, до которой содержимое сегмента сброшено на диск. Изменяется только под блокировкой журнала.
+     */
+    int flushedPosition;
+
+    /**
+     * Число записей сегмента, операции которых ещё не завершены.
+     */
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private volatile boolean sealed;
+
+    private final AtomicBoolean deleted = new AtomicBoolean();
+
+    private WalSegment(Path path, FileChannel channel, MappedByteBuffer buffer) {
+        this.path = path;
+        this.channel = channel;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Создаёт новый файл сегмента указанного размера, заполненный нулями.
+     */
+    static WalSegment create(Path path, int size) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return new WalSegment(path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+    }
+
+    /**
+     * Открывает существующий сегмент, оставшийся после предыдущего запуска. Новые записи в него не добавляются,
+     * но его записи отмечаются завершёнными по мере повторного применения операций.
+     */
+    static WalSegment open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return new WalSegment(path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+    }
+
+    int remaining() {
+        return buffer.capacity() - position;
+    }
+
+    void retain() {
+        pending.incrementAndGet();
+    }
+
+    /**
+     * Записывает маркер записи, начинающейся с указанной позиции.
+     *
+     * @param force {@code true}, если маркер нужно сбросить на диск до возврата.
+     */
+    void mark(int position, byte marker, boolean force) {
+        buffer.put(position, marker);
+        if (force) {
+            buffer.force(position, 1);
+        }
+    }
+
+    /**
+     * Освобождает запись сегмента; последняя освобождённая запись закрытого сегмента удаляет его.
+     */
+    void release() {
+        if (pending.decrementAndGet() == 0 && sealed) {
+            delete();
+        }
+    }
+
+    /**
+     * Закрывает сегмент для записи и сбрасывает его на диск. Если незавершённых записей нет, сегмент удаляется.
+     */
+    void seal() {
+        buffer.force();
+        sealed = true;
+        if (pending.get() == 0) {
+            delete();
+        }
+    }
+
+    /**
+     * Закрывает файл сегмента, не удаляя его; используется при остановке журнала.
+     */
+    void close() {
+        buffer.force();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Не удалось закрыть сегмент журнала {}: {}", path, e.getMessage());
+        }
+    }
+
+    /**
+     * Закрывает и удаляет файл сегмента.
+     */
+    void delete() {
+        if (!deleted.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            channel.close();
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Не удалось удалить сегмент журнала {}: {}", path, e.getMessage());
+        }
+    }
+}
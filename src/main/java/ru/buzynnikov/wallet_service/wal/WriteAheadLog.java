@@ -0,0 +1,396 @@
+package ru.buzynnikov.wallet_service.wal;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import ru.buzynnikov.wallet_service.config.WalletProperties;
+import ru.buzynnikov.wallet_service.controllers.dto.ChangeAmountRequest;
+import ru.buzynnikov.wallet_service.controllers.dto.OperationType;
+import ru.buzynnikov.wallet_service.models.Money;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Журнал упреждающей записи (WAL) принятых, но ещё не применённых операций изменения баланса.
+ *
+ * Журнал состоит из сегментов фиксированного размера, отображённых в память; заполненный сегмент
+ * закрывается, и запись продолжается в следующий. Запись попадает в отображённую память сразу,
+ * поэтому переживает аварийное завершение процесса, а на диск сбрасывается отдельным потоком
+ * групповой фиксацией: один вызов {@code msync} покрывает все записи, добавленные за время предыдущего.
+ * Сегмент удаляется, когда все операции его записей завершены (контрольная точка после фиксации в базе данных).
+ * Завершённая запись отмечается маркером {@link #RELEASED_MARKER}; у операции, отклонённой при применении или
+ * завершившейся ошибкой, отметка сбрасывается на диск до ответа клиенту.
+ *
+ * При запуске неотмеченные записи оставшихся сегментов читаются и возвращаются {@link #recovered()} для повторного
+ * применения; новые записи пишутся в новый сегмент. У каждой записи есть ключ идемпотентности, поэтому операции,
+ * уже зафиксированные до остановки, при повторном применении не дублируются.
+ *
+ * Сегмент начинается с заголовка: сигнатура {@link #SEGMENT_MAGIC} (4 байта) и версия формата записей (4).
+ * Формат записи версии {@link #FORMAT_VERSION}: маркер (1 байт), идентификатор кошелька (16), ключ операции (16),
+ * тип операции (1), сумма в копейках (8), идентификатор кошелька-получателя перевода или нули (16),
+ * CRC32 предыдущих полей, кроме маркера (4). Маркер {@link #RECORD_MARKER} пишется последним; чтение сегмента
+ * останавливается на первой записи без маркера или с неверной контрольной суммой.
+ * Сегменты без заголовка записаны до появления переводов: их записи не содержат кошелька-получателя
+ * и читаются в прежнем формате. Сегмент с неизвестной версией формата не читается, и запуск прерывается.
+ */
+@Component
+@ConditionalOnProperty(prefix = "wallet.wal", name = "enabled", havingValue = "true")
+public class WriteAheadLog {
+
+    private static final Logger log = LoggerFactory.getLogger(WriteAheadLog.class);
+
+    /**
+     * Маркер записи операции, которая ещё не завершена.
+     */
+    static final byte RECORD_MARKER = 1;
+
+    /**
+     * Маркер записи операции, которая применена или отклонена; при запуске такая запись пропускается.
+     */
+    static final byte RELEASED_MARKER = 2;
+
+    /**
+     * Сигнатура заголовка сегмента, {@code "WALW"}. Первый байт не совпадает ни с одним маркером записи,
+     * поэтому сегмент без заголовка отличается от сегмента с заголовком.
+     */
+    static final int SEGMENT_MAGIC = 0x57414C57;
+
+    /**
+     * Версия формата записей, которые пишет этот журнал.
+     */
+    static final int FORMAT_VERSION = 2;
+
+    static final int HEADER_SIZE = 4 + 4;
+
+    private static final int PAYLOAD_SIZE = 16 + 16 + 1 + 8 + 16;
+
+    static final int RECORD_SIZE = 1 + PAYLOAD_SIZE + 4;
+
+    /**
+     * Размер полей записи в сегментах без заголовка: без идентификатора кошелька-получателя.
+     */
+    private static final int LEGACY_PAYLOAD_SIZE = 16 + 16 + 1 + 8;
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("wal-(\\d{20})\\.log");
+
+    private final Path directory;
+
+    private final int segmentSize;
+
+    private final List<WalRecord> recovered;
+
+    private final List<WalSegment> recoveredSegments;
+
+    /**
+     * Блокировка, под которой записи добавляются в текущий сегмент и передаются потоку сброса.
+     */
+    private final Object lock = new Object();
+
+    private final byte[] payload = new byte[PAYLOAD_SIZE];
+
+    private final ByteBuffer payloadBuffer = ByteBuffer.wrap(payload);
+
+    private final CRC32 crc = new CRC32();
+
+    private WalSegment current;
+
+    private long nextSegmentId;
+
+    /**
+     * Записи, ожидающие сброса на диск.
+     */
+    private List<CompletableFuture<Void>> unflushed = new ArrayList<>();
+
+    private boolean closed;
+
+    private final Thread flusher;
+
+    @Autowired
+    public WriteAheadLog(WalletProperties properties) {
+        this(Path.of(properties.wal().directory()), Math.toIntExact(properties.wal().segmentSize().toBytes()));
+    }
+
+    /**
+     * @param directory   каталог сегментов; создаётся, если не существует.
+     * @param segmentSize размер сегмента в байтах.
+     */
+    public WriteAheadLog(Path directory, int segmentSize) {
+        if (segmentSize < HEADER_SIZE + RECORD_SIZE) {
+            throw new IllegalArgumentException("Размер сегмента журнала меньше размера заголовка и записи.");
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.recovered = new ArrayList<>();
+        this.recoveredSegments = new ArrayList<>();
+        try {
+            Files.createDirectories(directory);
+            recover();
+            this.current = openSegment();
+        } catch (IOException e) {
+            recoveredSegments.forEach(WalSegment::close);
+            throw new UncheckedIOException("Не удалось открыть журнал операций " + directory, e);
+        } catch (RuntimeException e) {
+            recoveredSegments.forEach(WalSegment::close);
+            throw e;
+        }
+        this.flusher = new Thread(this::flushLoop, "wallet-wal-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Возвращает незавершённые операции, прочитанные из журнала при запуске, в порядке записи.
+     */
+    public List<WalRecord> recovered() {
+        return recovered;
+    }
+
+    /**
+     * Удаляет сегменты, прочитанные при запуске; вызывается после того, как все их операции повторно применены
+     * или окончательно отклонены.
+     */
+    public void discardRecovered() {
+        recoveredSegments.forEach(WalSegment::delete);
+        recoveredSegments.clear();
+        recovered.clear();
+    }
+
+    /**
+     * Добавляет операцию в журнал.
+     *
+     * @param request операция; должна иметь ключ идемпотентности.
+     * @return запись журнала: её {@link WalEntry#durable()} завершается после сброса на диск,
+     * а {@link WalEntry#release()} вызывается, когда операция зафиксирована в базе данных или окончательно отклонена.
+     */
+    public WalEntry append(ChangeAmountRequest request) {
+        if (request.operationId() == null) {
+            throw new IllegalArgumentException("Операция журнала должна иметь ключ идемпотентности.");
+        }
+        CompletableFuture<Void> durable = new CompletableFuture<>();
+        WalSegment segment;
+        int position;
+        synchronized (lock) {
+            if (closed) {
+                throw new IllegalStateException("Журнал операций закрыт.");
+            }
+            if (current.remaining() < RECORD_SIZE) {
+                rotate();
+            }
+            segment = current;
+            position = write(segment, request);
+            segment.retain();
+            unflushed.add(durable);
+            lock.notify();
+        }
+        return new WalEntry(segment, position, durable);
+    }
+
+    /**
+     * Останавливает поток сброса и сбрасывает на диск оставшиеся записи. Сегменты с незавершёнными
+     * операциями, в том числе сегменты, прочитанные при запуске, но не удалённые, сохраняются
+     * и будут прочитаны при следующем запуске.
+     */
+    @PreDestroy
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            lock.notify();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        current.close();
+        recoveredSegments.forEach(WalSegment::close);
+    }
+
+    /**
+     * Записывает операцию в сегмент. Вызывается под блокировкой.
+     *
+     * @return позиция записи в сегменте.
+     */
+    private int write(WalSegment segment, ChangeAmountRequest request) {
+        payloadBuffer.clear();
+        payloadBuffer.putLong(request.walletId().getMostSignificantBits())
+                .putLong(request.walletId().getLeastSignificantBits())
+                .putLong(request.operationId().getMostSignificantBits())
+                .putLong(request.operationId().getLeastSignificantBits())
+                .put((byte) request.operationType().ordinal())
+                .putLong(request.amount().minorUnits());
+        UUID targetWalletId = request.targetWalletId();
+        payloadBuffer.putLong(targetWalletId != null ? targetWalletId.getMostSignificantBits() : 0)
+                .putLong(targetWalletId != null ? targetWalletId.getLeastSignificantBits() : 0);
+        crc.reset();
+        crc.update(payload);
+        MappedByteBuffer buffer = segment.buffer;
+        int position = segment.position;
+        buffer.put(position + 1, payload);
+        buffer.putInt(position + 1 + PAYLOAD_SIZE, (int) crc.getValue());
+        buffer.put(position, RECORD_MARKER);
+        segment.position = position + RECORD_SIZE;
+        return position;
+    }
+
+    /**
+     * Закрывает текущий сегмент и открывает следующий. Вызывается под блокировкой.
+     */
+    private void rotate() {
+        WalSegment sealed = current;
+        sealed.flushedPosition = sealed.position;
+        sealed.seal();
+        try {
+            current = openSegment();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось создать сегмент журнала операций", e);
+        }
+    }
+
+    private WalSegment openSegment() throws IOException {
+        Path path = directory.resolve(String.format("wal-%020d.log", nextSegmentId++));
+        WalSegment segment = WalSegment.create(path, segmentSize);
+        segment.buffer.putInt(0, SEGMENT_MAGIC).putInt(4, FORMAT_VERSION);
+        segment.position = HEADER_SIZE;
+        return segment;
+    }
+
+    /**
+     * Поток групповой фиксации: ждёт новых записей, сбрасывает на диск всё добавленное с прошлого раза
+     * и завершает ожидающие результаты. Пока идёт сброс, новые записи накапливаются для следующего.
+     */
+    private void flushLoop() {
+        while (true) {
+            List<CompletableFuture<Void>> batch;
+            WalSegment segment;
+            int from;
+            int to;
+            synchronized (lock) {
+                while (unflushed.isEmpty() && !closed) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                if (unflushed.isEmpty()) {
+                    return;
+                }
+                batch = unflushed;
+                unflushed = new ArrayList<>();
+                segment = current;
+                from = segment.flushedPosition;
+                to = segment.position;
+                segment.flushedPosition = to;
+            }
+            try {
+                if (to > from) {
+                    segment.buffer.force(from, to - from);
+                }
+                batch.forEach(durable -> durable.complete(null));
+            } catch (RuntimeException e) {
+                log.error("Не удалось сбросить журнал операций на диск: {}", e.getMessage());
+                batch.forEach(durable -> durable.completeExceptionally(e));
+            }
+        }
+    }
+
+    /**
+     * Читает записи существующих сегментов в порядке их номеров.
+     */
+    private void recover() throws IOException {
+        List<Path> segments;
+        try (Stream<Path> files = Files.list(directory)) {
+            segments = files.filter(path -> SEGMENT_NAME.matcher(path.getFileName().toString()).matches())
+                    .sorted()
+                    .toList();
+        }
+        for (Path path : segments) {
+            Matcher matcher = SEGMENT_NAME.matcher(path.getFileName().toString());
+            if (matcher.matches()) {
+                nextSegmentId = Math.max(nextSegmentId, Long.parseLong(matcher.group(1)) + 1);
+            }
+            recoveredSegments.add(readSegment(path));
+        }
+        if (!recovered.isEmpty()) {
+            log.info("Из журнала операций прочитано {} операций в {} сегментах", recovered.size(), segments.size());
+        }
+    }
+
+    /**
+     * Читает неотмеченные записи сегмента. Отмеченные записи пропускаются; чтение останавливается
+     * на первой записи без маркера или с неверной контрольной суммой.
+     *
+     * @return сегмент, открытый для отметки прочитанных записей.
+     * @throws IllegalStateException если сегмент записан в неизвестной версии формата.
+     */
+    private WalSegment readSegment(Path path) throws IOException {
+        WalSegment segment = WalSegment.open(path);
+        MappedByteBuffer buffer = segment.buffer;
+        int start = 0;
+        int payloadSize = LEGACY_PAYLOAD_SIZE;
+        if (buffer.capacity() >= HEADER_SIZE && buffer.getInt(0) == SEGMENT_MAGIC) {
+            int version = buffer.getInt(4);
+            if (version != FORMAT_VERSION) {
+                segment.close();
+                throw new IllegalStateException("Сегмент журнала " + path + " записан в неизвестной версии формата "
+                        + version + "; запуск прерван, сегмент сохранён");
+            }
+            start = HEADER_SIZE;
+            payloadSize = PAYLOAD_SIZE;
+        }
+        int recordSize = 1 + payloadSize + 4;
+        byte[] record = new byte[payloadSize];
+        CRC32 checksum = new CRC32();
+        for (int position = start; position + recordSize <= buffer.capacity(); position += recordSize) {
+            byte marker = buffer.get(position);
+            if (marker == RELEASED_MARKER) {
+                continue;
+            }
+            if (marker != RECORD_MARKER) {
+                break;
+            }
+            buffer.get(position + 1, record);
+            checksum.reset();
+            checksum.update(record);
+            if ((int) checksum.getValue() != buffer.getInt(position + 1 + payloadSize)) {
+                log.warn("Повреждённая запись в сегменте журнала {} на позиции {}, чтение сегмента остановлено",
+                        path, position);
+                break;
+            }
+            ByteBuffer fields = ByteBuffer.wrap(record);
+            UUID walletId = new UUID(fields.getLong(), fields.getLong());
+            UUID operationId = new UUID(fields.getLong(), fields.getLong());
+            OperationType operationType = OperationType.values()[fields.get()];
+            Money amount = Money.ofMinorUnits(fields.getLong());
+            UUID targetWalletId = null;
+            if (fields.hasRemaining()) {
+                long targetMostSigBits = fields.getLong();
+                long targetLeastSigBits = fields.getLong();
+                if (targetMostSigBits != 0 || targetLeastSigBits != 0) {
+                    targetWalletId = new UUID(targetMostSigBits, targetLeastSigBits);
+                }
+            }
+            segment.retain();
+            recovered.add(new WalRecord(new ChangeAmountRequest(walletId, operationType, amount, operationId, targetWalletId),
+                    new WalEntry(segment, position, CompletableFuture.completedFuture(null))));
+        }
+        return segment;
+    }
+}
@@ -0,0 +1,196 @@
+package ru.buzynnikov.wallet_service.reactive;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.http.MediaType;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import ru.buzynnikov.wallet_service.controllers.dto.ChangeAmountRequest;
+import ru.buzynnikov.wallet_service.controllers.dto.OperationType;
+import ru.buzynnikov.wallet_service.models.Money;
+
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Тесты реактивного варианта API. Запускаются профилем Maven {@code reactive}: {@code mvn -Preactive test}.
+ * Используется отдельная база H2, схема создаётся миграциями Liquibase по JDBC.
+ */
+@ActiveProfiles({"test", "reactive"})
+@SpringBootTest(classes = ReactiveWalletApplication.class, properties = {
+        "spring.r2dbc.url=r2dbc:h2:mem:///wallet_reactive_db?options=DB_CLOSE_DELAY=-1",
+        "spring.r2dbc.username=sa",
+        "spring.r2dbc.password=1",
+        "spring.liquibase.url=jdbc:h2:mem:wallet_reactive_db;DB_CLOSE_DELAY=-1",
+        "spring.liquibase.user=sa",
+        "spring.liquibase.password=1",
+        "logging.level.io.r2dbc.h2=error"
+})
+@AutoConfigureWebTestClient
+public class TestReactiveWalletApi {
+
+    @Autowired
+    private WebTestClient webTestClient;
+
+    @Autowired
+    private ReactiveWalletService walletService;
+
+    @Autowired
+    private DatabaseClient databaseClient;
+
+    @SpyBean
+    private ReactiveWalletRepository repository;
+
+    /**
+     * Проверяет изменение баланса и чтение баланса и журнала операций через тот же контракт, что и у сервлетного варианта.
+     */
+    @Test
+    void testChangeBalance() {
+        webTestClient.patch().uri("/api/v1/wallet")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("""
+                        {"walletId":"31c186cd-57fd-40e2-914d-e4b580dd89b1","operationType":"DEPOSIT","amount":100.50}""")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().jsonPath("$.balance").isEqualTo(1100.50);
+        webTestClient.get().uri("/api/v1/wallet/31c186cd-57fd-40e2-914d-e4b580dd89b1")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().jsonPath("$.balance").isEqualTo(1100.50);
+        webTestClient.get().uri("/api/v1/wallet/31c186cd-57fd-40e2-914d-e4b580dd89b1/transactions")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(1)
+                .jsonPath("$[0].amount").isEqualTo(100.50);
+    }
+
+    /**
+     * Проверяет, что одновременные операции одного кошелька применяются по очереди и ни одна не теряется,
+     * а повтор операции с тем же ключом идемпотентности не применяется повторно.
+     */
+    @Test
+    void testConcurrentOperationsAreSerialized() {
+        UUID walletId = UUID.fromString("31c186cd-57fd-40e2-914d-e4b580dd89b2");
+        UUID operationId = UUID.randomUUID();
+        Flux.range(0, 50)
+                .flatMap(i -> walletService.changeBalance(new ChangeAmountRequest(walletId, OperationType.DEPOSIT,
+                        Money.of("1.00"), i % 10 == 0 ? operationId : null)))
+                .blockLast();
+        assertThat(walletService.getBalanceOfWallet(walletId).block().balance()).isEqualTo(Money.of("1046.00"));
+        assertThat(walletService.getTransactions(walletId, null, null, 100).count().block()).isEqualTo(46L);
+    }
+
+    /**
+     * Проверяет ответы на ошибки: нехватка средств, неизвестный кошелёк и нарушение валидации.
+     */
+    @Test
+    void testErrors() {
+        webTestClient.patch().uri("/api/v1/wallet")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("""
+                        {"walletId":"31c186cd-57fd-40e2-914d-e4b580dd89b3","operationType":"WITHDRAW","amount":1000.01}""")
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody().jsonPath("$.detail").isEqualTo("Недостаточно средств на балансе");
+        webTestClient.get().uri("/api/v1/wallet/" + UUID.randomUUID())
+                .exchange()
+                .expectStatus().isNotFound();
+        webTestClient.patch().uri("/api/v1/wallet")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("""
+                        {"walletId":"31c186cd-57fd-40e2-914d-e4b580dd89b3","operationType":"DEPOSIT","amount":0}""")
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody().jsonPath("$.errors[0]").isEqualTo("Значение должно быть выше нуля");
+    }
+
+    /**
+     * Проверяет пакетный запрос в формате NDJSON: результат каждой операции возвращается в порядке запроса.
+     */
+    @Test
+    void testBatch() {
+        webTestClient.post().uri("/api/v1/wallet/batch")
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .bodyValue("""
+                        {"walletId":"31c186cd-57fd-40e2-914d-e4b580dd89b4","operationType":"DEPOSIT","amount":10}
+                        {"walletId":"31c186cd-57fd-40e2-914d-e4b580dd89b4","operationType":"WITHDRAW","amount":2000}
+                        {"walletId":"31c186cd-57fd-40e2-914d-e4b580dd89b4","operationType":"WITHDRAW","amount":10}
+                        """)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class)
+                .value(body -> assertThat(body.lines().toList()).containsExactly(
+                        "{\"index\":0,\"status\":200,\"balance\":1010.00}",
+                        "{\"index\":1,\"status\":400,\"error\":\"Недостаточно средств на балансе\"}",
+                        "{\"index\":2,\"status\":200,\"balance\":1000.00}"));
+    }
+
+    /**
+     * Проверяет, что повтор ключа идемпотентности с другой суммой или типом операции отклоняется со статусом 422,
+     * а повтор с теми же параметрами возвращает сохранённый баланс.
+     */
+    @Test
+    void testReusedOperationIdIsRejected() {
+        String deposit = """
+                {"walletId":"31c186cd-57fd-40e2-914d-e4b580dd89b5","operationType":"DEPOSIT","amount":10,
+                 "operationId":"7a1e2c3d-0000-4000-8000-0000000000b1"}""";
+        changeBalance(deposit).expectStatus().isOk();
+        changeBalance("""
+                {"walletId":"31c186cd-57fd-40e2-914d-e4b580dd89b5","operationType":"DEPOSIT","amount":20,
+                 "operationId":"7a1e2c3d-0000-4000-8000-0000000000b1"}""")
+                .expectStatus().isEqualTo(422);
+        changeBalance("""
+                {"walletId":"31c186cd-57fd-40e2-914d-e4b580dd89b5","operationType":"WITHDRAW","amount":10,
+                 "operationId":"7a1e2c3d-0000-4000-8000-0000000000b1"}""")
+                .expectStatus().isEqualTo(422);
+        changeBalance(deposit)
+                .expectStatus().isOk()
+                .expectBody().jsonPath("$.balance").isEqualTo(1010.00);
+    }
+
+    /**
+     * Проверяет операцию, ключ которой сохранила параллельная транзакция после того, как операция не нашла его
+     * в базе данных: сохранение ключа завершается ошибкой, транзакция операции отменяется, а клиент получает
+     * сохранённый результат или отказ из-за повтора ключа с другими параметрами, а не внутреннюю ошибку.
+     */
+    @Test
+    void testKeySavedByConcurrentTransactionIsNotAppliedTwice() {
+        UUID walletId = UUID.fromString("31c186cd-57fd-40e2-914d-e4b580dd89b6");
+        UUID operationId = UUID.fromString("7a1e2c3d-0000-4000-8000-0000000000b2");
+        databaseClient.sql("""
+                        INSERT INTO wallet_operation (id, wallet_id, operation_type, amount, balance, created_at)
+                        VALUES (:id, :walletId, 'DEPOSIT', 5.00, 1234.00, CURRENT_TIMESTAMP)""")
+                .bind("id", operationId)
+                .bind("walletId", walletId)
+                .then()
+                .block();
+        Mockito.doReturn(Mono.empty()).doCallRealMethod().when(repository).findOperation(operationId);
+        assertThat(walletService.changeBalance(new ChangeAmountRequest(walletId, OperationType.DEPOSIT,
+                Money.of("5.00"), operationId)).block().balance()).isEqualTo(Money.of("1234.00"));
+
+        Mockito.doReturn(Mono.empty()).doCallRealMethod().when(repository).findOperation(operationId);
+        changeBalance("""
+                {"walletId":"31c186cd-57fd-40e2-914d-e4b580dd89b6","operationType":"DEPOSIT","amount":7,
+                 "operationId":"7a1e2c3d-0000-4000-8000-0000000000b2"}""")
+                .expectStatus().isEqualTo(422);
+
+        assertThat(walletService.getBalanceOfWallet(walletId).block().balance()).isEqualTo(Money.of("1000.00"));
+        assertThat(walletService.getTransactions(walletId, null, null, 10).count().block()).isZero();
+    }
+
+    private WebTestClient.ResponseSpec changeBalance(String request) {
+        return webTestClient.patch().uri("/api/v1/wallet")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(request)
+                .exchange();
+    }
+}
@@ -0,0 +1,103 @@
+package ru.buzynnikov.wallet_service.reactive;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.support.DefaultMessageSourceResolvable;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ProblemDetail;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.support.WebExchangeBindException;
+import org.springframework.web.server.ServerWebInputException;
+import ru.buzynnikov.wallet_service.exceptions.IdempotencyKeyReusedException;
+import ru.buzynnikov.wallet_service.exceptions.NotEnoughMoneyException;
+import ru.buzynnikov.wallet_service.exceptions.UnsupportedOperationTypeException;
+import ru.buzynnikov.wallet_service.exceptions.WalletNotFoundException;
+import ru.buzynnikov.wallet_service.exceptions.WalletOverloadedException;
+
+/**
+ * Обработчик ошибок реактивного варианта; ответы совпадают с ответами сервлетного {@code GlobalExceptionHandler}.
+ */
+@ControllerAdvice
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveExceptionHandler {
+
+    /**
+     * Обрабатывает ситуацию, когда запрашиваемый кошелёк не найден.
+     * Возвращает статус NOT FOUND (404).
+     */
+    @ExceptionHandler(WalletNotFoundException.class)
+    public ResponseEntity<ProblemDetail> response(WalletNotFoundException exception){
+        ProblemDetail problemDetail = ProblemDetail.forStatusAndDetail(HttpStatus.NOT_FOUND,exception.getMessage());
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).body(problemDetail);
+    }
+
+    /**
+     * Обрабатывает ситуации, когда запрос пользователя нарушает требования валидации.
+     * Возвращает статус BAD REQUEST (400) с указанием конкретных нарушений.
+     */
+    @ExceptionHandler(WebExchangeBindException.class)
+    public ResponseEntity<ProblemDetail> incorrectRequest(WebExchangeBindException exception){
+        ProblemDetail problemDetail = ProblemDetail.forStatusAndDetail(HttpStatus.BAD_REQUEST,"Не корректный запрос");
+        problemDetail.setProperty("errors",exception.getBindingResult()
+                .getAllErrors()
+                .stream()
+                .map(DefaultMessageSourceResolvable::getDefaultMessage)
+                .toList());
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(problemDetail);
+    }
+
+    /**
+     * Обрабатывает ошибку чтения JSON-данных, отправленных клиентом, в том числе некорректные суммы.
+     * Возвращает статус BAD REQUEST (400).
+     */
+    @ExceptionHandler(ServerWebInputException.class)
+    public ResponseEntity<ProblemDetail> incorrectTypeOfOperation(ServerWebInputException exception){
+        ProblemDetail problemDetail = ProblemDetail.forStatusAndDetail(HttpStatus.BAD_REQUEST,"Не корректный тип операции");
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(problemDetail);
+    }
+
+    /**
+     * Обрабатывает переполнение очереди операций кошелька.
+     * Возвращает статус TOO MANY REQUESTS (429) и заголовок Retry-After с числом секунд до повтора.
+     */
+    @ExceptionHandler(WalletOverloadedException.class)
+    public ResponseEntity<ProblemDetail> overloaded(WalletOverloadedException exception){
+        ProblemDetail problemDetail = ProblemDetail.forStatusAndDetail(HttpStatus.TOO_MANY_REQUESTS,exception.getMessage());
+        long retryAfterSeconds = Math.max(1, (exception.getRetryAfter().toMillis() + 999) / 1000);
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                .body(problemDetail);
+    }
+
+    /**
+     * Обрабатывает случаи нехватки средств на счёте.
+     * Возвращает статус BAD REQUEST (400).
+     */
+    @ExceptionHandler(NotEnoughMoneyException.class)
+    public ResponseEntity<ProblemDetail> notEnoughMoney(NotEnoughMoneyException exception){
+        ProblemDetail problemDetail = ProblemDetail.forStatusAndDetail(HttpStatus.BAD_REQUEST,"Недостаточно средств на балансе");
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(problemDetail);
+    }
+
+    /**
+     * Обрабатывает операции, которые не поддерживаются реактивным вариантом сервиса.
+     * Возвращает статус BAD REQUEST (400).
+     */
+    @ExceptionHandler(UnsupportedOperationTypeException.class)
+    public ResponseEntity<ProblemDetail> unsupportedOperation(UnsupportedOperationTypeException exception){
+        ProblemDetail problemDetail = ProblemDetail.forStatusAndDetail(HttpStatus.BAD_REQUEST,exception.getMessage());
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(problemDetail);
+    }
+
+    /**
+     * Обрабатывает повтор ключа идемпотентности с другими параметрами операции.
+     * Возвращает статус UNPROCESSABLE ENTITY (422).
+     */
+    @ExceptionHandler(IdempotencyKeyReusedException.class)
+    public ResponseEntity<ProblemDetail> idempotencyKeyReused(IdempotencyKeyReusedException exception){
+        ProblemDetail problemDetail = ProblemDetail.forStatusAndDetail(HttpStatus.UNPROCESSABLE_ENTITY,exception.getMessage());
+        return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(problemDetail);
+    }
+}
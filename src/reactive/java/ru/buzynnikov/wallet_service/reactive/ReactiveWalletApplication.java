@@ -0,0 +1,31 @@
+package ru.buzynnikov.wallet_service.reactive;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernateJpaAutoConfiguration;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import ru.buzynnikov.wallet_service.config.WalletProperties;
+
+/**
+ * Реактивный вариант сервиса кошельков: тот же API {@code /api/v1/wallet} на WebFlux и R2DBC.
+ *
+ * Собирается профилем Maven {@code reactive} и запускается вместо {@code WalletServiceApplication}.
+ * Компоненты сервлетного варианта не загружаются: сканируется только этот пакет, JDBC и JPA отключены,
+ * схема базы данных обновляется Liquibase по отдельному JDBC-подключению {@code spring.liquibase.url}.
+ * Компоненты пакета помечены {@link ConditionalOnWebApplication}, поэтому сервлетный вариант их не регистрирует.
+ */
+@SpringBootApplication(exclude = {DataSourceAutoConfiguration.class, HibernateJpaAutoConfiguration.class})
+@EnableConfigurationProperties(WalletProperties.class)
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveWalletApplication {
+
+    public static void main(String[] args) {
+        SpringApplication application = new SpringApplication(ReactiveWalletApplication.class);
+        application.setWebApplicationType(WebApplicationType.REACTIVE);
+        application.setAdditionalProfiles("reactive");
+        application.run(args);
+    }
+}
@@ -0,0 +1,202 @@
+package ru.buzynnikov.wallet_service.reactive;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Valid;
+import jakarta.validation.Validator;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.codec.DecodingException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import ru.buzynnikov.wallet_service.config.WalletProperties;
+import ru.buzynnikov.wallet_service.controllers.dto.BalanceOfWalletResponse;
+import ru.buzynnikov.wallet_service.controllers.dto.BatchItemResponse;
+import ru.buzynnikov.wallet_service.controllers.dto.ChangeAmountRequest;
+import ru.buzynnikov.wallet_service.controllers.dto.TransactionOfWalletResponse;
+import ru.buzynnikov.wallet_service.controllers.dto.WalletBalanceResponse;
+import ru.buzynnikov.wallet_service.controllers.dto.WalletBalancesRequest;
+import ru.buzynnikov.wallet_service.exceptions.IdempotencyKeyReusedException;
+import ru.buzynnikov.wallet_service.exceptions.NotEnoughMoneyException;
+import ru.buzynnikov.wallet_service.exceptions.UnsupportedOperationTypeException;
+import ru.buzynnikov.wallet_service.exceptions.WalletNotFoundException;
+import ru.buzynnikov.wallet_service.exceptions.WalletOverloadedException;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Реактивный контроллер кошельков: тот же контракт {@code /api/v1/wallet}, что и у сервлетного варианта,
+ * с теми же объектами запросов и ответов. Обработчики не блокируют потоки сервера: результат операции
+ * передаётся клиенту, когда завершается транзакция R2DBC.
+ * Распределение кошельков между экземплярами ({@code wallet.cluster}) в реактивном варианте не поддерживается.
+ */
+@RestController
+@RequestMapping("/api/v1/wallet")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveWalletController {
+
+    private final ReactiveWalletService walletService;
+
+    private final ObjectMapper objectMapper;
+
+    private final Validator validator;
+
+    /**
+     * Наибольшее число одновременно выполняемых операций одного пакетного запроса.
+     */
+    private final int batchChunkSize;
+
+    public ReactiveWalletController(ReactiveWalletService walletService,
+                                    ObjectMapper objectMapper,
+                                    Validator validator,
+                                    WalletProperties properties) {
+        this.walletService = walletService;
+        this.objectMapper = objectMapper;
+        this.validator = validator;
+        this.batchChunkSize = properties.batch().chunkSize();
+    }
+
+    /**
+     * Метод для изменения баланса кошелька пользователя.<br/>
+     * Возвращает HTTP-код 200 OK с балансом после операции; ошибочные запросы и отклонённые списания
+     * возвращают HTTP-код 400 Bad Request, переполнение очереди кошелька — 429 Too Many Requests.
+     *
+     * @param request объект запроса, содержащий необходимую информацию для изменения баланса.
+     * @return баланс кошелька после операции.
+     */
+    @PatchMapping
+    public Mono<BalanceOfWalletResponse> changeBalance(@Valid @RequestBody ChangeAmountRequest request) {
+        return walletService.changeBalance(request);
+    }
+
+    /**
+     * Метод для пакетного изменения балансов кошельков.<br/>
+     * Принимает JSON-массив или NDJSON; операции читаются потоком, одновременно выполняется не более
+     * {@code wallet.batch.chunk-size} операций, операции одного кошелька применяются в порядке запроса.
+     * Ответ содержит по одному объекту {@code BatchItemResponse} на каждую операцию в порядке запроса,
+     * в формате запроса. Если тело запроса синтаксически повреждено, обработка останавливается на повреждённом элементе.
+     *
+     * @param body        элементы тела запроса.
+     * @param contentType тип содержимого запроса: {@code application/json} или {@code application/x-ndjson}.
+     * @return результаты операций и HTTP-код 200 OK.
+     */
+    @PostMapping(value = "/batch", consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public ResponseEntity<Flux<BatchItemResponse>> changeBalanceBatch(@RequestBody Flux<JsonNode> body,
+                                                                      @RequestHeader(HttpHeaders.CONTENT_TYPE) MediaType contentType) {
+        boolean ndjson = MediaType.APPLICATION_NDJSON.isCompatibleWith(contentType);
+        AtomicInteger next = new AtomicInteger();
+        Flux<BatchItemResponse> items = body
+                .flatMapSequentialDelayError(node -> changeBatchItem(next.getAndIncrement(), node),
+                        batchChunkSize, batchChunkSize)
+                .onErrorResume(DecodingException.class, e -> Mono.just(new BatchItemResponse(next.get(),
+                        HttpStatus.BAD_REQUEST.value(), null, "Не корректный JSON, обработка пакета остановлена")));
+        return ResponseEntity.ok()
+                .contentType(ndjson ? MediaType.APPLICATION_NDJSON : MediaType.APPLICATION_JSON)
+                .body(items);
+    }
+
+    /**
+     * Метод для получения текущего баланса указанного кошелька.<br/>
+     * Если указанный кошелек не существует, возвращает HTTP-код 404 Not Found.
+     *
+     * @param walletId уникальный идентификатор кошелька, чей баланс требуется получить.
+     * @return текущий баланс кошелька.
+     */
+    @GetMapping("/{walletId}")
+    public Mono<BalanceOfWalletResponse> getBalance(@PathVariable UUID walletId) {
+        return walletService.getBalanceOfWallet(walletId);
+    }
+
+    /**
+     * Метод для получения балансов нескольких кошельков одним запросом.<br/>
+     * Для ненайденного кошелька возвращается элемент со статусом 404 и описанием ошибки.
+     * Порядок элементов ответа соответствует порядку идентификаторов в запросе.
+     *
+     * @param request список идентификаторов кошельков, не более 1000.
+     * @return балансы кошельков.
+     */
+    @PostMapping("/balances")
+    public Mono<List<WalletBalanceResponse>> getBalances(@Valid @RequestBody WalletBalancesRequest request) {
+        return walletService.getBalancesOfWallets(Set.copyOf(request.walletIds()))
+                .map(balances -> request.walletIds().stream()
+                        .map(walletId -> balances.containsKey(walletId)
+                                ? new WalletBalanceResponse(walletId, HttpStatus.OK.value(), balances.get(walletId), null)
+                                : new WalletBalanceResponse(walletId, HttpStatus.NOT_FOUND.value(), null,
+                                        "Кошелёк с id " + walletId + " не найден"))
+                        .toList());
+    }
+
+    /**
+     * Метод для получения журнала операций кошелька, от новых операций к старым.<br/>
+     * Для следующей страницы в параметрах {@code before} и {@code beforeId} передаются {@code createdAt}
+     * и {@code id} последней полученной записи. Если указанный кошелек не существует, возвращает HTTP-код 404 Not Found.
+     *
+     * @param walletId уникальный идентификатор кошелька.
+     * @param before   время последней записи предыдущей страницы.
+     * @param beforeId идентификатор последней записи предыдущей страницы.
+     * @param size     размер страницы, не более {@link ReactiveWalletService#MAX_PAGE_SIZE}.
+     * @return записи журнала операций.
+     */
+    @GetMapping("/{walletId}/transactions")
+    public Flux<TransactionOfWalletResponse> getTransactions(@PathVariable UUID walletId,
+                                                             @RequestParam(required = false) Instant before,
+                                                             @RequestParam(required = false) UUID beforeId,
+                                                             @RequestParam(defaultValue = "50") int size) {
+        return walletService.getTransactions(walletId, before, beforeId, size);
+    }
+
+    /**
+     * Проверяет и выполняет одну операцию пакетного запроса; ошибка операции становится элементом ответа.
+     */
+    private Mono<BatchItemResponse> changeBatchItem(int index, JsonNode node) {
+        ChangeAmountRequest request;
+        try {
+            request = objectMapper.treeToValue(node, ChangeAmountRequest.class);
+        } catch (JsonProcessingException e) {
+            return Mono.just(new BatchItemResponse(index, HttpStatus.BAD_REQUEST.value(), null, "Не корректный тип операции"));
+        }
+        Set<ConstraintViolation<ChangeAmountRequest>> violations = validator.validate(request);
+        if (!violations.isEmpty()) {
+            return Mono.just(new BatchItemResponse(index, HttpStatus.BAD_REQUEST.value(), null, violations.stream()
+                    .map(ConstraintViolation::getMessage)
+                    .collect(Collectors.joining("; ", "Не корректный запрос: ", ""))));
+        }
+        return walletService.changeBalance(request)
+                .map(response -> new BatchItemResponse(index, HttpStatus.OK.value(), response.balance(), null,
+                        response.operationId()))
+                .onErrorResume(error -> Mono.just(toBatchItemResponse(index, error)));
+    }
+
+    /**
+     * Преобразует ошибку операции пакета в элемент ответа; коды соответствуют ответам одиночного запроса.
+     */
+    private static BatchItemResponse toBatchItemResponse(int index, Throwable error) {
+        if (error instanceof WalletNotFoundException) {
+            return new BatchItemResponse(index, HttpStatus.NOT_FOUND.value(), null, error.getMessage());
+        }
+        if (error instanceof NotEnoughMoneyException) {
+            return new BatchItemResponse(index, HttpStatus.BAD_REQUEST.value(), null, "Недостаточно средств на балансе");
+        }
+        if (error instanceof WalletOverloadedException) {
+            return new BatchItemResponse(index, HttpStatus.TOO_MANY_REQUESTS.value(), null, error.getMessage());
+        }
+        if (error instanceof UnsupportedOperationTypeException) {
+            return new BatchItemResponse(index, HttpStatus.BAD_REQUEST.value(), null, error.getMessage());
+        }
+        if (error instanceof IdempotencyKeyReusedException) {
+            return new BatchItemResponse(index, HttpStatus.UNPROCESSABLE_ENTITY.value(), null, error.getMessage());
+        }
+        return new BatchItemResponse(index, HttpStatus.INTERNAL_SERVER_ERROR.value(), null, "Операция не выполнена");
+    }
+}
@@ -0,0 +1,205 @@
+package ru.buzynnikov.wallet_service.reactive;
+
+import io.r2dbc.spi.Readable;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import ru.buzynnikov.wallet_service.controllers.dto.ChangeAmountRequest;
+import ru.buzynnikov.wallet_service.controllers.dto.OperationType;
+import ru.buzynnikov.wallet_service.controllers.dto.TransactionOfWalletResponse;
+import ru.buzynnikov.wallet_service.models.Money;
+import ru.buzynnikov.wallet_service.models.WalletTransaction;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Доступ к таблицам кошельков через R2DBC для реактивного варианта сервиса.
+ * Запросы совпадают с запросами сервлетного варианта; схема общая и обновляется теми же миграциями Liquibase.
+ */
+@Repository
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveWalletRepository {
+
+    private static final String SELECT_BALANCE = "SELECT balance FROM wallet WHERE id = :id";
+
+    private static final String SELECT_BALANCE_FOR_UPDATE = SELECT_BALANCE + " FOR UPDATE";
+
+    private static final String SELECT_BALANCES = "SELECT id, balance FROM wallet WHERE id IN (:ids)";
+
+    private static final String UPDATE_BALANCE = """
+            UPDATE wallet SET balance = :balance, version = version + 1 WHERE id = :id""";
+
+    private static final String INSERT_TRANSACTION = """
+            INSERT INTO wallet_transaction (id, wallet_id, operation_type, amount, balance, created_at)
+            VALUES (:id, :walletId, :operationType, :amount, :balance, :createdAt)""";
+
+    private static final String SELECT_OPERATION = """
+            SELECT id, wallet_id, operation_type, amount, balance, created_at, target_wallet_id FROM wallet_operation
+            WHERE id = :id""";
+
+    private static final String INSERT_OPERATION = """
+            INSERT INTO wallet_operation (id, wallet_id, operation_type, amount, balance, created_at)
+            VALUES (:id, :walletId, :operationType, :amount, :balance, :createdAt)""";
+
+    private static final String SELECT_TRANSACTIONS = """
+            SELECT id, operation_type, amount, balance, created_at FROM wallet_transaction
+            """;
+
+    private static final String FIRST_PAGE = SELECT_TRANSACTIONS + """
+            WHERE wallet_id = :walletId
+            ORDER BY created_at DESC, id DESC LIMIT :limit""";
+
+    private static final String PAGE_BEFORE_TIME = SELECT_TRANSACTIONS + """
+            WHERE wallet_id = :walletId AND created_at < :before
+            ORDER BY created_at DESC, id DESC LIMIT :limit""";
+
+    private static final String PAGE_BEFORE_KEY = SELECT_TRANSACTIONS + """
+            WHERE wallet_id = :walletId AND (created_at < :before OR (created_at = :before AND id < :beforeId))
+            ORDER BY created_at DESC, id DESC LIMIT :limit""";
+
+    private final DatabaseClient databaseClient;
+
+    public ReactiveWalletRepository(DatabaseClient databaseClient) {
+        this.databaseClient = databaseClient;
+    }
+
+    /**
+     * Возвращает баланс кошелька; пустой результат, если кошелёк не найден.
+     */
+    public Mono<Money> findBalance(UUID walletId) {
+        return databaseClient.sql(SELECT_BALANCE)
+                .bind("id", walletId)
+                .map(row -> money(row, "balance"))
+                .one();
+    }
+
+    /**
+     * Возвращает баланс кошелька и блокирует его строку до конца транзакции.
+     * Блокировка не даёт применить операцию параллельно с другим экземпляром сервиса, обслуживающим тот же кошелёк.
+     */
+    public Mono<Money> findBalanceForUpdate(UUID walletId) {
+        return databaseClient.sql(SELECT_BALANCE_FOR_UPDATE)
+                .bind("id", walletId)
+                .map(row -> money(row, "balance"))
+                .one();
+    }
+
+    /**
+     * Возвращает балансы найденных кошельков одним запросом.
+     */
+    public Mono<Map<UUID, Money>> findBalances(Collection<UUID> walletIds) {
+        if (walletIds.isEmpty()) {
+            return Mono.just(Map.of());
+        }
+        return databaseClient.sql(SELECT_BALANCES)
+                .bind("ids", walletIds)
+                .map(row -> Map.entry(row.get("id", UUID.class), money(row, "balance")))
+                .all()
+                .collectMap(Map.Entry::getKey, Map.Entry::getValue);
+    }
+
+    /**
+     * Записывает новый баланс кошелька и увеличивает версию строки.
+     */
+    public Mono<Void> updateBalance(UUID walletId, Money balance) {
+        return databaseClient.sql(UPDATE_BALANCE)
+                .bind("balance", balance.toBigDecimal())
+                .bind("id", walletId)
+                .then();
+    }
+
+    /**
+     * Добавляет операцию в журнал операций кошелька. Идентификатор записи — ключ идемпотентности операции,
+     * а если его нет — случайный идентификатор.
+     */
+    public Mono<Void> insertTransaction(ChangeAmountRequest request, Money balance, Instant createdAt) {
+        UUID id = request.operationId() != null ? request.operationId() : UUID.randomUUID();
+        return databaseClient.sql(INSERT_TRANSACTION)
+                .bind("id", id)
+                .bind("walletId", request.walletId())
+                .bind("operationType", request.operationType().name())
+                .bind("amount", request.amount().toBigDecimal())
+                .bind("balance", balance.toBigDecimal())
+                .bind("createdAt", createdAt.atOffset(ZoneOffset.UTC))
+                .then();
+    }
+
+    /**
+     * Возвращает операцию, применённую с указанным ключом идемпотентности, с балансом кошелька после неё;
+     * пустой результат, если операция с таким ключом не применялась.
+     */
+    public Mono<WalletTransaction> findOperation(UUID operationId) {
+        return databaseClient.sql(SELECT_OPERATION)
+                .bind("id", operationId)
+                .map(row -> {
+                    String operationType = row.get("operation_type", String.class);
+                    BigDecimal amount = row.get("amount", BigDecimal.class);
+                    return new WalletTransaction(
+                            row.get("id", UUID.class),
+                            row.get("wallet_id", UUID.class),
+                            operationType != null ? OperationType.valueOf(operationType) : null,
+                            amount != null ? Money.of(amount) : null,
+                            money(row, "balance"),
+                            row.get("created_at", OffsetDateTime.class).toInstant(),
+                            row.get("target_wallet_id", UUID.class));
+                })
+                .one();
+    }
+
+    /**
+     * Сохраняет результат операции по её ключу идемпотентности вместе с кошельком, типом и суммой операции.
+     * Если ключ уже сохранён другой транзакцией, завершается ошибкой {@link DataIntegrityViolationException}.
+     */
+    public Mono<Void> insertOperation(ChangeAmountRequest request, Money balance, Instant createdAt) {
+        return databaseClient.sql(INSERT_OPERATION)
+                .bind("id", request.operationId())
+                .bind("walletId", request.walletId())
+                .bind("operationType", request.operationType().name())
+                .bind("amount", request.amount().toBigDecimal())
+                .bind("balance", balance.toBigDecimal())
+                .bind("createdAt", createdAt.atOffset(ZoneOffset.UTC))
+                .then();
+    }
+
+    /**
+     * Читает страницу журнала операций кошелька, от новых записей к старым, по мере получения строк из базы данных.
+     *
+     * @param before   время последней записи предыдущей страницы или {@code null} для первой страницы.
+     * @param beforeId идентификатор последней записи предыдущей страницы или {@code null}.
+     * @param limit    размер страницы.
+     */
+    public Flux<TransactionOfWalletResponse> findTransactions(UUID walletId, Instant before, UUID beforeId, int limit) {
+        DatabaseClient.GenericExecuteSpec spec;
+        if (before == null) {
+            spec = databaseClient.sql(FIRST_PAGE);
+        } else if (beforeId == null) {
+            spec = databaseClient.sql(PAGE_BEFORE_TIME).bind("before", before.atOffset(ZoneOffset.UTC));
+        } else {
+            spec = databaseClient.sql(PAGE_BEFORE_KEY)
+                    .bind("before", before.atOffset(ZoneOffset.UTC))
+                    .bind("beforeId", beforeId);
+        }
+        return spec.bind("walletId", walletId)
+                .bind("limit", limit)
+                .map(row -> new TransactionOfWalletResponse(
+                        row.get("id", UUID.class),
+                        OperationType.valueOf(row.get("operation_type", String.class)),
+                        money(row, "amount"),
+                        money(row, "balance"),
+                        row.get("created_at", OffsetDateTime.class).toInstant()))
+                .all();
+    }
+
+    private static Money money(Readable row, String column) {
+        return Money.of(row.get(column, BigDecimal.class));
+    }
+}
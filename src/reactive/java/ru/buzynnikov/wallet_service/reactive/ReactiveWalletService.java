@@ -0,0 +1,173 @@
+package ru.buzynnikov.wallet_service.reactive;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.ReactiveTransactionManager;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import ru.buzynnikov.wallet_service.config.WalletProperties;
+import ru.buzynnikov.wallet_service.controllers.dto.BalanceOfWalletResponse;
+import ru.buzynnikov.wallet_service.controllers.dto.ChangeAmountRequest;
+import ru.buzynnikov.wallet_service.controllers.dto.OperationType;
+import ru.buzynnikov.wallet_service.controllers.dto.TransactionOfWalletResponse;
+import ru.buzynnikov.wallet_service.exceptions.IdempotencyKeyReusedException;
+import ru.buzynnikov.wallet_service.exceptions.NotEnoughMoneyException;
+import ru.buzynnikov.wallet_service.exceptions.UnsupportedOperationTypeException;
+import ru.buzynnikov.wallet_service.exceptions.WalletNotFoundException;
+import ru.buzynnikov.wallet_service.exceptions.WalletOverloadedException;
+import ru.buzynnikov.wallet_service.models.Money;
+import ru.buzynnikov.wallet_service.models.WalletTransaction;
+import ru.buzynnikov.wallet_service.services.IdempotencyStore;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Реактивный сервис кошельков.
+ *
+ * Операции одного кошелька выполняются по очереди через {@link WalletSequencer}, каждая — отдельной транзакцией R2DBC:
+ * баланс читается с блокировкой строки, новый баланс, запись журнала операций и результат операции по ключу
+ * идемпотентности фиксируются вместе. Повтор операции с уже известным ключом возвращает исходный результат,
+ * а повтор ключа с другими параметрами операции отклоняется, как и в сервлетном варианте.
+ */
+@Service
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveWalletService {
+
+    /**
+     * Наибольший размер страницы журнала операций.
+     */
+    public static final int MAX_PAGE_SIZE = 1000;
+
+    private final ReactiveWalletRepository repository;
+
+    private final TransactionalOperator transactionalOperator;
+
+    private final WalletSequencer sequencer;
+
+    public ReactiveWalletService(ReactiveWalletRepository repository,
+                                 ReactiveTransactionManager transactionManager,
+                                 WalletProperties properties) {
+        this.repository = repository;
+        this.transactionalOperator = TransactionalOperator.create(transactionManager);
+        this.sequencer = new WalletSequencer(properties.executor().walletQueueCapacity(),
+                properties.executor().retryAfter());
+    }
+
+    /**
+     * Ставит операцию изменения баланса в очередь кошелька.
+     *
+     * @param request объект, содержащий данные о запрашиваемой операции изменения баланса.
+     * @return баланс после операции; ошибка {@link NotEnoughMoneyException}, если сумма списания превышает остаток,
+     * {@link WalletNotFoundException}, если кошелёк не найден, {@link WalletOverloadedException}, если очередь кошелька заполнена,
+     * {@link UnsupportedOperationTypeException}, если запрошен перевод между кошельками,
+     * {@link IdempotencyKeyReusedException}, если ключ идемпотентности уже использован для другой операции.
+     */
+    public Mono<BalanceOfWalletResponse> changeBalance(ChangeAmountRequest request) {
+        if (request.operationType() == OperationType.TRANSFER) {
+            return Mono.error(new UnsupportedOperationTypeException(
+                    "Перевод между кошельками поддерживается только в режиме wallet.mode=queue"));
+        }
+        return sequencer.submit(request.walletId(), () -> transactionalOperator.transactional(apply(request))
+                        .onErrorResume(DataIntegrityViolationException.class, e -> concurrentResult(request, e)))
+                .map(balance -> new BalanceOfWalletResponse(balance, request.operationId()));
+    }
+
+    private Mono<Money> apply(ChangeAmountRequest request) {
+        if (request.operationId() == null) {
+            return change(request);
+        }
+        return repository.findOperation(request.operationId())
+                .flatMap(stored -> storedResult(request, stored))
+                .switchIfEmpty(Mono.defer(() -> change(request)));
+    }
+
+    /**
+     * Возвращает результат операции, ключ которой сохранила параллельная транзакция, пока применялась эта операция,
+     * например запрос с тем же ключом к другому кошельку или к другому экземпляру сервиса.
+     * Транзакция этой операции к этому моменту отменена; если ключ не найден, возвращается исходная ошибка.
+     */
+    private Mono<Money> concurrentResult(ChangeAmountRequest request, DataIntegrityViolationException error) {
+        if (request.operationId() == null) {
+            return Mono.error(error);
+        }
+        return repository.findOperation(request.operationId())
+                .switchIfEmpty(Mono.error(error))
+                .flatMap(stored -> storedResult(request, stored));
+    }
+
+    private static Mono<Money> storedResult(ChangeAmountRequest request, WalletTransaction stored) {
+        return IdempotencyStore.matchesStored(request, stored)
+                ? Mono.just(stored.balance())
+                : Mono.error(IdempotencyStore.keyReused(request.operationId()));
+    }
+
+    private Mono<Money> change(ChangeAmountRequest request) {
+        return repository.findBalanceForUpdate(request.walletId())
+                .switchIfEmpty(Mono.error(() -> walletNotFound(request.walletId())))
+                .flatMap(balance -> {
+                    Money newBalance = newBalance(request, balance);
+                    Instant createdAt = Instant.now();
+                    Mono<Void> operation = request.operationId() != null
+                            ? repository.insertOperation(request, newBalance, createdAt)
+                            : Mono.empty();
+                    return repository.updateBalance(request.walletId(), newBalance)
+                            .then(repository.insertTransaction(request, newBalance, createdAt))
+                            .then(operation)
+                            .thenReturn(newBalance);
+                });
+    }
+
+    private static Money newBalance(ChangeAmountRequest request, Money balance) {
+        if (request.operationType() == OperationType.WITHDRAW) {
+            if (balance.compareTo(request.amount()) < 0) {
+                throw new NotEnoughMoneyException("Недостаточно средств на балансе.");
+            }
+            return balance.minus(request.amount());
+        }
+        return balance.plus(request.amount());
+    }
+
+    /**
+     * Возвращает текущий баланс кошелька.
+     *
+     * @param walletId уникальный идентификатор кошелька.
+     * @return баланс или ошибка {@link WalletNotFoundException}, если кошелёк не найден.
+     */
+    public Mono<BalanceOfWalletResponse> getBalanceOfWallet(UUID walletId) {
+        return repository.findBalance(walletId)
+                .switchIfEmpty(Mono.error(() -> walletNotFound(walletId)))
+                .map(BalanceOfWalletResponse::new);
+    }
+
+    /**
+     * Возвращает балансы нескольких кошельков одним запросом.
+     *
+     * @param walletIds идентификаторы кошельков.
+     * @return балансы найденных кошельков.
+     */
+    public Mono<Map<UUID, Money>> getBalancesOfWallets(Collection<UUID> walletIds) {
+        return repository.findBalances(walletIds);
+    }
+
+    /**
+     * Возвращает страницу журнала операций кошелька, от новых операций к старым.
+     *
+     * @param size размер страницы, ограничивается диапазоном от 1 до {@link #MAX_PAGE_SIZE}.
+     * @return записи журнала или ошибка {@link WalletNotFoundException}, если кошелёк не найден.
+     */
+    public Flux<TransactionOfWalletResponse> getTransactions(UUID walletId, Instant before, UUID beforeId, int size) {
+        int limit = Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+        return repository.findBalance(walletId)
+                .switchIfEmpty(Mono.error(() -> walletNotFound(walletId)))
+                .thenMany(repository.findTransactions(walletId, before, beforeId, limit));
+    }
+
+    private static WalletNotFoundException walletNotFound(UUID walletId) {
+        return new WalletNotFoundException("Кошелёк с id " + walletId + " не найден");
+    }
+}
@@ -0,0 +1,95 @@
+package ru.buzynnikov.wallet_service.reactive;
+
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import ru.buzynnikov.wallet_service.exceptions.WalletOverloadedException;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Последовательное выполнение реактивных операций одного кошелька.
+ *
+ * Реактивный аналог очередей {@code WalletOperationExecutor}: вместо потока-шарда каждая операция
+ * подписывается на завершение предыдущей операции того же кошелька, поэтому операции одного кошелька
+ * выполняются строго по очереди в порядке поступления, а операции разных кошельков — параллельно,
+ * и ни один поток не блокируется в ожидании. Кошелёк без незавершённых операций из таблицы удаляется.
+ * Число незавершённых операций кошелька ограничено; сверх него операция отклоняется.
+ */
+final class WalletSequencer {
+
+    /**
+     * Последняя операция в очереди кошелька.
+     *
+     * @param completion завершение последней операции.
+     * @param previous   завершение операции перед ней.
+     * @param pending    число незавершённых операций кошелька.
+     */
+    private record Tail(Mono<Void> completion, Mono<Void> previous, int pending) {
+    }
+
+    private final Map<UUID, Tail> tails = new ConcurrentHashMap<>();
+
+    private final int walletQueueCapacity;
+
+    private final Duration retryAfter;
+
+    /**
+     * @param walletQueueCapacity наибольшее число незавершённых операций одного кошелька.
+     * @param retryAfter          пауза, после которой клиенту предлагается повторить отклонённую операцию.
+     */
+    WalletSequencer(int walletQueueCapacity, Duration retryAfter) {
+        this.walletQueueCapacity = walletQueueCapacity;
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * Ставит операцию в очередь кошелька.
+     * Операция запускается сразу после завершения предыдущей, даже если на результат никто не подписан
+     * или подписчик отменил подписку, поэтому очередь кошелька не останавливается из-за разорванного соединения.
+     *
+     * @param walletId  идентификатор кошелька.
+     * @param operation создаёт операцию; вызывается, когда подходит её очередь.
+     * @return результат операции; завершается ошибкой {@link WalletOverloadedException}, если очередь кошелька заполнена.
+     */
+    <T> Mono<T> submit(UUID walletId, Supplier<Mono<T>> operation) {
+        Sinks.Empty<Void> finished = Sinks.empty();
+        Mono<Void> completion = finished.asMono();
+        Tail tail = tails.compute(walletId, (id, current) -> {
+            if (current == null) {
+                return new Tail(completion, Mono.empty(), 1);
+            }
+            if (current.pending() >= walletQueueCapacity) {
+                return current;
+            }
+            return new Tail(completion, current.completion(), current.pending() + 1);
+        });
+        if (tail.completion() != completion) {
+            return Mono.error(new WalletOverloadedException("Очередь операций кошелька заполнена, повторите запрос позже.",
+                    retryAfter));
+        }
+        Mono<T> result = tail.previous()
+                .then(Mono.defer(operation))
+                .doFinally(signal -> {
+                    tails.computeIfPresent(walletId, (id, current) -> current.pending() == 1
+                            ? null
+                            : new Tail(current.completion(), current.previous(), current.pending() - 1));
+                    finished.tryEmitEmpty();
+                })
+                .cache();
+        result.subscribe(value -> {
+        }, error -> {
+        });
+        return result;
+    }
+
+    /**
+     * Возвращает число кошельков с незавершёнными операциями.
+     */
+    int activeWallets() {
+        return tails.size();
+    }
+}
@@ -0,0 +1,86 @@
+package ru.buzynnikov.wallet_service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
+import ru.buzynnikov.wallet_service.services.AtomicWalletService;
+import ru.buzynnikov.wallet_service.services.WalletService;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Тесты режима {@code wallet.mode=atomic}, в котором каждая операция применяется одним условным SQL-запросом.
+ * Используется отдельная база H2, чтобы не влиять на данные других тестов.
+ */
+@ActiveProfiles("test")
+@SpringBootTest(properties = {
+        "wallet.mode=atomic",
+        "spring.datasource.url=jdbc:h2:mem:wallet_atomic_db"
+})
+@AutoConfigureMockMvc
+public class TestAtomicWalletMode {
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private WalletService walletService;
+
+    /**
+     * Проверяет, что в режиме atomic используется {@link AtomicWalletService}.
+     */
+    @Test
+    void testAtomicServiceIsUsed() {
+        assertThat(walletService).isInstanceOf(AtomicWalletService.class);
+    }
+
+    /**
+     * Тестирует списание: баланс меняется сразу после ответа, без ожидания обработки очереди.
+     */
+    @Test
+    void testWithdrawIsAppliedImmediately() throws Exception {
+        String request = """
+                    {
+                        "walletId": "31c186cd-57fd-40e2-914d-e4b580dd89b6",
+                        "operationType": "WITHDRAW",
+                        "amount": 300.0
+                    }
+                """;
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.patch("/api/v1/wallet")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(request))
+                .andReturn();
+        mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(result))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.balance").value(700.0));
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/wallet/31c186cd-57fd-40e2-914d-e4b580dd89b6"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.balance").value(700.0));
+    }
+
+    /**
+     * Тестирует отказ в списании суммы, превышающей баланс, условным запросом UPDATE.
+     */
+    @Test
+    void testOverdraftIsRejected() throws Exception {
+        String request = """
+                    {
+                        "walletId": "31c186cd-57fd-40e2-914d-e4b580dd89b8",
+                        "operationType": "WITHDRAW",
+                        "amount": 1000.01
+                    }
+                """;
+        mockMvc.perform(MockMvcRequestBuilders.patch("/api/v1/wallet")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(request))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.detail").value("Недостаточно средств на балансе"));
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/wallet/31c186cd-57fd-40e2-914d-e4b580dd89b8"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.balance").value(1000.0));
+    }
+}
@@ -2,16 +2,25 @@ package ru.buzynnikov.wallet_service;
 
 
 
+import com.jayway.jsonpath.JsonPath;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
 import org.springframework.transaction.annotation.Transactional;
+import ru.buzynnikov.wallet_service.services.WalletBalanceCache;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
 
 /**
  * Набор тестов для проверки работоспособности конечных точек API (контроллеров).
@@ -24,14 +33,24 @@ public class TestControllerEndpoints {
     @Autowired
     private MockMvc mockMvc;
 
+    @Autowired
+    private WalletBalanceCache balanceCache;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
 
     /**
      * Тестирует успешное пополнение баланса.
-     * Отправляет запрос на изменение баланса (операция DEPOSIT) и проверяет статус ответа 204 (No Content).
+     * Отправляет запрос на изменение баланса (операция DEPOSIT) и проверяет статус ответа 200 (OK)
+     * и баланс после операции в теле ответа.
      */
     @Test
     @Transactional
-    void testAddMoneyAndReturnStatus204() throws Exception {
+    void testAddMoneyAndReturnStatus200() throws Exception {
 
         
         String request = """
@@ -41,10 +60,14 @@ public class TestControllerEndpoints {
                         "amount": 500.0
                     }
                 """;
-        mockMvc.perform(MockMvcRequestBuilders.patch("/api/v1/wallet")
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.patch("/api/v1/wallet")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(request))
-                .andExpect(MockMvcResultMatchers.status().isNoContent());
+                .andExpect(MockMvcResultMatchers.request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(result))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.balance").value(1500.0));
     }
 
     /**
@@ -60,7 +83,7 @@ public class TestControllerEndpoints {
 
     /**
      * Тестирует процесс пополнения баланса и последующее получение обновленного баланса.
-     * Сначала пополняет баланс, затем проверяет, что баланс изменился на нужное значение.
+     * Сначала пополняет баланс и дожидается ответа, затем проверяет, что баланс изменился на нужное значение.
      */
     @Test
     void testAddMoneyAndCheckResult() throws Exception {
@@ -71,10 +94,11 @@ public class TestControllerEndpoints {
                         "amount": 500.0
                     }
                 """;
-        mockMvc.perform(MockMvcRequestBuilders.patch("/api/v1/wallet")
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.patch("/api/v1/wallet")
                 .contentType(MediaType.APPLICATION_JSON)
-                .content(request));
-        Thread.sleep(500);
+                .content(request))
+                .andReturn();
+        mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(result));
         mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/wallet/31c186cd-57fd-40e2-914d-e4b580dd89b3"))
                 .andExpect(MockMvcResultMatchers.jsonPath("$.balance").value(1500.0));
     }
@@ -93,12 +117,15 @@ public class TestControllerEndpoints {
                     }
                 """;
 
-        mockMvc.perform(MockMvcRequestBuilders.patch("/api/v1/wallet")
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.patch("/api/v1/wallet")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(request))
-                .andExpect(MockMvcResultMatchers.status().isNoContent());
+                .andExpect(MockMvcResultMatchers.request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(result))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.balance").value(500.0));
 
-        Thread.sleep(500);
         mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/wallet/31c186cd-57fd-40e2-914d-e4b580dd89b4"))
                 .andExpect(MockMvcResultMatchers.jsonPath("$.balance").value(500.0));
     }
@@ -189,12 +216,357 @@ public class TestControllerEndpoints {
                         "amount": 1500.0
                     }
                     """;
-        mockMvc.perform(MockMvcRequestBuilders.patch("/api/v1/wallet")
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.patch("/api/v1/wallet")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(request))
-                .andExpect(MockMvcResultMatchers.status().isBadRequest())
-                .andExpect(MockMvcResultMatchers.jsonPath("$.detail").value("Недостаточно средств на балансе"));
+                .andReturn();
+        // Если баланса кошелька нет в кэше, списание принимается без предварительной проверки и отклоняется при применении.
+        MvcResult response = result.getRequest().isAsyncStarted()
+                ? mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(result)).andReturn()
+                : result;
+        MockMvcResultMatchers.status().isBadRequest().match(response);
+        MockMvcResultMatchers.jsonPath("$.detail").value("Недостаточно средств на балансе").match(response);
+    }
+
+    /**
+     * Тестирует отклонение списания, которое прошло предварительную проверку, но не может быть применено:
+     * два списания по 700 с баланса 1000. Второе списание должно завершиться кодом 400,
+     * а баланс уменьшиться только на сумму первого.
+     */
+    @Test
+    void testRejectedWithdrawIsReportedToClient() throws Exception {
+        String request = """
+                    {
+                        "walletId": "31c186cd-57fd-40e2-914d-e4b580dd89b9",
+                        "operationType": "WITHDRAW",
+                        "amount": 700.0
+                    }
+                    """;
+        MvcResult first = mockMvc.perform(MockMvcRequestBuilders.patch("/api/v1/wallet")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(request))
+                .andReturn();
+        MvcResult second = mockMvc.perform(MockMvcRequestBuilders.patch("/api/v1/wallet")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(request))
+                .andReturn();
+
+        mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(first))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.balance").value(300.0));
+        // Второе списание может быть отклонено ещё предварительной проверкой, если первое уже применено.
+        MvcResult secondResult = second.getRequest().isAsyncStarted()
+                ? mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(second)).andReturn()
+                : second;
+        MockMvcResultMatchers.status().isBadRequest().match(secondResult);
+        MockMvcResultMatchers.jsonPath("$.detail").value("Недостаточно средств на балансе").match(secondResult);
+    }
+
+    /**
+     * Тестирует чтение баланса через кэш: повторный запрос баланса обслуживается без обращения к базе данных
+     * и учитывается счётчиком попаданий, который доступен через actuator.
+     */
+    @Test
+    void testRepeatedGetBalanceIsServedFromCache() throws Exception {
+        long hitsBefore = balanceCache.stats().hitCount();
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/wallet/31c186cd-57fd-40e2-914d-e4b580dd89b2"))
+                .andExpect(MockMvcResultMatchers.status().isOk());
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/wallet/31c186cd-57fd-40e2-914d-e4b580dd89b2"))
+                .andExpect(MockMvcResultMatchers.status().isOk());
+
+        assertThat(balanceCache.stats().hitCount()).isGreaterThan(hitsBefore);
+        mockMvc.perform(MockMvcRequestBuilders.get("/actuator/metrics/cache.gets")
+                        .param("tag", "cache:wallet.balance", "result:hit"))
+                .andExpect(MockMvcResultMatchers.status().isOk());
+    }
+
+    /**
+     * Тестирует журнал операций: две операции пополнения и списания попадают в журнал вместе с балансом после операции,
+     * записи возвращаются от новых к старым, а следующая страница запрашивается по ключу последней записи.
+     */
+    @Test
+    void testTransactionsAreRecordedAndPaged() throws Exception {
+        String deposit = """
+                    {
+                        "walletId": "31c186cd-57fd-40e2-914d-e4b580dd8a01",
+                        "operationType": "DEPOSIT",
+                        "amount": 250.0
+                    }
+                    """;
+        String withdraw = """
+                    {
+                        "walletId": "31c186cd-57fd-40e2-914d-e4b580dd8a01",
+                        "operationType": "WITHDRAW",
+                        "amount": 100.0
+                    }
+                    """;
+        for (String request : new String[]{deposit, withdraw}) {
+            MvcResult result = mockMvc.perform(MockMvcRequestBuilders.patch("/api/v1/wallet")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(request))
+                    .andReturn();
+            mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(result))
+                    .andExpect(MockMvcResultMatchers.status().isOk());
+        }
+
+        MvcResult firstPage = mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/wallet/31c186cd-57fd-40e2-914d-e4b580dd8a01/transactions")
+                        .param("size", "1"))
+                .andExpect(MockMvcResultMatchers.request().asyncStarted())
+                .andReturn();
+        MvcResult firstPageResult = mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(firstPage))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.length()").value(1))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[0].operationType").value("WITHDRAW"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[0].balance").value(1150.0))
+                .andReturn();
+
+        String json = firstPageResult.getResponse().getContentAsString();
+        String createdAt = JsonPath.read(json, "$[0].createdAt");
+        String id = JsonPath.read(json, "$[0].id");
+        MvcResult secondPage = mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/wallet/31c186cd-57fd-40e2-914d-e4b580dd8a01/transactions")
+                        .param("size", "10")
+                        .param("before", createdAt)
+                        .param("beforeId", id))
+                .andReturn();
+        mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(secondPage))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.length()").value(1))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[0].operationType").value("DEPOSIT"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[0].balance").value(1250.0));
+    }
+
+    /**
+     * Тестирует запрос журнала операций несуществующего кошелька: сервер возвращает код 404.
+     */
+    @Test
+    void testNotFoundWalletInTransactions() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/wallet/31c186cd-57fd-40e2-914d-e4b580dd0000/transactions"))
+                .andExpect(MockMvcResultMatchers.status().isNotFound());
+    }
+
+    /**
+     * Тестирует идемпотентность изменения баланса.
+     * Повторяет пополнение с тем же идентификатором операции и проверяет, что оба ответа содержат
+     * один и тот же баланс, а операция применена и записана в журнал один раз.
+     */
+    @Test
+    void testRepeatedOperationIsAppliedOnce() throws Exception {
+        String request = """
+                    {
+                        "walletId": "31c186cd-57fd-40e2-914d-e4b580dd8b01",
+                        "operationType": "DEPOSIT",
+                        "amount": 100.0,
+                        "operationId": "7a1e2c3d-0000-4000-8000-000000000001"
+                    }
+                    """;
+        for (int i = 0; i < 2; i++) {
+            MvcResult result = mockMvc.perform(MockMvcRequestBuilders.patch("/api/v1/wallet")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content(request))
+                    .andExpect(MockMvcResultMatchers.request().asyncStarted())
+                    .andReturn();
+            mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(result))
+                    .andExpect(MockMvcResultMatchers.status().isOk())
+                    .andExpect(MockMvcResultMatchers.jsonPath("$.balance").value(1100.0));
+        }
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/wallet/31c186cd-57fd-40e2-914d-e4b580dd8b01"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.balance").value(1100.0));
+        MvcResult transactions = mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/wallet/31c186cd-57fd-40e2-914d-e4b580dd8b01/transactions"))
+                .andReturn();
+        mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(transactions))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.length()").value(1))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[0].id").value("7a1e2c3d-0000-4000-8000-000000000001"));
+    }
+
+    /**
+     * Тестирует повтор ключа идемпотентности с другими параметрами операции.
+     * Проверяет, что повтор ключа с другой суммой или типом операции отклоняется со статусом 422,
+     * в том числе для ключа, найденного только в базе данных, а повтор с теми же параметрами
+     * возвращает сохранённый баланс.
+     */
+    @Test
+    void testReusedOperationIdIsRejected() throws Exception {
+        assertThat(changeBalance("""
+                {"walletId": "31c186cd-57fd-40e2-914d-e4b580dd8b02", "operationType": "DEPOSIT", "amount": 10.0,
+                 "operationId": "7a1e2c3d-0000-4000-8000-000000000002"}
+                """).getResponse().getStatus()).isEqualTo(200);
+        assertThat(changeBalance("""
+                {"walletId": "31c186cd-57fd-40e2-914d-e4b580dd8b02", "operationType": "DEPOSIT", "amount": 20.0,
+                 "operationId": "7a1e2c3d-0000-4000-8000-000000000002"}
+                """).getResponse().getStatus()).isEqualTo(422);
+        assertThat(changeBalance("""
+                {"walletId": "31c186cd-57fd-40e2-914d-e4b580dd8b02", "operationType": "WITHDRAW", "amount": 10.0,
+                 "operationId": "7a1e2c3d-0000-4000-8000-000000000002"}
+                """).getResponse().getStatus()).isEqualTo(422);
+
+        jdbcTemplate.update("""
+                INSERT INTO wallet_operation (id, wallet_id, operation_type, amount, balance, created_at)
+                VALUES ('7a1e2c3d-0000-4000-8000-000000000003', '31c186cd-57fd-40e2-914d-e4b580dd8b02', 'DEPOSIT', 5.00, 999.00, CURRENT_TIMESTAMP)""");
+        assertThat(changeBalance("""
+                {"walletId": "31c186cd-57fd-40e2-914d-e4b580dd8b02", "operationType": "DEPOSIT", "amount": 7.0,
+                 "operationId": "7a1e2c3d-0000-4000-8000-000000000003"}
+                """).getResponse().getStatus()).isEqualTo(422);
+        MvcResult stored = changeBalance("""
+                {"walletId": "31c186cd-57fd-40e2-914d-e4b580dd8b02", "operationType": "DEPOSIT", "amount": 5.0,
+                 "operationId": "7a1e2c3d-0000-4000-8000-000000000003"}
+                """);
+        assertThat(stored.getResponse().getStatus()).isEqualTo(200);
+        assertThat(JsonPath.<Double>read(stored.getResponse().getContentAsString(), "$.balance")).isEqualTo(999.0);
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/wallet/31c186cd-57fd-40e2-914d-e4b580dd8b02"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.balance").value(1010.0));
+    }
+
+    private MvcResult changeBalance(String request) throws Exception {
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.patch("/api/v1/wallet")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(request))
+                .andReturn();
+        return result.getRequest().isAsyncStarted()
+                ? mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(result)).andReturn()
+                : result;
+    }
+
+    /**
+     * Тестирует пакетное изменение баланса в формате NDJSON.
+     * Проверяет, что результаты возвращаются по каждой операции в порядке запроса, операции одного кошелька
+     * применяются по порядку, а некорректные и отклонённые операции не влияют на остальные.
+     */
+    @Test
+    void testBatchInNdjson() throws Exception {
+        String request = """
+                {"walletId": "31c186cd-57fd-40e2-914d-e4b580dd8c01", "operationType": "DEPOSIT", "amount": 100.0}
+                {"walletId": "31c186cd-57fd-40e2-914d-e4b580dd8c02", "operationType": "WITHDRAW", "amount": 2000.0}
+                {"walletId": "31c186cd-57fd-40e2-914d-e4b580dd8c01", "operationType": "WITHDRAW", "amount": 1100.0}
+                {"walletId": "31c186cd-57fd-40e2-914d-e4b580dd8c01", "operationType": "WITHDRAW", "amount": 0.0}
+                {"walletId": "31c186cd-57fd-40e2-914d-e4b580dd8c99", "operationType": "DEPOSIT", "amount": 1.0}
+                {"walletId": "31c186cd-57fd-40e2-914d-e4b580dd8c02", "operationType": "BONUS", "amount": 1.0}
+                """;
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.post("/api/v1/wallet/batch")
+                        .contentType(MediaType.APPLICATION_NDJSON)
+                        .content(request))
+                .andExpect(MockMvcResultMatchers.request().asyncStarted())
+                .andReturn();
+        String response = mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(result))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.content().contentType(MediaType.APPLICATION_NDJSON))
+                .andReturn().getResponse().getContentAsString();
+
+        List<String> lines = response.lines().toList();
+        assertThat(lines).hasSize(6);
+        assertThat(JsonPath.<Integer>read(lines.get(0), "$.status")).isEqualTo(200);
+        assertThat(JsonPath.<Double>read(lines.get(0), "$.balance")).isEqualTo(1100.0);
+        assertThat(JsonPath.<Integer>read(lines.get(1), "$.status")).isEqualTo(400);
+        assertThat(JsonPath.<Integer>read(lines.get(2), "$.status")).isEqualTo(200);
+        assertThat(JsonPath.<Double>read(lines.get(2), "$.balance")).isEqualTo(0.0);
+        assertThat(JsonPath.<Integer>read(lines.get(3), "$.status")).isEqualTo(400);
+        assertThat(JsonPath.<Integer>read(lines.get(4), "$.status")).isEqualTo(404);
+        assertThat(JsonPath.<Integer>read(lines.get(5), "$.status")).isEqualTo(400);
+        assertThat(JsonPath.<Integer>read(lines.get(5), "$.index")).isEqualTo(5);
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/wallet/31c186cd-57fd-40e2-914d-e4b580dd8c02"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.balance").value(1000.0));
+    }
+
+    /**
+     * Тестирует пакетное изменение баланса в формате JSON-массива.
+     */
+    @Test
+    void testBatchInJsonArray() throws Exception {
+        String request = """
+                [
+                    {"walletId": "31c186cd-57fd-40e2-914d-e4b580dd8c03", "operationType": "DEPOSIT", "amount": 10.0},
+                    {"walletId": "31c186cd-57fd-40e2-914d-e4b580dd8c03", "operationType": "DEPOSIT", "amount": 20.0}
+                ]
+                """;
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.post("/api/v1/wallet/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(request))
+                .andReturn();
+        mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(result))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.length()").value(2))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[1].index").value(1))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[1].balance").value(1030.0));
     }
 
+    /**
+     * Тестирует получение балансов нескольких кошельков одним запросом.
+     * Проверяет порядок элементов ответа и то, что ненайденный кошелёк отмечается в своём элементе.
+     */
+    @Test
+    void testGetBalancesOfSeveralWallets() throws Exception {
+        String request = """
+                {
+                    "walletIds": [
+                        "31c186cd-57fd-40e2-914d-e4b580dd89b3",
+                        "31c186cd-57fd-40e2-914d-e4b580dd8999",
+                        "31c186cd-57fd-40e2-914d-e4b580dd89b2"
+                    ]
+                }
+                """;
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/v1/wallet/balances")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(request))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.length()").value(3))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[0].walletId").value("31c186cd-57fd-40e2-914d-e4b580dd89b3"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[0].status").value(200))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[1].status").value(404))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[1].balance").doesNotExist())
+                .andExpect(MockMvcResultMatchers.jsonPath("$[2].balance").value(1000.0));
+    }
 
+    /**
+     * Тестирует метрики конвейера операций.
+     * Проверяет, что применённая операция учитывается в таймерах, отклонённое при приёме списание —
+     * в счётчике отказов, а показатели исполнителя зарегистрированы.
+     */
+    @Test
+    void testOperationPipelineMetrics() throws Exception {
+        double rejectedBefore = meterRegistry.get("wallet.withdraw.rejected").tag("stage", "admission").counter().count();
+
+        MvcResult deposit = mockMvc.perform(MockMvcRequestBuilders.patch("/api/v1/wallet")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                                {"walletId": "31c186cd-57fd-40e2-914d-e4b580dd8d01", "operationType": "DEPOSIT", "amount": 1.0}
+                                """))
+                .andReturn();
+        mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(deposit))
+                .andExpect(MockMvcResultMatchers.status().isOk());
+        mockMvc.perform(MockMvcRequestBuilders.patch("/api/v1/wallet")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                                {"walletId": "31c186cd-57fd-40e2-914d-e4b580dd8d01", "operationType": "WITHDRAW", "amount": 5000.0}
+                                """))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest());
+
+        assertThat(meterRegistry.get("wallet.withdraw.rejected").tag("stage", "admission").counter().count())
+                .isEqualTo(rejectedBefore + 1);
+        assertThat(meterRegistry.get("wallet.operation.latency").timer().count()).isPositive();
+        assertThat(meterRegistry.get("wallet.batch.duration").timer().count()).isPositive();
+        assertThat(meterRegistry.get("wallet.executor.queue.depth").tag("shard", "0").gauge().value()).isNotNegative();
+        assertThat(meterRegistry.get("wallet.executor.consumers.active").gauge()).isNotNull();
+        assertThat(meterRegistry.get("hikaricp.connections.pending").gauge()).isNotNull();
+    }
+
+    /**
+     * Тестирует отклонение суммы с тремя знаками после запятой.
+     * Сумма не округляется: запрос возвращает статус 400.
+     */
+    @Test
+    void testBadRequestForAmountScale() throws Exception {
+        String request = """
+                    {
+                        "walletId": "31c186cd-57fd-40e2-914d-e4b580dd89b2",
+                        "operationType": "DEPOSIT",
+                        "amount": 1.001
+                    }
+                    """;
+        mockMvc.perform(MockMvcRequestBuilders.patch("/api/v1/wallet")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(request))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest());
+    }
 }
@@ -0,0 +1,76 @@
+package ru.buzynnikov.wallet_service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
+import ru.buzynnikov.wallet_service.cluster.LeasedWalletOwnership;
+import ru.buzynnikov.wallet_service.models.PartitionLease;
+import ru.buzynnikov.wallet_service.repositories.WalletPartitionLeaseRepository;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Тесты назначения разделов через аренду в базе данных. Второй экземпляр имитируется записями в таблицах аренды,
+ * продление аренды вызывается явно. Используется отдельная база H2.
+ */
+@ActiveProfiles("test")
+@SpringBootTest(properties = {
+        "wallet.cluster.assignment=lease",
+        "wallet.cluster.partitions=4",
+        "wallet.cluster.node-url=http://node-a",
+        "wallet.cluster.lease-renew-interval=PT1H",
+        "spring.datasource.url=jdbc:h2:mem:wallet_lease_cluster_db"
+})
+@AutoConfigureMockMvc
+public class TestLeasedWalletOwnership {
+
+    /**
+     * Кошелёк раздела 3.
+     */
+    private static final String WALLET_URL = "/api/v1/wallet/31c186cd-57fd-40e2-914d-e4b580dd89b3";
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private LeasedWalletOwnership ownership;
+
+    @Autowired
+    private WalletPartitionLeaseRepository repository;
+
+    /**
+     * Проверяет, что единственный экземпляр арендует все разделы, а при появлении второго экземпляра
+     * освобождает половину. Пока освобождённый раздел никем не арендован, запросы к нему получают 503;
+     * после захвата раздела вторым экземпляром они перенаправляются ему.
+     */
+    @Test
+    void testPartitionsAreRebalancedWhenNodeJoins() throws Exception {
+        assertThat(repository.findAll()).extracting(PartitionLease::nodeId).containsOnly("http://node-a");
+        mockMvc.perform(MockMvcRequestBuilders.get(WALLET_URL))
+                .andExpect(MockMvcResultMatchers.status().isOk());
+
+        Instant expiresAt = Instant.now().plus(Duration.ofMinutes(1));
+        repository.heartbeat("node-b", "http://node-b", expiresAt);
+        ownership.renew();
+
+        assertThat(repository.findAll()).filteredOn(lease -> "http://node-a".equals(lease.nodeId())).hasSize(2);
+        mockMvc.perform(MockMvcRequestBuilders.get(WALLET_URL))
+                .andExpect(MockMvcResultMatchers.status().isServiceUnavailable())
+                .andExpect(MockMvcResultMatchers.header().exists("Retry-After"));
+
+        assertThat(repository.acquire(3, "node-b", "http://node-b", expiresAt, Instant.now())).isTrue();
+        ownership.renew();
+
+        mockMvc.perform(MockMvcRequestBuilders.get(WALLET_URL))
+                .andExpect(MockMvcResultMatchers.status().isTemporaryRedirect())
+                .andExpect(MockMvcResultMatchers.header().string("Location", "http://node-b" + WALLET_URL));
+    }
+}
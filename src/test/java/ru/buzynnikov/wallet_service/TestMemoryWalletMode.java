@@ -0,0 +1,159 @@
+package ru.buzynnikov.wallet_service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
+import ru.buzynnikov.wallet_service.controllers.dto.ChangeAmountRequest;
+import ru.buzynnikov.wallet_service.controllers.dto.OperationType;
+import ru.buzynnikov.wallet_service.models.Money;
+import ru.buzynnikov.wallet_service.repositories.WalletRepository;
+import ru.buzynnikov.wallet_service.services.MemoryWalletService;
+import ru.buzynnikov.wallet_service.services.WalletService;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Тесты режима {@code wallet.mode=memory}, в котором балансы активных кошельков хранятся в памяти
+ * и записываются в базу данных при периодической записи. Периодическая запись в тестах вызывается явно.
+ * Результаты по ключам идемпотентности хранятся в кэше 1 мс, чтобы повтор операции проверялся без кэша.
+ * Используется отдельная база H2.
+ */
+@ActiveProfiles("test")
+@SpringBootTest(properties = {
+        "wallet.mode=memory",
+        "wallet.memory.flush-interval=PT1H",
+        "wallet.memory.idle-timeout=0s",
+        "wallet.idempotency.retention=1ms",
+        "spring.datasource.url=jdbc:h2:mem:wallet_memory_db"
+})
+@AutoConfigureMockMvc
+public class TestMemoryWalletMode {
+
+    private static final UUID WALLET_ID = UUID.fromString("31c186cd-57fd-40e2-914d-e4b580dd89b6");
+
+    private static final UUID RETRIED_WALLET_ID = UUID.fromString("31c186cd-57fd-40e2-914d-e4b580dd89b7");
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private WalletService walletService;
+
+    @Autowired
+    private WalletRepository walletRepository;
+
+    /**
+     * Проверяет, что повтор операции, применённой в памяти, не применяется второй раз ни до записи в базу данных,
+     * когда результата нет в кэше, ни после неё, и возвращает исходный баланс.
+     */
+    @Test
+    void testRetryBeforeFlushIsNotAppliedTwice() throws Exception {
+        ChangeAmountRequest deposit = new ChangeAmountRequest(RETRIED_WALLET_ID, OperationType.DEPOSIT, Money.of("10.00"),
+                UUID.randomUUID());
+        assertThat(walletService.addDataToChangeBalance(deposit).get(5, TimeUnit.SECONDS).balance())
+                .isEqualTo(Money.of("1010.00"));
+        Thread.sleep(10);
+
+        assertThat(walletService.addDataToChangeBalance(deposit).get(5, TimeUnit.SECONDS).balance())
+                .isEqualTo(Money.of("1010.00"));
+        ((MemoryWalletService) walletService).flush();
+        assertThat(walletService.addDataToChangeBalance(deposit).get(5, TimeUnit.SECONDS).balance())
+                .isEqualTo(Money.of("1010.00"));
+
+        assertThat(walletService.getBalanceOfWallet(RETRIED_WALLET_ID).balance()).isEqualTo(Money.of("1010.00"));
+        assertThat(walletRepository.findBalanceById(RETRIED_WALLET_ID)).contains(Money.of("1010.00"));
+    }
+
+    /**
+     * Проверяет, что в режиме memory используется {@link MemoryWalletService}.
+     */
+    @Test
+    void testMemoryServiceIsUsed() {
+        assertThat(walletService).isInstanceOf(MemoryWalletService.class);
+    }
+
+    /**
+     * Тестирует списание: баланс в памяти меняется сразу, в базу данных записывается при периодической записи,
+     * после чего простаивающий кошелёк выгружается, и баланс читается из базы данных.
+     */
+    @Test
+    void testBalanceIsFlushedAndWalletEvicted() throws Exception {
+        String request = """
+                    {
+                        "walletId": "31c186cd-57fd-40e2-914d-e4b580dd89b6",
+                        "operationType": "WITHDRAW",
+                        "amount": 300.0
+                    }
+                """;
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.patch("/api/v1/wallet")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(request))
+                .andReturn();
+        mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(result))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.balance").value(700.0));
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/wallet/" + WALLET_ID))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.balance").value(700.0));
+        assertThat(walletRepository.findBalanceById(WALLET_ID)).contains(Money.of("1000.00"));
+
+        ((MemoryWalletService) walletService).flush();
+
+        assertThat(walletRepository.findBalanceById(WALLET_ID)).contains(Money.of("700.00"));
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/wallet/" + WALLET_ID))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.balance").value(700.0));
+        MvcResult transactions = mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/wallet/" + WALLET_ID + "/transactions"))
+                .andReturn();
+        mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(transactions))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[0].amount").value(300.0));
+    }
+
+    /**
+     * Тестирует отказ в списании суммы, превышающей баланс в памяти.
+     */
+    @Test
+    void testOverdraftIsRejected() throws Exception {
+        String request = """
+                    {
+                        "walletId": "31c186cd-57fd-40e2-914d-e4b580dd89b8",
+                        "operationType": "WITHDRAW",
+                        "amount": 1000.01
+                    }
+                """;
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.patch("/api/v1/wallet")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(request))
+                .andReturn();
+        mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(result))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest());
+    }
+
+    /**
+     * Проверяет, что запуск в режиме memory с назначением разделов через аренду прерывается.
+     */
+    @Test
+    void testLeaseAssignmentIsRejected() {
+        SpringApplicationBuilder application = new SpringApplicationBuilder(WalletServiceApplication.class)
+                .profiles("test")
+                .web(WebApplicationType.NONE);
+        assertThatThrownBy(() -> application.run("--wallet.mode=memory",
+                "--wallet.cluster.assignment=lease",
+                "--wallet.cluster.node-url=http://localhost:8080",
+                "--spring.datasource.url=jdbc:h2:mem:wallet_memory_lease_db"))
+                .rootCause()
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("wallet.cluster.assignment=lease");
+    }
+}
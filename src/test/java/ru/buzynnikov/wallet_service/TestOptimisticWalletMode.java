@@ -0,0 +1,93 @@
+package ru.buzynnikov.wallet_service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import ru.buzynnikov.wallet_service.controllers.dto.ChangeAmountRequest;
+import ru.buzynnikov.wallet_service.controllers.dto.OperationType;
+import ru.buzynnikov.wallet_service.exceptions.NotEnoughMoneyException;
+import ru.buzynnikov.wallet_service.models.Money;
+import ru.buzynnikov.wallet_service.repositories.WalletRepository;
+import ru.buzynnikov.wallet_service.services.OptimisticWalletService;
+import ru.buzynnikov.wallet_service.services.WalletService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Тесты режима {@code wallet.mode=optimistic}, в котором операции применяются транзакциями
+ * с оптимистической блокировкой и повторяются при конфликте версий. Используется отдельная база H2.
+ */
+@ActiveProfiles("test")
+@SpringBootTest(properties = {
+        "wallet.mode=optimistic",
+        "wallet.optimistic.max-attempts=100",
+        "wallet.optimistic.initial-backoff=1ms",
+        "wallet.optimistic.max-backoff=20ms",
+        "spring.datasource.url=jdbc:h2:mem:wallet_optimistic_db"
+})
+public class TestOptimisticWalletMode {
+
+    @Autowired
+    private WalletService walletService;
+
+    @Autowired
+    private WalletRepository walletRepository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    /**
+     * Проверяет, что в режиме optimistic используется {@link OptimisticWalletService}.
+     */
+    @Test
+    void testOptimisticServiceIsUsed() {
+        assertThat(walletService).isInstanceOf(OptimisticWalletService.class);
+    }
+
+    /**
+     * Проверяет, что одновременные пополнения одного кошелька из нескольких потоков не теряются:
+     * конфликтующие транзакции повторяются, и итоговый баланс равен сумме всех операций.
+     */
+    @Test
+    void testConcurrentDepositsAreNotLost() throws Exception {
+        UUID walletId = UUID.fromString("31c186cd-57fd-40e2-914d-e4b580dd89b2");
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 80; i++) {
+                futures.add(pool.submit(() -> walletService.addDataToChangeBalance(
+                        new ChangeAmountRequest(walletId, OperationType.DEPOSIT, Money.of("1.00"))).join()));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertThat(walletRepository.findBalanceById(walletId)).contains(Money.of("1080.00"));
+        assertThat(walletRepository.findById(walletId).orElseThrow().getVersion()).isEqualTo(80L);
+        assertThat(meterRegistry.find("wallet.optimistic.conflicts").counter()).isNotNull();
+    }
+
+    /**
+     * Проверяет, что нехватка средств не считается конфликтом и не повторяется.
+     */
+    @Test
+    void testOverdraftIsRejected() {
+        UUID walletId = UUID.fromString("31c186cd-57fd-40e2-914d-e4b580dd89b8");
+        assertThatThrownBy(() -> walletService.addDataToChangeBalance(
+                new ChangeAmountRequest(walletId, OperationType.WITHDRAW, Money.of("1000.01"))))
+                .isInstanceOf(NotEnoughMoneyException.class);
+        assertThat(walletRepository.findBalanceById(walletId)).contains(Money.of("1000.00"));
+    }
+}
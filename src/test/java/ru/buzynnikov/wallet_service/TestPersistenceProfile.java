@@ -0,0 +1,160 @@
+package ru.buzynnikov.wallet_service;
+
+import com.zaxxer.hikari.HikariConfigMXBean;
+import com.zaxxer.hikari.HikariDataSource;
+import net.ttddyy.dsproxy.ExecutionInfo;
+import net.ttddyy.dsproxy.QueryInfo;
+import net.ttddyy.dsproxy.listener.QueryExecutionListener;
+import net.ttddyy.dsproxy.support.ProxyDataSource;
+import net.ttddyy.dsproxy.support.ProxyDataSourceBuilder;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.jdbc.DataSourceUnwrapper;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.buzynnikov.wallet_service.controllers.dto.BalanceOfWalletResponse;
+import ru.buzynnikov.wallet_service.controllers.dto.ChangeAmountRequest;
+import ru.buzynnikov.wallet_service.controllers.dto.OperationType;
+import ru.buzynnikov.wallet_service.models.Money;
+import ru.buzynnikov.wallet_service.services.WalletBalanceCache;
+import ru.buzynnikov.wallet_service.services.WalletService;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Тесты профиля {@code prod}: размер пула соединений и число SQL-запросов на операцию.
+ * Источник данных оборачивается прокси, который записывает каждое обращение к базе данных;
+ * пакет JDBC считается одним обращением. Запросы фоновых задач планировщика не учитываются.
+ * Используется отдельная база H2, чтобы не влиять на данные других тестов; параметры драйвера PostgreSQL
+ * из профиля H2 игнорирует.
+ */
+@ActiveProfiles({"test", "prod"})
+@SpringBootTest(properties = {
+        "wallet.executor.shards=2",
+        "spring.datasource.url=jdbc:h2:mem:wallet_prod_db;IGNORE_UNKNOWN_SETTINGS=TRUE"
+})
+public class TestPersistenceProfile {
+
+    private static final UUID SINGLE_WALLET = UUID.fromString("31c186cd-57fd-40e2-914d-e4b580dd89b1");
+
+    private static final UUID BATCH_WALLET = UUID.fromString("31c186cd-57fd-40e2-914d-e4b580dd89b2");
+
+    private static final UUID READ_WALLET = UUID.fromString("31c186cd-57fd-40e2-914d-e4b580dd89b3");
+
+    /**
+     * Обращения к базе данных: текст запроса и признак транзакции только для чтения.
+     */
+    private static final List<ExecutedStatement> statements = new CopyOnWriteArrayList<>();
+
+    @Autowired
+    private WalletService walletService;
+
+    @Autowired
+    private WalletBalanceCache balanceCache;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @BeforeEach
+    void clearStatements() {
+        statements.clear();
+    }
+
+    /**
+     * Проверяет, что размер пула равен числу шардов, выделенной полосе горячих кошельков и запасу по умолчанию.
+     */
+    @Test
+    void testPoolIsSizedToShards() {
+        HikariDataSource hikari = DataSourceUnwrapper.unwrap(dataSource, HikariConfigMXBean.class, HikariDataSource.class);
+        assertThat(hikari).isNotNull();
+        assertThat(hikari.getMaximumPoolSize()).isEqualTo(2 + 1 + 10);
+        assertThat(hikari.getMinimumIdle()).isEqualTo(2 + 1 + 10);
+    }
+
+    /**
+     * Проверяет, что чтение баланса при промахе кэша — один запрос-проекция в транзакции только для чтения.
+     */
+    @Test
+    void testBalanceReadIsSingleReadOnlyProjection() {
+        balanceCache.invalidate(READ_WALLET);
+        statements.clear();
+
+        walletService.getBalanceOfWallet(READ_WALLET);
+
+        assertThat(statements).hasSize(1);
+        assertThat(statements.get(0).sql()).containsIgnoringCase("balance").doesNotContainIgnoringCase("version");
+        assertThat(statements.get(0).readOnly()).isTrue();
+    }
+
+    /**
+     * Проверяет, что приём операции не обращается к базе данных, а её применение занимает три запроса:
+     * чтение баланса с блокировкой, UPDATE баланса и пакет записей журнала. Пачка из десяти операций
+     * одного кошелька применяется тем же числом запросов.
+     */
+    @Test
+    void testStatementsPerOperation() throws Exception {
+        walletService.addDataToChangeBalance(new ChangeAmountRequest(SINGLE_WALLET, OperationType.DEPOSIT, Money.of("10.00")))
+                .get(5, TimeUnit.SECONDS);
+        assertThat(statements).extracting(ExecutedStatement::sql).hasSize(3);
+
+        statements.clear();
+        List<ChangeAmountRequest> batch = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            batch.add(new ChangeAmountRequest(BATCH_WALLET, i % 2 == 0 ? OperationType.DEPOSIT : OperationType.WITHDRAW,
+                    Money.of(i % 2 == 0 ? "2.00" : "1.00")));
+        }
+        List<CompletableFuture<BalanceOfWalletResponse>> results = walletService.addDataToChangeBalance(batch);
+        CompletableFuture.allOf(results.toArray(CompletableFuture[]::new)).get(5, TimeUnit.SECONDS);
+        assertThat(statements).extracting(ExecutedStatement::sql).hasSize(3);
+        assertThat(statements).noneMatch(ExecutedStatement::readOnly);
+    }
+
+    private record ExecutedStatement(String sql, boolean readOnly) {
+    }
+
+    @TestConfiguration
+    static class StatementCounterConfiguration {
+
+        @Bean
+        static BeanPostProcessor statementCounter() {
+            return new BeanPostProcessor() {
+                @Override
+                public Object postProcessAfterInitialization(Object bean, String beanName) {
+                    if (bean instanceof DataSource dataSource && !(bean instanceof ProxyDataSource)) {
+                        return ProxyDataSourceBuilder.create(dataSource).listener(new StatementRecorder()).build();
+                    }
+                    return bean;
+                }
+            };
+        }
+    }
+
+    private static class StatementRecorder implements QueryExecutionListener {
+
+        @Override
+        public void beforeQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+        }
+
+        @Override
+        public void afterQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+            if (Thread.currentThread().getName().startsWith("scheduling")) {
+                return;
+            }
+            statements.add(new ExecutedStatement(queryInfoList.get(0).getQuery(),
+                    TransactionSynchronizationManager.isCurrentTransactionReadOnly()));
+        }
+    }
+}
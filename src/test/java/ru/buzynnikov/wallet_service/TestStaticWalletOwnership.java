@@ -0,0 +1,96 @@
+package ru.buzynnikov.wallet_service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
+
+/**
+ * Тесты статического назначения разделов: экземпляр {@code http://node-a} владеет разделом 0 из двух,
+ * запросы к кошелькам раздела 1 перенаправляются экземпляру {@code http://node-b}.
+ */
+@ActiveProfiles("test")
+@SpringBootTest(properties = {
+        "wallet.cluster.assignment=static",
+        "wallet.cluster.partitions=2",
+        "wallet.cluster.nodes=http://node-a,http://node-b",
+        "wallet.cluster.node-url=http://node-a",
+        "spring.datasource.url=jdbc:h2:mem:wallet_static_cluster_db"
+})
+@AutoConfigureMockMvc
+public class TestStaticWalletOwnership {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    /**
+     * Проверяет, что кошелёк своего раздела обслуживается этим экземпляром.
+     */
+    @Test
+    void testOwnedWalletIsServed() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/wallet/31c186cd-57fd-40e2-914d-e4b580dd89b6"))
+                .andExpect(MockMvcResultMatchers.status().isOk());
+    }
+
+    /**
+     * Проверяет, что операция над кошельком чужого раздела перенаправляется владельцу с сохранением метода.
+     */
+    @Test
+    void testOperationOnForeignWalletIsRedirected() throws Exception {
+        String request = """
+                    {
+                        "walletId": "31c186cd-57fd-40e2-914d-e4b580dd89b7",
+                        "operationType": "DEPOSIT",
+                        "amount": 100.0
+                    }
+                """;
+        mockMvc.perform(MockMvcRequestBuilders.patch("/api/v1/wallet")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(request))
+                .andExpect(MockMvcResultMatchers.status().isTemporaryRedirect())
+                .andExpect(MockMvcResultMatchers.header().string("Location", "http://node-b/api/v1/wallet"));
+    }
+
+    /**
+     * Проверяет, что перевод с кошелька своего раздела на кошелёк чужого раздела отклоняется:
+     * кэш баланса получателя на экземпляре-владельце этот экземпляр обновить не может.
+     */
+    @Test
+    void testTransferToForeignWalletIsRejected() throws Exception {
+        String request = """
+                    {
+                        "walletId": "31c186cd-57fd-40e2-914d-e4b580dd89b6",
+                        "operationType": "TRANSFER",
+                        "amount": 100.0,
+                        "targetWalletId": "31c186cd-57fd-40e2-914d-e4b580dd89b7"
+                    }
+                """;
+        mockMvc.perform(MockMvcRequestBuilders.patch("/api/v1/wallet")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(request))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest());
+    }
+
+    /**
+     * Проверяет, что в ответе на запрос нескольких балансов кошелёк чужого раздела получает статус 307.
+     */
+    @Test
+    void testBalancesMarkForeignWallets() throws Exception {
+        String request = """
+                    {
+                        "walletIds": ["31c186cd-57fd-40e2-914d-e4b580dd89b6", "31c186cd-57fd-40e2-914d-e4b580dd89b7"]
+                    }
+                """;
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/v1/wallet/balances")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(request))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$[0].status").value(200))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[1].status").value(307));
+    }
+}
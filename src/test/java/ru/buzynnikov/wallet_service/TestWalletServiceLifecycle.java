@@ -0,0 +1,191 @@
+package ru.buzynnikov.wallet_service;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.DefaultApplicationArguments;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import ru.buzynnikov.wallet_service.config.WalletProperties;
+import ru.buzynnikov.wallet_service.controllers.dto.BalanceOfWalletResponse;
+import ru.buzynnikov.wallet_service.controllers.dto.ChangeAmountRequest;
+import ru.buzynnikov.wallet_service.controllers.dto.OperationType;
+import ru.buzynnikov.wallet_service.exceptions.OperationDeferredException;
+import ru.buzynnikov.wallet_service.exceptions.WalletServiceStoppingException;
+import ru.buzynnikov.wallet_service.models.Money;
+import ru.buzynnikov.wallet_service.repositories.WalletRepository;
+import ru.buzynnikov.wallet_service.services.WalletBalanceCache;
+import ru.buzynnikov.wallet_service.services.WalletMetrics;
+import ru.buzynnikov.wallet_service.services.WalletService;
+import ru.buzynnikov.wallet_service.services.WalletServiceLifecycle;
+import ru.buzynnikov.wallet_service.wal.WriteAheadLog;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+
+/**
+ * Тесты прогрева при запуске и завершения очередей при остановке в режиме {@code wallet.mode=queue}
+ * с журналом упреждающей записи.
+ * Используется отдельная база H2 и отдельный каталог журнала, чтобы не влиять на данные других тестов.
+ */
+@ActiveProfiles("test")
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:wallet_lifecycle_db",
+        "wallet.wal.enabled=true",
+        "wallet.wal.directory=target/wal-lifecycle-test"
+})
+public class TestWalletServiceLifecycle {
+
+    private static final Path WAL_DIRECTORY = Path.of("target/wal-lifecycle-test");
+
+    private static final UUID ACTIVE_WALLET = UUID.fromString("31c186cd-57fd-40e2-914d-e4b580dd89b1");
+
+    private static final UUID DRAINED_WALLET = UUID.fromString("31c186cd-57fd-40e2-914d-e4b580dd89b2");
+
+    private static final UUID DEFERRED_WALLET = UUID.fromString("31c186cd-57fd-40e2-914d-e4b580dd89b3");
+
+    @Autowired
+    private WalletService walletService;
+
+    @Autowired
+    private WalletServiceLifecycle lifecycle;
+
+    @Autowired
+    private WalletBalanceCache balanceCache;
+
+    @Autowired
+    private WalletRepository walletRepository;
+
+    @SpyBean
+    private WalletMetrics metrics;
+
+    @Autowired
+    private WalletProperties properties;
+
+    /**
+     * Удаляет журнал предыдущего запуска тестов, чтобы его операции не применялись при запуске приложения.
+     */
+    @BeforeAll
+    static void clearJournal() throws IOException {
+        if (Files.exists(WAL_DIRECTORY)) {
+            try (Stream<Path> files = Files.walk(WAL_DIRECTORY)) {
+                for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    /**
+     * Проверяет, что прогрев загружает в кэш баланс кошелька с недавними операциями.
+     */
+    @Test
+    void testWarmupPreloadsRecentlyActiveWallets() throws Exception {
+        walletService.addDataToChangeBalance(new ChangeAmountRequest(ACTIVE_WALLET, OperationType.DEPOSIT, Money.of("5.00")))
+                .get(5, TimeUnit.SECONDS);
+        balanceCache.invalidate(ACTIVE_WALLET);
+
+        lifecycle.run(new DefaultApplicationArguments());
+
+        assertThat(balanceCache.peek(ACTIVE_WALLET)).contains(Money.of("1005.00"));
+    }
+
+    /**
+     * Проверяет, что при остановке принятые операции применяются до остановки исполнителя,
+     * а новые операции отклоняются.
+     */
+    @Test
+    @DirtiesContext
+    void testDrainAppliesAcceptedOperationsAndRejectsNewOnes() throws Exception {
+        List<CompletableFuture<BalanceOfWalletResponse>> results = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            results.add(walletService.addDataToChangeBalance(
+                    new ChangeAmountRequest(DRAINED_WALLET, OperationType.DEPOSIT, Money.of("1.00"))));
+        }
+
+        assertThat(walletService.drain(Duration.ofSeconds(10))).isZero();
+
+        CompletableFuture.allOf(results.toArray(CompletableFuture[]::new)).get(1, TimeUnit.SECONDS);
+        assertThat(walletRepository.findBalanceById(DRAINED_WALLET)).contains(Money.of("1050.00"));
+        assertThatThrownBy(() -> walletService.addDataToChangeBalance(
+                new ChangeAmountRequest(DRAINED_WALLET, OperationType.DEPOSIT, Money.of("1.00"))))
+                .isInstanceOf(WalletServiceStoppingException.class);
+    }
+
+    /**
+     * Проверяет, что операции, не применённые до окончания времени на завершение очередей, получают отказ
+     * с ключом идемпотентности и остаются в журнале упреждающей записи, а пачка, которую шард применяет
+     * в момент остановки, фиксируется: её поток не прерывается.
+     * Транзакция первой пачки после начала теста удерживается на защёлке.
+     */
+    @Test
+    @DirtiesContext
+    void testDrainDefersRemainingOperationsToRestart() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean armed = new AtomicBoolean(true);
+        doAnswer(invocation -> {
+            if (armed.compareAndSet(true, false)) {
+                started.countDown();
+                release.await();
+            }
+            return invocation.callRealMethod();
+        }).when(metrics).recordBatch(any());
+
+        CompletableFuture<BalanceOfWalletResponse> running = walletService.addDataToChangeBalance(
+                new ChangeAmountRequest(DEFERRED_WALLET, OperationType.DEPOSIT, Money.of("1.00")));
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        List<CompletableFuture<BalanceOfWalletResponse>> queued = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            queued.add(walletService.addDataToChangeBalance(
+                    new ChangeAmountRequest(DEFERRED_WALLET, OperationType.DEPOSIT, Money.of("10.00"))));
+        }
+
+        assertThat(walletService.drain(Duration.ofMillis(100))).isEqualTo(3);
+
+        Set<UUID> deferredIds = new HashSet<>();
+        for (CompletableFuture<BalanceOfWalletResponse> result : queued) {
+            assertThatThrownBy(() -> result.get(1, TimeUnit.SECONDS))
+                    .cause()
+                    .isInstanceOfSatisfying(OperationDeferredException.class, e -> {
+                        assertThat(e.getOperationId()).isNotNull();
+                        assertThat(e.getMessage()).contains("после его перезапуска", e.getOperationId().toString());
+                        deferredIds.add(e.getOperationId());
+                    });
+        }
+        assertThat(deferredIds).hasSize(3);
+
+        release.countDown();
+        assertThat(running.get(5, TimeUnit.SECONDS).balance()).isEqualTo(Money.of("1001.00"));
+        assertThat(walletRepository.findBalanceById(DEFERRED_WALLET)).contains(Money.of("1001.00"));
+
+        WriteAheadLog journal = new WriteAheadLog(properties);
+        try {
+            assertThat(journal.recovered())
+                    .extracting(record -> record.request().operationId())
+                    .containsExactlyInAnyOrderElementsOf(deferredIds);
+        } finally {
+            journal.close();
+        }
+    }
+}
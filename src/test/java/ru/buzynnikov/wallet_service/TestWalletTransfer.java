@@ -0,0 +1,210 @@
+package ru.buzynnikov.wallet_service;
+
+import com.jayway.jsonpath.JsonPath;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
+import ru.buzynnikov.wallet_service.controllers.dto.BalanceOfWalletResponse;
+import ru.buzynnikov.wallet_service.controllers.dto.ChangeAmountRequest;
+import ru.buzynnikov.wallet_service.controllers.dto.OperationType;
+import ru.buzynnikov.wallet_service.models.Money;
+import ru.buzynnikov.wallet_service.models.WalletTransaction;
+import ru.buzynnikov.wallet_service.repositories.WalletRepository;
+import ru.buzynnikov.wallet_service.repositories.WalletTransactionRepository;
+import ru.buzynnikov.wallet_service.services.WalletService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+/**
+ * Тесты перевода между кошельками в режиме {@code wallet.mode=queue}.
+ * Используется отдельная база H2, чтобы не влиять на данные других тестов; кошельки встречных переводов
+ * обслуживаются разными шардами.
+ */
+@ActiveProfiles("test")
+@SpringBootTest(properties = {
+        "wallet.executor.shards=4",
+        "spring.datasource.url=jdbc:h2:mem:wallet_transfer_db"
+})
+@AutoConfigureMockMvc
+public class TestWalletTransfer {
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private WalletService walletService;
+
+    @Autowired
+    private WalletRepository walletRepository;
+
+    @Autowired
+    private WalletTransactionRepository walletTransactionRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * Тестирует перевод: баланс отправителя в ответе, баланс получателя сразу после ответа
+     * и запись о зачислении в журнале операций получателя.
+     */
+    @Test
+    void testTransferMovesMoney() throws Exception {
+        String request = """
+                    {
+                        "walletId": "31c186cd-57fd-40e2-914d-e4b580dd89b1",
+                        "operationType": "TRANSFER",
+                        "amount": 300.0,
+                        "targetWalletId": "31c186cd-57fd-40e2-914d-e4b580dd89b2"
+                    }
+                """;
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.patch("/api/v1/wallet")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(request))
+                .andReturn();
+        mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(result))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.balance").value(700.0));
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/wallet/31c186cd-57fd-40e2-914d-e4b580dd89b2"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.balance").value(1300.0));
+        MvcResult transactions = mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/wallet/31c186cd-57fd-40e2-914d-e4b580dd89b2/transactions"))
+                .andReturn();
+        mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(transactions))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$[0].operationType").value("TRANSFER_IN"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[0].balance").value(1300.0));
+    }
+
+    /**
+     * Тестирует отклонение переводов без получателя, на тот же кошелёк, на несуществующий кошелёк,
+     * а также прямого запроса зачисления перевода.
+     */
+    @Test
+    void testInvalidTransfersAreRejected() throws Exception {
+        String withoutTarget = """
+                    {"walletId": "31c186cd-57fd-40e2-914d-e4b580dd89b5", "operationType": "TRANSFER", "amount": 1.0}
+                """;
+        String toItself = """
+                    {"walletId": "31c186cd-57fd-40e2-914d-e4b580dd89b5", "operationType": "TRANSFER", "amount": 1.0,
+                     "targetWalletId": "31c186cd-57fd-40e2-914d-e4b580dd89b5"}
+                """;
+        String transferIn = """
+                    {"walletId": "31c186cd-57fd-40e2-914d-e4b580dd89b5", "operationType": "TRANSFER_IN", "amount": 1.0}
+                """;
+        for (String request : List.of(withoutTarget, toItself, transferIn)) {
+            mockMvc.perform(MockMvcRequestBuilders.patch("/api/v1/wallet")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(request))
+                    .andExpect(MockMvcResultMatchers.status().isBadRequest());
+        }
+        String unknownTarget = """
+                    {"walletId": "31c186cd-57fd-40e2-914d-e4b580dd89b5", "operationType": "TRANSFER", "amount": 1.0,
+                     "targetWalletId": "31c186cd-57fd-40e2-914d-e4b580dd0000"}
+                """;
+        mockMvc.perform(MockMvcRequestBuilders.patch("/api/v1/wallet")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(unknownTarget))
+                .andExpect(MockMvcResultMatchers.status().isNotFound());
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/wallet/31c186cd-57fd-40e2-914d-e4b580dd89b5"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.balance").value(1000.0));
+    }
+
+    /**
+     * Тестирует встречные переводы между двумя кошельками, применяемые разными шардами одновременно:
+     * все переводы завершаются без взаимной блокировки, а сумма балансов не меняется.
+     */
+    @Test
+    void testCrossTransfersDoNotDeadlock() throws Exception {
+        UUID first = UUID.fromString("31c186cd-57fd-40e2-914d-e4b580dd89b3");
+        UUID second = UUID.fromString("31c186cd-57fd-40e2-914d-e4b580dd89b4");
+        List<CompletableFuture<BalanceOfWalletResponse>> results = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            results.add(walletService.addDataToChangeBalance(new ChangeAmountRequest(first, OperationType.TRANSFER,
+                    Money.of("1.00"), null, second)));
+            results.add(walletService.addDataToChangeBalance(new ChangeAmountRequest(second, OperationType.TRANSFER,
+                    Money.of("2.00"), null, first)));
+        }
+        CompletableFuture.allOf(results.toArray(CompletableFuture[]::new)).get(30, TimeUnit.SECONDS);
+
+        assertThat(walletRepository.findBalanceById(first)).contains(Money.of("1200.00"));
+        assertThat(walletRepository.findBalanceById(second)).contains(Money.of("800.00"));
+
+        // Следующая операция кошелька применяется после уведомлений о зачислениях и оставляет в кэше актуальный баланс.
+        walletService.addDataToChangeBalance(new ChangeAmountRequest(first, OperationType.DEPOSIT, Money.of("0.01")))
+                .get(5, TimeUnit.SECONDS);
+        assertThat(walletService.getBalanceOfWallet(first).balance()).isEqualTo(Money.of("1200.01"));
+    }
+
+    /**
+     * Тестирует повтор ключа перевода с другим получателем.
+     * Проверяет, что получатель сохраняется вместе с ключом и в записях журнала обоих кошельков, а повтор ключа
+     * с другим получателем отклоняется со статусом 422, в том числе для ключа, найденного только в базе данных.
+     */
+    @Test
+    void testReusedTransferKeyWithAnotherTargetIsRejected() throws Exception {
+        UUID sender = UUID.fromString("31c186cd-57fd-40e2-914d-e4b580dd89b6");
+        UUID target = UUID.fromString("31c186cd-57fd-40e2-914d-e4b580dd89b7");
+        assertThat(changeBalance("""
+                {"walletId": "31c186cd-57fd-40e2-914d-e4b580dd89b6", "operationType": "TRANSFER", "amount": 100.0,
+                 "targetWalletId": "31c186cd-57fd-40e2-914d-e4b580dd89b7",
+                 "operationId": "7a1e2c3d-0000-4000-8000-0000000000a1"}
+                """).getResponse().getStatus()).isEqualTo(200);
+        assertThat(changeBalance("""
+                {"walletId": "31c186cd-57fd-40e2-914d-e4b580dd89b6", "operationType": "TRANSFER", "amount": 100.0,
+                 "targetWalletId": "31c186cd-57fd-40e2-914d-e4b580dd89b8",
+                 "operationId": "7a1e2c3d-0000-4000-8000-0000000000a1"}
+                """).getResponse().getStatus()).isEqualTo(422);
+        assertThat(jdbcTemplate.queryForObject("SELECT target_wallet_id FROM wallet_operation WHERE id = ?",
+                UUID.class, UUID.fromString("7a1e2c3d-0000-4000-8000-0000000000a1"))).isEqualTo(target);
+        try (Stream<WalletTransaction> ledger = walletTransactionRepository.streamPage(target, null, null, 10)) {
+            assertThat(ledger.toList())
+                    .extracting(WalletTransaction::operationType, WalletTransaction::targetWalletId)
+                    .containsExactly(tuple(OperationType.TRANSFER_IN, sender));
+        }
+
+        jdbcTemplate.update("""
+                INSERT INTO wallet_operation (id, wallet_id, operation_type, amount, balance, created_at, target_wallet_id)
+                VALUES ('7a1e2c3d-0000-4000-8000-0000000000a2', '31c186cd-57fd-40e2-914d-e4b580dd89b6', 'TRANSFER', 50.00,
+                        555.00, CURRENT_TIMESTAMP, '31c186cd-57fd-40e2-914d-e4b580dd89b7')""");
+        assertThat(changeBalance("""
+                {"walletId": "31c186cd-57fd-40e2-914d-e4b580dd89b6", "operationType": "TRANSFER", "amount": 50.0,
+                 "targetWalletId": "31c186cd-57fd-40e2-914d-e4b580dd89b8",
+                 "operationId": "7a1e2c3d-0000-4000-8000-0000000000a2"}
+                """).getResponse().getStatus()).isEqualTo(422);
+        MvcResult stored = changeBalance("""
+                {"walletId": "31c186cd-57fd-40e2-914d-e4b580dd89b6", "operationType": "TRANSFER", "amount": 50.0,
+                 "targetWalletId": "31c186cd-57fd-40e2-914d-e4b580dd89b7",
+                 "operationId": "7a1e2c3d-0000-4000-8000-0000000000a2"}
+                """);
+        assertThat(stored.getResponse().getStatus()).isEqualTo(200);
+        assertThat(JsonPath.<Double>read(stored.getResponse().getContentAsString(), "$.balance")).isEqualTo(555.0);
+
+        assertThat(walletRepository.findBalanceById(sender)).contains(Money.of("900.00"));
+        assertThat(walletRepository.findBalanceById(UUID.fromString("31c186cd-57fd-40e2-914d-e4b580dd89b8")))
+                .contains(Money.of("1000.00"));
+    }
+
+    private MvcResult changeBalance(String request) throws Exception {
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.patch("/api/v1/wallet")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(request))
+                .andReturn();
+        return result.getRequest().isAsyncStarted()
+                ? mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(result)).andReturn()
+                : result;
+    }
+}
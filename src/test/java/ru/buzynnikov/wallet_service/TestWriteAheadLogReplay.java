@@ -0,0 +1,212 @@
+package ru.buzynnikov.wallet_service;
+
+import com.jayway.jsonpath.JsonPath;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
+import ru.buzynnikov.wallet_service.controllers.dto.ChangeAmountRequest;
+import ru.buzynnikov.wallet_service.controllers.dto.OperationType;
+import ru.buzynnikov.wallet_service.models.Money;
+import ru.buzynnikov.wallet_service.wal.WalEntry;
+import ru.buzynnikov.wallet_service.wal.WriteAheadLog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Тесты журнала упреждающей записи: операции, оставшиеся в журнале после аварийной остановки,
+ * применяются при запуске ровно один раз. Используется отдельная база H2.
+ */
+@ActiveProfiles("test")
+@SpringBootTest(properties = {
+        "wallet.wal.enabled=true",
+        "wallet.wal.directory=target/wal-test",
+        "wallet.wal.segment-size=4KB",
+        "spring.datasource.url=jdbc:h2:mem:wallet_wal_db"
+})
+@AutoConfigureMockMvc
+public class TestWriteAheadLogReplay {
+
+    private static final Path WAL_DIRECTORY = Path.of("target/wal-test");
+
+    private static final UUID WALLET_ID = UUID.fromString("31c186cd-57fd-40e2-914d-e4b580dd8b01");
+
+    private static final UUID UNACKNOWLEDGED_WALLET_ID = UUID.fromString("31c186cd-57fd-40e2-914d-e4b580dd8b02");
+
+    private static final UUID UNACKNOWLEDGED_OPERATION_ID = UUID.fromString("7a1e2c3d-0000-4000-8000-0000000000c1");
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    /**
+     * Имитирует аварийную остановку: записывает операции в журнал до запуска приложения, не применяя их.
+     * Одна операция записана дважды, как если бы клиент повторил запрос; ещё одна отмечена отклонённой,
+     * как если бы клиенту уже был возвращён отказ. Ещё одна операция записана в сегмент прежнего формата без заголовка.
+     * Операция другого кошелька записана со сгенерированным ключом и не подтверждена клиенту.
+     */
+    @BeforeAll
+    static void writeJournal() throws IOException {
+        if (Files.exists(WAL_DIRECTORY)) {
+            try (Stream<Path> files = Files.walk(WAL_DIRECTORY)) {
+                for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(path);
+                }
+            }
+        }
+        WriteAheadLog wal = new WriteAheadLog(WAL_DIRECTORY, 4096);
+        ChangeAmountRequest deposit = new ChangeAmountRequest(WALLET_ID, OperationType.DEPOSIT, Money.of("200.00"),
+                UUID.randomUUID());
+        wal.append(deposit).durable().join();
+        wal.append(deposit).durable().join();
+        wal.append(new ChangeAmountRequest(WALLET_ID, OperationType.WITHDRAW, Money.of("50.00"), UUID.randomUUID()))
+                .durable().join();
+        WalEntry rejected = wal.append(new ChangeAmountRequest(WALLET_ID, OperationType.DEPOSIT, Money.of("1000.00"),
+                UUID.randomUUID()));
+        rejected.durable().join();
+        rejected.reject();
+        wal.append(new ChangeAmountRequest(UNACKNOWLEDGED_WALLET_ID, OperationType.DEPOSIT, Money.of("100.00"),
+                UNACKNOWLEDGED_OPERATION_ID)).durable().join();
+        wal.close();
+        Files.write(WAL_DIRECTORY.resolve("wal-00000000000000000001.log"),
+                legacyRecord(new ChangeAmountRequest(WALLET_ID, OperationType.DEPOSIT, Money.of("25.00"), UUID.randomUUID())));
+    }
+
+    /**
+     * Формирует запись сегмента без заголовка: маркер, кошелёк, ключ операции, тип, сумма в копейках и CRC32.
+     */
+    private static byte[] legacyRecord(ChangeAmountRequest request) {
+        ByteBuffer payload = ByteBuffer.allocate(16 + 16 + 1 + 8)
+                .putLong(request.walletId().getMostSignificantBits())
+                .putLong(request.walletId().getLeastSignificantBits())
+                .putLong(request.operationId().getMostSignificantBits())
+                .putLong(request.operationId().getLeastSignificantBits())
+                .put((byte) request.operationType().ordinal())
+                .putLong(request.amount().minorUnits());
+        CRC32 crc = new CRC32();
+        crc.update(payload.array());
+        return ByteBuffer.allocate(1 + payload.capacity() + 4)
+                .put((byte) 1)
+                .put(payload.array())
+                .putInt((int) crc.getValue())
+                .array();
+    }
+
+    /**
+     * Проверяет, что операции журнала, в том числе из сегмента прежнего формата, применены при запуске,
+     * повторная запись и отклонённая операция не применены, а прочитанные сегменты удалены.
+     */
+    @Test
+    void testJournalIsReplayedOnStartup() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/wallet/" + WALLET_ID))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.balance").value(1175.0));
+        try (Stream<Path> files = Files.list(WAL_DIRECTORY)) {
+            assertThat(files.map(path -> path.getFileName().toString()).toList())
+                    .containsExactly("wal-00000000000000000002.log");
+        }
+    }
+
+    /**
+     * Проверяет, что журнал с сегментом неизвестной версии формата не открывается, а сегмент сохраняется.
+     */
+    @Test
+    void testSegmentOfUnknownVersionIsRejected() throws IOException {
+        Path directory = Path.of("target/wal-test-version");
+        Files.createDirectories(directory);
+        Path segment = directory.resolve("wal-00000000000000000000.log");
+        Files.write(segment, ByteBuffer.allocate(4096).putInt(0x57414C57).putInt(99).array());
+        try {
+            assertThatThrownBy(() -> new WriteAheadLog(directory, 4096))
+                    .isInstanceOf(IllegalStateException.class)
+                    .hasMessageContaining("версии формата 99");
+            assertThat(segment).exists();
+        } finally {
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path path : files.toList()) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    /**
+     * Проверяет операцию, которая была записана в журнал, но не подтверждена клиенту до аварийной остановки:
+     * она применяется при запуске один раз, а повтор с её ключом возвращает результат, не применяя операцию снова.
+     */
+    @Test
+    void testUnacknowledgedOperationIsAppliedOnce() throws Exception {
+        String retry = """
+                    {
+                        "walletId": "31c186cd-57fd-40e2-914d-e4b580dd8b02",
+                        "operationType": "DEPOSIT",
+                        "amount": 100.0,
+                        "operationId": "7a1e2c3d-0000-4000-8000-0000000000c1"
+                    }
+                """;
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.patch("/api/v1/wallet")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(retry))
+                .andReturn();
+        mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(result))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.balance").value(1100.0))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.operationId").value(UNACKNOWLEDGED_OPERATION_ID.toString()));
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/wallet/" + UNACKNOWLEDGED_WALLET_ID))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.balance").value(1100.0));
+    }
+
+    /**
+     * Проверяет, что операции продолжают приниматься и подтверждаются после записи в журнал, ответ содержит
+     * сгенерированный ключ операции без {@code operationId}, а повтор с этим ключом не применяется повторно.
+     */
+    @Test
+    void testOperationIsAcceptedWithJournal() throws Exception {
+        String request = """
+                    {
+                        "walletId": "31c186cd-57fd-40e2-914d-e4b580dd8c01",
+                        "operationType": "DEPOSIT",
+                        "amount": 10.0
+                    }
+                """;
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.patch("/api/v1/wallet")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(request))
+                .andReturn();
+        MvcResult applied = mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(result))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.balance").value(1010.0))
+                .andReturn();
+        String operationId = JsonPath.read(applied.getResponse().getContentAsString(), "$.operationId");
+
+        MvcResult retry = mockMvc.perform(MockMvcRequestBuilders.patch("/api/v1/wallet")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                                {"walletId": "31c186cd-57fd-40e2-914d-e4b580dd8c01", "operationType": "DEPOSIT",
+                                 "amount": 10.0, "operationId": "%s"}
+                                """.formatted(operationId)))
+                .andReturn();
+        mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(retry))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.balance").value(1010.0))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.operationId").value(operationId));
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/wallet/31c186cd-57fd-40e2-914d-e4b580dd8c01"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.balance").value(1010.0));
+    }
+}
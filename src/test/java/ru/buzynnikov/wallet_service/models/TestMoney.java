@@ -0,0 +1,52 @@
+package ru.buzynnikov.wallet_service.models;
+
+import org.junit.jupiter.api.Test;
+import ru.buzynnikov.wallet_service.exceptions.AmountOutOfRangeException;
+
+import java.math.BigDecimal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Тесты денежного типа {@link Money}: преобразование на границах и проверки точности и диапазона.
+ */
+public class TestMoney {
+
+    /**
+     * Проверяет преобразование из {@link BigDecimal} и обратно без потери точности.
+     */
+    @Test
+    void testConversion() {
+        assertThat(Money.of(new BigDecimal("10.5")).minorUnits()).isEqualTo(1050);
+        assertThat(Money.of(new BigDecimal("10.500")).minorUnits()).isEqualTo(1050);
+        assertThat(Money.of(new BigDecimal("1E+2")).minorUnits()).isEqualTo(10000);
+        assertThat(Money.ofMinorUnits(1050).toBigDecimal()).isEqualByComparingTo("10.50");
+        assertThat(Money.ofMinorUnits(1050).toBigDecimal().scale()).isEqualTo(2);
+        assertThat(Money.of("0.01").plus(Money.of("0.02"))).isEqualTo(Money.of("0.03"));
+    }
+
+    /**
+     * Проверяет, что сумма с лишними знаками после запятой отклоняется, а не округляется.
+     */
+    @Test
+    void testScaleIsChecked() {
+        assertThatThrownBy(() -> Money.of(new BigDecimal("0.001")))
+                .isInstanceOf(AmountOutOfRangeException.class);
+    }
+
+    /**
+     * Проверяет, что значения за пределами {@code DECIMAL(15,2)} и переполнение при сложении отклоняются.
+     */
+    @Test
+    void testRangeIsChecked() {
+        Money max = Money.ofMinorUnits(Money.MAX_MINOR_UNITS);
+        assertThat(max.toBigDecimal()).isEqualByComparingTo("9999999999999.99");
+        assertThatThrownBy(() -> Money.of(new BigDecimal("10000000000000.00")))
+                .isInstanceOf(AmountOutOfRangeException.class);
+        assertThatThrownBy(() -> max.plus(Money.of("0.01")))
+                .isInstanceOf(AmountOutOfRangeException.class);
+        assertThatThrownBy(() -> Money.of(new BigDecimal("1E+30")))
+                .isInstanceOf(AmountOutOfRangeException.class);
+    }
+}
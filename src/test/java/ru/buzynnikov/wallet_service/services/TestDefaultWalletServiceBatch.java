@@ -0,0 +1,73 @@
+package ru.buzynnikov.wallet_service.services;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import ru.buzynnikov.wallet_service.controllers.dto.ChangeAmountRequest;
+import ru.buzynnikov.wallet_service.controllers.dto.OperationType;
+import ru.buzynnikov.wallet_service.exceptions.NotEnoughMoneyException;
+import ru.buzynnikov.wallet_service.models.Money;
+import ru.buzynnikov.wallet_service.models.WalletTransaction;
+import ru.buzynnikov.wallet_service.repositories.WalletRepository;
+import ru.buzynnikov.wallet_service.repositories.WalletTransactionRepository;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+/**
+ * Тесты применения пачки операций одного кошелька {@link DefaultWalletService#executeBalanceChange}:
+ * операции сворачиваются по порядку с проверкой достаточности средств на каждом шаге.
+ * Используется отдельная база H2, чтобы не влиять на данные других тестов.
+ */
+@ActiveProfiles("test")
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:wallet_fold_db")
+public class TestDefaultWalletServiceBatch {
+
+    private static final UUID WALLET_ID = UUID.fromString("31c186cd-57fd-40e2-914d-e4b580dd89b4");
+
+    @Autowired
+    private DefaultWalletService walletService;
+
+    @Autowired
+    private WalletRepository walletRepository;
+
+    @Autowired
+    private WalletTransactionRepository walletTransactionRepository;
+
+    /**
+     * Проверяет, что в пачке из пополнения, списания сверх остатка и списания отклоняется только среднее:
+     * каждая операция получает свой результат, баланс записывается один раз с учётом применённых операций,
+     * а в журнал попадают только они.
+     */
+    @Test
+    void testBatchIsFoldedWithOverdraftCheckOnEachStep() {
+        List<ChangeAmountRequest> requests = List.of(
+                new ChangeAmountRequest(WALLET_ID, OperationType.DEPOSIT, Money.of("100.00")),
+                new ChangeAmountRequest(WALLET_ID, OperationType.WITHDRAW, Money.of("5000.00")),
+                new ChangeAmountRequest(WALLET_ID, OperationType.WITHDRAW, Money.of("300.00")));
+
+        List<BalanceChangeResult> results = walletService.executeBalanceChange(WALLET_ID, requests);
+
+        assertThat(results).extracting(BalanceChangeResult::request).containsExactlyElementsOf(requests);
+        assertThat(results.get(0).isApplied()).isTrue();
+        assertThat(results.get(0).balance()).isEqualTo(Money.of("1100.00"));
+        assertThat(results.get(1).isApplied()).isFalse();
+        assertThat(results.get(1).error()).isInstanceOf(NotEnoughMoneyException.class);
+        assertThat(results.get(2).isApplied()).isTrue();
+        assertThat(results.get(2).balance()).isEqualTo(Money.of("800.00"));
+
+        assertThat(walletRepository.findBalanceById(WALLET_ID)).contains(Money.of("800.00"));
+        try (Stream<WalletTransaction> ledger = walletTransactionRepository.streamPage(WALLET_ID, null, null, 10)) {
+            assertThat(ledger.toList())
+                    .extracting(WalletTransaction::operationType, WalletTransaction::amount, WalletTransaction::balance)
+                    .containsExactly(
+                            tuple(OperationType.WITHDRAW, Money.of("300.00"), Money.of("800.00")),
+                            tuple(OperationType.DEPOSIT, Money.of("100.00"), Money.of("1100.00")));
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package ru.buzynnikov.wallet_service.services;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+import ru.buzynnikov.wallet_service.config.WalletProperties;
+import ru.buzynnikov.wallet_service.repositories.WalletRepository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Тесты фильтра идентификаторов кошельков {@link WalletIdFilter}.
+ */
+public class TestWalletIdFilter {
+
+    private static final int WALLETS = 10_000;
+
+    /**
+     * Проверяет, что фильтр знает все кошельки, загруженные при запуске и добавленные позже,
+     * а доля ложных срабатываний для неизвестных кошельков не превышает заданную с запасом.
+     */
+    @Test
+    void testLoadedAndAddedWalletsAreKnown() {
+        List<UUID> loaded = new ArrayList<>();
+        for (int i = 0; i < WALLETS; i++) {
+            loaded.add(UUID.randomUUID());
+        }
+        WalletRepository walletRepository = mock(WalletRepository.class);
+        doAnswer(invocation -> {
+            Consumer<UUID> action = invocation.getArgument(0);
+            loaded.forEach(action);
+            return null;
+        }).when(walletRepository).forEachWalletId(any());
+        WalletProperties properties = new Binder(new MapConfigurationPropertySource(Map.of(
+                "wallet.admission.expected-wallets", String.valueOf(WALLETS),
+                "wallet.admission.false-positive-rate", "0.01")))
+                .bindOrCreate("wallet", WalletProperties.class);
+        WalletIdFilter filter = new WalletIdFilter(walletRepository, properties);
+        filter.load();
+
+        UUID created = UUID.randomUUID();
+        filter.add(created);
+
+        assertThat(loaded).allMatch(filter::mightContain);
+        assertThat(filter.mightContain(created)).isTrue();
+        long falsePositives = 0;
+        for (int i = 0; i < WALLETS; i++) {
+            if (filter.mightContain(UUID.randomUUID())) {
+                falsePositives++;
+            }
+        }
+        assertThat(falsePositives).isLessThan(WALLETS * 3 / 100);
+    }
+}
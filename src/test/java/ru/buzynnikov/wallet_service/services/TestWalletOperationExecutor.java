@@ -0,0 +1,275 @@
+package ru.buzynnikov.wallet_service.services;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Тесты {@link WalletOperationExecutor}: порядок операций кошелька, удаление опустевших очередей, число потоков,
+ * ограничение ёмкости очередей и выделенные полосы горячих кошельков.
+ * Обработчик блокируется на защёлке, чтобы операции оставались в очередях.
+ */
+public class TestWalletOperationExecutor {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private final CountDownLatch started = new CountDownLatch(1);
+
+    private final List<Integer> applied = new CopyOnWriteArrayList<>();
+
+    private final WalletOperationExecutor<Integer> executor = new WalletOperationExecutor<>(1, 64, 2, 3,
+            (walletId, batch) -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                applied.addAll(batch);
+            }, Executors.defaultThreadFactory());
+
+    @AfterEach
+    void shutdown() {
+        release.countDown();
+        executor.shutdown();
+    }
+
+    /**
+     * Проверяет, что операции каждого кошелька применяются в порядке поступления, хотя очередь кошелька
+     * обрабатывается несколькими пачками и между ними возвращается в конец очереди шарда.
+     */
+    @Test
+    void testWalletOrderIsKeptAcrossBatches() throws InterruptedException {
+        List<UUID> wallets = IntStream.range(0, 5).mapToObj(i -> UUID.randomUUID()).toList();
+        Map<UUID, List<Integer>> appliedByWallet = new ConcurrentHashMap<>();
+        List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+        WalletOperationExecutor<Integer> ordered = new WalletOperationExecutor<>(2, 3, 1000, 10_000,
+                (walletId, batch) -> {
+                    batchSizes.add(batch.size());
+                    appliedByWallet.computeIfAbsent(walletId, id -> new CopyOnWriteArrayList<>()).addAll(batch);
+                }, Executors.defaultThreadFactory());
+        try {
+            for (int i = 0; i < 100; i++) {
+                for (UUID wallet : wallets) {
+                    assertThat(ordered.submit(wallet, i)).isTrue();
+                }
+            }
+            assertThat(ordered.awaitDrained(Duration.ofSeconds(5))).isTrue();
+
+            for (UUID wallet : wallets) {
+                assertThat(appliedByWallet.get(wallet)).containsExactlyElementsOf(IntStream.range(0, 100).boxed().toList());
+            }
+            assertThat(batchSizes).allMatch(size -> size <= 3);
+        } finally {
+            ordered.shutdown();
+        }
+    }
+
+    /**
+     * Проверяет, что очередь кошелька удаляется, как только её операции обработаны,
+     * а число потоков исполнителя равно числу шардов и не зависит от числа кошельков.
+     */
+    @Test
+    void testIdleWalletsAreEvictedAndThreadCountIsFixed() throws InterruptedException {
+        AtomicInteger threads = new AtomicInteger();
+        ThreadFactory countingFactory = runnable -> {
+            threads.incrementAndGet();
+            return Executors.defaultThreadFactory().newThread(runnable);
+        };
+        WalletOperationExecutor<Integer> many = new WalletOperationExecutor<>(4, 64, 1000, 100_000,
+                (walletId, batch) -> applied.addAll(batch), countingFactory);
+        try {
+            for (int i = 0; i < 10_000; i++) {
+                assertThat(many.submit(UUID.randomUUID(), i)).isTrue();
+            }
+            assertThat(many.awaitDrained(Duration.ofSeconds(10))).isTrue();
+
+            assertThat(applied).hasSize(10_000);
+            // Опустевшая очередь удаляется сразу после обработки последней пачки кошелька.
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (many.walletCount() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertThat(many.walletCount()).isZero();
+            assertThat(threads.get()).isEqualTo(4);
+        } finally {
+            many.shutdown();
+        }
+    }
+
+    /**
+     * Проверяет, что операция, не умещающаяся в очередь кошелька, не принимается,
+     * а после обработки очереди кошелёк снова принимает операции.
+     */
+    @Test
+    void testWalletQueueCapacityIsEnforced() throws InterruptedException {
+        UUID blocker = UUID.randomUUID();
+        UUID wallet = UUID.randomUUID();
+        assertThat(executor.submit(blocker, 0)).isTrue();
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(executor.submitAll(wallet, List.of(1, 2))).isTrue();
+        assertThat(executor.submit(wallet, 3)).isFalse();
+        assertThat(executor.queueDepth(0)).isEqualTo(2);
+
+        release.countDown();
+        waitUntilApplied(3);
+        assertThat(applied).containsExactly(0, 1, 2);
+        assertThat(executor.submit(wallet, 4)).isTrue();
+        waitUntilApplied(4);
+    }
+
+    /**
+     * Проверяет, что общая ёмкость очередей ограничивает суммарное число ожидающих операций всех кошельков,
+     * а пачка, не умещающаяся целиком, отклоняется полностью.
+     */
+    @Test
+    void testGlobalQueueCapacityIsEnforced() throws InterruptedException {
+        assertThat(executor.submit(UUID.randomUUID(), 0)).isTrue();
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(executor.submitAll(UUID.randomUUID(), List.of(1, 2))).isTrue();
+        UUID wallet = UUID.randomUUID();
+        assertThat(executor.submitAll(wallet, List.of(3, 4))).isFalse();
+        assertThat(executor.submit(wallet, 5)).isTrue();
+        assertThat(executor.submit(UUID.randomUUID(), 6)).isFalse();
+
+        release.countDown();
+        waitUntilApplied(4);
+        assertThat(applied).containsExactlyInAnyOrder(0, 1, 2, 5);
+    }
+
+    /**
+     * Проверяет, что кошелёк, частота операций которого достигла порога, переводится в выделенную полосу:
+     * пока полоса занята его операциями, операция другого кошелька того же шарда выполняется сразу,
+     * а операции горячего кошелька применяются в порядке поступления.
+     */
+    @Test
+    void testHotWalletIsMovedToDedicatedLane() throws InterruptedException {
+        UUID hot = UUID.randomUUID();
+        UUID cold = UUID.randomUUID();
+        Map<UUID, List<Integer>> appliedByWallet = new ConcurrentHashMap<>();
+        WalletOperationExecutor<Integer> lanes = new WalletOperationExecutor<>(1, 64, 1000, 1000,
+                new WalletOperationExecutor.HotLanes(1, 256, 100, Duration.ofMinutes(1)),
+                (walletId, batch) -> {
+                    if (Thread.currentThread().getName().startsWith("wallet-hot-lane")) {
+                        started.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    appliedByWallet.computeIfAbsent(walletId, id -> new CopyOnWriteArrayList<>()).addAll(batch);
+                }, Executors.defaultThreadFactory());
+        try {
+            for (int i = 0; i < 200; i++) {
+                assertThat(lanes.submit(hot, i)).isTrue();
+            }
+            assertThat(lanes.isHot(hot)).isTrue();
+            assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+            assertThat(lanes.submit(cold, -1)).isTrue();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (!appliedByWallet.containsKey(cold) && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertThat(appliedByWallet.get(cold)).containsExactly(-1);
+            assertThat(lanes.isHot(cold)).isFalse();
+
+            release.countDown();
+            deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (appliedByWallet.get(hot).size() < 200 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertThat(appliedByWallet.get(hot)).containsExactlyElementsOf(IntStream.range(0, 200).boxed().toList());
+        } finally {
+            lanes.shutdown();
+        }
+    }
+
+    /**
+     * Проверяет, что кошелёк, операции которого прекратились, через несколько окон оценки возвращается в шард.
+     */
+    @Test
+    void testCooledWalletIsReturnedToShard() throws InterruptedException {
+        UUID hot = UUID.randomUUID();
+        WalletOperationExecutor<Integer> lanes = new WalletOperationExecutor<>(1, 64, 1000, 1000,
+                new WalletOperationExecutor.HotLanes(1, 256, 100, Duration.ofMillis(50)),
+                (walletId, batch) -> applied.addAll(batch), Executors.defaultThreadFactory());
+        try {
+            assertThat(lanes.submitAll(hot, IntStream.range(0, 100).boxed().toList())).isTrue();
+            assertThat(lanes.isHot(hot)).isTrue();
+            assertThat(lanes.hotWalletCount()).isEqualTo(1);
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (lanes.isHot(hot) && System.nanoTime() < deadline) {
+                Thread.sleep(60);
+                lanes.submit(UUID.randomUUID(), 0);
+            }
+            assertThat(lanes.isHot(hot)).isFalse();
+            assertThat(lanes.hotWalletCount()).isZero();
+        } finally {
+            lanes.shutdown();
+        }
+    }
+
+    /**
+     * Проверяет, что остановка не прерывает поток, обработчик которого применяет пачку: пачка завершается,
+     * операции, оставшиеся в очередях, возвращаются вызывающему, а поток после этого завершается.
+     */
+    @Test
+    void testShutdownDoesNotInterruptRunningBatch() throws InterruptedException {
+        AtomicBoolean interrupted = new AtomicBoolean();
+        List<Thread> threads = new CopyOnWriteArrayList<>();
+        WalletOperationExecutor<Integer> stopping = new WalletOperationExecutor<>(1, 1, 10, 10,
+                (walletId, batch) -> {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        interrupted.set(true);
+                    }
+                    applied.addAll(batch);
+                }, runnable -> {
+                    Thread thread = Executors.defaultThreadFactory().newThread(runnable);
+                    threads.add(thread);
+                    return thread;
+                });
+        UUID wallet = UUID.randomUUID();
+        assertThat(stopping.submit(wallet, 0)).isTrue();
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(stopping.submit(wallet, 1)).isTrue();
+
+        assertThat(stopping.shutdown()).containsExactly(1);
+        release.countDown();
+
+        threads.get(0).join(TimeUnit.SECONDS.toMillis(5));
+        assertThat(threads.get(0).isAlive()).isFalse();
+        assertThat(interrupted).isFalse();
+        assertThat(applied).containsExactly(0);
+    }
+
+    private void waitUntilApplied(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (applied.size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(applied).hasSize(count);
+    }
+}